@@ -32,6 +32,8 @@ public class NosqlMain {
 
         // 查询所有数据
         System.out.println("All users: " + db.queryAll());
+
+        db.close();
     }
 }
 
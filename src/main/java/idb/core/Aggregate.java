@@ -0,0 +1,92 @@
+package idb.core;
+
+import java.util.Locale;
+
+/**
+ * 一个聚合函数：COUNT(*)、COUNT(列)、COUNT(DISTINCT 列)、SUM、MIN、MAX、AVG。
+ * 结果记录中以 name 为列名，默认为 "sum(age)" 这样的形式，可用 as 指定别名。
+ */
+public class Aggregate {
+    public enum Function {
+        COUNT, COUNT_DISTINCT, SUM, MIN, MAX, AVG
+    }
+
+    private final Function function;
+    private final String column;
+    private final String name;
+
+    private Aggregate(Function function, String column, String name) {
+        this.function = function;
+        this.column = column;
+        this.name = name;
+    }
+
+    private static Aggregate of(Function function, String column) {
+        String argument = column == null ? "*" : function == Function.COUNT_DISTINCT ? "distinct " + column : column;
+        String functionName = function == Function.COUNT_DISTINCT ? "count" : function.name().toLowerCase(Locale.ROOT);
+        return new Aggregate(function, column, functionName + "(" + argument + ")");
+    }
+
+    /**
+     * COUNT(*)：行数。
+     */
+    public static Aggregate count() {
+        return of(Function.COUNT, null);
+    }
+
+    /**
+     * COUNT(列)：该列不为 null 的行数。
+     */
+    public static Aggregate count(String column) {
+        return of(Function.COUNT, column);
+    }
+
+    public static Aggregate countDistinct(String column) {
+        return of(Function.COUNT_DISTINCT, column);
+    }
+
+    public static Aggregate sum(String column) {
+        return of(Function.SUM, column);
+    }
+
+    public static Aggregate min(String column) {
+        return of(Function.MIN, column);
+    }
+
+    public static Aggregate max(String column) {
+        return of(Function.MAX, column);
+    }
+
+    public static Aggregate avg(String column) {
+        return of(Function.AVG, column);
+    }
+
+    public Aggregate as(String name) {
+        return new Aggregate(function, column, name);
+    }
+
+    public Function getFunction() {
+        return function;
+    }
+
+    /**
+     * 聚合的列，COUNT(*) 时为 null。
+     */
+    public String getColumn() {
+        return column;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // 只需行数、不需要读行
+    boolean isRowCount() {
+        return function == Function.COUNT && column == null;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,246 @@
+package idb.core;
+
+import idb.model.Record;
+
+import java.util.*;
+
+/**
+ * 按 GROUP BY 列分组、一遍计算各聚合函数的累加状态。每组每个聚合一个累加器，
+ * 计数和求和用 long / double 字段，只有 COUNT(DISTINCT) 需要保存值的集合。
+ * 并行扫描时每个分区一个 Aggregation，最后用 merge 合并。非线程安全。
+ */
+public class Aggregation {
+    private static final Comparator<Object> VALUE_ORDER = Comparator.nullsLast(ColumnIndex.KEY_ORDER);
+
+    private final List<String> groupBy;
+    private final List<Aggregate> aggregates;
+    // 分组键：只有一个分组列时为该列的值，否则为各列值组成的 List
+    private final Map<Object, Accumulator[]> groups = new HashMap<>();
+
+    public Aggregation(List<String> groupBy, List<Aggregate> aggregates) {
+        this.groupBy = groupBy;
+        this.aggregates = aggregates;
+    }
+
+    public void add(Record record) {
+        Accumulator[] accumulators = group(keyOf(record));
+        for (int i = 0; i < accumulators.length; i++) {
+            Aggregate aggregate = aggregates.get(i);
+            if (aggregate.isRowCount()) {
+                accumulators[i].count++;
+            } else {
+                accumulators[i].add(record.getData(aggregate.getColumn()));
+            }
+        }
+    }
+
+    /**
+     * 直接计入 rows 行，用于只有 COUNT(*) 时按索引的 id 集合计数。key 的形式与分组键相同。
+     */
+    void addRows(Object key, long rows) {
+        if (rows > 0) {
+            for (Accumulator accumulator : group(key)) {
+                accumulator.count += rows;
+            }
+        }
+    }
+
+    public Aggregation merge(Aggregation other) {
+        other.groups.forEach((key, accumulators) -> {
+            Accumulator[] target = group(key);
+            for (int i = 0; i < target.length; i++) {
+                target[i].merge(accumulators[i]);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * 每组一条记录，含分组列和各聚合的结果（以聚合的 name 为列名），按分组列的值排序。
+     * 没有 GROUP BY 时总是返回一条记录，即使没有任何行。
+     */
+    public List<Record> results() {
+        if (groupBy.isEmpty() && groups.isEmpty()) {
+            group(keyOf(null));
+        }
+        List<Map.Entry<Object, Accumulator[]>> entries = new ArrayList<>(groups.entrySet());
+        if (groupBy.size() == 1) {
+            entries.sort((a, b) -> VALUE_ORDER.compare(a.getKey(), b.getKey()));
+        } else if (groupBy.size() > 1) {
+            entries.sort((a, b) -> compareKeys((List<?>) a.getKey(), (List<?>) b.getKey()));
+        }
+        List<Record> results = new ArrayList<>(entries.size());
+        for (Map.Entry<Object, Accumulator[]> entry : entries) {
+            Record row = new Record(results.size() + 1);
+            for (int i = 0; i < groupBy.size(); i++) {
+                row.setData(groupBy.get(i), groupBy.size() == 1 ? entry.getKey() : ((List<?>) entry.getKey()).get(i));
+            }
+            Accumulator[] accumulators = entry.getValue();
+            for (int i = 0; i < accumulators.length; i++) {
+                row.setData(aggregates.get(i).getName(), accumulators[i].result());
+            }
+            results.add(row);
+        }
+        return results;
+    }
+
+    private Object keyOf(Record record) {
+        if (groupBy.isEmpty()) {
+            return Collections.emptyList();
+        }
+        if (groupBy.size() == 1) {
+            return record.getData(groupBy.get(0));
+        }
+        Object[] values = new Object[groupBy.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = record.getData(groupBy.get(i));
+        }
+        return Arrays.asList(values);
+    }
+
+    private Accumulator[] group(Object key) {
+        Accumulator[] accumulators = groups.get(key);
+        if (accumulators == null) {
+            accumulators = new Accumulator[aggregates.size()];
+            for (int i = 0; i < accumulators.length; i++) {
+                accumulators[i] = new Accumulator(aggregates.get(i).getFunction());
+            }
+            groups.put(key, accumulators);
+        }
+        return accumulators;
+    }
+
+    private static int compareKeys(List<?> a, List<?> b) {
+        for (int i = 0; i < a.size(); i++) {
+            int c = VALUE_ORDER.compare(a.get(i), b.get(i));
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 一组中一个聚合的状态。null 值不参与计算；SUM / AVG 只计数值，
+     * 未定义类型的列中能解析为数字的字符串按数字计。
+     */
+    private static final class Accumulator {
+        final Aggregate.Function function;
+        long count;
+        long longSum;
+        double doubleSum;
+        // 出现过小数，或整数求和溢出
+        boolean floating;
+        Object extreme;
+        Set<Object> distinct;
+
+        Accumulator(Aggregate.Function function) {
+            this.function = function;
+            if (function == Aggregate.Function.COUNT_DISTINCT) {
+                distinct = new HashSet<>();
+            }
+        }
+
+        void add(Object value) {
+            if (value == null) {
+                return;
+            }
+            switch (function) {
+                case COUNT:
+                    count++;
+                    break;
+                case COUNT_DISTINCT:
+                    distinct.add(value);
+                    break;
+                case MIN:
+                    if (extreme == null || ColumnIndex.compareKeys(value, extreme) < 0) {
+                        extreme = value;
+                    }
+                    break;
+                case MAX:
+                    if (extreme == null || ColumnIndex.compareKeys(value, extreme) > 0) {
+                        extreme = value;
+                    }
+                    break;
+                default:
+                    addNumber(value);
+            }
+        }
+
+        private void addNumber(Object value) {
+            Number number = value instanceof Number ? (Number) value : parse(value.toString());
+            if (number == null) {
+                return;
+            }
+            count++;
+            doubleSum += number.doubleValue();
+            boolean integral = number instanceof Long || number instanceof Integer
+                    || number instanceof Short || number instanceof Byte;
+            if (!integral) {
+                floating = true;
+            } else if (!floating) {
+                addLong(number.longValue());
+            }
+        }
+
+        private void addLong(long value) {
+            try {
+                longSum = Math.addExact(longSum, value);
+            } catch (ArithmeticException e) {
+                floating = true;
+            }
+        }
+
+        private static Number parse(String text) {
+            try {
+                return Long.parseLong(text.trim());
+            } catch (NumberFormatException e) {
+                try {
+                    return Double.parseDouble(text.trim());
+                } catch (NumberFormatException notNumber) {
+                    return null;
+                }
+            }
+        }
+
+        void merge(Accumulator other) {
+            switch (function) {
+                case COUNT_DISTINCT:
+                    distinct.addAll(other.distinct);
+                    break;
+                case MIN:
+                case MAX:
+                    if (other.extreme != null) {
+                        add(other.extreme);
+                    }
+                    break;
+                default:
+                    count += other.count;
+                    doubleSum += other.doubleSum;
+                    floating |= other.floating;
+                    if (!floating) {
+                        addLong(other.longSum);
+                    }
+            }
+        }
+
+        Object result() {
+            switch (function) {
+                case COUNT:
+                    return count;
+                case COUNT_DISTINCT:
+                    return (long) distinct.size();
+                case MIN:
+                case MAX:
+                    return extreme;
+                case SUM:
+                    if (count == 0) {
+                        return null;
+                    }
+                    return floating ? (Object) doubleSum : (Object) longSum;
+                default:
+                    return count == 0 ? null : doubleSum / count;
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package idb.core;
+
+import idb.model.Record;
+import idb.utils.BloomFilter;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 列上的布隆过滤器，用来在扫描或查索引之前排除一定不存在的值。
+ * 值按 String.valueOf 散列：相等的值字符串形式一定相同，未定义类型的列中字符串与原值也能对上。
+ * 元素数超过容量时追加一层容量翻倍、误判率减半的过滤器，总误判率保持有界；
+ * 删除无法从过滤器中撤销，过期的条目超过一半时需要重建。
+ */
+public class BloomIndex {
+    static final double DEFAULT_FPP = 0.01;
+    private static final long MIN_CAPACITY = 1024;
+
+    private final String column;
+    private final List<BloomFilter> layers = new ArrayList<>();
+    private long capacity;
+    private double layerFpp;
+    private long removals;
+
+    public BloomIndex(String column, long expectedInsertions) {
+        this.column = column;
+        this.capacity = Math.max(MIN_CAPACITY, expectedInsertions);
+        this.layerFpp = DEFAULT_FPP / 2;
+        layers.add(new BloomFilter(capacity, layerFpp));
+    }
+
+    private BloomIndex(String column) {
+        this.column = column;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public void add(Record record) {
+        Object value = record.getData(column);
+        if (value == null) {
+            return;
+        }
+        BloomFilter current = layers.get(layers.size() - 1);
+        if (current.getInsertions() >= capacity) {
+            capacity *= 2;
+            layerFpp /= 2;
+            current = new BloomFilter(capacity, layerFpp);
+            layers.add(current);
+        }
+        current.add(String.valueOf(value));
+    }
+
+    // 布隆过滤器不支持删除，只记下过期条目数
+    public void remove(Record record) {
+        if (record.getData(column) != null) {
+            removals++;
+        }
+    }
+
+    /**
+     * 为 false 时该列一定没有这个值。null 不进入过滤器，总是返回 true。
+     */
+    public boolean mightContain(Object value) {
+        if (value == null) {
+            return true;
+        }
+        String key = String.valueOf(value);
+        for (BloomFilter layer : layers) {
+            if (layer.mightContain(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 过期条目超过插入总数的一半时，误判率已明显偏离估计值。
+     */
+    public boolean isStale() {
+        return removals > MIN_CAPACITY && removals * 2 > insertions();
+    }
+
+    public long insertions() {
+        long insertions = 0;
+        for (BloomFilter layer : layers) {
+            insertions += layer.getInsertions();
+        }
+        return insertions;
+    }
+
+    /**
+     * 各层误判率合成的总误判率。
+     */
+    public double expectedFpp() {
+        double none = 1.0;
+        for (BloomFilter layer : layers) {
+            none *= 1.0 - layer.expectedFpp();
+        }
+        return 1.0 - none;
+    }
+
+    public long sizeInBytes() {
+        long bytes = 0;
+        for (BloomFilter layer : layers) {
+            bytes += layer.sizeInBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * 格式：当前层容量，层误判率，过期条目数，层数，各层。
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeLong(capacity);
+        out.writeDouble(layerFpp);
+        out.writeLong(removals);
+        out.writeInt(layers.size());
+        for (BloomFilter layer : layers) {
+            layer.writeTo(out);
+        }
+    }
+
+    public static BloomIndex readFrom(DataInput in, String column) throws IOException {
+        BloomIndex index = new BloomIndex(column);
+        index.capacity = in.readLong();
+        index.layerFpp = in.readDouble();
+        index.removals = in.readLong();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            index.layers.add(BloomFilter.readFrom(in));
+        }
+        return index;
+    }
+}
@@ -0,0 +1,271 @@
+package idb.core;
+
+import idb.utils.IntIntHashMap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 固定大小页的缓冲池。页在磁盘上的格式为 [int 行数][int id, int 长度, 记录编码]...，
+ * 内存中保留固定数量的页帧，按 clock 算法淘汰未被 pin 住的页，脏页淘汰时写回。
+ */
+public class BufferPool implements Closeable {
+    public static final int DEFAULT_PAGE_SIZE = 8 * 1024;
+    public static final int DEFAULT_CAPACITY = 1024;
+    static final int PAGE_HEADER_SIZE = 4;
+    static final int ROW_HEADER_SIZE = 8;
+
+    public static class Page {
+        private final int pageNo;
+        private final LinkedHashMap<Integer, byte[]> rows = new LinkedHashMap<>();
+        private int usedBytes = PAGE_HEADER_SIZE;
+        private boolean dirty;
+        private int pinCount;
+        private boolean referenced;
+
+        Page(int pageNo) {
+            this.pageNo = pageNo;
+        }
+
+        public int getPageNo() {
+            return pageNo;
+        }
+
+        public Map<Integer, byte[]> getRows() {
+            return rows;
+        }
+
+        public int getUsedBytes() {
+            return usedBytes;
+        }
+
+        public byte[] getRow(int id) {
+            return rows.get(id);
+        }
+
+        public void putRow(int id, byte[] bytes) {
+            byte[] previous = rows.put(id, bytes);
+            if (previous != null) {
+                usedBytes -= ROW_HEADER_SIZE + previous.length;
+            }
+            usedBytes += ROW_HEADER_SIZE + bytes.length;
+        }
+
+        public byte[] removeRow(int id) {
+            byte[] previous = rows.remove(id);
+            if (previous != null) {
+                usedBytes -= ROW_HEADER_SIZE + previous.length;
+            }
+            return previous;
+        }
+    }
+
+    private final File file;
+    private final int pageSize;
+    private final Page[] frames;
+    private final IntIntHashMap frameOfPage = new IntIntHashMap();
+    private FileChannel channel;
+    private int clockHand;
+    private int pageCount;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long pageWrites;
+
+    public BufferPool(String filePath, int pageSize, int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Buffer pool needs at least 2 frames");
+        }
+        this.file = new File(filePath);
+        this.pageSize = pageSize;
+        this.frames = new Page[capacity];
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public synchronized int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * 取得页并增加 pin 计数，不在内存中时从磁盘读入一页。用完必须调用 unpin。
+     */
+    public synchronized Page pin(int pageNo) throws IOException {
+        if (pageNo < 0 || pageNo >= pageCount) {
+            throw new IOException("Page " + pageNo + " out of range in " + file);
+        }
+        int frame = frameOfPage.get(pageNo, -1);
+        if (frame >= 0) {
+            hits++;
+        } else {
+            misses++;
+            frame = victim();
+            frames[frame] = readPage(pageNo);
+            frameOfPage.put(pageNo, frame);
+        }
+        Page page = frames[frame];
+        page.pinCount++;
+        page.referenced = true;
+        return page;
+    }
+
+    /**
+     * 在文件末尾分配一个新页，返回时已被 pin 住。
+     */
+    public synchronized Page allocate() throws IOException {
+        int frame = victim();
+        Page page = new Page(pageCount++);
+        page.dirty = true;
+        frames[frame] = page;
+        frameOfPage.put(page.pageNo, frame);
+        page.pinCount++;
+        page.referenced = true;
+        return page;
+    }
+
+    public synchronized void unpin(Page page, boolean dirty) {
+        if (page.pinCount <= 0) {
+            throw new IllegalStateException("Page " + page.pageNo + " is not pinned");
+        }
+        page.pinCount--;
+        page.dirty |= dirty;
+    }
+
+    // clock 算法：跳过被 pin 的页，清掉引用位给第二次机会
+    private int victim() throws IOException {
+        for (int i = 0; i < frames.length; i++) {
+            if (frames[i] == null) {
+                return i;
+            }
+        }
+        for (int scanned = 0; scanned < frames.length * 2; scanned++) {
+            int frame = clockHand;
+            clockHand = (clockHand + 1) % frames.length;
+            Page page = frames[frame];
+            if (page.pinCount > 0) {
+                continue;
+            }
+            if (page.referenced) {
+                page.referenced = false;
+                continue;
+            }
+            if (page.dirty) {
+                writePage(page);
+            }
+            frameOfPage.remove(page.pageNo);
+            frames[frame] = null;
+            evictions++;
+            return frame;
+        }
+        throw new IOException("All " + frames.length + " buffer pool frames are pinned");
+    }
+
+    private Page readPage(int pageNo) throws IOException {
+        Page page = new Page(pageNo);
+        ByteBuffer buffer = ByteBuffer.allocate(pageSize);
+        FileChannel channel = channel();
+        long position = (long) pageNo * pageSize;
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break; // 尚未写到磁盘的页视为空页
+            }
+        }
+        buffer.flip();
+        if (buffer.remaining() < PAGE_HEADER_SIZE) {
+            return page;
+        }
+        int rowCount = buffer.getInt();
+        for (int i = 0; i < rowCount; i++) {
+            int id = buffer.getInt();
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            page.putRow(id, bytes);
+        }
+        return page;
+    }
+
+    private void writePage(Page page) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(pageSize);
+        buffer.putInt(page.rows.size());
+        for (Map.Entry<Integer, byte[]> row : page.rows.entrySet()) {
+            buffer.putInt(row.getKey());
+            buffer.putInt(row.getValue().length);
+            buffer.put(row.getValue());
+        }
+        buffer.flip();
+        FileChannel channel = channel();
+        long position = (long) page.pageNo * pageSize;
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+        page.dirty = false;
+        pageWrites++;
+    }
+
+    public synchronized void flush() throws IOException {
+        for (Page page : frames) {
+            if (page != null && page.dirty) {
+                writePage(page);
+            }
+        }
+    }
+
+    /**
+     * 丢弃所有页并清空页文件。
+     */
+    public synchronized void reset() throws IOException {
+        for (int i = 0; i < frames.length; i++) {
+            if (frames[i] != null && frames[i].pinCount > 0) {
+                throw new IllegalStateException("Cannot reset buffer pool with pinned pages");
+            }
+            frames[i] = null;
+        }
+        frameOfPage.clear();
+        clockHand = 0;
+        pageCount = 0;
+        channel().truncate(0);
+    }
+
+    private FileChannel channel() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        return channel;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        int resident = 0;
+        for (Page page : frames) {
+            if (page != null) {
+                resident++;
+            }
+        }
+        stats.put("pageSize", pageSize);
+        stats.put("pages", pageCount);
+        stats.put("residentPages", resident);
+        stats.put("poolCapacity", frames.length);
+        stats.put("poolHits", hits);
+        stats.put("poolMisses", misses);
+        stats.put("poolEvictions", evictions);
+        stats.put("pageWrites", pageWrites);
+        return stats;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package idb.core;
+
+import idb.model.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 表的增量检查点。检查点只把上次以来改动过的记录（删除记为墓碑）写成
+ * &lt;基础文件&gt;.delta.&lt;序号&gt;，之后即可清空 WAL；增量文件累积到一定数量后，
+ * 在后台线程里把基础文件和增量文件合并成新的全量快照，合并过程不占用表锁。
+ * 启动时按 基础文件 -> 增量文件（按序号） -> WAL 的顺序恢复。
+ */
+public class Checkpointer {
+    private static final Logger logger = Logger.getLogger(Checkpointer.class.getName());
+
+    static final int MAX_DELTA_FILES = 8;
+
+    private static final ExecutorService mergeExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "idb-checkpoint-merge");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final File baseFile;
+    private final String deltaPrefix;
+    private final AtomicLong lastSeq = new AtomicLong();
+    // 基础文件的写入（后台合并、全量保存）互斥
+    private final ReentrantLock baseLock = new ReentrantLock();
+    private final AtomicBoolean mergeScheduled = new AtomicBoolean();
+    private volatile Future<?> pendingMerge;
+
+    private volatile long checkpoints;
+    private volatile long lastCheckpointRows;
+    private volatile long merges;
+    private volatile long lastMergeMillis;
+
+    public Checkpointer(String baseFilePath) {
+        this.baseFile = new File(baseFilePath);
+        this.deltaPrefix = baseFile.getName() + ".delta.";
+    }
+
+    public ReentrantLock getBaseLock() {
+        return baseLock;
+    }
+
+    public List<File> deltaFiles() {
+        File dir = baseFile.getAbsoluteFile().getParentFile();
+        File[] files = dir.listFiles((d, fileName) -> fileName.startsWith(deltaPrefix) && parseSeq(fileName) > 0);
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        List<File> deltas = new ArrayList<>(Arrays.asList(files));
+        deltas.sort(Comparator.comparingLong(file -> parseSeq(file.getName())));
+        return deltas;
+    }
+
+    private long parseSeq(String fileName) {
+        try {
+            return Long.parseLong(fileName.substring(deltaPrefix.length()));
+        } catch (NumberFormatException e) {
+            return -1; // 例如未完成的 .tmp 文件
+        }
+    }
+
+    /**
+     * 按序号回放全部增量文件。
+     */
+    public int replayDeltas(WriteAheadLog.Handler handler) throws IOException {
+        int applied = 0;
+        for (File delta : deltaFiles()) {
+            lastSeq.accumulateAndGet(parseSeq(delta.getName()), Math::max);
+            applied += new WriteAheadLog(delta.getPath()).replay(handler);
+        }
+        return applied;
+    }
+
+    /**
+     * 写出一个增量文件。dirty 中值为 null 的 id 表示已删除。
+     */
+    public void writeDelta(Map<Integer, Record> dirty) throws IOException {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        long seq = lastSeq.incrementAndGet();
+        File delta = new File(baseFile.getPath() + ".delta." + seq);
+        File tmpFile = new File(delta.getPath() + ".tmp");
+        ByteBuffer[] frames = new ByteBuffer[dirty.size()];
+        int i = 0;
+        for (Map.Entry<Integer, Record> entry : dirty.entrySet()) {
+            Record record = entry.getValue();
+            frames[i++] = WriteAheadLog.encodeFrame(record == null ? WriteAheadLog.OP_DELETE : WriteAheadLog.OP_UPDATE,
+                    entry.getKey(), record);
+        }
+        try (FileChannel channel = FileChannel.open(tmpFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long remaining = 0;
+            for (ByteBuffer frame : frames) {
+                remaining += frame.remaining();
+            }
+            while (remaining > 0) {
+                remaining -= channel.write(frames);
+            }
+            channel.force(false);
+        }
+        Files.move(tmpFile.toPath(), delta.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        checkpoints++;
+        lastCheckpointRows = dirty.size();
+    }
+
+    /**
+     * 删除所有增量文件，用于全量保存之后。调用方需持有 baseLock。
+     */
+    public void deleteDeltas() throws IOException {
+        for (File delta : deltaFiles()) {
+            Files.deleteIfExists(delta.toPath());
+        }
+    }
+
+    public void scheduleMergeIfNeeded(StorageFormat format) {
+        List<File> deltas = deltaFiles();
+        if (deltas.isEmpty()) {
+            return;
+        }
+        long deltaBytes = 0;
+        for (File delta : deltas) {
+            deltaBytes += delta.length();
+        }
+        if (deltas.size() < MAX_DELTA_FILES && deltaBytes < baseFile.length()) {
+            return;
+        }
+        if (mergeScheduled.compareAndSet(false, true)) {
+            pendingMerge = mergeExecutor.submit(() -> {
+                try {
+                    merge(format);
+                } catch (IOException | RuntimeException e) {
+                    logger.log(Level.SEVERE, "Failed to merge deltas into " + baseFile, e);
+                } finally {
+                    mergeScheduled.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * 等待已安排的后台合并结束。
+     */
+    public void awaitMerge() {
+        Future<?> merge = pendingMerge;
+        if (merge == null) {
+            return;
+        }
+        try {
+            merge.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // 合并任务自己记录失败，这里不会发生
+        }
+    }
+
+    /**
+     * 把基础文件与当前已有的增量文件合并成新的基础文件，完成后删除这些增量文件。
+     * 合并期间产生的新增量文件不受影响。
+     */
+    public void merge(StorageFormat format) throws IOException {
+        baseLock.lock();
+        try {
+            long start = System.nanoTime();
+            List<File> deltas = deltaFiles();
+            if (deltas.isEmpty()) {
+                return;
+            }
+            Map<Integer, Record> snapshot = new LinkedHashMap<>();
+            if (baseFile.exists()) {
+                format.read(baseFile, record -> snapshot.put(record.getId(), record));
+            }
+            WriteAheadLog.Handler apply = (op, id, record) -> {
+                if (op == WriteAheadLog.OP_DELETE) {
+                    snapshot.remove(id);
+                } else {
+                    snapshot.put(id, record);
+                }
+            };
+            for (File delta : deltas) {
+                new WriteAheadLog(delta.getPath()).replay(apply);
+            }
+
+            File tmpFile = new File(baseFile.getPath() + ".merge.tmp");
+            format.write(tmpFile, snapshot.values());
+            Files.move(tmpFile.toPath(), baseFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            for (File delta : deltas) {
+                Files.deleteIfExists(delta.toPath());
+            }
+            merges++;
+            lastMergeMillis = (System.nanoTime() - start) / 1_000_000;
+            logger.info("Merged " + deltas.size() + " delta files into " + baseFile + " in " + lastMergeMillis + " ms");
+        } finally {
+            baseLock.unlock();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("checkpoints", checkpoints);
+        stats.put("lastCheckpointRows", lastCheckpointRows);
+        stats.put("deltaFiles", deltaFiles().size());
+        stats.put("merges", merges);
+        stats.put("lastMergeMillis", lastMergeMillis);
+        return stats;
+    }
+}
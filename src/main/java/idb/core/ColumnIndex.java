@@ -0,0 +1,358 @@
+package idb.core;
+
+import idb.model.Record;
+import idb.utils.RoaringBitmap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.BiConsumer;
+
+/**
+ * 单列二级索引：列值 -> 记录 id 集合（压缩位图）。
+ * HASH 类型用哈希表；ORDERED 类型用跳表按值排序，支持范围查找和按值顺序遍历。
+ * null 值单独存放，有序遍历时排在最后。
+ *
+ * 可以附带若干包含列（覆盖索引）：按 id 保存索引列和包含列的值，
+ * 只涉及这些列的查询直接从索引取值，不再读行存储。
+ */
+public class ColumnIndex {
+    /**
+     * 有序索引的键比较：同类可比较的值直接比较，数值跨类型按数值比较，其余按类名排序。
+     */
+    public static final Comparator<Object> KEY_ORDER = ColumnIndex::compareKeys;
+
+    private final String column;
+    private final IndexType type;
+    private final Map<Object, RoaringBitmap> entries;
+    private final RoaringBitmap nullIds = new RoaringBitmap();
+    private final List<String> includes;
+    // 覆盖索引：id -> [索引列的值, 包含列的值...]
+    private final Map<Integer, Object[]> covered;
+
+    public ColumnIndex(String column, IndexType type) {
+        this(column, type, Collections.emptyList());
+    }
+
+    public ColumnIndex(String column, IndexType type, List<String> includes) {
+        this.column = column;
+        this.type = type;
+        this.entries = type == IndexType.ORDERED ? new ConcurrentSkipListMap<>(KEY_ORDER) : new HashMap<>();
+        this.includes = Collections.unmodifiableList(new ArrayList<>(includes));
+        this.covered = includes.isEmpty() ? null : new HashMap<>();
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public IndexType getType() {
+        return type;
+    }
+
+    public boolean isOrdered() {
+        return type == IndexType.ORDERED;
+    }
+
+    public List<String> getIncludes() {
+        return includes;
+    }
+
+    /**
+     * 这些列的值是否都能从索引中取得。
+     */
+    public boolean covers(Collection<String> columns) {
+        if (covered == null) {
+            return false;
+        }
+        for (String name : columns) {
+            if (!name.equals(column) && !includes.contains(name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void add(Record record) {
+        add(record.getData(column), record.getId());
+        if (covered != null) {
+            Object[] values = new Object[includes.size() + 1];
+            values[0] = record.getData(column);
+            for (int i = 0; i < includes.size(); i++) {
+                values[i + 1] = record.getData(includes.get(i));
+            }
+            covered.put(record.getId(), values);
+        }
+    }
+
+    public void remove(Record record) {
+        remove(record.getData(column), record.getId());
+        if (covered != null) {
+            covered.remove(record.getId());
+        }
+    }
+
+    public void add(Object key, int id) {
+        if (key == null) {
+            nullIds.add(id);
+        } else {
+            entries.computeIfAbsent(key, k -> new RoaringBitmap()).add(id);
+        }
+    }
+
+    public void remove(Object key, int id) {
+        if (key == null) {
+            nullIds.remove(id);
+            return;
+        }
+        RoaringBitmap ids = entries.get(key);
+        if (ids != null) {
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                entries.remove(key);
+            }
+        }
+    }
+
+    /**
+     * 等值查找，没有匹配时返回空集合。返回的是索引内部的位图，调用方不能修改。
+     */
+    public RoaringBitmap get(Object key) {
+        RoaringBitmap ids = key == null ? nullIds : entries.get(key);
+        return ids != null ? ids : new RoaringBitmap();
+    }
+
+    /**
+     * 覆盖索引中全部记录的 id。
+     */
+    public RoaringBitmap coveredIds() {
+        RoaringBitmap ids = new RoaringBitmap();
+        if (covered != null) {
+            for (Integer id : covered.keySet()) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * 从覆盖索引中取一条记录的某列值，name 必须是 covers 认可的列。
+     */
+    public Object coveredValue(int id, String name) {
+        Object[] values = covered.get(id);
+        if (values == null) {
+            return null;
+        }
+        return name.equals(column) ? values[0] : values[includes.indexOf(name) + 1];
+    }
+
+    /**
+     * 用覆盖索引中的值构造只含 columns 各列的记录，索引中没有该 id 时返回 null。
+     */
+    public Record project(int id, Collection<String> columns) {
+        Object[] values = covered.get(id);
+        if (values == null) {
+            return null;
+        }
+        Record record = new Record(id);
+        for (String name : columns) {
+            record.setData(name, name.equals(column) ? values[0] : values[includes.indexOf(name) + 1]);
+        }
+        return record;
+    }
+
+    /**
+     * 取 [from, to] 区间内的条目，from/to 为 null 表示不限。仅 ORDERED 索引支持。
+     */
+    public NavigableMap<Object, RoaringBitmap> range(Object from, Object to) {
+        NavigableMap<Object, RoaringBitmap> sorted = sorted();
+        if (from != null && to != null) {
+            if (compareKeys(from, to) > 0) {
+                return Collections.emptyNavigableMap();
+            }
+            return sorted.subMap(from, true, to, true);
+        }
+        if (from != null) {
+            return sorted.tailMap(from, true);
+        }
+        if (to != null) {
+            return sorted.headMap(to, true);
+        }
+        return sorted;
+    }
+
+    /**
+     * 按索引顺序遍历 id，null 值的记录排在最后。仅 ORDERED 索引支持。
+     */
+    public Iterable<Integer> idsInOrder(boolean ascending) {
+        NavigableMap<Object, RoaringBitmap> sorted = ascending ? sorted() : sorted().descendingMap();
+        return () -> inOrder(Collections.emptyIterator(), sorted.values().iterator());
+    }
+
+    /**
+     * 按索引顺序遍历排在 (key, id) 之后的 id，同一个值内按 id 递增，key 为 null 表示位于末尾的 null 值中。
+     * 键集分页用它从上一页的最后一行接着读。仅 ORDERED 索引支持。
+     */
+    public Iterable<Integer> idsAfter(Object key, int id, boolean ascending) {
+        if (key == null) {
+            return () -> nullIds.iterator(id + 1);
+        }
+        NavigableMap<Object, RoaringBitmap> sorted = sorted();
+        NavigableMap<Object, RoaringBitmap> rest = ascending ? sorted.tailMap(key, false) : sorted.headMap(key, false).descendingMap();
+        RoaringBitmap sameKey = sorted.get(key);
+        return () -> inOrder(sameKey != null ? sameKey.iterator(id + 1) : Collections.emptyIterator(), rest.values().iterator());
+    }
+
+    private Iterator<Integer> inOrder(Iterator<Integer> first, Iterator<RoaringBitmap> keys) {
+        return new Iterator<Integer>() {
+            private Iterator<Integer> current = first;
+            private boolean nullsDone;
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext()) {
+                    if (keys.hasNext()) {
+                        current = keys.next().iterator();
+                    } else if (!nullsDone) {
+                        nullsDone = true;
+                        current = nullIds.iterator();
+                    } else {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public Integer next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    private NavigableMap<Object, RoaringBitmap> sorted() {
+        if (type != IndexType.ORDERED) {
+            throw new UnsupportedOperationException("Index on " + column + " is not ordered");
+        }
+        return (NavigableMap<Object, RoaringBitmap>) entries;
+    }
+
+    /**
+     * 批量构建之后压缩各个 id 集合。
+     */
+    public void optimize() {
+        for (RoaringBitmap ids : entries.values()) {
+            ids.runOptimize();
+        }
+        nullIds.runOptimize();
+    }
+
+    /**
+     * 估算 id 集合占用的字节数。
+     */
+    public long postingBytes() {
+        long bytes = nullIds.sizeInBytes();
+        for (RoaringBitmap ids : entries.values()) {
+            bytes += ids.sizeInBytes();
+        }
+        if (covered != null) {
+            // HashMap 节点、装箱的键和值数组，不含值本身
+            bytes += covered.size() * (64L + 8L * (includes.size() + 1));
+        }
+        return bytes;
+    }
+
+    /**
+     * 写出全部条目，格式：条目数，(键, id 位图)...，null 值的 id 位图；
+     * 覆盖索引再写出记录数，(id, 索引列和包含列的值...)...
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(entries.size());
+        for (Map.Entry<Object, RoaringBitmap> entry : entries.entrySet()) {
+            RecordCodec.writeValue(out, entry.getKey());
+            entry.getValue().serialize(out);
+        }
+        nullIds.serialize(out);
+        if (covered != null) {
+            out.writeInt(covered.size());
+            for (Map.Entry<Integer, Object[]> entry : covered.entrySet()) {
+                out.writeInt(entry.getKey());
+                for (Object value : entry.getValue()) {
+                    RecordCodec.writeValue(out, value);
+                }
+            }
+        }
+    }
+
+    public static ColumnIndex readFrom(DataInput in, String column, IndexType type) throws IOException {
+        return readFrom(in, column, type, Collections.emptyList());
+    }
+
+    public static ColumnIndex readFrom(DataInput in, String column, IndexType type, List<String> includes) throws IOException {
+        ColumnIndex index = new ColumnIndex(column, type, includes);
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            Object key = RecordCodec.readValue(in);
+            index.entries.put(key, RoaringBitmap.deserialize(in));
+        }
+        index.nullIds.or(RoaringBitmap.deserialize(in));
+        if (index.covered != null) {
+            int rows = in.readInt();
+            for (int i = 0; i < rows; i++) {
+                int id = in.readInt();
+                Object[] values = new Object[includes.size() + 1];
+                for (int j = 0; j < values.length; j++) {
+                    values[j] = RecordCodec.readValue(in);
+                }
+                index.covered.put(id, values);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * 遍历每个键及其 id 集合，值为 null 的记录最后以 null 键给出。位图是索引内部的，调用方不能修改。
+     */
+    public void forEachKey(BiConsumer<Object, RoaringBitmap> action) {
+        entries.forEach(action);
+        if (!nullIds.isEmpty()) {
+            action.accept(null, nullIds);
+        }
+    }
+
+    public int distinctKeys() {
+        return entries.size() + (nullIds.isEmpty() ? 0 : 1);
+    }
+
+    public void clear() {
+        entries.clear();
+        nullIds.clear();
+        if (covered != null) {
+            covered.clear();
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static int compareKeys(Object a, Object b) {
+        if (a instanceof Number && b instanceof Number && a.getClass() != b.getClass()) {
+            if (isIntegral(a) && isIntegral(b)) {
+                return Long.compare(((Number) a).longValue(), ((Number) b).longValue());
+            }
+            return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        }
+        if (a.getClass() == b.getClass() && a instanceof Comparable) {
+            return ((Comparable) a).compareTo(b);
+        }
+        int byClass = a.getClass().getName().compareTo(b.getClass().getName());
+        return byClass != 0 ? byClass : a.toString().compareTo(b.toString());
+    }
+
+    private static boolean isIntegral(Object value) {
+        return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+    }
+}
@@ -0,0 +1,202 @@
+package idb.core;
+
+import java.util.*;
+
+/**
+ * 一列的统计信息，由抽样计算，供查询规划估算条件的选择率：
+ * 行数、null 比例、不同值个数的估计、最常见值（MCV）及其频率、其余值的等深直方图。
+ * 选择率都是相对全表行数的比例。
+ */
+public class ColumnStatistics {
+    static final int MAX_MCVS = 16;
+    static final int HISTOGRAM_BUCKETS = 32;
+
+    private final String column;
+    private final long rowCount;
+    private final double nullFraction;
+    private final double distinctCount;
+    private final List<Object> mcvValues;
+    private final double[] mcvFrequencies;
+    // 直方图覆盖的行（非 null、非 MCV）所占比例
+    private final double histogramFraction;
+    // 等深直方图的桶边界，相邻两个边界之间的行数大致相同
+    private final Object[] bounds;
+
+    private ColumnStatistics(String column, long rowCount, double nullFraction, double distinctCount,
+                             List<Object> mcvValues, double[] mcvFrequencies, double histogramFraction, Object[] bounds) {
+        this.column = column;
+        this.rowCount = rowCount;
+        this.nullFraction = nullFraction;
+        this.distinctCount = distinctCount;
+        this.mcvValues = mcvValues;
+        this.mcvFrequencies = mcvFrequencies;
+        this.histogramFraction = histogramFraction;
+        this.bounds = bounds;
+    }
+
+    /**
+     * 由样本计算统计信息。
+     *
+     * @param values     样本中该列的非 null 值
+     * @param sampleSize 样本的行数（含该列为 null 的行）
+     * @param rowCount   表的总行数
+     */
+    public static ColumnStatistics fromSample(String column, List<Object> values, int sampleSize, long rowCount) {
+        if (sampleSize == 0) {
+            return new ColumnStatistics(column, rowCount, 0, 0, Collections.emptyList(), new double[0], 0, new Object[0]);
+        }
+        Map<Object, Integer> counts = new HashMap<>();
+        for (Object value : values) {
+            counts.merge(value, 1, Integer::sum);
+        }
+        int n = values.size();
+        int d = counts.size();
+        int f1 = 0;
+        for (int count : counts.values()) {
+            if (count == 1) {
+                f1++;
+            }
+        }
+        double distinct = estimateDistinct(n, d, f1, (double) rowCount * n / sampleSize, sampleSize >= rowCount);
+
+        // 在样本中出现不止一次、且明显多于平均次数的值作为 MCV
+        List<Map.Entry<Object, Integer>> byCount = new ArrayList<>(counts.entrySet());
+        byCount.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+        double average = d == 0 ? 0 : (double) n / d;
+        List<Object> mcvValues = new ArrayList<>();
+        List<Double> mcvFrequencies = new ArrayList<>();
+        int mcvRows = 0;
+        for (Map.Entry<Object, Integer> entry : byCount) {
+            if (mcvValues.size() == MAX_MCVS || entry.getValue() < 2 || entry.getValue() <= average * 1.25 && d > MAX_MCVS) {
+                break;
+            }
+            mcvValues.add(entry.getKey());
+            mcvFrequencies.add((double) entry.getValue() / sampleSize);
+            mcvRows += entry.getValue();
+        }
+
+        List<Object> rest = new ArrayList<>(n - mcvRows);
+        Set<Object> mcvSet = new HashSet<>(mcvValues);
+        for (Object value : values) {
+            if (!mcvSet.contains(value)) {
+                rest.add(value);
+            }
+        }
+        rest.sort(ColumnIndex.KEY_ORDER);
+        Object[] bounds;
+        if (rest.isEmpty()) {
+            bounds = new Object[0];
+        } else {
+            int buckets = Math.min(HISTOGRAM_BUCKETS, rest.size());
+            bounds = new Object[buckets + 1];
+            for (int i = 0; i <= buckets; i++) {
+                bounds[i] = rest.get((int) ((long) i * (rest.size() - 1) / buckets));
+            }
+        }
+        double[] frequencies = new double[mcvFrequencies.size()];
+        for (int i = 0; i < frequencies.length; i++) {
+            frequencies[i] = mcvFrequencies.get(i);
+        }
+        return new ColumnStatistics(column, rowCount, (double) (sampleSize - n) / sampleSize, distinct,
+                Collections.unmodifiableList(mcvValues), frequencies, (double) rest.size() / sampleSize, bounds);
+    }
+
+    // Haas-Stokes 的 Duj1 估计：n*d / (n - f1 + f1*n/N)，f1 为样本中只出现一次的值的个数
+    private static double estimateDistinct(int n, int d, int f1, double nonNullRows, boolean fullScan) {
+        if (n == 0) {
+            return 0;
+        }
+        if (fullScan || nonNullRows <= n) {
+            return d;
+        }
+        double estimate = (double) n * d / (n - f1 + f1 * n / nonNullRows);
+        return Math.max(d, Math.min(nonNullRows, estimate));
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public double getDistinctCount() {
+        return distinctCount;
+    }
+
+    public double getNullFraction() {
+        return nullFraction;
+    }
+
+    public List<Object> getMostCommonValues() {
+        return mcvValues;
+    }
+
+    /**
+     * 列等于 value 的行所占比例。
+     */
+    public double equalitySelectivity(Object value) {
+        if (value == null) {
+            return nullFraction;
+        }
+        int mcv = mcvValues.indexOf(value);
+        if (mcv >= 0) {
+            return mcvFrequencies[mcv];
+        }
+        double otherValues = distinctCount - mcvValues.size();
+        if (histogramFraction <= 0 || otherValues < 1) {
+            // 样本中没有见过的值，按一行估计
+            return rowCount > 0 ? 1.0 / rowCount : 0;
+        }
+        return histogramFraction / otherValues;
+    }
+
+    /**
+     * 列值落在 [from, to] 内的行所占比例，from/to 为 null 表示不限。
+     */
+    public double rangeSelectivity(Object from, Object to) {
+        double selectivity = 0;
+        for (int i = 0; i < mcvValues.size(); i++) {
+            Object value = mcvValues.get(i);
+            if ((from == null || ColumnIndex.compareKeys(value, from) >= 0) && (to == null || ColumnIndex.compareKeys(value, to) <= 0)) {
+                selectivity += mcvFrequencies[i];
+            }
+        }
+        if (bounds.length > 1) {
+            double start = from == null ? 0 : position(from);
+            double end = to == null ? 1 : position(to);
+            selectivity += Math.max(0, end - start) * histogramFraction;
+        }
+        return Math.min(1.0, selectivity);
+    }
+
+    // value 在直方图中的相对位置（0 到 1），落在桶内时按桶的一半计
+    private double position(Object value) {
+        int buckets = bounds.length - 1;
+        if (ColumnIndex.compareKeys(value, bounds[0]) < 0) {
+            return 0;
+        }
+        if (ColumnIndex.compareKeys(value, bounds[buckets]) > 0) {
+            return 1;
+        }
+        int low = 0;
+        int high = buckets;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (ColumnIndex.compareKeys(bounds[mid], value) <= 0) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        boolean onBound = ColumnIndex.compareKeys(bounds[low], value) == 0;
+        return Math.min(1.0, (low + (onBound ? 0 : 0.5)) / buckets);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("rows=%d, distinct=%.0f, nulls=%.3f, mcvs=%d, buckets=%d",
+                rowCount, distinctCount, nullFraction, mcvValues.size(), Math.max(0, bounds.length - 1));
+    }
+}
@@ -0,0 +1,234 @@
+package idb.core;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 列的数据类型。值在加载和写入时统一转换为对应的 Java 类型，
+ * 比较和索引都直接作用在这些类型上。
+ * INT -> Integer，LONG -> Long，DOUBLE -> Double，BOOLEAN -> Boolean，
+ * STRING -> String，TIMESTAMP -> java.sql.Timestamp。
+ */
+public enum ColumnType {
+    INT,
+    LONG,
+    DOUBLE,
+    BOOLEAN,
+    STRING,
+    TIMESTAMP;
+
+    public static ColumnType fromString(String value) {
+        return valueOf(value.trim().toUpperCase());
+    }
+
+    /**
+     * 把值转换为本类型，无法转换时抛出 IllegalArgumentException。
+     */
+    public Object coerce(Object value) {
+        if (value == null) {
+            return null;
+        }
+        switch (this) {
+            case INT:
+                if (value instanceof Integer) {
+                    return value;
+                }
+                long asLong = toLong(value);
+                if (asLong < Integer.MIN_VALUE || asLong > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("Value out of int range: " + value);
+                }
+                return (int) asLong;
+            case LONG:
+                return value instanceof Long ? value : toLong(value);
+            case DOUBLE:
+                if (value instanceof Double) {
+                    return value;
+                }
+                if (value instanceof Number) {
+                    return ((Number) value).doubleValue();
+                }
+                return Double.parseDouble(text(value));
+            case BOOLEAN:
+                if (value instanceof Boolean) {
+                    return value;
+                }
+                String flag = text(value);
+                if (flag.equalsIgnoreCase("true") || flag.equalsIgnoreCase("false")) {
+                    return Boolean.valueOf(flag);
+                }
+                throw new IllegalArgumentException("Not a boolean: " + value);
+            case TIMESTAMP:
+                if (value instanceof Timestamp) {
+                    return value;
+                }
+                if (value instanceof Date) {
+                    return new Timestamp(((Date) value).getTime());
+                }
+                if (value instanceof Long || value instanceof Integer) {
+                    return new Timestamp(((Number) value).longValue()); // 毫秒时间戳
+                }
+                return parseTimestamp(text(value));
+            default:
+                // 嵌套结构保持原样
+                return value instanceof String || value instanceof Map || value instanceof List ? value : value.toString();
+        }
+    }
+
+    private static String text(Object value) {
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException("Unexpected " + value.getClass().getSimpleName() + " value: " + value);
+        }
+        return ((String) value).trim();
+    }
+
+    private static long toLong(Object value) {
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof Number) {
+            double d = ((Number) value).doubleValue();
+            if (d != Math.rint(d) || Double.isInfinite(d)) {
+                throw new IllegalArgumentException("Not an integer: " + value);
+            }
+            return (long) d;
+        }
+        return Long.parseLong(text(value));
+    }
+
+    /**
+     * 支持 Timestamp.toString 的格式（yyyy-MM-dd HH:mm:ss[.f...]）、ISO-8601 日期时间和 yyyy-MM-dd，
+     * 不带时区的时间按本地时区解释。
+     */
+    static Timestamp parseTimestamp(String text) {
+        try {
+            return Timestamp.valueOf(text);
+        } catch (IllegalArgumentException ignored) {
+        }
+        try {
+            return Timestamp.from(OffsetDateTime.parse(text).toInstant());
+        } catch (DateTimeParseException ignored) {
+        }
+        try {
+            return Timestamp.valueOf(LocalDateTime.parse(text));
+        } catch (DateTimeParseException ignored) {
+        }
+        try {
+            return Timestamp.valueOf(LocalDate.parse(text).atStartOfDay());
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Not a timestamp: " + text);
+        }
+    }
+
+    /**
+     * 推断单个值最窄的类型。以 0 开头的多位数字（如邮编、电话）视为字符串，避免丢失前导零。
+     */
+    public static ColumnType infer(Object value) {
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return INT;
+        }
+        if (value instanceof Long) {
+            return LONG;
+        }
+        if (value instanceof Number) {
+            return DOUBLE;
+        }
+        if (value instanceof Boolean) {
+            return BOOLEAN;
+        }
+        if (value instanceof Date) {
+            return TIMESTAMP;
+        }
+        if (!(value instanceof String)) {
+            return STRING;
+        }
+        String text = (String) value;
+        if (text.isEmpty() || !text.equals(text.trim())) {
+            return STRING;
+        }
+        if (text.equalsIgnoreCase("true") || text.equalsIgnoreCase("false")) {
+            return BOOLEAN;
+        }
+        if (isInteger(text)) {
+            if (hasLeadingZero(text)) {
+                return STRING;
+            }
+            try {
+                long number = Long.parseLong(text);
+                return number >= Integer.MIN_VALUE && number <= Integer.MAX_VALUE ? INT : LONG;
+            } catch (NumberFormatException e) {
+                return STRING;
+            }
+        }
+        if (isDecimal(text) && !hasLeadingZero(text)) {
+            return DOUBLE;
+        }
+        if (Character.isDigit(text.charAt(0)) && text.length() >= 10) {
+            try {
+                parseTimestamp(text);
+                return TIMESTAMP;
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+        return STRING;
+    }
+
+    private static boolean isInteger(String text) {
+        int start = text.charAt(0) == '-' ? 1 : 0;
+        if (start == text.length()) {
+            return false;
+        }
+        for (int i = start; i < text.length(); i++) {
+            if (!Character.isDigit(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 只接受普通的十进制写法，排除 NaN、Infinity、0x 等
+    private static boolean isDecimal(String text) {
+        boolean digits = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isDigit(c)) {
+                digits = true;
+            } else if (c != '.' && c != '-' && c != '+' && c != 'e' && c != 'E') {
+                return false;
+            }
+        }
+        if (!digits) {
+            return false;
+        }
+        try {
+            Double.parseDouble(text);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static boolean hasLeadingZero(String text) {
+        int start = text.charAt(0) == '-' ? 1 : 0;
+        return text.length() > start + 1 && text.charAt(start) == '0' && text.charAt(start + 1) != '.';
+    }
+
+    /**
+     * 两个类型的最小公共类型：整数向更宽的数值类型扩展，其余不一致时退化为字符串。
+     */
+    public ColumnType widen(ColumnType other) {
+        if (other == null || other == this) {
+            return this;
+        }
+        boolean numeric = (this == INT || this == LONG || this == DOUBLE) && (other == INT || other == LONG || other == DOUBLE);
+        if (numeric) {
+            return this == DOUBLE || other == DOUBLE ? DOUBLE : LONG;
+        }
+        return STRING;
+    }
+}
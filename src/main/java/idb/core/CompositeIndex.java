@@ -0,0 +1,187 @@
+package idb.core;
+
+import idb.model.Record;
+import idb.utils.RoaringBitmap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * 多列组合索引。键为各列值组成的元组，按列依次排序，
+ * 因此除了全部列的等值查找，也支持最左前缀的查找（如 (city, state) 上只按 city 查）。
+ */
+public class CompositeIndex {
+    /**
+     * 元组键。bound 只用于前缀查找的边界：-1 排在同前缀的所有键之前，1 排在之后。
+     */
+    public static final class TupleKey {
+        private final Object[] values;
+        private final int bound;
+
+        public TupleKey(Object[] values) {
+            this(values, 0);
+        }
+
+        private TupleKey(Object[] values, int bound) {
+            this.values = values;
+            this.bound = bound;
+        }
+
+        public int size() {
+            return values.length;
+        }
+
+        public Object get(int i) {
+            return values[i];
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof TupleKey && bound == ((TupleKey) o).bound && Arrays.equals(values, ((TupleKey) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values);
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(values);
+        }
+    }
+
+    private static final Comparator<Object> ELEMENT_ORDER = Comparator.nullsFirst(ColumnIndex.KEY_ORDER);
+
+    static final Comparator<TupleKey> TUPLE_ORDER = (a, b) -> {
+        int common = Math.min(a.values.length, b.values.length);
+        for (int i = 0; i < common; i++) {
+            int c = ELEMENT_ORDER.compare(a.values[i], b.values[i]);
+            if (c != 0) {
+                return c;
+            }
+        }
+        if (a.values.length == b.values.length) {
+            return Integer.compare(a.bound, b.bound);
+        }
+        // 较短的键是前缀边界
+        if (a.values.length < b.values.length) {
+            return a.bound > 0 ? 1 : -1;
+        }
+        return b.bound > 0 ? -1 : 1;
+    };
+
+    private final List<String> columns;
+    private final ConcurrentSkipListMap<TupleKey, RoaringBitmap> entries = new ConcurrentSkipListMap<>(TUPLE_ORDER);
+
+    public CompositeIndex(List<String> columns) {
+        this.columns = Collections.unmodifiableList(new ArrayList<>(columns));
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    public TupleKey keyOf(Record record) {
+        Object[] values = new Object[columns.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = record.getData(columns.get(i));
+        }
+        return new TupleKey(values);
+    }
+
+    public void add(Record record) {
+        entries.computeIfAbsent(keyOf(record), k -> new RoaringBitmap()).add(record.getId());
+    }
+
+    public void remove(Record record) {
+        TupleKey key = keyOf(record);
+        RoaringBitmap ids = entries.get(key);
+        if (ids != null) {
+            ids.remove(record.getId());
+            if (ids.isEmpty()) {
+                entries.remove(key);
+            }
+        }
+    }
+
+    /**
+     * 按最左前缀查找：prefix 的长度可以小于等于列数。完整键查找时返回索引内部的位图，调用方不能修改。
+     */
+    public RoaringBitmap lookup(Object... prefix) {
+        if (prefix.length > columns.size()) {
+            throw new IllegalArgumentException("Too many values for index on " + columns);
+        }
+        if (prefix.length == columns.size()) {
+            RoaringBitmap ids = entries.get(new TupleKey(prefix));
+            return ids != null ? ids : new RoaringBitmap();
+        }
+        RoaringBitmap result = new RoaringBitmap();
+        for (RoaringBitmap ids : entries.subMap(new TupleKey(prefix, -1), true, new TupleKey(prefix, 1), true).values()) {
+            result.or(ids);
+        }
+        return result;
+    }
+
+    /**
+     * 返回 conditions 能覆盖的最左前缀长度，0 表示无法使用。
+     */
+    public int prefixLength(Map<String, Object> conditions) {
+        int length = 0;
+        while (length < columns.size() && conditions.containsKey(columns.get(length))) {
+            length++;
+        }
+        return length;
+    }
+
+    public void optimize() {
+        for (RoaringBitmap ids : entries.values()) {
+            ids.runOptimize();
+        }
+    }
+
+    public long postingBytes() {
+        long bytes = 0;
+        for (RoaringBitmap ids : entries.values()) {
+            bytes += ids.sizeInBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * 写出全部条目，格式：条目数，(各列的值, id 位图)...
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(entries.size());
+        for (Map.Entry<TupleKey, RoaringBitmap> entry : entries.entrySet()) {
+            for (Object value : entry.getKey().values) {
+                RecordCodec.writeValue(out, value);
+            }
+            entry.getValue().serialize(out);
+        }
+    }
+
+    public static CompositeIndex readFrom(DataInput in, List<String> columns) throws IOException {
+        CompositeIndex index = new CompositeIndex(columns);
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            Object[] values = new Object[columns.size()];
+            for (int j = 0; j < values.length; j++) {
+                values[j] = RecordCodec.readValue(in);
+            }
+            index.entries.put(new TupleKey(values), RoaringBitmap.deserialize(in));
+        }
+        return index;
+    }
+
+    public int distinctKeys() {
+        return entries.size();
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+}
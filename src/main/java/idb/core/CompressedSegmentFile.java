@@ -0,0 +1,163 @@
+package idb.core;
+
+import idb.model.Record;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * 分块压缩文件的读取器。打开时读取列名和块索引，之后按块顺序解压全部记录。
+ */
+public class CompressedSegmentFile implements Closeable {
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final CompressedStorageFormat format;
+    private final String[] columns;
+    private final int[] rowCounts;
+    private final long[] offsets;
+    private final int[] compressedLengths;
+    private final int[] rawLengths;
+
+    private CompressedSegmentFile(File file, FileChannel channel, MappedByteBuffer buffer, CompressedStorageFormat format) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.format = format;
+
+        int size = buffer.limit();
+        byte[] magic = CompressedStorageFormat.MAGIC;
+        if (size < magic.length + 4 + CompressedStorageFormat.TRAILER_SIZE
+                || !hasMagic(0) || !hasMagic(size - magic.length)) {
+            throw new IOException("Not a compressed segment file: " + file);
+        }
+        ByteBuffer in = buffer.duplicate();
+        in.position(magic.length);
+        this.columns = new String[in.getInt()];
+        for (int i = 0; i < columns.length; i++) {
+            byte[] name = new byte[in.getShort() & 0xFFFF];
+            in.get(name);
+            columns[i] = new String(name, StandardCharsets.UTF_8);
+        }
+
+        in.position(size - CompressedStorageFormat.TRAILER_SIZE);
+        long indexOffset = in.getLong();
+        int blockCount = in.getInt();
+        rowCounts = new int[blockCount];
+        offsets = new long[blockCount];
+        compressedLengths = new int[blockCount];
+        rawLengths = new int[blockCount];
+        in.position((int) indexOffset);
+        for (int i = 0; i < blockCount; i++) {
+            in.getInt(); // 首 id
+            in.getInt(); // 末 id
+            rowCounts[i] = in.getInt();
+            offsets[i] = in.getLong();
+            compressedLengths[i] = in.getInt();
+            rawLengths[i] = in.getInt();
+        }
+    }
+
+    static CompressedSegmentFile open(File file, CompressedStorageFormat format) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Compressed segment file larger than 2GB is not supported: " + file);
+            }
+            return new CompressedSegmentFile(file, channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, size), format);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private boolean hasMagic(int position) {
+        byte[] magic = new byte[CompressedStorageFormat.MAGIC.length];
+        buffer.duplicate().position(position).get(magic);
+        return Arrays.equals(magic, CompressedStorageFormat.MAGIC);
+    }
+
+    public long getRawBytes() {
+        long total = 0;
+        for (int length : rawLengths) {
+            total += length;
+        }
+        return total;
+    }
+
+    public long getCompressedBytes() {
+        long total = 0;
+        for (int length : compressedLengths) {
+            total += length;
+        }
+        return total;
+    }
+
+    public void forEach(Consumer<Record> sink) throws IOException {
+        for (int block = 0; block < offsets.length; block++) {
+            for (Record record : readBlock(block)) {
+                sink.accept(record);
+            }
+        }
+    }
+
+    private List<Record> readBlock(int block) throws IOException {
+        long start = System.nanoTime();
+        byte[] compressed = new byte[compressedLengths[block]];
+        buffer.duplicate().position((int) offsets[block]).get(compressed);
+        byte[] raw = new byte[rawLengths[block]];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int length = 0;
+            while (length < raw.length) {
+                int n = inflater.inflate(raw, length, raw.length - length);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != raw.length) {
+                throw new IOException("Corrupt block " + block + " in " + file);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block " + block + " in " + file, e);
+        } finally {
+            inflater.end();
+        }
+        format.recordDecompress(System.nanoTime() - start);
+
+        ByteBuffer in = ByteBuffer.wrap(raw);
+        List<Record> records = new ArrayList<>(rowCounts[block]);
+        for (int i = 0; i < rowCounts[block]; i++) {
+            in.getInt(); // 行长度
+            Record record = new Record(in.getInt());
+            for (String column : columns) {
+                Object value = RecordCodec.readValue(in);
+                if (value != null) {
+                    record.setData(column, value);
+                }
+            }
+            records.add(record);
+        }
+        return records;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
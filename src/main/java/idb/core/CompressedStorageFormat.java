@@ -0,0 +1,172 @@
+package idb.core;
+
+import idb.model.Record;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+
+/**
+ * 分块压缩格式：记录按 id 排序后编码，每攒够 blockSize 字节用 Deflater 独立压缩成一块。
+ * [magic][int 列数][列名...]
+ * [压缩块...]
+ * [块索引: 每块 int 首 id, int 末 id, int 行数, long 偏移, int 压缩长度, int 原始长度]
+ * [long 索引偏移][int 块数][magic]
+ * 加载时由 CompressedSegmentFile 按块索引逐块解压，整个文件读入行存储。
+ */
+public class CompressedStorageFormat implements StorageFormat {
+    public static final String NAME = "compressed";
+    static final byte[] MAGIC = "IDBCMP01".getBytes(StandardCharsets.US_ASCII);
+    static final int TRAILER_SIZE = 8 + 4 + 8;
+    static final int INDEX_ENTRY_SIZE = 4 + 4 + 4 + 8 + 4 + 4;
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    private final int blockSize;
+    private final AtomicLong rawBytes = new AtomicLong();
+    private final AtomicLong compressedBytes = new AtomicLong();
+    private final AtomicLong blocksRead = new AtomicLong();
+    private final AtomicLong decompressNanos = new AtomicLong();
+
+    public CompressedStorageFormat() {
+        this(DEFAULT_BLOCK_SIZE);
+    }
+
+    public CompressedStorageFormat(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getFileExtension() {
+        return ".cseg";
+    }
+
+    @Override
+    public void write(File file, Iterable<Record> records) throws IOException {
+        Set<String> columnSet = new LinkedHashSet<>();
+        List<Record> sorted = new ArrayList<>();
+        for (Record record : records) {
+            columnSet.addAll(record.getData().keySet());
+            sorted.add(record);
+        }
+        sorted.sort(Comparator.comparingInt(Record::getId));
+        String[] columns = columnSet.toArray(new String[0]);
+
+        List<long[]> blockIndex = new ArrayList<>();
+        long totalRaw = 0;
+        long totalCompressed = 0;
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.write(MAGIC);
+            out.writeInt(columns.length);
+            for (String column : columns) {
+                out.writeUTF(column);
+            }
+            long offset = out.size();
+
+            ByteArrayOutputStream blockBytes = new ByteArrayOutputStream(blockSize + 1024);
+            DataOutputStream block = new DataOutputStream(blockBytes);
+            ByteArrayOutputStream rowBytes = new ByteArrayOutputStream(256);
+            DataOutputStream row = new DataOutputStream(rowBytes);
+            byte[] compressed = new byte[blockSize + 1024];
+            int firstId = 0;
+            int lastId = 0;
+            int rowCount = 0;
+
+            for (int i = 0; i <= sorted.size(); i++) {
+                boolean last = i == sorted.size();
+                if (rowCount > 0 && (last || blockBytes.size() >= blockSize)) {
+                    byte[] raw = blockBytes.toByteArray();
+                    deflater.reset();
+                    deflater.setInput(raw);
+                    deflater.finish();
+                    ByteArrayOutputStream deflated = new ByteArrayOutputStream(raw.length / 2 + 64);
+                    while (!deflater.finished()) {
+                        int n = deflater.deflate(compressed);
+                        deflated.write(compressed, 0, n);
+                    }
+                    deflated.writeTo(out);
+                    blockIndex.add(new long[]{firstId, lastId, rowCount, offset, deflated.size(), raw.length});
+                    offset += deflated.size();
+                    totalRaw += raw.length;
+                    totalCompressed += deflated.size();
+                    blockBytes.reset();
+                    rowCount = 0;
+                }
+                if (last) {
+                    break;
+                }
+
+                Record record = sorted.get(i);
+                rowBytes.reset();
+                row.writeInt(record.getId());
+                for (String column : columns) {
+                    RecordCodec.writeValue(row, record.getData(column));
+                }
+                block.writeInt(rowBytes.size());
+                rowBytes.writeTo(block);
+                if (rowCount == 0) {
+                    firstId = record.getId();
+                }
+                lastId = record.getId();
+                rowCount++;
+            }
+
+            long indexOffset = offset;
+            for (long[] entry : blockIndex) {
+                out.writeInt((int) entry[0]);
+                out.writeInt((int) entry[1]);
+                out.writeInt((int) entry[2]);
+                out.writeLong(entry[3]);
+                out.writeInt((int) entry[4]);
+                out.writeInt((int) entry[5]);
+            }
+            out.writeLong(indexOffset);
+            out.writeInt(blockIndex.size());
+            out.write(MAGIC);
+        } finally {
+            deflater.end();
+        }
+        rawBytes.set(totalRaw);
+        compressedBytes.set(totalCompressed);
+    }
+
+    @Override
+    public void read(File file, Consumer<Record> sink) throws IOException {
+        try (CompressedSegmentFile segment = open(file)) {
+            segment.forEach(sink);
+        }
+    }
+
+    public CompressedSegmentFile open(File file) throws IOException {
+        CompressedSegmentFile segment = CompressedSegmentFile.open(file, this);
+        rawBytes.set(segment.getRawBytes());
+        compressedBytes.set(segment.getCompressedBytes());
+        return segment;
+    }
+
+    void recordDecompress(long nanos) {
+        blocksRead.incrementAndGet();
+        decompressNanos.addAndGet(nanos);
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long raw = rawBytes.get();
+        long compressed = compressedBytes.get();
+        stats.put("rawBytes", raw);
+        stats.put("compressedBytes", compressed);
+        stats.put("compressionRatio", compressed == 0 ? 0.0 : (double) raw / compressed);
+        stats.put("blocksDecompressed", blocksRead.get());
+        stats.put("decompressMillis", decompressNanos.get() / 1_000_000.0);
+        return stats;
+    }
+}
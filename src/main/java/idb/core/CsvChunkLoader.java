@@ -0,0 +1,354 @@
+package idb.core;
+
+import idb.model.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * 并行分块读取 CSV：
+ * 1. 按固定字节数把文件切成若干段，并行统计每段的引号奇偶；
+ * 2. 由前缀奇偶得知每个切分点是否落在引号内，向后找到第一个真正的行尾作为块边界；
+ * 3. 各块分批并行解析为记录列表，按文件顺序交给调用方。
+ * 解析直接在字节数组上进行，只为字段值创建 String。
+ */
+public class CsvChunkLoader {
+    private static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final int MIN_CHUNK_SIZE = 256 * 1024;
+    private static final int SCAN_BLOCK_SIZE = 64 * 1024;
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    public CsvChunkLoader() {
+        this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    public CsvChunkLoader(ForkJoinPool pool, int chunkSize) {
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    public void load(File file, Consumer<Record> sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == 0) {
+                return;
+            }
+
+            long headerEnd = findRecordEnd(channel, 0, false, size);
+            byte[] headerBytes = read(channel, 0, (int) headerEnd);
+            List<String> headerFields = new ArrayList<>();
+            new Tokenizer(headerBytes, headerBytes.length).readRecord(headerFields);
+            String[] headers = headerFields.toArray(new String[0]);
+
+            List<long[]> chunks = split(channel, headerEnd, size);
+            // 分批解析，同一时刻只有一批块的记录在内存中，便于分页存储加载超过堆大小的文件
+            int window = Math.max(1, pool.getParallelism() * 2);
+            for (int from = 0; from < chunks.size(); from += window) {
+                List<Callable<List<Record>>> tasks = new ArrayList<>(window);
+                for (long[] chunk : chunks.subList(from, Math.min(chunks.size(), from + window))) {
+                    tasks.add(() -> parseChunk(channel, chunk[0], chunk[1], headers));
+                }
+                for (List<Record> records : invokeAll(tasks)) {
+                    for (Record record : records) {
+                        sink.accept(record);
+                    }
+                }
+            }
+        }
+    }
+
+    private List<long[]> split(FileChannel channel, long start, long size) throws IOException {
+        List<long[]> chunks = new ArrayList<>();
+        long length = size - start;
+        if (length <= 0) {
+            return chunks;
+        }
+        // 小文件也切成足够多的块，让每个工作线程都有活干
+        int rangeSize = (int) Math.max(Math.min(MIN_CHUNK_SIZE, chunkSize),
+                Math.min(chunkSize, length / (pool.getParallelism() * 4L)));
+        int rangeCount = (int) Math.max(1, (length + rangeSize - 1) / rangeSize);
+
+        // 并行统计每段引号数量的奇偶
+        List<Callable<Boolean>> parityTasks = new ArrayList<>(rangeCount);
+        for (int i = 0; i < rangeCount; i++) {
+            long rangeStart = start + (long) i * rangeSize;
+            long rangeEnd = Math.min(size, rangeStart + rangeSize);
+            parityTasks.add(() -> oddQuotes(channel, rangeStart, rangeEnd));
+        }
+        List<Boolean> parities = invokeAll(parityTasks);
+
+        long chunkStart = start;
+        boolean inQuotes = false;
+        for (int i = 1; i < rangeCount; i++) {
+            inQuotes ^= parities.get(i - 1);
+            long rawBoundary = start + (long) i * rangeSize;
+            if (rawBoundary <= chunkStart) {
+                continue;
+            }
+            long boundary = findRecordEnd(channel, rawBoundary, inQuotes, size);
+            if (boundary > chunkStart && boundary < size) {
+                chunks.add(new long[]{chunkStart, boundary});
+                chunkStart = boundary;
+            }
+        }
+        chunks.add(new long[]{chunkStart, size});
+        return chunks;
+    }
+
+    private static boolean oddQuotes(FileChannel channel, long start, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BLOCK_SIZE);
+        boolean odd = false;
+        long position = start;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(SCAN_BLOCK_SIZE, end - position));
+            int n = channel.read(buffer, position);
+            if (n <= 0) {
+                break;
+            }
+            byte[] bytes = buffer.array();
+            for (int i = 0; i < n; i++) {
+                if (bytes[i] == '"') {
+                    odd = !odd;
+                }
+            }
+            position += n;
+        }
+        return odd;
+    }
+
+    // 从 position 开始按给定的引号状态向后扫描，返回下一条记录的起始偏移
+    private static long findRecordEnd(FileChannel channel, long position, boolean inQuotes, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BLOCK_SIZE);
+        while (position < size) {
+            buffer.clear();
+            int n = channel.read(buffer, position);
+            if (n <= 0) {
+                break;
+            }
+            byte[] bytes = buffer.array();
+            for (int i = 0; i < n; i++) {
+                byte b = bytes[i];
+                if (b == '"') {
+                    inQuotes = !inQuotes;
+                } else if (b == '\n' && !inQuotes) {
+                    return position + i + 1;
+                }
+            }
+            position += n;
+        }
+        return size;
+    }
+
+    private static byte[] read(FileChannel channel, long start, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long position = start;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+            position += n;
+        }
+        return bytes;
+    }
+
+    private static List<Record> parseChunk(FileChannel channel, long start, long end, String[] headers) throws IOException {
+        long length = end - start;
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IOException("CSV record too large at offset " + start);
+        }
+        byte[] bytes = read(channel, start, (int) length);
+        Tokenizer tokenizer = new Tokenizer(bytes, bytes.length);
+        List<Record> records = new ArrayList<>();
+        while (tokenizer.hasMore()) {
+            Record record = tokenizer.readRecord(headers);
+            if (record != null) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    private <T> List<T> invokeAll(List<Callable<T>> tasks) throws IOException {
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            for (Future<T> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading CSV", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+        return results;
+    }
+
+    /**
+     * 逗号分隔、双引号包裹（"" 转义）的字段解析器。未加引号的空字段视为 null。
+     */
+    static class Tokenizer {
+        private final byte[] bytes;
+        private final int limit;
+        private int position;
+        private byte[] scratch;
+
+        Tokenizer(byte[] bytes, int limit) {
+            this.bytes = bytes;
+            this.limit = limit;
+        }
+
+        boolean hasMore() {
+            while (position < limit && (bytes[position] == '\n' || bytes[position] == '\r')) {
+                position++; // 跳过空行
+            }
+            return position < limit;
+        }
+
+        void readRecord(List<String> fields) {
+            if (!hasMore()) {
+                return;
+            }
+            while (true) {
+                fields.add(readField());
+                if (!nextField()) {
+                    return;
+                }
+            }
+        }
+
+        Record readRecord(String[] headers) throws IOException {
+            Record record = new Record(readId());
+            int column = 1;
+            while (nextField()) {
+                String value = readField();
+                if (column < headers.length && value != null) {
+                    record.setData(headers[column], value);
+                }
+                column++;
+            }
+            return record;
+        }
+
+        // 字段结束后处理分隔符，返回当前记录是否还有字段
+        private boolean nextField() {
+            if (position >= limit) {
+                return false;
+            }
+            byte b = bytes[position];
+            if (b == ',') {
+                position++;
+                return true;
+            }
+            if (b == '\r') {
+                position++;
+            }
+            if (position < limit && bytes[position] == '\n') {
+                position++;
+            }
+            return false;
+        }
+
+        private int readId() throws IOException {
+            boolean quoted = position < limit && bytes[position] == '"';
+            if (quoted) {
+                position++;
+            }
+            int start = position;
+            boolean negative = false;
+            if (position < limit && bytes[position] == '-') {
+                negative = true;
+                position++;
+            }
+            long value = 0;
+            while (position < limit && bytes[position] >= '0' && bytes[position] <= '9') {
+                value = value * 10 + (bytes[position] - '0');
+                if (value > 1L + Integer.MAX_VALUE) {
+                    break;
+                }
+                position++;
+            }
+            if (quoted && position < limit && bytes[position] == '"') {
+                position++;
+            }
+            if (position == start || (position < limit && bytes[position] != ',' && bytes[position] != '\n' && bytes[position] != '\r')) {
+                throw new IOException("Invalid record id: " + new String(bytes, start, Math.min(limit - start, 32), StandardCharsets.UTF_8));
+            }
+            return (int) (negative ? -value : value);
+        }
+
+        private String readField() {
+            if (position < limit && bytes[position] == '"') {
+                return readQuotedField();
+            }
+            int start = position;
+            while (position < limit) {
+                byte b = bytes[position];
+                if (b == ',' || b == '\n' || b == '\r') {
+                    break;
+                }
+                position++;
+            }
+            if (position == start) {
+                return null;
+            }
+            return new String(bytes, start, position - start, StandardCharsets.UTF_8);
+        }
+
+        private String readQuotedField() {
+            int start = ++position;
+            int length = 0;
+            boolean escaped = false;
+            while (position < limit) {
+                byte b = bytes[position];
+                if (b == '"') {
+                    if (position + 1 < limit && bytes[position + 1] == '"') {
+                        if (!escaped) {
+                            // 第一次遇到转义引号时才复制到临时缓冲区
+                            escaped = true;
+                            ensureScratch(limit - start);
+                            System.arraycopy(bytes, start, scratch, 0, length);
+                        }
+                        scratch[length++] = '"';
+                        position += 2;
+                        continue;
+                    }
+                    position++;
+                    break;
+                }
+                if (escaped) {
+                    scratch[length] = b;
+                }
+                length++;
+                position++;
+            }
+            return escaped ? new String(scratch, 0, length, StandardCharsets.UTF_8)
+                    : new String(bytes, start, length, StandardCharsets.UTF_8);
+        }
+
+        private void ensureScratch(int capacity) {
+            if (scratch == null || scratch.length < capacity) {
+                scratch = new byte[Math.max(capacity, 256)];
+            }
+        }
+    }
+}
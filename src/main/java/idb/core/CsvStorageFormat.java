@@ -0,0 +1,80 @@
+package idb.core;
+
+import idb.model.Record;
+
+import java.io.*;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+public class CsvStorageFormat implements StorageFormat {
+    public static final String NAME = "csv";
+
+    private final CsvChunkLoader loader;
+
+    public CsvStorageFormat() {
+        this(new CsvChunkLoader());
+    }
+
+    public CsvStorageFormat(CsvChunkLoader loader) {
+        this.loader = loader;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getFileExtension() {
+        return ".csv";
+    }
+
+    @Override
+    public void write(File file, Iterable<Record> records) throws IOException {
+        // 表头取所有记录列的并集，每行按表头顺序输出
+        Set<String> columns = new LinkedHashSet<>();
+        for (Record record : records) {
+            columns.addAll(record.getData().keySet());
+        }
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file)))) {
+            writer.write("id");
+            for (String columnName : columns) {
+                writer.write(",");
+                writer.write(escape(columnName));
+            }
+            writer.write("\n");
+            for (Record record : records) {
+                writer.write(record.getId() + "");
+                for (String columnName : columns) {
+                    writer.write(",");
+                    writer.write(escape(record.getData(columnName)));
+                }
+                writer.write("\n");
+            }
+        }
+    }
+
+    @Override
+    public void read(File file, Consumer<Record> sink) throws IOException {
+        loader.load(file, sink);
+    }
+
+    // 含逗号、引号或换行的值加双引号，null 写为空字段
+    private static String escape(Object value) {
+        if (value == null) {
+            return "";
+        }
+        String text = value.toString();
+        if (text.isEmpty()) {
+            return "\"\"";
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return "\"" + text.replace("\"", "\"\"") + "\"";
+            }
+        }
+        return text;
+    }
+}
@@ -7,9 +7,19 @@ import idb.core.TableImpl;
 import idb.utils.ConfigUtils;
 import idb.utils.Transaction;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.logging.FileHandler;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
@@ -17,9 +27,15 @@ import java.util.logging.SimpleFormatter;
 public class Database {
     private static final Logger logger = Logger.getLogger(Database.class.getName());
     private Map<String, Table> tables;
+    private FlushScheduler flushScheduler;
+    private Durability defaultDurability;
+    private ParallelScan parallelScan;
 
     public Database() {
         this.tables = new HashMap<>();
+        this.flushScheduler = new FlushScheduler();
+        this.defaultDurability = Durability.GROUP;
+        this.parallelScan = ParallelScan.defaults();
         try {
             FileHandler fileHandler = new FileHandler("database.log", true);
             fileHandler.setFormatter(new SimpleFormatter());
@@ -32,29 +48,224 @@ public class Database {
     public void loadTablesFromConfig(String configFileName) throws IOException {
         ConfigUtils config = new ConfigUtils(configFileName);
         String[] tableNames = config.getTables();
+        configureFlush(config);
+        configureScan(config);
+        List<TableImpl> loaded = new ArrayList<>();
         for (String tableName : tableNames) {
             String name = config.getProperty("table." + tableName + ".name");
             String csvFilePath = config.getProperty("table." + tableName + ".csvFilePath");
             String uniqueColumns = config.getProperty("table." + tableName + ".uniqueColumns");
             if (name != null && csvFilePath != null) {
-                Table table = new TableImpl(name, csvFilePath);
+                StorageFormat format = StorageFormats.forName(config.getProperty("table." + tableName + ".format"));
+                String filePath = csvFilePath;
+                if (!(format instanceof CsvStorageFormat)) {
+                    filePath = config.getProperty("table." + tableName + ".filePath");
+                    if (filePath == null) {
+                        filePath = replaceExtension(csvFilePath, format.getFileExtension());
+                    }
+                    migrateFromCsv(csvFilePath, filePath, format);
+                }
+                TableImpl table = newTable(name, filePath);
+                table.setStorageFormat(format);
+                RowStore rowStore = createRowStore(config, tableName, filePath);
+                if (rowStore instanceof LsmRowStore) {
+                    migrateToLsm(filePath, format, (LsmRowStore) rowStore);
+                }
+                table.setRowStore(rowStore);
+                String schema = config.getProperty("table." + tableName + ".schema");
+                if (schema != null) {
+                    table.setSchema(Schema.parse(schema));
+                }
+                String durability = config.getProperty("table." + tableName + ".durability");
+                if (durability != null) {
+                    table.setDefaultDurability(Durability.fromString(durability));
+                }
                 if (uniqueColumns != null) {
                     for (String column : uniqueColumns.split(",")) {
                         table.addUniqueConstraint(column.trim());
                     }
                 }
-                table.loadFromCSV();
-                tables.put(name, table);
-                logger.info("Table loaded from config: " + name);
+                loaded.add(table);
+            }
+        }
+
+        // 各表相互独立，并发加载
+        loadConcurrently(loaded);
+        synchronized (this) {
+            for (TableImpl table : loaded) {
+                tables.put(table.getName(), table);
+                logger.info("Table loaded from config: " + table.getName() + " " + table.getStats());
+            }
+        }
+    }
+
+    private void loadConcurrently(List<TableImpl> tablesToLoad) throws IOException {
+        if (tablesToLoad.isEmpty()) {
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(tablesToLoad.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (TableImpl table : tablesToLoad) {
+                futures.add(executor.submit(() -> {
+                    table.loadFromCSV();
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while loading tables", e);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new IOException(e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void configureFlush(ConfigUtils config) {
+        String maxDelay = config.getProperty("database.flush.maxDelayMs");
+        String maxBatchSize = config.getProperty("database.flush.maxBatchSize");
+        flushScheduler.configure(
+                maxDelay != null ? Long.parseLong(maxDelay.trim()) : FlushScheduler.DEFAULT_MAX_DELAY_MILLIS,
+                maxBatchSize != null ? Integer.parseInt(maxBatchSize.trim()) : FlushScheduler.DEFAULT_MAX_BATCH_SIZE);
+        String durability = config.getProperty("database.durability");
+        if (durability != null) {
+            defaultDurability = Durability.fromString(durability);
+        }
+    }
+
+    // 未配置 parallelism 时使用公共 ForkJoin 池，配置为 1 时不并行
+    private void configureScan(ConfigUtils config) {
+        String parallelism = config.getProperty("database.scan.parallelism");
+        String threshold = config.getProperty("database.scan.parallelThresholdRows");
+        String partitionRows = config.getProperty("database.scan.partitionRows");
+        if (parallelism == null && threshold == null && partitionRows == null) {
+            return;
+        }
+        ForkJoinPool pool = parallelism != null
+                ? new ForkJoinPool(Integer.parseInt(parallelism.trim()))
+                : ForkJoinPool.commonPool();
+        setParallelScan(new ParallelScan(pool,
+                threshold != null ? Integer.parseInt(threshold.trim()) : ParallelScan.DEFAULT_THRESHOLD_ROWS,
+                partitionRows != null ? Integer.parseInt(partitionRows.trim()) : ParallelScan.DEFAULT_PARTITION_ROWS));
+    }
+
+    public synchronized ParallelScan getParallelScan() {
+        return parallelScan;
+    }
+
+    /**
+     * 设置各表无索引查询的全表扫描方式，已有的表同时生效。原先专用的线程池会被关闭。
+     */
+    public synchronized void setParallelScan(ParallelScan parallelScan) {
+        ParallelScan previous = this.parallelScan;
+        this.parallelScan = parallelScan;
+        for (Table table : tables.values()) {
+            if (table instanceof TableImpl) {
+                ((TableImpl) table).setParallelScan(parallelScan);
             }
         }
+        shutdownScanPool(previous);
+    }
+
+    private static void shutdownScanPool(ParallelScan scan) {
+        if (scan.getPool() != ForkJoinPool.commonPool()) {
+            scan.getPool().shutdown();
+        }
+    }
+
+    private static RowStore createRowStore(ConfigUtils config, String tableName, String filePath) {
+        String rowStore = config.getProperty("table." + tableName + ".rowStore");
+        if (rowStore == null || rowStore.trim().equalsIgnoreCase(HeapRowStore.NAME)) {
+            return new HeapRowStore();
+        }
+        if (rowStore.trim().equalsIgnoreCase(PagedRowStore.NAME)) {
+            String pageSize = config.getProperty("table." + tableName + ".pageSize");
+            String poolPages = config.getProperty("table." + tableName + ".bufferPoolPages");
+            return new PagedRowStore(filePath + ".pages",
+                    pageSize != null ? Integer.parseInt(pageSize.trim()) : BufferPool.DEFAULT_PAGE_SIZE,
+                    poolPages != null ? Integer.parseInt(poolPages.trim()) : BufferPool.DEFAULT_CAPACITY);
+        }
+        if (rowStore.trim().equalsIgnoreCase(LsmRowStore.NAME)) {
+            String memtableBytes = config.getProperty("table." + tableName + ".memtableBytes");
+            return new LsmRowStore(filePath + ".lsm",
+                    memtableBytes != null ? Long.parseLong(memtableBytes.trim()) : LsmRowStore.DEFAULT_MEMTABLE_BYTES);
+        }
+        throw new IllegalArgumentException("Unknown row store: " + rowStore);
+    }
+
+    // 首次使用 LSM 存储时，把已有的基础文件和增量文件导入进去；WAL 在加载表时照常回放
+    private void migrateToLsm(String filePath, StorageFormat format, LsmRowStore store) throws IOException {
+        File baseFile = new File(filePath);
+        if (store.exists() || !baseFile.exists()) {
+            return;
+        }
+        store.open();
+        format.read(baseFile, record -> {
+            try {
+                store.put(record);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        new Checkpointer(filePath).replayDeltas((op, id, record) -> {
+            try {
+                if (op == WriteAheadLog.OP_DELETE) {
+                    store.remove(id);
+                } else {
+                    store.put(record);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        store.flush();
+        logger.info("Imported " + store.size() + " rows from " + filePath + " into LSM storage");
+    }
+
+    private static String replaceExtension(String path, String extension) {
+        int dot = path.lastIndexOf('.');
+        int slash = Math.max(path.lastIndexOf('/'), path.lastIndexOf(File.separatorChar));
+        return (dot > slash ? path.substring(0, dot) : path) + extension;
+    }
+
+    // 首次切换到新格式时，把已有的 CSV 基础文件转换过去，并沿用其 WAL
+    private void migrateFromCsv(String csvFilePath, String filePath, StorageFormat format) throws IOException {
+        File target = new File(filePath);
+        File csvFile = new File(csvFilePath);
+        if (target.exists() || !csvFile.exists()) {
+            return;
+        }
+        StorageFormats.convert(csvFile, new CsvStorageFormat(), target, format);
+        File csvWal = new File(csvFilePath + ".wal");
+        File targetWal = new File(filePath + ".wal");
+        if (csvWal.exists() && !targetWal.exists()) {
+            Files.move(csvWal.toPath(), targetWal.toPath());
+        }
+        logger.info("Migrated " + csvFilePath + " to " + format.getName() + " format at " + filePath);
+    }
+
+    private TableImpl newTable(String tableName, String csvFilePath) {
+        TableImpl table = new TableImpl(tableName, csvFilePath, flushScheduler);
+        table.setDefaultDurability(defaultDurability);
+        table.setParallelScan(getParallelScan());
+        return table;
     }
 
     public synchronized void createTable(String tableName, String csvFilePath) throws IOException {
         if (tables.containsKey(tableName)) {
             throw new IOException("Table with name " + tableName + " already exists.");
         }
-        Table table = new TableImpl(tableName, csvFilePath);
+        Table table = newTable(tableName, csvFilePath);
         table.loadFromCSV();
         tables.put(tableName, table);
         logger.info("Table created: " + tableName);
@@ -83,6 +294,24 @@ public class Database {
         return new Transaction();
     }
 
+    public FlushScheduler getFlushScheduler() {
+        return flushScheduler;
+    }
+
+    /**
+     * 刷出所有未落盘的日志，为各表做一次检查点并关闭，然后停止刷盘线程。
+     */
+    public void close() throws IOException {
+        flushScheduler.flush();
+        for (Table table : getTables().values()) {
+            if (table instanceof TableImpl) {
+                ((TableImpl) table).close();
+            }
+        }
+        flushScheduler.close();
+        shutdownScanPool(getParallelScan());
+    }
+
     @Override
     public String toString() {
         return "Database{tables=" + tables + "}";
@@ -0,0 +1,17 @@
+package idb.core;
+
+/**
+ * 单次写操作的持久化级别。
+ * SYNC: 立即刷盘并等待 fsync 完成；
+ * GROUP: 与其他线程的写入合并为一次 write + fsync，等待该批次完成；
+ * ASYNC: 只进入刷盘队列，不等待。
+ */
+public enum Durability {
+    SYNC,
+    GROUP,
+    ASYNC;
+
+    public static Durability fromString(String value) {
+        return valueOf(value.trim().toUpperCase());
+    }
+}
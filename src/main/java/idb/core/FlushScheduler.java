@@ -0,0 +1,240 @@
+package idb.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 数据库级别的后台刷盘线程。各表的 WAL 日志先进入队列，
+ * 攒够 maxBatchSize 条或最早一条等待超过 maxDelayMillis 后，
+ * 按表合并成一次 write + fsync，再唤醒等待的写线程。
+ */
+public class FlushScheduler implements Closeable {
+    private static final Logger logger = Logger.getLogger(FlushScheduler.class.getName());
+
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 2;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 512;
+
+    private static class PendingWrite {
+        final WriteAheadLog wal;
+        final ByteBuffer frame;
+        final CompletableFuture<Void> future;
+
+        PendingWrite(WriteAheadLog wal, ByteBuffer frame, CompletableFuture<Void> future) {
+            this.wal = wal;
+            this.frame = frame;
+            this.future = future;
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pendingChanged = lock.newCondition();
+    private final Condition spaceAvailable = lock.newCondition();
+    private ArrayList<PendingWrite> pending = new ArrayList<>();
+    private long oldestPendingNanos;
+    private CompletableFuture<Void> lastSubmitted;
+    private boolean flushRequested;
+    private boolean closed;
+    private volatile long maxDelayMillis;
+    private volatile int maxBatchSize;
+    private final Thread flusher;
+
+    private long batches;
+    private long flushedWrites;
+
+    public FlushScheduler() {
+        this(DEFAULT_MAX_DELAY_MILLIS, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    public FlushScheduler(long maxDelayMillis, int maxBatchSize) {
+        configure(maxDelayMillis, maxBatchSize);
+        this.flusher = new Thread(this::run, "idb-flush");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    public void configure(long maxDelayMillis, int maxBatchSize) {
+        if (maxDelayMillis < 0 || maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Invalid flush settings: maxDelay=" + maxDelayMillis + ", maxBatchSize=" + maxBatchSize);
+        }
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public CompletableFuture<Void> submit(WriteAheadLog wal, ByteBuffer frame, Durability durability) throws IOException {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        lock.lock();
+        try {
+            // 异步写入过多时让生产者等待，避免队列无限增长
+            while (!closed && pending.size() >= maxBatchSize * 64) {
+                spaceAvailable.awaitUninterruptibly();
+            }
+            if (closed) {
+                throw new IOException("Flush scheduler is closed");
+            }
+            if (pending.isEmpty()) {
+                oldestPendingNanos = System.nanoTime();
+            }
+            pending.add(new PendingWrite(wal, frame, future));
+            lastSubmitted = future;
+            if (durability == Durability.SYNC) {
+                flushRequested = true;
+            }
+            // 第一条日志开始计时，批次满或同步写时立即唤醒
+            if (pending.size() == 1 || flushRequested || pending.size() >= maxBatchSize) {
+                pendingChanged.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (durability == Durability.ASYNC) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return future;
+    }
+
+    /**
+     * 立即刷出当前队列中的全部日志并等待完成。
+     */
+    public void flush() throws IOException {
+        CompletableFuture<Void> last;
+        lock.lock();
+        try {
+            last = lastSubmitted;
+            if (last == null || last.isDone()) {
+                return;
+            }
+            flushRequested = true;
+            pendingChanged.signal();
+        } finally {
+            lock.unlock();
+        }
+        await(last);
+    }
+
+    public static void await(CompletableFuture<Void> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for flush", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private void run() {
+        while (true) {
+            List<PendingWrite> batch;
+            lock.lock();
+            try {
+                while (!closed && pending.isEmpty()) {
+                    pendingChanged.awaitUninterruptibly();
+                }
+                while (!closed && !flushRequested && pending.size() < maxBatchSize) {
+                    long waitNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis) - (System.nanoTime() - oldestPendingNanos);
+                    if (waitNanos <= 0) {
+                        break;
+                    }
+                    try {
+                        pendingChanged.awaitNanos(waitNanos);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+                if (pending.isEmpty()) {
+                    if (closed) {
+                        return;
+                    }
+                    continue;
+                }
+                batch = pending;
+                pending = new ArrayList<>();
+                flushRequested = false;
+                spaceAvailable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            writeBatch(batch);
+        }
+    }
+
+    private void writeBatch(List<PendingWrite> batch) {
+        // 同一张表的日志保持提交顺序，合并为一次写入和一次 fsync
+        Map<WriteAheadLog, List<PendingWrite>> byLog = new LinkedHashMap<>();
+        for (PendingWrite write : batch) {
+            byLog.computeIfAbsent(write.wal, k -> new ArrayList<>()).add(write);
+        }
+        for (Map.Entry<WriteAheadLog, List<PendingWrite>> entry : byLog.entrySet()) {
+            List<PendingWrite> writes = entry.getValue();
+            ByteBuffer[] frames = new ByteBuffer[writes.size()];
+            for (int i = 0; i < frames.length; i++) {
+                frames[i] = writes.get(i).frame;
+            }
+            try {
+                entry.getKey().writeFrames(frames, true);
+                for (PendingWrite write : writes) {
+                    write.future.complete(null);
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.log(Level.SEVERE, "Failed to flush " + entry.getKey().getFile(), e);
+                for (PendingWrite write : writes) {
+                    write.future.completeExceptionally(e);
+                }
+            }
+        }
+        lock.lock();
+        try {
+            batches++;
+            flushedWrites += batch.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        lock.lock();
+        try {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("batches", batches);
+            stats.put("writes", flushedWrites);
+            stats.put("averageBatchSize", batches == 0 ? 0.0 : (double) flushedWrites / batches);
+            stats.put("pending", pending.size());
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pendingChanged.signalAll();
+            spaceAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package idb.core;
+
+import idb.utils.RoaringBitmap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * 字符串列的倒排索引：词 -> (记录 id -> 词在值中的位置)。
+ * 分词规则：字母和数字连续组成一个词并转为小写，汉字、假名、韩文逐字成词，其余字符为分隔符。
+ * 词典按字典序保存，支持前缀查找。
+ *
+ * 查询语法：空格分隔的各项必须同时出现；以 * 结尾的项按前缀匹配；
+ * 引号括起或分词后包含多个词的项（如 "new york"、foo-bar、张三）要求各词位置相邻。
+ */
+public class FullTextIndex {
+    /**
+     * 一个查询项：若干相邻的词，最后一个词可以是前缀。
+     */
+    public static final class Term {
+        final List<String> tokens;
+        final boolean prefix;
+
+        Term(List<String> tokens, boolean prefix) {
+            this.tokens = tokens;
+            this.prefix = prefix;
+        }
+
+        @Override
+        public String toString() {
+            return String.join(" ", tokens) + (prefix ? "*" : "");
+        }
+    }
+
+    private static final class Postings {
+        final RoaringBitmap ids = new RoaringBitmap();
+        final Map<Integer, int[]> positions = new HashMap<>();
+    }
+
+    private final String column;
+    private final ConcurrentSkipListMap<String, Postings> dictionary = new ConcurrentSkipListMap<>();
+
+    public FullTextIndex(String column) {
+        this.column = column;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (int i = 0; i < text.length(); ) {
+            int cp = text.codePointAt(i);
+            i += Character.charCount(cp);
+            if (isSingleCharToken(cp)) {
+                flush(current, tokens);
+                tokens.add(new String(Character.toChars(cp)));
+            } else if (Character.isLetterOrDigit(cp)) {
+                current.appendCodePoint(Character.toLowerCase(cp));
+            } else {
+                flush(current, tokens);
+            }
+        }
+        flush(current, tokens);
+        return tokens;
+    }
+
+    private static boolean isSingleCharToken(int cp) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(cp);
+        return script == Character.UnicodeScript.HAN || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA || script == Character.UnicodeScript.HANGUL;
+    }
+
+    private static void flush(StringBuilder current, List<String> tokens) {
+        if (current.length() > 0) {
+            tokens.add(current.toString());
+            current.setLength(0);
+        }
+    }
+
+    public static List<Term> parseQuery(String text) {
+        List<Term> terms = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            int end;
+            String word;
+            if (c == '"') {
+                end = text.indexOf('"', i + 1);
+                if (end < 0) {
+                    end = text.length();
+                }
+                word = text.substring(i + 1, end);
+                end++;
+            } else {
+                end = i;
+                while (end < text.length() && !Character.isWhitespace(text.charAt(end))) {
+                    end++;
+                }
+                word = text.substring(i, end);
+            }
+            List<String> tokens = tokenize(word);
+            if (!tokens.isEmpty()) {
+                terms.add(new Term(tokens, word.endsWith("*")));
+            }
+            i = end;
+        }
+        return terms;
+    }
+
+    public void add(int id, Object value) {
+        if (value == null) {
+            return;
+        }
+        Map<String, List<Integer>> byToken = new HashMap<>();
+        List<String> tokens = tokenize(value.toString());
+        for (int position = 0; position < tokens.size(); position++) {
+            byToken.computeIfAbsent(tokens.get(position), k -> new ArrayList<>()).add(position);
+        }
+        for (Map.Entry<String, List<Integer>> entry : byToken.entrySet()) {
+            Postings postings = dictionary.computeIfAbsent(entry.getKey(), k -> new Postings());
+            postings.ids.add(id);
+            postings.positions.put(id, entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+    }
+
+    public void remove(int id, Object value) {
+        if (value == null) {
+            return;
+        }
+        for (String token : new HashSet<>(tokenize(value.toString()))) {
+            Postings postings = dictionary.get(token);
+            if (postings != null) {
+                postings.ids.remove(id);
+                postings.positions.remove(id);
+                if (postings.ids.isEmpty()) {
+                    dictionary.remove(token);
+                }
+            }
+        }
+    }
+
+    /**
+     * 返回满足全部查询项的记录 id，没有查询项时返回空集合。
+     */
+    public RoaringBitmap search(List<Term> terms) {
+        RoaringBitmap result = null;
+        for (Term term : terms) {
+            RoaringBitmap ids = match(term);
+            result = result == null ? ids : RoaringBitmap.and(result, ids);
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return result != null ? result : new RoaringBitmap();
+    }
+
+    // 各个词对应的 (id -> 位置) 列表，前缀词合并所有以它开头的词
+    private List<Map<Integer, int[]>> positionsOf(Term term, RoaringBitmap[] idsOut) {
+        List<Map<Integer, int[]>> result = new ArrayList<>();
+        RoaringBitmap ids = null;
+        for (int i = 0; i < term.tokens.size(); i++) {
+            String token = term.tokens.get(i);
+            boolean prefix = term.prefix && i == term.tokens.size() - 1;
+            Collection<Postings> matches;
+            if (prefix) {
+                matches = dictionary.subMap(token, true, token + Character.MAX_VALUE, false).values();
+            } else {
+                Postings postings = dictionary.get(token);
+                matches = postings != null ? Collections.singletonList(postings) : Collections.emptyList();
+            }
+            // 单个词的查询项只需要 id
+            boolean needPositions = term.tokens.size() > 1;
+            int count = needPositions ? matches.size() : 0;
+            RoaringBitmap tokenIds = new RoaringBitmap();
+            Map<Integer, int[]> positions = count == 1 ? matches.iterator().next().positions : new HashMap<>();
+            for (Postings postings : matches) {
+                tokenIds.or(postings.ids);
+                if (count > 1) {
+                    for (Map.Entry<Integer, int[]> entry : postings.positions.entrySet()) {
+                        positions.merge(entry.getKey(), entry.getValue(), FullTextIndex::concat);
+                    }
+                }
+            }
+            result.add(positions);
+            ids = ids == null ? tokenIds : RoaringBitmap.and(ids, tokenIds);
+        }
+        idsOut[0] = ids;
+        return result;
+    }
+
+    private RoaringBitmap match(Term term) {
+        RoaringBitmap[] ids = new RoaringBitmap[1];
+        List<Map<Integer, int[]>> positions = positionsOf(term, ids);
+        if (term.tokens.size() == 1 || ids[0].isEmpty()) {
+            return ids[0];
+        }
+        // 多个词需要位置相邻
+        RoaringBitmap result = new RoaringBitmap();
+        ids[0].forEachInt(id -> {
+            List<int[]> lists = new ArrayList<>(positions.size());
+            for (Map<Integer, int[]> map : positions) {
+                lists.add(map.get(id));
+            }
+            if (adjacent(lists)) {
+                result.add(id);
+            }
+        });
+        return result;
+    }
+
+    private static boolean adjacent(List<int[]> lists) {
+        for (int start : lists.get(0)) {
+            boolean match = true;
+            for (int i = 1; i < lists.size() && match; i++) {
+                match = contains(lists.get(i), start + i);
+            }
+            if (match) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean contains(int[] positions, int position) {
+        for (int p : positions) {
+            if (p == position) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int[] concat(int[] a, int[] b) {
+        int[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    /**
+     * 不使用索引判断一个值是否满足查询，语义与 search 相同。
+     */
+    public static boolean matches(String text, List<Term> terms) {
+        if (terms.isEmpty()) {
+            return false;
+        }
+        List<String> tokens = tokenize(text);
+        for (Term term : terms) {
+            if (!matches(tokens, term)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(List<String> tokens, Term term) {
+        int n = term.tokens.size();
+        for (int start = 0; start + n <= tokens.size(); start++) {
+            boolean match = true;
+            for (int i = 0; i < n && match; i++) {
+                String expected = term.tokens.get(i);
+                String actual = tokens.get(start + i);
+                match = term.prefix && i == n - 1 ? actual.startsWith(expected) : actual.equals(expected);
+            }
+            if (match) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void optimize() {
+        for (Postings postings : dictionary.values()) {
+            postings.ids.runOptimize();
+        }
+    }
+
+    public long postingBytes() {
+        long bytes = 0;
+        for (Map.Entry<String, Postings> entry : dictionary.entrySet()) {
+            bytes += 40 + entry.getKey().length() * 2L + entry.getValue().ids.sizeInBytes();
+            for (int[] positions : entry.getValue().positions.values()) {
+                bytes += 48 + positions.length * 4L; // HashMap 节点和装箱的键
+            }
+        }
+        return bytes;
+    }
+
+    public int distinctTokens() {
+        return dictionary.size();
+    }
+
+    public void clear() {
+        dictionary.clear();
+    }
+
+    /**
+     * 写出全部条目，格式：词数，(词, 记录数, (id, 位置数, 位置...)...)...
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(dictionary.size());
+        for (Map.Entry<String, Postings> entry : dictionary.entrySet()) {
+            RecordCodec.writeValue(out, entry.getKey());
+            Map<Integer, int[]> positions = entry.getValue().positions;
+            out.writeInt(positions.size());
+            for (Map.Entry<Integer, int[]> doc : positions.entrySet()) {
+                out.writeInt(doc.getKey());
+                out.writeInt(doc.getValue().length);
+                for (int position : doc.getValue()) {
+                    out.writeInt(position);
+                }
+            }
+        }
+    }
+
+    public static FullTextIndex readFrom(DataInput in, String column) throws IOException {
+        FullTextIndex index = new FullTextIndex(column);
+        int tokenCount = in.readInt();
+        for (int i = 0; i < tokenCount; i++) {
+            String token = (String) RecordCodec.readValue(in);
+            Postings postings = new Postings();
+            int docCount = in.readInt();
+            for (int j = 0; j < docCount; j++) {
+                int id = in.readInt();
+                int[] positions = new int[in.readInt()];
+                for (int k = 0; k < positions.length; k++) {
+                    positions[k] = in.readInt();
+                }
+                postings.ids.add(id);
+                postings.positions.put(id, positions);
+            }
+            index.dictionary.put(token, postings);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,71 @@
+package idb.core;
+
+import idb.model.Record;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 全部记录放在堆上的行存储。put 保存、get/values 返回的都是对象本身，读取不复制；
+ * TableImpl 对外部传入的记录先复制再写入，交给表外部的记录也先复制（见 returnsStoredRecords）。
+ */
+public class HeapRowStore implements RowStore {
+    public static final String NAME = "heap";
+
+    private final Map<Integer, Record> records = new HashMap<>();
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public Record get(int id) {
+        return records.get(id);
+    }
+
+    @Override
+    public void put(Record record) {
+        records.put(record.getId(), record);
+    }
+
+    @Override
+    public Record remove(int id) {
+        return records.remove(id);
+    }
+
+    @Override
+    public boolean contains(int id) {
+        return records.containsKey(id);
+    }
+
+    @Override
+    public int size() {
+        return records.size();
+    }
+
+    @Override
+    public int[] ids() {
+        return records.keySet().stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    @Override
+    public void clear() {
+        records.clear();
+    }
+
+    @Override
+    public Iterable<Record> values() {
+        return records.values();
+    }
+
+    @Override
+    public boolean returnsStoredRecords() {
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return records.toString();
+    }
+}
@@ -0,0 +1,152 @@
+package idb.core;
+
+import idb.model.Record;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * 一次在线索引构建。后台线程先取 id 快照，再分批在读锁下扫描，批与批之间写入照常进行；
+ * 构建期间的写入在表写锁内同步应用到构建中的索引上，扫描结束后在写锁内一次性发布。
+ */
+public class IndexBuild {
+    public enum State {
+        RUNNING, DONE, CANCELLED, FAILED
+    }
+
+    /**
+     * 构建中的索引，由 TableImpl 提供。
+     */
+    interface Target {
+        void add(Record record);
+
+        void remove(Record record);
+
+        void optimize();
+
+        // 放入表的索引容器，在表写锁内调用
+        void publish();
+    }
+
+    private final String spec;
+    private final Target target;
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    private volatile boolean cancelRequested;
+    private volatile long total = -1;
+    private volatile long scanned;
+
+    IndexBuild(String spec, Target target) {
+        this.spec = spec;
+        this.target = target;
+    }
+
+    // 索引已经存在时返回的构建
+    static IndexBuild completed(String spec) {
+        IndexBuild build = new IndexBuild(spec, null);
+        build.total = 0;
+        build.done.complete(null);
+        return build;
+    }
+
+    public String getSpec() {
+        return spec;
+    }
+
+    /**
+     * 待扫描的记录数，取得 id 快照之前为 -1。
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    public long getScanned() {
+        return scanned;
+    }
+
+    /**
+     * 0 到 1 之间的进度，发布之后才为 1。
+     */
+    public double getProgress() {
+        if (done.isDone()) {
+            return getState() == State.DONE ? 1.0 : (total > 0 ? (double) scanned / total : 0.0);
+        }
+        return total > 0 ? Math.min(0.99, (double) scanned / total) : 0.0;
+    }
+
+    public State getState() {
+        if (!done.isDone()) {
+            return State.RUNNING;
+        }
+        if (done.isCancelled()) {
+            return State.CANCELLED;
+        }
+        return done.isCompletedExceptionally() ? State.FAILED : State.DONE;
+    }
+
+    public boolean isDone() {
+        return done.isDone();
+    }
+
+    /**
+     * 请求取消，构建线程在下一批扫描前放弃已建的部分。已结束的构建返回 false。
+     */
+    public boolean cancel() {
+        if (done.isDone()) {
+            return false;
+        }
+        cancelRequested = true;
+        return true;
+    }
+
+    /**
+     * 等待构建结束。被取消时抛出 CancellationException，构建失败时抛出失败原因。
+     */
+    public void await() {
+        try {
+            done.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public CompletableFuture<Void> future() {
+        return done;
+    }
+
+    boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    Target target() {
+        return target;
+    }
+
+    void setTotal(long total) {
+        this.total = total;
+    }
+
+    void setScanned(long scanned) {
+        this.scanned = scanned;
+    }
+
+    void markDone() {
+        done.complete(null);
+    }
+
+    void markCancelled() {
+        done.completeExceptionally(new CancellationException("Index build " + spec + " cancelled"));
+    }
+
+    void markFailed(Throwable cause) {
+        done.completeExceptionally(cause);
+    }
+
+    @Override
+    public String toString() {
+        return "IndexBuild{" + spec + ", " + getState() + ", " + scanned + "/" + total + "}";
+    }
+}
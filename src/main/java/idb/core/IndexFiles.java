@@ -0,0 +1,190 @@
+package idb.core;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * 二级索引的持久化。索引定义按行记录在 &lt;表文件&gt;.indexes 中（如 "ordered:age"、"composite:city,state"），
+ * 覆盖索引在定义后附加包含列（如 "hash:age+name,email"）。
+ * 每个索引的内容写入 &lt;表文件&gt;.&lt;定义的哈希&gt;.idx：
+ * 魔数、数据指纹、定义、索引条目，最后是此前全部内容的 CRC32。
+ * 数据指纹由表的数据文件（名称、长度、修改时间）和列类型定义计算，与当前不一致或校验失败的索引文件视为过期。
+ */
+public class IndexFiles {
+    private static final byte[] MAGIC = "IDBIDX01".getBytes(StandardCharsets.US_ASCII);
+
+    public interface Writer {
+        void write(DataOutput out) throws IOException;
+    }
+
+    public interface Reader<T> {
+        T read(DataInput in) throws IOException;
+    }
+
+    private final String basePath;
+
+    public IndexFiles(String basePath) {
+        this.basePath = basePath;
+    }
+
+    public static String spec(ColumnIndex index) {
+        return spec(index.getColumn(), index.getType(), index.getIncludes());
+    }
+
+    public static String spec(String column, IndexType type, List<String> includes) {
+        String spec = type.name().toLowerCase() + ":" + column;
+        return includes.isEmpty() ? spec : spec + "+" + String.join(",", includes);
+    }
+
+    public static String spec(CompositeIndex index) {
+        return "composite:" + String.join(",", index.getColumns());
+    }
+
+    public static String spec(FullTextIndex index) {
+        return "fulltext:" + index.getColumn();
+    }
+
+    public static String spec(BloomIndex index) {
+        return "bloom:" + index.getColumn();
+    }
+
+    public static boolean isBloom(String spec) {
+        return spec.startsWith("bloom:");
+    }
+
+    public static boolean isFullText(String spec) {
+        return spec.startsWith("fulltext:");
+    }
+
+    public static boolean isComposite(String spec) {
+        return spec.startsWith("composite:");
+    }
+
+    public static IndexType typeOf(String spec) {
+        return IndexType.valueOf(spec.substring(0, spec.indexOf(':')).toUpperCase());
+    }
+
+    public static List<String> columnsOf(String spec) {
+        String columns = spec.substring(spec.indexOf(':') + 1);
+        if (isComposite(spec)) {
+            return Arrays.asList(columns.split(","));
+        }
+        int plus = columns.indexOf('+');
+        return Arrays.asList(plus < 0 ? columns : columns.substring(0, plus));
+    }
+
+    /**
+     * 覆盖索引的包含列，其他索引返回空列表。
+     */
+    public static List<String> includesOf(String spec) {
+        int plus = spec.indexOf('+');
+        if (plus < 0 || isComposite(spec)) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(spec.substring(plus + 1).split(","));
+    }
+
+    /**
+     * 按文件名、长度和修改时间以及列类型定义计算指纹，不读取文件内容。
+     */
+    public static long fingerprint(List<File> files, String schema) {
+        CRC32 crc = new CRC32();
+        crc.update(schema.getBytes(StandardCharsets.UTF_8));
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        for (File file : files) {
+            crc.update(file.getName().getBytes(StandardCharsets.UTF_8));
+            buffer.clear();
+            buffer.putLong(file.exists() ? file.length() : -1);
+            buffer.putLong(file.lastModified());
+            crc.update(buffer.array());
+        }
+        return crc.getValue();
+    }
+
+    public File definitionsFile() {
+        return new File(basePath + ".indexes");
+    }
+
+    public List<String> loadDefinitions() throws IOException {
+        List<String> specs = new ArrayList<>();
+        File file = definitionsFile();
+        if (file.exists()) {
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                if (!line.trim().isEmpty()) {
+                    specs.add(line.trim());
+                }
+            }
+        }
+        return specs;
+    }
+
+    public void saveDefinitions(Collection<String> specs) throws IOException {
+        File file = definitionsFile();
+        File tmpFile = new File(file.getPath() + ".tmp");
+        Files.write(tmpFile.toPath(), specs, StandardCharsets.UTF_8);
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public File fileFor(String spec) {
+        CRC32 crc = new CRC32();
+        crc.update(spec.getBytes(StandardCharsets.UTF_8));
+        return new File(basePath + "." + Long.toHexString(crc.getValue()) + ".idx");
+    }
+
+    public void write(String spec, long fingerprint, Writer body) throws IOException {
+        File file = fileFor(spec);
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tmpFile)) {
+            BufferedOutputStream buffered = new BufferedOutputStream(fileOut, 64 * 1024);
+            CheckedOutputStream checked = new CheckedOutputStream(buffered, new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.write(MAGIC);
+            out.writeLong(fingerprint);
+            out.writeUTF(spec);
+            body.write(out);
+            out.flush();
+            new DataOutputStream(buffered).writeLong(checked.getChecksum().getValue());
+            buffered.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 读取与 fingerprint 匹配且校验通过的索引文件，否则返回 null。
+     */
+    public <T> T read(String spec, long fingerprint, Reader<T> body) throws IOException {
+        File file = fileFor(spec);
+        if (!file.exists() || file.length() < MAGIC.length + 16) {
+            return null;
+        }
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        int contentLength = bytes.length - 8;
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, contentLength);
+        if (crc.getValue() != ByteBuffer.wrap(bytes, contentLength, 8).getLong()) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, contentLength));
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC) || in.readLong() != fingerprint || !in.readUTF().equals(spec)) {
+            return null;
+        }
+        return body.read(in);
+    }
+
+    public void delete(String spec) throws IOException {
+        Files.deleteIfExists(fileFor(spec).toPath());
+    }
+}
@@ -0,0 +1,19 @@
+package idb.core;
+
+/**
+ * 二级索引的类型。
+ * HASH: 哈希表，只支持等值查找；
+ * ORDERED: 按键有序（跳表），额外支持范围查询和按索引顺序输出；
+ * FULLTEXT: 字符串列的倒排索引，供 Table.search 使用；
+ * BLOOM: 布隆过滤器，只用来快速排除不存在的值，可以与其他索引并存。
+ */
+public enum IndexType {
+    HASH,
+    ORDERED,
+    FULLTEXT,
+    BLOOM;
+
+    public static IndexType fromString(String value) {
+        return valueOf(value.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,571 @@
+package idb.core;
+
+import idb.model.Record;
+import idb.utils.IntIntHashMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 日志结构合并树（LSM）行存储，适合写多读少的表。
+ * 写入先进入按 id 有序的内存表，内存表写满后整体刷成一个不可变的有序运行文件；
+ * 删除写入墓碑。后台线程按大小分层合并相邻的运行文件，合并到最老的文件时丢弃墓碑。
+ * 运行文件列表记录在 MANIFEST 中，存储本身即持久化副本，表的检查点只需刷出内存表。
+ */
+public class LsmRowStore implements RowStore {
+    private static final Logger logger = Logger.getLogger(LsmRowStore.class.getName());
+
+    public static final String NAME = "lsm";
+    public static final long DEFAULT_MEMTABLE_BYTES = 4L * 1024 * 1024;
+    // 同一层的相邻运行文件达到该数量时合并
+    static final int COMPACTION_TRIGGER = 4;
+    static final int TIER_FACTOR = 4;
+    private static final String MANIFEST = "MANIFEST";
+    private static final String RUN_SUFFIX = ".sst";
+
+    private static final ExecutorService compactionExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "idb-lsm-compaction");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final File dir;
+    private final long memtableLimit;
+    // 运行文件列表的替换（刷盘、合并）与读取互斥
+    private final ReentrantReadWriteLock versionLock = new ReentrantReadWriteLock();
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+    // 当前存在的 id，size/contains 无需读盘
+    private final IntIntHashMap liveIds = new IntIntHashMap();
+    private ConcurrentSkipListMap<Integer, byte[]> memtable = new ConcurrentSkipListMap<>();
+    private long memtableBytes;
+    // 从旧到新
+    private List<SortedRunFile> runs = new ArrayList<>();
+    private long nextFileNo = 1;
+    private boolean opened;
+    private boolean closed;
+
+    private volatile long flushes;
+    private volatile long compactions;
+    private volatile long compactedBytes;
+    private volatile long lastCompactionMillis;
+
+    public LsmRowStore(String dirPath) {
+        this(dirPath, DEFAULT_MEMTABLE_BYTES);
+    }
+
+    public LsmRowStore(String dirPath, long memtableLimit) {
+        this.dir = new File(dirPath);
+        this.memtableLimit = memtableLimit;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * 存储目录中是否已有 MANIFEST，用于判断是否需要从旧的基础文件导入。
+     */
+    public boolean exists() {
+        return new File(dir, MANIFEST).exists();
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return true;
+    }
+
+    // 运行文件只增不改，MANIFEST 的变化即反映数据的变化
+    @Override
+    public List<File> dataFiles() {
+        return Collections.singletonList(new File(dir, MANIFEST));
+    }
+
+    @Override
+    public void open() throws IOException {
+        versionLock.writeLock().lock();
+        try {
+            if (opened) {
+                return;
+            }
+            Files.createDirectories(dir.toPath());
+            List<String> names = new ArrayList<>();
+            File manifest = new File(dir, MANIFEST);
+            if (manifest.exists()) {
+                for (String line : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+                    if (!line.trim().isEmpty()) {
+                        names.add(line.trim());
+                    }
+                }
+            }
+            // 清理未登记的文件（崩溃时未完成的刷盘或合并）
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (!file.getName().equals(MANIFEST) && !names.contains(file.getName())) {
+                        Files.deleteIfExists(file.toPath());
+                    }
+                }
+            }
+            List<SortedRunFile> loaded = new ArrayList<>();
+            for (String name : names) {
+                loaded.add(SortedRunFile.open(new File(dir, name)));
+                synchronized (this) {
+                    nextFileNo = Math.max(nextFileNo, parseFileNo(name) + 1);
+                }
+            }
+            runs = loaded;
+            liveIds.clear();
+            Iterator<Map.Entry<Integer, byte[]>> entries = merged(Collections.emptyList(), loaded, true);
+            while (entries.hasNext()) {
+                liveIds.put(entries.next().getKey(), 1);
+            }
+            this.opened = true;
+            this.closed = false;
+        } finally {
+            versionLock.writeLock().unlock();
+        }
+        scheduleCompactionIfNeeded();
+    }
+
+    private static long parseFileNo(String name) {
+        try {
+            return Long.parseLong(name.substring(0, name.length() - RUN_SUFFIX.length()));
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public Record get(int id) {
+        if (!liveIds.containsKey(id)) {
+            return null;
+        }
+        versionLock.readLock().lock();
+        try {
+            byte[] value = memtable.get(id);
+            for (int i = runs.size() - 1; value == null && i >= 0; i--) {
+                value = runs.get(i).find(id);
+            }
+            return value == null || value == SortedRunFile.TOMBSTONE ? null : RecordCodec.decode(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            versionLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void put(Record record) throws IOException {
+        write(record.getId(), RecordCodec.encode(record));
+        liveIds.put(record.getId(), 1);
+    }
+
+    @Override
+    public Record remove(int id) throws IOException {
+        Record previous = get(id);
+        if (previous == null) {
+            return null;
+        }
+        write(id, SortedRunFile.TOMBSTONE);
+        liveIds.remove(id);
+        return previous;
+    }
+
+    private void write(int id, byte[] value) throws IOException {
+        byte[] previous = memtable.put(id, value);
+        memtableBytes += 8 + value.length - (previous == null ? 0 : 8 + previous.length);
+        if (memtableBytes >= memtableLimit) {
+            flush();
+        }
+    }
+
+    /**
+     * 把内存表刷成新的运行文件并登记到 MANIFEST。
+     */
+    @Override
+    public void flush() throws IOException {
+        if (memtable.isEmpty()) {
+            return;
+        }
+        File file = newRunFile();
+        SortedRunFile.write(file, memtable.entrySet().iterator());
+        SortedRunFile run = SortedRunFile.open(file);
+        versionLock.writeLock().lock();
+        try {
+            List<SortedRunFile> next = new ArrayList<>(runs);
+            next.add(run);
+            writeManifest(next);
+            runs = next;
+            memtable = new ConcurrentSkipListMap<>();
+            memtableBytes = 0;
+        } finally {
+            versionLock.writeLock().unlock();
+        }
+        flushes++;
+        scheduleCompactionIfNeeded();
+    }
+
+    private synchronized File newRunFile() {
+        return new File(dir, String.format("%08d%s", nextFileNo++, RUN_SUFFIX));
+    }
+
+    private void writeManifest(List<SortedRunFile> list) throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (SortedRunFile run : list) {
+            content.append(run.getFile().getName()).append('\n');
+        }
+        File tmpFile = new File(dir, MANIFEST + ".tmp");
+        Files.write(tmpFile.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(tmpFile.toPath(), new File(dir, MANIFEST).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private int tier(long length) {
+        int tier = 0;
+        for (long size = length; size >= memtableLimit; size /= TIER_FACTOR) {
+            tier++;
+        }
+        return tier;
+    }
+
+    // 找出同一层中相邻的一组运行文件；只合并相邻文件才能保持新旧顺序
+    private List<SortedRunFile> pickCompaction() {
+        versionLock.readLock().lock();
+        try {
+            int start = 0;
+            for (int i = 1; i <= runs.size(); i++) {
+                if (i == runs.size() || tier(runs.get(i).length()) != tier(runs.get(start).length())) {
+                    if (i - start >= COMPACTION_TRIGGER) {
+                        return new ArrayList<>(runs.subList(start, i));
+                    }
+                    start = i;
+                }
+            }
+            return null;
+        } finally {
+            versionLock.readLock().unlock();
+        }
+    }
+
+    private void scheduleCompactionIfNeeded() {
+        if (pickCompaction() != null && compactionScheduled.compareAndSet(false, true)) {
+            compactionExecutor.submit(() -> {
+                try {
+                    List<SortedRunFile> inputs;
+                    while ((inputs = pickCompaction()) != null && compact(inputs)) {
+                        // 合并后可能又凑满一层，继续合并
+                    }
+                } catch (IOException | RuntimeException e) {
+                    logger.log(Level.SEVERE, "Failed to compact " + dir, e);
+                } finally {
+                    compactionScheduled.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * 合并一组相邻的运行文件。合并期间不持有锁，只在替换文件列表时短暂加写锁。
+     */
+    boolean compact(List<SortedRunFile> inputs) throws IOException {
+        long start = System.nanoTime();
+        boolean includesOldest;
+        File file;
+        versionLock.readLock().lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            includesOldest = !runs.isEmpty() && runs.get(0) == inputs.get(0);
+            file = newRunFile();
+        } finally {
+            versionLock.readLock().unlock();
+        }
+        long inputBytes = 0;
+        for (SortedRunFile run : inputs) {
+            inputBytes += run.length();
+        }
+        // 没有更老的文件时，墓碑已经没有可以遮盖的数据
+        SortedRunFile.write(file, merged(Collections.emptyList(), inputs, includesOldest));
+        SortedRunFile output = SortedRunFile.open(file);
+
+        versionLock.writeLock().lock();
+        try {
+            int from = runs.indexOf(inputs.get(0));
+            if (closed || from < 0 || from + inputs.size() > runs.size()
+                    || !runs.subList(from, from + inputs.size()).equals(inputs)) {
+                // 期间存储被清空或关闭
+                output.close();
+                Files.deleteIfExists(file.toPath());
+                return false;
+            }
+            List<SortedRunFile> next = new ArrayList<>(runs.subList(0, from));
+            next.add(output);
+            next.addAll(runs.subList(from + inputs.size(), runs.size()));
+            writeManifest(next);
+            runs = next;
+            for (SortedRunFile run : inputs) {
+                run.close();
+                Files.deleteIfExists(run.getFile().toPath());
+            }
+        } finally {
+            versionLock.writeLock().unlock();
+        }
+        compactions++;
+        compactedBytes += inputBytes;
+        lastCompactionMillis = (System.nanoTime() - start) / 1_000_000;
+        logger.fine("Compacted " + inputs.size() + " runs (" + inputBytes + " bytes) in " + dir
+                + " into " + file.getName() + " in " + lastCompactionMillis + " ms");
+        return true;
+    }
+
+    /**
+     * 多路归并：memtables 与 runs 均按从旧到新排列，相同 id 取最新的一份。
+     */
+    private static Iterator<Map.Entry<Integer, byte[]>> merged(List<Map<Integer, byte[]>> memtables,
+                                                               List<SortedRunFile> runs,
+                                                               boolean dropTombstones) throws IOException {
+        List<Iterator<Map.Entry<Integer, byte[]>>> sources = new ArrayList<>();
+        for (SortedRunFile run : runs) {
+            sources.add(run.iterator());
+        }
+        for (Map<Integer, byte[]> table : memtables) {
+            sources.add(table.entrySet().iterator());
+        }
+        return new MergingIterator(sources, dropTombstones);
+    }
+
+    private static class MergingIterator implements Iterator<Map.Entry<Integer, byte[]>> {
+        private static class Head {
+            final Map.Entry<Integer, byte[]> entry;
+            final int source;
+
+            Head(Map.Entry<Integer, byte[]> entry, int source) {
+                this.entry = entry;
+                this.source = source;
+            }
+        }
+
+        private final List<Iterator<Map.Entry<Integer, byte[]>>> sources;
+        private final boolean dropTombstones;
+        // id 相同时来源序号大（更新）的排在前面
+        private final PriorityQueue<Head> heads = new PriorityQueue<>((a, b) -> {
+            int byId = Integer.compare(a.entry.getKey(), b.entry.getKey());
+            return byId != 0 ? byId : Integer.compare(b.source, a.source);
+        });
+        private Map.Entry<Integer, byte[]> next;
+
+        MergingIterator(List<Iterator<Map.Entry<Integer, byte[]>>> sources, boolean dropTombstones) {
+            this.sources = sources;
+            this.dropTombstones = dropTombstones;
+            for (int i = 0; i < sources.size(); i++) {
+                advance(i);
+            }
+        }
+
+        private void advance(int source) {
+            Iterator<Map.Entry<Integer, byte[]>> iterator = sources.get(source);
+            if (iterator.hasNext()) {
+                heads.add(new Head(iterator.next(), source));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !heads.isEmpty()) {
+                Head head = heads.poll();
+                advance(head.source);
+                int id = head.entry.getKey();
+                while (!heads.isEmpty() && heads.peek().entry.getKey() == id) {
+                    advance(heads.poll().source); // 被更新来源覆盖的旧版本
+                }
+                if (!(dropTombstones && head.entry.getValue() == SortedRunFile.TOMBSTONE)) {
+                    next = head.entry;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<Integer, byte[]> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<Integer, byte[]> result = next;
+            next = null;
+            return result;
+        }
+    }
+
+    @Override
+    public boolean contains(int id) {
+        return liveIds.containsKey(id);
+    }
+
+    @Override
+    public int[] ids() {
+        int[] ids = new int[liveIds.size()];
+        int[] count = new int[1];
+        liveIds.forEach((id, value) -> ids[count[0]++] = id);
+        return ids;
+    }
+
+    @Override
+    public int size() {
+        return liveIds.size();
+    }
+
+    @Override
+    public void clear() throws IOException {
+        versionLock.writeLock().lock();
+        try {
+            writeManifest(Collections.emptyList());
+            for (SortedRunFile run : runs) {
+                run.close();
+                Files.deleteIfExists(run.getFile().toPath());
+            }
+            runs = new ArrayList<>();
+            memtable = new ConcurrentSkipListMap<>();
+            memtableBytes = 0;
+            liveIds.clear();
+        } finally {
+            versionLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 按 id 顺序归并内存表和全部运行文件。
+     */
+    @Override
+    public Iterable<Record> values() {
+        return () -> {
+            versionLock.readLock().lock();
+            try {
+                return decoded(merged(Collections.singletonList(memtable), runs, true));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                versionLock.readLock().unlock();
+            }
+        };
+    }
+
+    /**
+     * 按 id 区间划分，每个分区只归并各运行文件中落在区间内的部分，起点借助稀疏索引定位。
+     */
+    @Override
+    public List<Iterable<Record>> partitions(int rowsPerPartition) {
+        int[] ids = ids();
+        Arrays.sort(ids);
+        List<Iterable<Record>> partitions = new ArrayList<>();
+        for (int from = 0; from < ids.length; from += rowsPerPartition) {
+            int low = ids[from];
+            // 最后一个分区不设上界
+            long high = from + rowsPerPartition < ids.length ? ids[from + rowsPerPartition] : Long.MAX_VALUE;
+            partitions.add(() -> {
+                versionLock.readLock().lock();
+                try {
+                    List<Iterator<Map.Entry<Integer, byte[]>>> sources = new ArrayList<>();
+                    for (SortedRunFile run : runs) {
+                        sources.add(run.iterator(low, high));
+                    }
+                    NavigableMap<Integer, byte[]> rows = high > Integer.MAX_VALUE
+                            ? memtable.tailMap(low, true) : memtable.subMap(low, true, (int) high, false);
+                    sources.add(rows.entrySet().iterator());
+                    return decoded(new MergingIterator(sources, true));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    versionLock.readLock().unlock();
+                }
+            });
+        }
+        return partitions;
+    }
+
+    private static Iterator<Record> decoded(Iterator<Map.Entry<Integer, byte[]>> entries) {
+        return new Iterator<Record>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public Record next() {
+                try {
+                    return RecordCodec.decode(entries.next().getValue());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        versionLock.readLock().lock();
+        try {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            long runBytes = 0;
+            long tombstones = 0;
+            long bloomBytes = 0;
+            double bloomFpp = 0;
+            List<Integer> tiers = new ArrayList<>();
+            for (SortedRunFile run : runs) {
+                runBytes += run.length();
+                tombstones += run.getTombstoneCount();
+                tiers.add(tier(run.length()));
+                bloomBytes += run.bloomBytes();
+                bloomFpp = Math.max(bloomFpp, run.bloomFpp());
+            }
+            stats.put("memtableRows", memtable.size());
+            stats.put("memtableBytes", memtableBytes);
+            stats.put("runs", runs.size());
+            stats.put("runTiers", tiers);
+            stats.put("runBytes", runBytes);
+            stats.put("tombstones", tombstones);
+            stats.put("runBloomBytes", bloomBytes);
+            stats.put("runBloomFpp", bloomFpp); // 各运行文件中最高的估计误判率
+            stats.put("memtableFlushes", flushes);
+            stats.put("compactions", compactions);
+            stats.put("compactedBytes", compactedBytes);
+            stats.put("lastCompactionMillis", lastCompactionMillis);
+            return stats;
+        } finally {
+            versionLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        versionLock.writeLock().lock();
+        try {
+            for (SortedRunFile run : runs) {
+                run.close();
+            }
+            closed = true;
+            opened = false;
+        } finally {
+            versionLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LsmRowStore{dir=" + dir + ", rows=" + size() + "}";
+    }
+}
@@ -0,0 +1,259 @@
+package idb.core;
+
+import idb.model.Record;
+import idb.utils.IntIntHashMap;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+
+/**
+ * 基于页的行存储：记录编码后存放在固定大小的页中，只有缓冲池里的热点页常驻内存，
+ * 堆上只保留 id 到页号的页目录。读取冷记录只需调入一个页。
+ * 页文件是工作文件，每次加载表时由基础文件、增量文件和 WAL 重新生成。
+ */
+public class PagedRowStore implements RowStore {
+    public static final String NAME = "paged";
+
+    private final BufferPool pool;
+    private final IntIntHashMap directory = new IntIntHashMap();
+    // 删除或迁移后空间过半的页，供后续插入复用
+    private final ArrayDeque<Integer> reusablePages = new ArrayDeque<>();
+    private final Set<Integer> reusablePageSet = new HashSet<>();
+    private int fillPage = -1;
+
+    public PagedRowStore(String filePath) {
+        this(filePath, BufferPool.DEFAULT_PAGE_SIZE, BufferPool.DEFAULT_CAPACITY);
+    }
+
+    public PagedRowStore(String filePath, int pageSize, int poolPages) {
+        this.pool = new BufferPool(filePath, pageSize, poolPages);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public Record get(int id) {
+        int pageNo = directory.get(id, -1);
+        if (pageNo < 0) {
+            return null;
+        }
+        try {
+            BufferPool.Page page = pool.pin(pageNo);
+            try {
+                return RecordCodec.decode(page.getRow(id));
+            } finally {
+                pool.unpin(page, false);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void put(Record record) throws IOException {
+        byte[] bytes = RecordCodec.encode(record);
+        int needed = BufferPool.ROW_HEADER_SIZE + bytes.length;
+        if (BufferPool.PAGE_HEADER_SIZE + needed > pool.getPageSize()) {
+            throw new IOException("Record " + record.getId() + " (" + bytes.length + " bytes) does not fit in a "
+                    + pool.getPageSize() + " byte page");
+        }
+        int id = record.getId();
+        int oldPageNo = directory.get(id, -1);
+        if (oldPageNo >= 0) {
+            BufferPool.Page page = pool.pin(oldPageNo);
+            try {
+                byte[] old = page.getRow(id);
+                if (page.getUsedBytes() - old.length + bytes.length <= pool.getPageSize()) {
+                    page.putRow(id, bytes); // 原页放得下就原地更新
+                    return;
+                }
+                page.removeRow(id);
+                markReusable(page);
+            } finally {
+                pool.unpin(page, true);
+            }
+        }
+
+        BufferPool.Page page = pageWithSpace(needed);
+        try {
+            page.putRow(id, bytes);
+            directory.put(id, page.getPageNo());
+        } finally {
+            pool.unpin(page, true);
+        }
+    }
+
+    private BufferPool.Page pageWithSpace(int needed) throws IOException {
+        if (fillPage >= 0) {
+            BufferPool.Page page = pool.pin(fillPage);
+            if (page.getUsedBytes() + needed <= pool.getPageSize()) {
+                return page;
+            }
+            pool.unpin(page, false);
+        }
+        while (!reusablePages.isEmpty()) {
+            int pageNo = reusablePages.poll();
+            reusablePageSet.remove(pageNo);
+            BufferPool.Page page = pool.pin(pageNo);
+            if (page.getUsedBytes() + needed <= pool.getPageSize()) {
+                fillPage = pageNo;
+                return page;
+            }
+            pool.unpin(page, false);
+        }
+        BufferPool.Page page = pool.allocate();
+        fillPage = page.getPageNo();
+        return page;
+    }
+
+    private void markReusable(BufferPool.Page page) {
+        if (page.getPageNo() != fillPage && page.getUsedBytes() * 2 < pool.getPageSize()
+                && reusablePageSet.add(page.getPageNo())) {
+            reusablePages.add(page.getPageNo());
+        }
+    }
+
+    @Override
+    public Record remove(int id) throws IOException {
+        int pageNo = directory.get(id, -1);
+        if (pageNo < 0) {
+            return null;
+        }
+        BufferPool.Page page = pool.pin(pageNo);
+        try {
+            byte[] bytes = page.removeRow(id);
+            directory.remove(id);
+            markReusable(page);
+            return RecordCodec.decode(bytes);
+        } finally {
+            pool.unpin(page, true);
+        }
+    }
+
+    @Override
+    public boolean contains(int id) {
+        return directory.containsKey(id);
+    }
+
+    @Override
+    public int[] ids() {
+        int[] ids = new int[directory.size()];
+        int[] count = new int[1];
+        directory.forEach((id, value) -> ids[count[0]++] = id);
+        return ids;
+    }
+
+    @Override
+    public int size() {
+        return directory.size();
+    }
+
+    @Override
+    public void clear() throws IOException {
+        pool.reset();
+        directory.clear();
+        reusablePages.clear();
+        reusablePageSet.clear();
+        fillPage = -1;
+    }
+
+    /**
+     * 逐页遍历，每次只解码一个页的记录。
+     */
+    @Override
+    public Iterable<Record> values() {
+        return () -> new Iterator<Record>() {
+            private final int pageCount = pool.getPageCount();
+            private int nextPage;
+            private Iterator<Record> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && nextPage < pageCount) {
+                    current = readPage(nextPage++).iterator();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public Record next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    /**
+     * 按页划分，每个分区顺序读取一段连续的页。
+     */
+    @Override
+    public List<Iterable<Record>> partitions(int rowsPerPartition) {
+        int pageCount = pool.getPageCount();
+        int rowsPerPage = Math.max(1, directory.size() / Math.max(1, pageCount));
+        int pagesPerPartition = Math.max(1, rowsPerPartition / rowsPerPage);
+        List<Iterable<Record>> partitions = new ArrayList<>();
+        for (int from = 0; from < pageCount; from += pagesPerPartition) {
+            int start = from;
+            int end = Math.min(from + pagesPerPartition, pageCount);
+            partitions.add(() -> new Iterator<Record>() {
+                private int nextPage = start;
+                private Iterator<Record> current = Collections.emptyIterator();
+
+                @Override
+                public boolean hasNext() {
+                    while (!current.hasNext() && nextPage < end) {
+                        current = readPage(nextPage++).iterator();
+                    }
+                    return current.hasNext();
+                }
+
+                @Override
+                public Record next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return current.next();
+                }
+            });
+        }
+        return partitions;
+    }
+
+    private List<Record> readPage(int pageNo) {
+        try {
+            BufferPool.Page page = pool.pin(pageNo);
+            try {
+                List<Record> rows = new ArrayList<>(page.getRows().size());
+                for (byte[] bytes : page.getRows().values()) {
+                    rows.add(RecordCodec.decode(bytes));
+                }
+                return rows;
+            } finally {
+                pool.unpin(page, false);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        return pool.getStats();
+    }
+
+    @Override
+    public void close() throws IOException {
+        pool.close();
+    }
+
+    @Override
+    public String toString() {
+        return "PagedRowStore{rows=" + size() + ", " + pool.getStats() + "}";
+    }
+}
@@ -0,0 +1,126 @@
+package idb.core;
+
+import idb.model.Record;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+
+/**
+ * 全表扫描的执行方式。行数达到阈值时把行存储划分为固定大小的分区，
+ * 在 ForkJoin 线程池中并行遍历，每个分区先写入自己的局部结果，最后两两合并；否则在调用线程中顺序遍历。
+ * 调用方需持有表的读锁，分区遍历期间不会有写入。每个 Database 有一个实例，由配置决定线程池和阈值。
+ */
+public class ParallelScan {
+    public static final int DEFAULT_THRESHOLD_ROWS = 100_000;
+    public static final int DEFAULT_PARTITION_ROWS = 16_384;
+
+    private static final ParallelScan DEFAULT = new ParallelScan(ForkJoinPool.commonPool(), DEFAULT_THRESHOLD_ROWS, DEFAULT_PARTITION_ROWS);
+
+    private final ForkJoinPool pool;
+    private final int thresholdRows;
+    private final int partitionRows;
+    private final LongAdder parallelScans = new LongAdder();
+    private final LongAdder sequentialScans = new LongAdder();
+
+    public ParallelScan(ForkJoinPool pool, int thresholdRows, int partitionRows) {
+        if (partitionRows <= 0) {
+            throw new IllegalArgumentException("partitionRows must be positive: " + partitionRows);
+        }
+        this.pool = pool;
+        this.thresholdRows = thresholdRows;
+        this.partitionRows = partitionRows;
+    }
+
+    /**
+     * 没有通过 Database 配置的表使用的默认实例：公共 ForkJoin 池，默认阈值。
+     */
+    public static ParallelScan defaults() {
+        return DEFAULT;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public int getThresholdRows() {
+        return thresholdRows;
+    }
+
+    public int getPartitionRows() {
+        return partitionRows;
+    }
+
+    /**
+     * 遍历 store 中的全部记录。
+     *
+     * @param newBuffer  创建一个分区的局部结果
+     * @param accumulate 把一条记录计入局部结果，可能在多个线程中同时调用（各自的局部结果不同）
+     * @param merge      合并两个局部结果，返回合并后的结果（可以是修改后的第一个参数）
+     */
+    public <A> A scan(RowStore store, Supplier<A> newBuffer, BiConsumer<A, Record> accumulate, BinaryOperator<A> merge) {
+        if (store.size() < thresholdRows || pool.getParallelism() <= 1) {
+            sequentialScans.increment();
+            A result = newBuffer.get();
+            for (Record record : store.values()) {
+                accumulate.accept(result, record);
+            }
+            return result;
+        }
+        parallelScans.increment();
+        List<Iterable<Record>> partitions = store.partitions(partitionRows);
+        if (partitions.isEmpty()) {
+            return newBuffer.get();
+        }
+        return pool.invoke(new ScanTask<>(partitions, 0, partitions.size(), newBuffer, accumulate, merge));
+    }
+
+    public long getParallelScans() {
+        return parallelScans.sum();
+    }
+
+    public long getSequentialScans() {
+        return sequentialScans.sum();
+    }
+
+    private static final class ScanTask<A> extends RecursiveTask<A> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Iterable<Record>> partitions;
+        private final int from;
+        private final int to;
+        private final Supplier<A> newBuffer;
+        private final BiConsumer<A, Record> accumulate;
+        private final BinaryOperator<A> merge;
+
+        ScanTask(List<Iterable<Record>> partitions, int from, int to,
+                 Supplier<A> newBuffer, BiConsumer<A, Record> accumulate, BinaryOperator<A> merge) {
+            this.partitions = partitions;
+            this.from = from;
+            this.to = to;
+            this.newBuffer = newBuffer;
+            this.accumulate = accumulate;
+            this.merge = merge;
+        }
+
+        @Override
+        protected A compute() {
+            if (to - from == 1) {
+                A local = newBuffer.get();
+                for (Record record : partitions.get(from)) {
+                    accumulate.accept(local, record);
+                }
+                return local;
+            }
+            int middle = (from + to) >>> 1;
+            ScanTask<A> right = new ScanTask<>(partitions, middle, to, newBuffer, accumulate, merge);
+            right.fork();
+            A left = new ScanTask<>(partitions, from, middle, newBuffer, accumulate, merge).compute();
+            return merge.apply(left, right.join());
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package idb.core;
+
+import idb.model.Record;
+
+import java.io.*;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * 键集分页（seek）查询的一页结果。nextCursor 记录本页最后一行的排序值和 id，
+ * 传给下一次 seekQuery 即从这一行之后继续，不受前面的页中插入或删除的影响；没有下一页时为 null。
+ * 游标对调用方是不透明的字符串（URL 安全的 Base64）。
+ */
+public class QueryPage {
+    private static final byte CURSOR_VERSION = 1;
+
+    private final List<Record> records;
+    private final String nextCursor;
+
+    QueryPage(List<Record> records, String nextCursor) {
+        this.records = records;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Record> getRecords() {
+        return records;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasMore() {
+        return nextCursor != null;
+    }
+
+    /**
+     * 游标解码后的位置：排序列、方向，以及上一页最后一行的排序值和 id。
+     */
+    static final class Position {
+        final String column;
+        final boolean ascending;
+        final Object value;
+        final int id;
+
+        Position(String column, boolean ascending, Object value, int id) {
+            this.column = column;
+            this.ascending = ascending;
+            this.value = value;
+            this.id = id;
+        }
+    }
+
+    static String encodeCursor(String column, boolean ascending, Record last) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(CURSOR_VERSION);
+            out.writeUTF(column);
+            out.writeBoolean(ascending);
+            RecordCodec.writeValue(out, last.getData(column));
+            out.writeInt(last.getId());
+            out.flush();
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static Position decodeCursor(String cursor) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(cursor)));
+            if (in.readByte() != CURSOR_VERSION) {
+                throw new IllegalArgumentException("Unsupported cursor version");
+            }
+            String column = in.readUTF();
+            boolean ascending = in.readBoolean();
+            Object value = RecordCodec.readValue(in);
+            return new Position(column, ascending, value, in.readInt());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
+    }
+}
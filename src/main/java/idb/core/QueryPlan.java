@@ -0,0 +1,106 @@
+package idb.core;
+
+import idb.utils.RoaringBitmap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * QueryPlanner 生成的等值查询计划：按估计行数从小到大依次求交的索引查找，
+ * 其后按选择率从小到大逐条检查的剩余条件；没有索引查找时全表扫描。
+ */
+public class QueryPlan {
+    /**
+     * 一次索引查找：单列索引的等值查找，或多列索引的最左前缀查找。
+     */
+    public static final class Step {
+        final ColumnIndex columnIndex;
+        final CompositeIndex compositeIndex;
+        final Object[] key;
+        final List<String> columns;
+        final double estimatedRows;
+
+        Step(ColumnIndex index, Object key, double estimatedRows) {
+            this.columnIndex = index;
+            this.compositeIndex = null;
+            this.key = new Object[]{key};
+            this.columns = Collections.singletonList(index.getColumn());
+            this.estimatedRows = estimatedRows;
+        }
+
+        Step(CompositeIndex index, Object[] key, double estimatedRows) {
+            this.columnIndex = null;
+            this.compositeIndex = index;
+            this.key = key;
+            this.columns = index.getColumns().subList(0, key.length);
+            this.estimatedRows = estimatedRows;
+        }
+
+        public List<String> getColumns() {
+            return columns;
+        }
+
+        public double getEstimatedRows() {
+            return estimatedRows;
+        }
+
+        // 返回的位图可能是索引内部的，调用方不能修改
+        RoaringBitmap lookup() {
+            return columnIndex != null ? columnIndex.get(key[0]) : compositeIndex.lookup(key);
+        }
+
+        @Override
+        public String toString() {
+            String spec = columnIndex != null ? IndexFiles.spec(columnIndex) : IndexFiles.spec(compositeIndex);
+            return spec + " (~" + Math.round(estimatedRows) + " rows)";
+        }
+    }
+
+    final List<Step> steps;
+    final List<String> residual;
+    final double estimatedRows;
+    final double cost;
+
+    QueryPlan(List<Step> steps, List<String> residual, double estimatedRows, double cost) {
+        this.steps = steps;
+        this.residual = residual;
+        this.estimatedRows = estimatedRows;
+        this.cost = cost;
+    }
+
+    public boolean isFullScan() {
+        return steps.isEmpty();
+    }
+
+    public List<Step> getSteps() {
+        return steps;
+    }
+
+    public List<String> getResidual() {
+        return residual;
+    }
+
+    public double getEstimatedRows() {
+        return estimatedRows;
+    }
+
+    public double getCost() {
+        return cost;
+    }
+
+    @Override
+    public String toString() {
+        List<String> parts = new ArrayList<>();
+        if (steps.isEmpty()) {
+            parts.add("scan");
+        }
+        for (int i = 0; i < steps.size(); i++) {
+            parts.add((i == 0 ? "index " : "and ") + steps.get(i));
+        }
+        if (!residual.isEmpty()) {
+            parts.add("filter " + residual);
+        }
+        return String.join(" -> ", parts) + String.format(" | rows ~%.0f, cost %.1f", estimatedRows, cost);
+    }
+}
@@ -0,0 +1,114 @@
+package idb.core;
+
+import java.util.*;
+
+/**
+ * 基于代价的等值查询规划。代价以顺序扫描一行为单位：
+ * 全表扫描为 行数 × 1；索引查找为 位图中的 id 数 × 求交代价，加上对候选行按 id 读取的代价。
+ * 单列索引的行数直接取位图大小，多列索引前缀和剩余条件按列统计信息估算（各列视为独立）。
+ * 索引按估计行数从小到大求交，只有求交省下的读取多于求交本身的代价时才继续。
+ */
+public class QueryPlanner {
+    static final double SCAN_ROW_COST = 1.0;
+    // 求交时每个 id 的代价
+    static final double BITMAP_COST = 0.02;
+    // 没有统计信息时假定的等值和范围条件选择率
+    static final double DEFAULT_SELECTIVITY = 0.1;
+    static final double DEFAULT_RANGE_SELECTIVITY = 0.3;
+    // 执行时实际候选行已不多于此数，剩下的索引不再求交，改为逐条检查
+    static final int ADAPTIVE_STOP_ROWS = 64;
+
+    private final long rowCount;
+    private final double fetchCost;
+    private final Map<String, ColumnStatistics> statistics;
+
+    /**
+     * @param fetchCost 按 id 读取一行相对顺序扫描一行的代价
+     */
+    public QueryPlanner(long rowCount, double fetchCost, Map<String, ColumnStatistics> statistics) {
+        this.rowCount = rowCount;
+        this.fetchCost = fetchCost;
+        this.statistics = statistics;
+    }
+
+    public double selectivity(String column, Object value) {
+        ColumnStatistics stats = statistics.get(column);
+        return stats != null ? stats.equalitySelectivity(value) : DEFAULT_SELECTIVITY;
+    }
+
+    public QueryPlan plan(Map<String, Object> conditions, Map<String, ColumnIndex> columnIndexes,
+                          Collection<CompositeIndex> compositeIndexes) {
+        List<QueryPlan.Step> candidates = new ArrayList<>();
+        for (Map.Entry<String, Object> condition : conditions.entrySet()) {
+            ColumnIndex index = columnIndexes.get(condition.getKey());
+            if (index != null) {
+                candidates.add(new QueryPlan.Step(index, condition.getValue(), index.get(condition.getValue()).getCardinality()));
+            }
+        }
+        for (CompositeIndex index : compositeIndexes) {
+            int prefix = index.prefixLength(conditions);
+            // 只用到第一列时与该列的单列索引重复
+            if (prefix == 0 || (prefix == 1 && columnIndexes.containsKey(index.getColumns().get(0)))) {
+                continue;
+            }
+            Object[] key = new Object[prefix];
+            double rows = rowCount;
+            for (int i = 0; i < prefix; i++) {
+                String column = index.getColumns().get(i);
+                key[i] = conditions.get(column);
+                rows *= selectivity(column, key[i]);
+            }
+            candidates.add(new QueryPlan.Step(index, key, rows));
+        }
+        candidates.sort(Comparator.comparingDouble(QueryPlan.Step::getEstimatedRows));
+
+        double scanCost = rowCount * SCAN_ROW_COST;
+        List<QueryPlan.Step> steps = new ArrayList<>();
+        Set<String> covered = new HashSet<>();
+        double rows = rowCount;
+        double lookupCost = 0;
+        for (QueryPlan.Step step : candidates) {
+            if (covered.containsAll(step.getColumns())) {
+                continue;
+            }
+            if (steps.isEmpty()) {
+                if (step.getEstimatedRows() * (BITMAP_COST + fetchCost) >= scanCost) {
+                    break; // 最好的索引也不如全表扫描
+                }
+                rows = step.getEstimatedRows();
+            } else {
+                double selectivity = rowCount == 0 ? 0 : Math.min(1.0, step.getEstimatedRows() / rowCount);
+                if (step.getEstimatedRows() * BITMAP_COST >= rows * (1 - selectivity) * fetchCost) {
+                    continue;
+                }
+                rows *= selectivity;
+            }
+            steps.add(step);
+            covered.addAll(step.getColumns());
+            lookupCost += step.getEstimatedRows() * BITMAP_COST;
+        }
+
+        List<String> residual = new ArrayList<>();
+        for (String column : conditions.keySet()) {
+            if (!covered.contains(column)) {
+                residual.add(column);
+            }
+        }
+        // 选择率低的条件先检查，尽早排除
+        residual.sort(Comparator.comparingDouble(column -> selectivity(column, conditions.get(column))));
+        double cost = steps.isEmpty() ? scanCost : lookupCost + rows * fetchCost;
+        for (String column : residual) {
+            rows *= selectivity(column, conditions.get(column));
+        }
+        return new QueryPlan(steps, residual, rows, cost);
+    }
+
+    /**
+     * 范围条件用有序索引是否比全表扫描便宜。
+     */
+    public boolean preferRangeIndex(String column, Object from, Object to) {
+        ColumnStatistics stats = statistics.get(column);
+        double selectivity = stats != null ? stats.rangeSelectivity(from, to) : DEFAULT_RANGE_SELECTIVITY;
+        return rowCount * selectivity * (BITMAP_COST + fetchCost) < rowCount * SCAN_ROW_COST;
+    }
+}
@@ -0,0 +1,174 @@
+package idb.core;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import idb.model.Record;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Record 的二进制编码，带类型标记，供 WAL 及各二进制存储格式共用。
+ */
+public final class RecordCodec {
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_DOUBLE = 4;
+    private static final byte TYPE_BOOLEAN = 5;
+    private static final byte TYPE_JSON = 6;
+    private static final byte TYPE_TIMESTAMP = 7;
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private RecordCodec() {
+    }
+
+    public static byte[] encode(Record record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeRecord(out, record);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    public static Record decode(byte[] bytes) throws IOException {
+        return readRecord(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    public static void writeRecord(DataOutput out, Record record) throws IOException {
+        out.writeInt(record.getId());
+        Map<String, Object> data = record.getData();
+        out.writeShort(data.size());
+        for (Map.Entry<String, Object> entry : data.entrySet()) {
+            out.writeUTF(entry.getKey());
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    public static Record readRecord(DataInput in) throws IOException {
+        Record record = new Record(in.readInt());
+        int columnCount = in.readUnsignedShort();
+        for (int i = 0; i < columnCount; i++) {
+            String columnName = in.readUTF();
+            record.setData(columnName, readValue(in));
+        }
+        return record;
+    }
+
+    public static void writeValue(DataOutput out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (value instanceof Integer) {
+            out.writeByte(TYPE_INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            out.writeByte(TYPE_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Timestamp) {
+            out.writeByte(TYPE_TIMESTAMP);
+            out.writeLong(((Timestamp) value).getTime());
+            out.writeInt(((Timestamp) value).getNanos());
+        } else if (value instanceof Map || value instanceof List) {
+            // 嵌套结构（如 Preferences.notifications）以 JSON 保存
+            out.writeByte(TYPE_JSON);
+            writeString(out, objectMapper.writeValueAsString(value));
+        } else {
+            out.writeByte(TYPE_STRING);
+            writeString(out, value.toString());
+        }
+    }
+
+    public static Object readValue(DataInput in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_STRING:
+                return readString(in);
+            case TYPE_INT:
+                return in.readInt();
+            case TYPE_LONG:
+                return in.readLong();
+            case TYPE_DOUBLE:
+                return in.readDouble();
+            case TYPE_BOOLEAN:
+                return in.readBoolean();
+            case TYPE_TIMESTAMP:
+                return timestamp(in.readLong(), in.readInt());
+            case TYPE_JSON:
+                return objectMapper.readValue(readString(in), new TypeReference<Object>() {});
+            default:
+                throw new IOException("Unknown value type: " + type);
+        }
+    }
+
+    /**
+     * 直接从 ByteBuffer（如内存映射的段文件）解码一个值，不经过流包装。
+     */
+    public static Object readValue(ByteBuffer in) throws IOException {
+        byte type = in.get();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_STRING:
+                return readString(in);
+            case TYPE_INT:
+                return in.getInt();
+            case TYPE_LONG:
+                return in.getLong();
+            case TYPE_DOUBLE:
+                return in.getDouble();
+            case TYPE_BOOLEAN:
+                return in.get() != 0;
+            case TYPE_TIMESTAMP:
+                return timestamp(in.getLong(), in.getInt());
+            case TYPE_JSON:
+                return objectMapper.readValue(readString(in), new TypeReference<Object>() {});
+            default:
+                throw new IOException("Unknown value type: " + type);
+        }
+    }
+
+    private static Timestamp timestamp(long millis, int nanos) {
+        Timestamp timestamp = new Timestamp(millis);
+        timestamp.setNanos(nanos);
+        return timestamp;
+    }
+
+    public static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (in.hasArray()) {
+            String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+            return value;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // writeUTF 限制 64KB，长字符串改为长度前缀的 UTF-8 字节
+    public static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
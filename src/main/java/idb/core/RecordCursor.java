@@ -0,0 +1,125 @@
+package idb.core;
+
+import idb.model.Record;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 按需读取的查询结果。Table.openCursor 创建时只在读锁下取得候选 id 的快照，
+ * 之后每次取一批 id、在读锁下按 id 读取并重新检查条件，两批之间不持有锁，遍历再慢也不会阻塞写入。
+ * 返回的是读取时刻的记录：遍历期间被删除的行跳过，被修改的行只要仍满足条件就返回新值。
+ * 提前结束时调用 close 释放快照；stream() 返回的流关闭时同样会关闭游标。非线程安全。
+ */
+public class RecordCursor implements Iterator<Record>, Closeable {
+    static final int BATCH_SIZE = 256;
+
+    /**
+     * 读取一批 id 对应的记录，把满足条件的加入 out。实现负责加锁。
+     */
+    interface BatchReader {
+        void read(int[] ids, int count, List<Record> out);
+    }
+
+    private Iterator<Record> rows;
+    private final Runnable onClose;
+    private boolean closed;
+
+    RecordCursor(Iterator<Record> rows, Runnable onClose) {
+        this.rows = rows;
+        this.onClose = onClose;
+    }
+
+    /**
+     * 已经算好的结果。
+     */
+    public static RecordCursor of(Collection<Record> records) {
+        return new RecordCursor(records.iterator(), () -> { });
+    }
+
+    public static RecordCursor empty() {
+        return of(Collections.emptyList());
+    }
+
+    // 按 ids 的顺序分批读取
+    static RecordCursor batched(PrimitiveIterator.OfInt ids, BatchReader reader) {
+        return new RecordCursor(new Iterator<Record>() {
+            private final int[] batch = new int[BATCH_SIZE];
+            private final List<Record> buffer = new ArrayList<>(BATCH_SIZE);
+            private int position;
+
+            @Override
+            public boolean hasNext() {
+                while (position == buffer.size()) {
+                    if (!ids.hasNext()) {
+                        return false;
+                    }
+                    int count = 0;
+                    while (count < BATCH_SIZE && ids.hasNext()) {
+                        batch[count++] = ids.nextInt();
+                    }
+                    buffer.clear();
+                    position = 0;
+                    reader.read(batch, count, buffer);
+                }
+                return true;
+            }
+
+            @Override
+            public Record next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return buffer.get(position++);
+            }
+        }, () -> { });
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !closed && rows.hasNext();
+    }
+
+    @Override
+    public Record next() {
+        if (closed) {
+            throw new NoSuchElementException("Cursor is closed");
+        }
+        return rows.next();
+    }
+
+    /**
+     * 对每条记录做变换（例如只保留部分列），关闭返回的游标即关闭本游标。
+     */
+    public RecordCursor map(UnaryOperator<Record> mapper) {
+        RecordCursor source = this;
+        return new RecordCursor(new Iterator<Record>() {
+            @Override
+            public boolean hasNext() {
+                return source.hasNext();
+            }
+
+            @Override
+            public Record next() {
+                return mapper.apply(source.next());
+            }
+        }, this::close);
+    }
+
+    public Stream<Record> stream() {
+        Spliterator<Record> spliterator = Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(this::close);
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            rows = Collections.emptyIterator();
+            onClose.run();
+        }
+    }
+}
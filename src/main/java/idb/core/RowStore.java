@@ -0,0 +1,121 @@
+package idb.core;
+
+import idb.model.Record;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * 表的行存储。TableImpl 的索引、约束和查询都建立在它之上，
+ * 实现可以把全部记录放在堆上，也可以只在内存中保留热点数据。
+ * 调用方（TableImpl）负责并发控制：写操作在表写锁内进行，读操作可能并发。
+ */
+public interface RowStore extends Closeable {
+    String getName();
+    Record get(int id);
+    void put(Record record) throws IOException;
+    Record remove(int id) throws IOException;
+    boolean contains(int id);
+    int size();
+    void clear() throws IOException;
+    Iterable<Record> values();
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * 为 true 时 get/values/partitions 返回存储中的对象本身（调用方不能修改它们），
+     * 否则每次读取都得到新解码的副本。
+     */
+    default boolean returnsStoredRecords() {
+        return false;
+    }
+
+    /**
+     * 当前全部记录的 id。默认实现遍历 values()，能直接得到 id 的实现应当覆盖它以免解码记录。
+     */
+    default int[] ids() {
+        int[] ids = new int[size()];
+        int count = 0;
+        for (Record record : values()) {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2 + 1);
+            }
+            ids[count++] = record.getId();
+        }
+        return count == ids.length ? ids : Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * 把全部记录划分为大约每块 rowsPerPartition 行的分区，供并行扫描使用，各分区可以在不同线程中同时遍历。
+     * 默认按 id 快照分块、逐条 get；能顺序读取的实现应当覆盖它。
+     */
+    default List<Iterable<Record>> partitions(int rowsPerPartition) {
+        int[] ids = ids();
+        List<Iterable<Record>> partitions = new ArrayList<>();
+        for (int from = 0; from < ids.length; from += rowsPerPartition) {
+            int start = from;
+            int end = Math.min(from + rowsPerPartition, ids.length);
+            partitions.add(() -> new Iterator<Record>() {
+                private int next = start;
+                private Record record;
+
+                @Override
+                public boolean hasNext() {
+                    while (record == null && next < end) {
+                        record = get(ids[next++]);
+                    }
+                    return record != null;
+                }
+
+                @Override
+                public Record next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    Record result = record;
+                    record = null;
+                    return result;
+                }
+            });
+        }
+        return partitions;
+    }
+
+    /**
+     * 加载表之前调用，持久化的实现在这里打开已有的数据文件。
+     */
+    default void open() throws IOException {
+    }
+
+    /**
+     * 为 true 时存储自身就是持久化的副本，表的检查点只需调用 flush，不再写基础文件。
+     */
+    default boolean isPersistent() {
+        return false;
+    }
+
+    /**
+     * 把内存中尚未持久化的数据写入磁盘。
+     */
+    default void flush() throws IOException {
+    }
+
+    /**
+     * 持久化存储中决定数据内容的文件，用于判断持久化的索引是否过期。
+     */
+    default List<File> dataFiles() {
+        return Collections.emptyList();
+    }
+
+    default Map<String, Object> getStats() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    default void close() throws IOException {
+    }
+}
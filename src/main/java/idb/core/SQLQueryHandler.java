@@ -3,20 +3,63 @@ package idb.core;
 import idb.model.Record;
 import net.sf.jsqlparser.JSQLParserException;
 import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.Function;
+import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.expression.Parenthesis;
+import net.sf.jsqlparser.expression.StringValue;
+import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
 import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
+import net.sf.jsqlparser.expression.operators.relational.FullTextSearch;
+import net.sf.jsqlparser.expression.operators.relational.LikeExpression;
 import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.schema.Column;
 import net.sf.jsqlparser.statement.Statement;
+import net.sf.jsqlparser.statement.select.AllColumns;
+import net.sf.jsqlparser.statement.select.Limit;
+import net.sf.jsqlparser.statement.select.OrderByElement;
 import net.sf.jsqlparser.statement.select.PlainSelect;
 import net.sf.jsqlparser.statement.select.Select;
+import net.sf.jsqlparser.statement.select.SelectExpressionItem;
+import net.sf.jsqlparser.statement.select.SelectItem;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
 
 public class SQLQueryHandler {
     private Database database;
 
+    /**
+     * 文本条件：LIKE 或 MATCH ... AGAINST。
+     * searchText 不为 null 时先用 Table.search 取候选记录，再用 check 逐条确认。
+     */
+    private static class TextMatch {
+        final List<String> columns;
+        final String searchText;
+        final Predicate<String> check;
+
+        TextMatch(List<String> columns, String searchText, Predicate<String> check) {
+            this.columns = columns;
+            this.searchText = searchText;
+            this.check = check;
+        }
+
+        Map<Integer, Record> find(Table table) {
+            Map<Integer, Record> result = new HashMap<>();
+            for (String column : columns) {
+                Set<Record> candidates = searchText != null ? table.search(column, searchText) : table.query(new HashMap<>());
+                for (Record record : candidates) {
+                    Object value = record.getData(column);
+                    if (check == null || (value != null && check.test(value.toString()))) {
+                        result.put(record.getId(), record);
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
     public SQLQueryHandler(Database database) {
         this.database = database;
     }
@@ -29,23 +72,342 @@ public class SQLQueryHandler {
             Table table = database.getTable(tableName);
 
             Map<String, Object> conditions = new HashMap<>();
+            List<TextMatch> textMatches = new ArrayList<>();
             Expression where = plainSelect.getWhere();
             if (where != null) {
-                parseExpression(where, conditions);
+                parseExpression(where, conditions, textMatches);
+            }
+
+            String[] columns = selectedColumns(plainSelect);
+            List<OrderByElement> orderBy = plainSelect.getOrderByElements();
+            if (orderBy != null && orderBy.size() > 1) {
+                throw new UnsupportedOperationException("Only single-column ORDER BY is supported");
             }
+            String sortBy = orderBy != null ? orderBy.get(0).getExpression().toString() : null;
+            boolean ascending = orderBy == null || orderBy.get(0).isAsc();
+            long offset = offset(plainSelect);
+            long limit = limit(plainSelect.getLimit());
+            boolean ordered = orderBy != null || limit >= 0 || offset > 0;
+            // 排序后需要的前 n 行，没有 LIMIT 时不限
+            int needed = limit >= 0 ? (int) Math.min(Integer.MAX_VALUE, offset + limit) : Integer.MAX_VALUE;
 
-            return table.query(conditions);
+            if (isAggregate(plainSelect)) {
+                // 聚合的结果每组一行，ORDER BY / LIMIT 作用在结果行上，可以按聚合列排序
+                List<Record> rows = aggregate(plainSelect, table, conditions, textMatches);
+                return ordered ? page(top(rows, needed, sortBy, ascending), offset, null) : new LinkedHashSet<>(rows);
+            }
+            if (textMatches.isEmpty()) {
+                if (!ordered) {
+                    return columns != null ? table.query(conditions, columns) : table.query(conditions);
+                }
+                return page(table.sortedQuery(conditions, sortBy, ascending, needed), offset, columns);
+            }
+            Map<Integer, Record> result = textMatched(table, conditions, textMatches);
+            if (ordered) {
+                return page(top(result.values(), needed, sortBy, ascending), offset, columns);
+            }
+            if (columns == null) {
+                return new HashSet<>(result.values());
+            }
+            Set<Record> projected = new HashSet<>();
+            for (Record record : result.values()) {
+                projected.add(project(record, columns));
+            }
+            return projected;
         }
         throw new UnsupportedOperationException("Only SELECT queries are supported");
     }
 
-    private void parseExpression(Expression expression, Map<String, Object> conditions) {
-        if (expression instanceof EqualsTo) {
+    // 各文本条件的结果与等值条件的结果按 id 求交
+    private static Map<Integer, Record> textMatched(Table table, Map<String, Object> conditions, List<TextMatch> textMatches) {
+        Map<Integer, Record> result = null;
+        for (TextMatch textMatch : textMatches) {
+            Map<Integer, Record> found = textMatch.find(table);
+            if (result == null) {
+                result = found;
+            } else {
+                result.keySet().retainAll(found.keySet());
+            }
+        }
+        if (!conditions.isEmpty()) {
+            Set<Integer> ids = new HashSet<>();
+            for (Record record : table.query(conditions)) {
+                ids.add(record.getId());
+            }
+            result.keySet().retainAll(ids);
+        }
+        return result;
+    }
+
+    private static List<Record> top(Collection<Record> rows, int needed, String sortBy, boolean ascending) {
+        TopK<Record> top = new TopK<>(needed, TableImpl.recordOrder(sortBy, ascending));
+        for (Record record : rows) {
+            top.offer(record);
+        }
+        return top.toList();
+    }
+
+    private static boolean isAggregate(PlainSelect plainSelect) {
+        if (plainSelect.getGroupBy() != null) {
+            return true;
+        }
+        for (SelectItem item : plainSelect.getSelectItems()) {
+            if (item instanceof SelectExpressionItem && ((SelectExpressionItem) item).getExpression() instanceof Function) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 聚合查询：SELECT 列表中只能有聚合函数和 GROUP BY 中的列。结果行含全部分组列，
+     * 聚合列以别名命名，没有别名时为 SQL 中的原文（如 COUNT(*)），ORDER BY 可以引用它。
+     * 没有文本条件时交给 Table.aggregate，以便用索引计数；否则在文本条件的结果上计算。
+     */
+    private static List<Record> aggregate(PlainSelect plainSelect, Table table, Map<String, Object> conditions,
+                                          List<TextMatch> textMatches) {
+        if (plainSelect.getHaving() != null) {
+            throw new UnsupportedOperationException("HAVING is not supported");
+        }
+        List<String> groupBy = new ArrayList<>();
+        if (plainSelect.getGroupBy() != null) {
+            for (Expression expression : plainSelect.getGroupBy().getGroupByExpressionList().getExpressions()) {
+                if (!(expression instanceof Column)) {
+                    throw new UnsupportedOperationException("GROUP BY supports plain columns only: " + expression);
+                }
+                groupBy.add(((Column) expression).getColumnName());
+            }
+        }
+        List<Aggregate> aggregates = new ArrayList<>();
+        for (SelectItem item : plainSelect.getSelectItems()) {
+            if (!(item instanceof SelectExpressionItem)) {
+                throw new UnsupportedOperationException("SELECT * cannot be used with GROUP BY or aggregates");
+            }
+            SelectExpressionItem expressionItem = (SelectExpressionItem) item;
+            Expression expression = expressionItem.getExpression();
+            if (expression instanceof Function) {
+                Aggregate aggregate = parseAggregate((Function) expression);
+                String name = expressionItem.getAlias() != null ? expressionItem.getAlias().getName() : expression.toString();
+                aggregates.add(aggregate.as(name));
+            } else if (!(expression instanceof Column) || !groupBy.contains(((Column) expression).getColumnName())) {
+                throw new UnsupportedOperationException("Column " + expression + " must appear in GROUP BY or be aggregated");
+            }
+        }
+        // 只选分组列时按 COUNT(*) 分组，结果中去掉计数列
+        boolean groupsOnly = aggregates.isEmpty();
+        if (groupsOnly) {
+            aggregates.add(Aggregate.count());
+        }
+        List<Record> rows;
+        if (textMatches.isEmpty()) {
+            rows = table.aggregate(conditions, groupBy, aggregates.toArray(new Aggregate[0]));
+        } else {
+            Aggregation aggregation = new Aggregation(groupBy, aggregates);
+            for (Record record : textMatched(table, conditions, textMatches).values()) {
+                aggregation.add(record);
+            }
+            rows = aggregation.results();
+        }
+        if (groupsOnly) {
+            for (Record row : rows) {
+                row.getData().remove(aggregates.get(0).getName());
+            }
+        }
+        return rows;
+    }
+
+    private static Aggregate parseAggregate(Function function) {
+        String name = function.getName().toUpperCase(Locale.ROOT);
+        List<Expression> parameters = function.getParameters() != null ? function.getParameters().getExpressions() : null;
+        // COUNT(*) 的参数解析为 AllColumns
+        boolean allColumns = function.isAllColumns()
+                || (parameters != null && parameters.size() == 1 && parameters.get(0) instanceof AllColumns);
+        String column = null;
+        if (allColumns) {
+            if (!name.equals("COUNT")) {
+                throw new UnsupportedOperationException("Only COUNT accepts *: " + function);
+            }
+        } else {
+            if (parameters == null || parameters.size() != 1 || !(parameters.get(0) instanceof Column)) {
+                throw new UnsupportedOperationException("Aggregate functions take a single column: " + function);
+            }
+            column = ((Column) parameters.get(0)).getColumnName();
+        }
+        if (function.isDistinct() && !name.equals("COUNT")) {
+            throw new UnsupportedOperationException("DISTINCT is supported with COUNT only: " + function);
+        }
+        switch (name) {
+            case "COUNT":
+                if (column == null) {
+                    return Aggregate.count();
+                }
+                return function.isDistinct() ? Aggregate.countDistinct(column) : Aggregate.count(column);
+            case "SUM":
+                return Aggregate.sum(column);
+            case "MIN":
+                return Aggregate.min(column);
+            case "MAX":
+                return Aggregate.max(column);
+            case "AVG":
+                return Aggregate.avg(column);
+            default:
+                throw new UnsupportedOperationException("Unsupported function: " + function.getName());
+        }
+    }
+
+    /**
+     * 以游标返回查询结果。只有等值条件、没有 ORDER BY / LIMIT 的查询边读边返回，不构造完整结果；
+     * 其余查询先按 executeQuery 算出结果。
+     */
+    public RecordCursor openQuery(String sql) throws JSQLParserException, ReflectiveOperationException, IOException {
+        Statement statement = CCJSqlParserUtil.parse(sql);
+        if (statement instanceof Select && ((Select) statement).getSelectBody() instanceof PlainSelect) {
+            PlainSelect plainSelect = (PlainSelect) ((Select) statement).getSelectBody();
+            Map<String, Object> conditions = new HashMap<>();
+            List<TextMatch> textMatches = new ArrayList<>();
+            if (plainSelect.getWhere() != null) {
+                parseExpression(plainSelect.getWhere(), conditions, textMatches);
+            }
+            if (textMatches.isEmpty() && !isAggregate(plainSelect) && plainSelect.getOrderByElements() == null
+                    && plainSelect.getLimit() == null && plainSelect.getOffset() == null) {
+                Table table = database.getTable(plainSelect.getFromItem().toString());
+                String[] columns = selectedColumns(plainSelect);
+                RecordCursor cursor = table.openCursor(conditions);
+                return columns != null ? cursor.map(record -> project(record, columns)) : cursor;
+            }
+        }
+        return RecordCursor.of(executeQuery(sql));
+    }
+
+    // 跳过前 offset 行，按顺序返回（LinkedHashSet 保持 ORDER BY 的顺序）
+    private static Set<Record> page(List<Record> sorted, long offset, String[] columns) {
+        Set<Record> result = new LinkedHashSet<>();
+        for (int i = (int) Math.min(offset, sorted.size()); i < sorted.size(); i++) {
+            result.add(columns != null ? project(sorted.get(i), columns) : sorted.get(i));
+        }
+        return result;
+    }
+
+    private static Record project(Record record, String[] columns) {
+        Record row = new Record(record.getId());
+        for (String column : columns) {
+            row.setData(column, record.getData(column));
+        }
+        return row;
+    }
+
+    // LIMIT 的行数，没有 LIMIT 时返回 -1
+    private static long limit(Limit limit) {
+        if (limit == null || limit.getRowCount() == null) {
+            return -1;
+        }
+        return rowCount(limit.getRowCount());
+    }
+
+    // LIMIT n OFFSET m 和 LIMIT m, n 两种写法的 OFFSET
+    private static long offset(PlainSelect plainSelect) {
+        if (plainSelect.getOffset() != null) {
+            return rowCount(plainSelect.getOffset().getOffset());
+        }
+        Limit limit = plainSelect.getLimit();
+        return limit != null && limit.getOffset() != null ? rowCount(limit.getOffset()) : 0;
+    }
+
+    private static long rowCount(Expression expression) {
+        if (!(expression instanceof LongValue) || ((LongValue) expression).getValue() < 0) {
+            throw new UnsupportedOperationException("LIMIT and OFFSET must be non-negative numbers: " + expression);
+        }
+        return ((LongValue) expression).getValue();
+    }
+
+    // SELECT 列表全是普通列时返回列名，SELECT * 或含表达式时返回 null（返回完整记录）
+    private static String[] selectedColumns(PlainSelect plainSelect) {
+        List<String> columns = new ArrayList<>();
+        for (SelectItem item : plainSelect.getSelectItems()) {
+            if (!(item instanceof SelectExpressionItem) || !(((SelectExpressionItem) item).getExpression() instanceof Column)) {
+                return null;
+            }
+            columns.add(((Column) ((SelectExpressionItem) item).getExpression()).getColumnName());
+        }
+        return columns.toArray(new String[0]);
+    }
+
+    private void parseExpression(Expression expression, Map<String, Object> conditions, List<TextMatch> textMatches) {
+        if (expression instanceof AndExpression) {
+            AndExpression and = (AndExpression) expression;
+            parseExpression(and.getLeftExpression(), conditions, textMatches);
+            parseExpression(and.getRightExpression(), conditions, textMatches);
+        } else if (expression instanceof Parenthesis) {
+            parseExpression(((Parenthesis) expression).getExpression(), conditions, textMatches);
+        } else if (expression instanceof EqualsTo) {
             EqualsTo equalsTo = (EqualsTo) expression;
             String columnName = equalsTo.getLeftExpression().toString();
             String value = equalsTo.getRightExpression().toString().replaceAll("'", "");
             conditions.put(columnName, value);
+        } else if (expression instanceof LikeExpression) {
+            textMatches.add(parseLike((LikeExpression) expression));
+        } else if (expression instanceof FullTextSearch) {
+            FullTextSearch match = (FullTextSearch) expression;
+            List<String> columns = new ArrayList<>();
+            for (Column column : match.getMatchColumns()) {
+                columns.add(column.getColumnName());
+            }
+            textMatches.add(new TextMatch(columns, stringValue(match.getAgainstValue()), null));
         }
         // 添加更多的表达式解析逻辑，以支持更复杂的查询条件
     }
+
+    private static String stringValue(Expression expression) {
+        if (expression instanceof StringValue) {
+            return ((StringValue) expression).getValue();
+        }
+        return expression.toString().replaceAll("'", "");
+    }
+
+    private TextMatch parseLike(LikeExpression like) {
+        String column = like.getLeftExpression().toString();
+        String pattern = stringValue(like.getRightExpression());
+        Pattern regex = likeToRegex(pattern, like.isCaseInsensitive());
+        if (like.isNot()) {
+            return new TextMatch(Collections.singletonList(column), null, value -> !regex.matcher(value).matches());
+        }
+        return new TextMatch(Collections.singletonList(column), likeSearchText(pattern), value -> regex.matcher(value).matches());
+    }
+
+    /**
+     * 由 LIKE 模式开头的字面部分构造全文检索条件，结果是 LIKE 结果的超集：
+     * 'foo bar%' -> "foo bar*"（最后一个词可能只写了一半，按前缀匹配）。
+     * 模式以通配符开头时返回 null，只能逐条匹配。
+     */
+    private static String likeSearchText(String pattern) {
+        int end = 0;
+        while (end < pattern.length() && pattern.charAt(end) != '%' && pattern.charAt(end) != '_') {
+            end++;
+        }
+        List<String> tokens = FullTextIndex.tokenize(pattern.substring(0, end));
+        if (tokens.isEmpty()) {
+            return null;
+        }
+        return String.join(" ", tokens) + "*";
+    }
+
+    private static Pattern likeToRegex(String pattern, boolean caseInsensitive) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (char c : pattern.toCharArray()) {
+            if (c == '%' || c == '_') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '%' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL | (caseInsensitive ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0));
+    }
 }
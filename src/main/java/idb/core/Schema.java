@@ -0,0 +1,119 @@
+package idb.core;
+
+import idb.model.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 表的列类型定义，文本形式为 "name:string,age:int"。
+ * 未在其中出现的列不做类型转换。
+ */
+public class Schema {
+    private final Map<String, ColumnType> columns = new LinkedHashMap<>();
+
+    public static Schema parse(String spec) {
+        Schema schema = new Schema();
+        for (String part : spec.split(",")) {
+            if (part.trim().isEmpty()) {
+                continue;
+            }
+            int colon = part.indexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("Invalid column definition: " + part);
+            }
+            schema.addColumn(part.substring(0, colon).trim(), ColumnType.fromString(part.substring(colon + 1)));
+        }
+        return schema;
+    }
+
+    /**
+     * 按所有记录中出现过的值推断每列的类型。
+     */
+    public static Schema infer(Iterable<Record> records) {
+        Schema schema = new Schema();
+        for (Record record : records) {
+            for (Map.Entry<String, Object> entry : record.getData().entrySet()) {
+                if (entry.getValue() != null) {
+                    ColumnType type = ColumnType.infer(entry.getValue());
+                    schema.columns.merge(entry.getKey(), type, ColumnType::widen);
+                }
+            }
+        }
+        return schema;
+    }
+
+    public static Schema load(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        return parse(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim());
+    }
+
+    public void save(File file) throws IOException {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        Files.write(tmpFile.toPath(), toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void addColumn(String column, ColumnType type) {
+        columns.put(column, type);
+    }
+
+    public ColumnType getType(String column) {
+        return columns.get(column);
+    }
+
+    public Map<String, ColumnType> getColumns() {
+        return Collections.unmodifiableMap(columns);
+    }
+
+    /**
+     * 按列类型转换单个值，无法转换时抛出 IllegalArgumentException。
+     */
+    public Object coerce(String column, Object value) {
+        ColumnType type = columns.get(column);
+        if (type == null) {
+            return value;
+        }
+        try {
+            return type.coerce(value);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid " + type.name().toLowerCase() + " value for column " + column + ": " + value, e);
+        }
+    }
+
+    /**
+     * 原地转换记录的各列，返回是否有值被改变。
+     */
+    public boolean coerce(Record record) {
+        boolean changed = false;
+        for (Map.Entry<String, Object> entry : record.getData().entrySet()) {
+            Object value = entry.getValue();
+            Object typed = coerce(entry.getKey(), value);
+            if (typed != value) {
+                entry.setValue(typed);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder spec = new StringBuilder();
+        for (Map.Entry<String, ColumnType> entry : columns.entrySet()) {
+            if (spec.length() > 0) {
+                spec.append(',');
+            }
+            spec.append(entry.getKey()).append(':').append(entry.getValue().name().toLowerCase());
+        }
+        return spec.toString();
+    }
+}
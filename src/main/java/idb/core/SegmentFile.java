@@ -0,0 +1,105 @@
+package idb.core;
+
+import idb.model.Record;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * 内存映射的只读段文件。打开时解析列名和尾部的行数，加载时从头到尾顺序解码各行。
+ */
+public class SegmentFile implements Closeable {
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final String[] columns;
+    private final int rowCount;
+    private final int rowsOffset;
+
+    private SegmentFile(File file, FileChannel channel, MappedByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+
+        int size = buffer.limit();
+        if (size < SegmentStorageFormat.MAGIC.length + 4 + SegmentStorageFormat.TRAILER_SIZE) {
+            throw new IOException("Segment file too short: " + file);
+        }
+        checkMagic(0);
+        checkMagic(size - SegmentStorageFormat.MAGIC.length);
+        ByteBuffer trailer = buffer.duplicate();
+        trailer.position(size - SegmentStorageFormat.TRAILER_SIZE);
+        trailer.getLong(); // 索引偏移
+        this.rowCount = trailer.getInt();
+
+        ByteBuffer header = buffer.duplicate();
+        header.position(SegmentStorageFormat.MAGIC.length);
+        this.columns = new String[header.getInt()];
+        for (int i = 0; i < columns.length; i++) {
+            byte[] name = new byte[header.getShort() & 0xFFFF];
+            header.get(name);
+            columns[i] = new String(name, StandardCharsets.UTF_8);
+        }
+        this.rowsOffset = header.position();
+    }
+
+    public static SegmentFile open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Segment file larger than 2GB is not supported: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new SegmentFile(file, channel, buffer);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void checkMagic(int position) throws IOException {
+        byte[] magic = new byte[SegmentStorageFormat.MAGIC.length];
+        buffer.duplicate().position(position).get(magic);
+        if (!Arrays.equals(magic, SegmentStorageFormat.MAGIC)) {
+            throw new IOException("Not a segment file: " + file);
+        }
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public void forEach(Consumer<Record> sink) throws IOException {
+        ByteBuffer in = buffer.duplicate();
+        in.position(rowsOffset);
+        for (int row = 0; row < rowCount; row++) {
+            int length = in.getInt();
+            int end = in.position() + length;
+            Record record = new Record(in.getInt());
+            for (String column : columns) {
+                Object value = RecordCodec.readValue(in);
+                if (value != null) {
+                    record.setData(column, value);
+                }
+            }
+            if (in.position() != end) {
+                throw new IOException("Corrupt row " + row + " in " + file);
+            }
+            sink.accept(record);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,84 @@
+package idb.core;
+
+import idb.model.Record;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * 二进制段文件格式：
+ * [magic][int 列数][列名...]
+ * [行: int 长度, int id, 按列顺序的带类型值...]
+ * [尾部索引: 每行 int id + long 偏移]
+ * [long 索引偏移][int 行数][magic]
+ * 读取时通过 SegmentFile 内存映射，按行顺序解码；尾部索引保留在格式中，读取时只用到行数。
+ */
+public class SegmentStorageFormat implements StorageFormat {
+    public static final String NAME = "segment";
+    static final byte[] MAGIC = "IDBSEG01".getBytes(StandardCharsets.US_ASCII);
+    static final int TRAILER_SIZE = 8 + 4 + 8;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getFileExtension() {
+        return ".seg";
+    }
+
+    @Override
+    public void write(File file, Iterable<Record> records) throws IOException {
+        Set<String> columnSet = new LinkedHashSet<>();
+        for (Record record : records) {
+            columnSet.addAll(record.getData().keySet());
+        }
+        String[] columns = columnSet.toArray(new String[0]);
+
+        List<long[]> rowIndex = new ArrayList<>();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.write(MAGIC);
+            out.writeInt(columns.length);
+            for (String column : columns) {
+                out.writeUTF(column);
+            }
+            long offset = out.size();
+
+            ByteArrayOutputStream rowBytes = new ByteArrayOutputStream(256);
+            DataOutputStream row = new DataOutputStream(rowBytes);
+            for (Record record : records) {
+                rowBytes.reset();
+                row.writeInt(record.getId());
+                for (String column : columns) {
+                    RecordCodec.writeValue(row, record.getData(column));
+                }
+                out.writeInt(rowBytes.size());
+                rowBytes.writeTo(out);
+                rowIndex.add(new long[]{record.getId(), offset});
+                offset += 4 + rowBytes.size();
+            }
+
+            long indexOffset = offset;
+            for (long[] entry : rowIndex) {
+                out.writeInt((int) entry[0]);
+                out.writeLong(entry[1]);
+            }
+            out.writeLong(indexOffset);
+            out.writeInt(rowIndex.size());
+            out.write(MAGIC);
+        }
+    }
+
+    @Override
+    public void read(File file, Consumer<Record> sink) throws IOException {
+        try (SegmentFile segment = SegmentFile.open(file)) {
+            segment.forEach(sink);
+        }
+    }
+}
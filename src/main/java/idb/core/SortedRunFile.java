@@ -0,0 +1,325 @@
+package idb.core;
+
+import idb.utils.BloomFilter;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * LSM 存储中不可变的有序运行文件。格式：
+ * [magic]，按 id 升序的条目 [int id][int 长度][记录编码]（长度为 -1 表示墓碑），
+ * 稀疏索引 [int id][long 偏移]...（约每 4KB 一项），全部 id（含墓碑）的布隆过滤器，
+ * 尾部 [long 布隆过滤器偏移][long 索引偏移][int 索引项数][int 条目数][int 墓碑数][int 最小 id][int 最大 id][magic]。
+ * 打开时只把稀疏索引和布隆过滤器读入内存，点查先问布隆过滤器，可能存在时只读一个索引区间。
+ * 旧版本（IDBLSM01）的文件没有布隆过滤器和对应的尾部字段，仍可读取。
+ */
+public class SortedRunFile implements Closeable {
+    static final byte[] MAGIC = "IDBLSM02".getBytes();
+    private static final byte[] MAGIC_V1 = "IDBLSM01".getBytes();
+    static final int TRAILER_SIZE = 8 + 8 + 4 * 5 + MAGIC.length;
+    private static final int TRAILER_SIZE_V1 = 8 + 4 * 5 + MAGIC.length;
+    private static final double BLOOM_FPP = 0.01;
+    private static final int INDEX_INTERVAL_BYTES = 4 * 1024;
+
+    /**
+     * 墓碑标记，按引用比较。
+     */
+    public static final byte[] TOMBSTONE = new byte[0];
+
+    private final File file;
+    private final FileChannel channel;
+    private final int[] indexIds;
+    private final long[] indexOffsets;
+    private final long indexOffset;
+    private final int entryCount;
+    private final int tombstoneCount;
+    private final int minId;
+    private final int maxId;
+    private final BloomFilter bloom;
+
+    private SortedRunFile(File file, FileChannel channel) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        long size = channel.size();
+        if (size < MAGIC.length + TRAILER_SIZE_V1) {
+            throw new IOException("Not a sorted run file: " + file);
+        }
+        byte[] magic = new byte[MAGIC.length];
+        readFully(size - MAGIC.length, MAGIC.length).get(magic);
+        boolean v1 = Arrays.equals(magic, MAGIC_V1);
+        if (!v1 && !Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a sorted run file: " + file);
+        }
+        int trailerSize = v1 ? TRAILER_SIZE_V1 : TRAILER_SIZE;
+        ByteBuffer trailer = readFully(size - trailerSize, trailerSize);
+        long bloomOffset = v1 ? -1 : trailer.getLong();
+        this.indexOffset = trailer.getLong();
+        int indexCount = trailer.getInt();
+        this.entryCount = trailer.getInt();
+        this.tombstoneCount = trailer.getInt();
+        this.minId = trailer.getInt();
+        this.maxId = trailer.getInt();
+        this.indexIds = new int[indexCount];
+        this.indexOffsets = new long[indexCount];
+        ByteBuffer index = readFully(indexOffset, indexCount * 12);
+        for (int i = 0; i < indexCount; i++) {
+            indexIds[i] = index.getInt();
+            indexOffsets[i] = index.getLong();
+        }
+        if (bloomOffset >= 0) {
+            ByteBuffer bytes = readFully(bloomOffset, (int) (size - trailerSize - bloomOffset));
+            this.bloom = BloomFilter.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.array())));
+        } else {
+            this.bloom = null;
+        }
+    }
+
+    public static SortedRunFile open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return new SortedRunFile(file, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 把按 id 升序的条目写成运行文件并 fsync。
+     */
+    public static void write(File file, Iterator<Map.Entry<Integer, byte[]>> entries) throws IOException {
+        try (FileOutputStream fileOut = new FileOutputStream(file);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024))) {
+            out.write(MAGIC);
+            long offset = MAGIC.length;
+            long lastIndexed = -INDEX_INTERVAL_BYTES;
+            ByteArrayOutputStream index = new ByteArrayOutputStream();
+            DataOutputStream indexOut = new DataOutputStream(index);
+            int indexCount = 0;
+            int count = 0;
+            int tombstones = 0;
+            int minId = 0;
+            int maxId = 0;
+            int[] ids = new int[1024];
+            while (entries.hasNext()) {
+                Map.Entry<Integer, byte[]> entry = entries.next();
+                int id = entry.getKey();
+                byte[] value = entry.getValue();
+                if (offset - lastIndexed >= INDEX_INTERVAL_BYTES) {
+                    indexOut.writeInt(id);
+                    indexOut.writeLong(offset);
+                    indexCount++;
+                    lastIndexed = offset;
+                }
+                out.writeInt(id);
+                if (value == TOMBSTONE) {
+                    out.writeInt(-1);
+                    tombstones++;
+                    offset += 8;
+                } else {
+                    out.writeInt(value.length);
+                    out.write(value);
+                    offset += 8 + value.length;
+                }
+                if (count == 0) {
+                    minId = id;
+                }
+                maxId = id;
+                if (count == ids.length) {
+                    ids = Arrays.copyOf(ids, count * 2);
+                }
+                ids[count++] = id;
+            }
+            byte[] indexBytes = index.toByteArray();
+            out.write(indexBytes);
+            // 墓碑也要进过滤器：点查需要在较新的文件中看到删除
+            BloomFilter bloom = new BloomFilter(count, BLOOM_FPP);
+            for (int i = 0; i < count; i++) {
+                bloom.add(ids[i]);
+            }
+            bloom.writeTo(out);
+            out.writeLong(offset + indexBytes.length);
+            out.writeLong(offset);
+            out.writeInt(indexCount);
+            out.writeInt(count);
+            out.writeInt(tombstones);
+            out.writeInt(minId);
+            out.writeInt(maxId);
+            out.write(MAGIC);
+            out.flush();
+            fileOut.getFD().sync();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long length() {
+        return file.length();
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    public int getTombstoneCount() {
+        return tombstoneCount;
+    }
+
+    /**
+     * 布隆过滤器的估计误判率，旧版本文件没有过滤器时返回 1。
+     */
+    public double bloomFpp() {
+        return bloom != null ? bloom.expectedFpp() : 1.0;
+    }
+
+    public long bloomBytes() {
+        return bloom != null ? bloom.sizeInBytes() : 0;
+    }
+
+    /**
+     * 返回记录编码；文件中是墓碑时返回 TOMBSTONE，不存在时返回 null。
+     */
+    public byte[] find(int id) throws IOException {
+        if (entryCount == 0 || id < minId || id > maxId || (bloom != null && !bloom.mightContain(id))) {
+            return null;
+        }
+        int slot = findSlot(id);
+        if (slot < 0) {
+            return null;
+        }
+        long end = slot + 1 < indexOffsets.length ? indexOffsets[slot + 1] : indexOffset;
+        ByteBuffer block = readFully(indexOffsets[slot], (int) (end - indexOffsets[slot]));
+        while (block.hasRemaining()) {
+            int entryId = block.getInt();
+            int length = block.getInt();
+            if (entryId == id) {
+                if (length < 0) {
+                    return TOMBSTONE;
+                }
+                byte[] value = new byte[length];
+                block.get(value);
+                return value;
+            }
+            if (entryId > id) {
+                return null;
+            }
+            if (length > 0) {
+                block.position(block.position() + length);
+            }
+        }
+        return null;
+    }
+
+    // 返回首 id 不大于给定 id 的最后一个索引项
+    private int findSlot(int id) {
+        int low = 0;
+        int high = indexIds.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (indexIds[mid] <= id) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of " + file);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 顺序读取全部条目。使用独立的文件流，文件在读取期间被合并删除也不受影响。
+     */
+    public Iterator<Map.Entry<Integer, byte[]>> iterator() throws IOException {
+        return iterator(Integer.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * 顺序读取 id 在 [fromId, toId) 内的条目，借助稀疏索引跳过之前的区间，读到 toId 即关闭文件。
+     */
+    public Iterator<Map.Entry<Integer, byte[]>> iterator(int fromId, long toId) throws IOException {
+        int slot = fromId == Integer.MIN_VALUE ? -1 : findSlot(fromId);
+        long start = slot < 0 ? MAGIC.length : indexOffsets[slot];
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        try {
+            in.skipNBytes(start);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return new Iterator<Map.Entry<Integer, byte[]>>() {
+            private long position = start;
+            private Map.Entry<Integer, byte[]> next;
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    while (next == null && position < indexOffset) {
+                        int id = in.readInt();
+                        int length = in.readInt();
+                        byte[] value = TOMBSTONE;
+                        if (length >= 0) {
+                            value = new byte[length];
+                            in.readFully(value);
+                        }
+                        position += 8 + Math.max(0, length);
+                        if (id >= toId) {
+                            position = indexOffset;
+                        } else if (id >= fromId) {
+                            next = new AbstractMap.SimpleImmutableEntry<>(id, value);
+                        }
+                    }
+                } catch (IOException e) {
+                    closeQuietly();
+                    throw new UncheckedIOException(e);
+                }
+                if (next == null) {
+                    closeQuietly();
+                }
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<Integer, byte[]> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<Integer, byte[]> result = next;
+                next = null;
+                return result;
+            }
+
+            private void closeQuietly() {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,23 @@
+package idb.core;
+
+import idb.model.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * 表基础文件的存储格式。TableImpl 通过它读写全量数据，增量修改仍由 WAL 负责。
+ */
+public interface StorageFormat {
+    String getName();
+    String getFileExtension();
+    void write(File file, Iterable<Record> records) throws IOException;
+    void read(File file, Consumer<Record> sink) throws IOException;
+
+    default Map<String, Object> getStats() {
+        return Collections.emptyMap();
+    }
+}
@@ -0,0 +1,48 @@
+package idb.core;
+
+import idb.model.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+public final class StorageFormats {
+    private static final Logger logger = Logger.getLogger(StorageFormats.class.getName());
+
+    private StorageFormats() {
+    }
+
+    public static StorageFormat forName(String name) {
+        if (name == null) {
+            return new CsvStorageFormat();
+        }
+        switch (name.trim().toLowerCase()) {
+            case CsvStorageFormat.NAME:
+                return new CsvStorageFormat();
+            case SegmentStorageFormat.NAME:
+                return new SegmentStorageFormat();
+            case CompressedStorageFormat.NAME:
+                return new CompressedStorageFormat();
+            default:
+                throw new IllegalArgumentException("Unknown storage format: " + name);
+        }
+    }
+
+    /**
+     * 把一种格式的表文件转换为另一种格式，例如已有的 CSV 转为段文件。
+     */
+    public static int convert(File source, StorageFormat sourceFormat, File target, StorageFormat targetFormat) throws IOException {
+        List<Record> records = new ArrayList<>();
+        sourceFormat.read(source, records::add);
+        File tmpFile = new File(target.getPath() + ".tmp");
+        targetFormat.write(tmpFile, records);
+        Files.move(tmpFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Converted " + records.size() + " records from " + source + " (" + sourceFormat.getName()
+                + ") to " + target + " (" + targetFormat.getName() + ")");
+        return records.size();
+    }
+}
@@ -7,26 +7,47 @@ import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Stream;
 
 public interface Table {
     String getName();
     void addUniqueConstraint(String columnName);
     void addRecord(Record record) throws IOException;
     void addRecord(Record record, Transaction transaction) throws IOException;
+    void addRecord(Record record, Durability durability) throws IOException;
     void updateRecord(int id, String columnName, Object newValue) throws IOException;
     void updateRecord(int id, String columnName, Object newValue, Transaction transaction) throws IOException;
+    void updateRecord(int id, String columnName, Object newValue, Durability durability) throws IOException;
     void updateRecord(Record record) throws IOException;
+    void updateRecord(Record record, Durability durability) throws IOException;
     void deleteRecord(int id) throws IOException;
     void deleteRecord(int id, Transaction transaction) throws IOException;
+    void deleteRecord(int id, Durability durability) throws IOException;
     Record getRecord(int id);
     void createIndex(String columnName);
+    void createIndex(String columnName, IndexType type);
+    void createIndex(String... columnNames);
+    void createIndex(String columnName, IndexType type, String... includeColumns);
+    IndexBuild createIndexAsync(String columnName, IndexType type);
+    IndexBuild createIndexAsync(String... columnNames);
+    IndexBuild createIndexAsync(String columnName, IndexType type, String... includeColumns);
     Record getRecordByIndex(String columnName, Object value);
     Set<Record> getRecordsByMultiColumnIndex(String[] columnNames, Object[] values);
     Map<Integer, Record> queryRecords(String columnName, Object value);
     Set<Record> query(Map<String, Object> conditions);
+    Set<Record> query(Map<String, Object> conditions, String... columns);
+    RecordCursor openCursor(Map<String, Object> conditions);
+    Stream<Record> stream(Map<String, Object> conditions);
+    List<Record> aggregate(Map<String, Object> conditions, List<String> groupBy, Aggregate... aggregates);
+    Set<Record> search(String column, String text);
+    String explain(Map<String, Object> conditions);
+    void analyze();
     Set<Record> rangeQuery(String column, Object start, Object end);
     List<Record> sortedQuery(Map<String, Object> conditions, String sortBy, boolean ascending);
+    List<Record> sortedQuery(Map<String, Object> conditions, String sortBy, boolean ascending, int limit);
     List<Record> paginatedQuery(Map<String, Object> conditions, int page, int pageSize);
+    QueryPage seekQuery(Map<String, Object> conditions, String sortBy, boolean ascending, int pageSize, String cursor);
     void saveToCSV() throws IOException;
     void loadFromCSV() throws IOException;
+    Map<String, Object> getStats();
 }
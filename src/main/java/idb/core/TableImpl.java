@@ -2,35 +2,114 @@ package idb.core;
 
 import idb.model.Record;
 import idb.utils.Cache;
+import idb.utils.RoaringBitmap;
 import idb.utils.Transaction;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.stream.Stream;
 
+/**
+ * 表的实现。所有查询方法返回的记录都是副本，调用方修改它们不影响表中的数据，
+ * 需要通过 updateRecord 写回；传给 addRecord/updateRecord 的记录也先复制再保存，调用方之后可以继续修改自己的对象。
+ */
 public class TableImpl implements Table {
     private static final Logger logger = Logger.getLogger(TableImpl.class.getName());
+    // WAL 超过该大小时做一次增量检查点
+    private static final long WAL_CHECKPOINT_BYTES = 4L * 1024 * 1024;
+    // 在线构建索引时每批扫描的记录数，批与批之间释放读锁让写入进行
+    private static final int INDEX_BUILD_BATCH = 4096;
+    // 计算列统计信息时抽样的行数
+    private static final int ANALYZE_SAMPLE_ROWS = 30000;
+    // 空闲的索引构建线程保留的时间
+    private static final long INDEX_BUILD_KEEP_ALIVE_SECONDS = 30;
+    // 本表索引的在线构建、过期索引的后台重建和列统计信息的计算，按提交顺序逐个执行。
+    // 每个表各有一个线程，一个表上耗时的构建不会挡住其他表的 createIndex；空闲时线程退出。
+    // close 时关闭，重新 loadFromCSV 时换一个新的
+    private volatile ThreadPoolExecutor indexBuildExecutor;
     private String name;
-    private Map<Integer, Record> records;
+    private RowStore records;
     private Cache<Integer, Record> cache;
     private String csvFilePath;
-    private Map<String, Map<Object, Set<Integer>>> singleColumnIndexes;
-    private Map<String, Map<List<Object>, Set<Integer>>> multiColumnIndexes;
-    private Set<String> uniqueColumns;
+    private Map<String, ColumnIndex> singleColumnIndexes;
+    private Map<List<String>, CompositeIndex> multiColumnIndexes;
+    private Map<String, FullTextIndex> fullTextIndexes;
+    private Map<String, BloomIndex> bloomFilters;
+    private Map<String, UniqueIndex> uniqueIndexes;
     private ReentrantReadWriteLock lock;
+    private WriteAheadLog wal;
+    private Checkpointer checkpointer;
+    private Set<Integer> dirtyIds;
+    private Durability defaultDurability;
+    private StorageFormat storageFormat;
+    private long lastLoadMillis;
+    private long lastLoadRows;
+    private Schema schema;
+    private long schemaMismatches;
+    private IndexFiles indexFiles;
+    // 各索引文件已知有效的数据指纹（本进程读入或写出过的）
+    private final Map<String, Long> savedIndexFingerprints = new ConcurrentHashMap<>();
+    // 进行中的在线索引构建，只在写锁内增删
+    private final List<IndexBuild> runningBuilds = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+    private final LongAdder coveredQueries = new LongAdder();
+    private final LongAdder bloomNegatives = new LongAdder();
+    private final LongAdder indexOnlyCounts = new LongAdder();
+    // 查询规划用的列统计信息
+    private final Map<String, ColumnStatistics> statistics = new ConcurrentHashMap<>();
+    private final LongAdder modificationsSinceAnalyze = new LongAdder();
+    private final AtomicBoolean analyzeScheduled = new AtomicBoolean();
+    private volatile long analyzedRows = -1;
+    private volatile ParallelScan parallelScan = ParallelScan.defaults();
 
     public TableImpl(String name, String csvFilePath) {
+        this(name, csvFilePath, null);
+    }
+
+    public TableImpl(String name, String csvFilePath, FlushScheduler flushScheduler) {
         this.name = name;
         this.csvFilePath = csvFilePath;
-        this.records = new HashMap<>();
+        this.records = new HeapRowStore();
         this.cache = new Cache<>(100); // 设置缓存大小
-        this.singleColumnIndexes = new HashMap<>();
-        this.multiColumnIndexes = new HashMap<>();
-        this.uniqueColumns = new HashSet<>();
+        this.indexBuildExecutor = newIndexBuildExecutor();
+        // 后台重建的索引在读锁下发布，需要并发安全的容器
+        this.singleColumnIndexes = new ConcurrentHashMap<>();
+        this.multiColumnIndexes = new ConcurrentHashMap<>();
+        this.fullTextIndexes = new ConcurrentHashMap<>();
+        this.bloomFilters = new ConcurrentHashMap<>();
+        this.uniqueIndexes = new HashMap<>();
         this.lock = new ReentrantReadWriteLock();
+        this.wal = new WriteAheadLog(csvFilePath + ".wal", flushScheduler);
+        this.checkpointer = new Checkpointer(csvFilePath);
+        this.dirtyIds = new HashSet<>();
+        this.defaultDurability = Durability.GROUP;
+        this.storageFormat = new CsvStorageFormat();
+        this.indexFiles = new IndexFiles(csvFilePath);
+    }
+
+    private ThreadPoolExecutor newIndexBuildExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, INDEX_BUILD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "idb-index-build-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     @Override
@@ -38,23 +117,120 @@ public class TableImpl implements Table {
         return name;
     }
 
+    public Durability getDefaultDurability() {
+        return defaultDurability;
+    }
+
+    public void setDefaultDurability(Durability defaultDurability) {
+        this.defaultDurability = defaultDurability;
+    }
+
+    public StorageFormat getStorageFormat() {
+        return storageFormat;
+    }
+
+    public void setStorageFormat(StorageFormat storageFormat) {
+        this.storageFormat = storageFormat;
+    }
+
+    public Schema getSchema() {
+        return schema;
+    }
+
+    /**
+     * 声明列类型，需在 loadFromCSV 之前调用。未声明时首次加载会根据数据推断，
+     * 结果保存在 &lt;文件&gt;.schema 中，之后的加载沿用同一份类型定义。
+     */
+    public void setSchema(Schema schema) {
+        this.schema = schema;
+    }
+
+    private File schemaFile() {
+        return new File(csvFilePath + ".schema");
+    }
+
+    // 写入前按列类型转换记录
+    private void coerce(Record record) throws IOException {
+        if (schema != null) {
+            try {
+                schema.coerce(record);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+    }
+
+    // 查询条件转换为列类型，无法转换的值原样返回（自然不会匹配）
+    private Object typed(String column, Object value) {
+        if (schema == null) {
+            return value;
+        }
+        try {
+            return schema.coerce(column, value);
+        } catch (IllegalArgumentException e) {
+            return value;
+        }
+    }
+
+    public RowStore getRowStore() {
+        return records;
+    }
+
+    /**
+     * 更换行存储，需在 loadFromCSV 之前调用。
+     */
+    public void setRowStore(RowStore rowStore) {
+        this.records = rowStore;
+    }
+
+    /**
+     * 设置无索引查询的全表扫描方式，通常由 Database 按配置统一设置。
+     */
+    public void setParallelScan(ParallelScan parallelScan) {
+        this.parallelScan = parallelScan;
+    }
+
     @Override
     public void addUniqueConstraint(String columnName) {
-        uniqueColumns.add(columnName);
+        lock.writeLock().lock();
+        try {
+            UniqueIndex index = new UniqueIndex(columnName);
+            for (Record record : records.values()) {
+                if (!index.add(record.getData(columnName), record.getId())) {
+                    throw new IllegalStateException("Duplicate values in column " + columnName + " of table " + name);
+                }
+            }
+            uniqueIndexes.put(columnName, index);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
-    private boolean isUniqueConstraintViolated(String columnName, Object value) {
-        for (Record record : records.values()) {
-            if (record.getData(columnName).equals(value)) {
-                return true;
-            }
+    // 值已被其他记录占用即违反约束；索引条目指向的记录若已不再持有该值则视为失效
+    private void checkUnique(int id, String columnName, Object value) throws IOException {
+        UniqueIndex index = uniqueIndexes.get(columnName);
+        if (index == null) {
+            return;
+        }
+        Integer owner = index.owner(value);
+        if (owner == null || owner == id) {
+            return;
+        }
+        Record holder = records.get(owner);
+        if (holder != null && Objects.equals(holder.getData(columnName), value)) {
+            throw new IOException("Unique constraint violated for column: " + columnName);
+        }
+    }
+
+    private void checkUnique(Record record) throws IOException {
+        for (String column : uniqueIndexes.keySet()) {
+            checkUnique(record.getId(), column, record.getData(column));
         }
-        return false;
     }
 
     @Override
     public void addRecord(Record record) throws IOException {
-        addRecord(record, null);
+        addRecord(record, defaultDurability);
     }
 
     @Override
@@ -62,28 +238,38 @@ public class TableImpl implements Table {
         if (transaction != null) {
             transaction.addOperation(() -> {
                 try {
-                    addRecord(record, null);
+                    addRecord(record, defaultDurability);
                 } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
             });
             return;
         }
+        addRecord(record, defaultDurability);
+    }
 
+    @Override
+    public void addRecord(Record record, Durability durability) throws IOException {
+        CompletableFuture<Void> flushed;
+        coerce(record);
         lock.writeLock().lock();
         try {
-            for (String column : uniqueColumns) {
-                if (isUniqueConstraintViolated(column, record.getData(column))) {
-                    throw new IOException("Unique constraint violated for column: " + column);
-                }
+            checkUnique(record);
+            Record stored = record.copy(); // 调用方之后修改自己的对象不会影响存储和索引
+            Record old = records.get(stored.getId());
+            if (old != null) {
+                removeIndexes(old); // 覆盖已有 id 时先按旧值移除索引条目
             }
-            records.put(record.getId(), record);
-            cache.put(record.getId(), record); // 添加到缓存
-            updateIndexes(record);
-            saveToCSV();
+            records.put(stored);
+            cache.put(stored.getId(), stored); // 添加到缓存
+            updateIndexes(stored);
+            flushed = wal.append(WriteAheadLog.OP_INSERT, stored.getId(), stored, durability);
+            dirtyIds.add(record.getId());
+            checkpointIfNeeded();
         } finally {
             lock.writeLock().unlock();
         }
+        FlushScheduler.await(flushed); // 释放锁之后再等待刷盘
     }
 
     @Override
@@ -97,7 +283,7 @@ public class TableImpl implements Table {
                     cache.put(id, record); // 添加到缓存
                 }
             }
-            return record;
+            return record != null ? record.copy() : null; // 交出副本，缓存中的对象只随写操作变化
         } finally {
             lock.readLock().unlock();
         }
@@ -105,7 +291,7 @@ public class TableImpl implements Table {
 
     @Override
     public void updateRecord(int id, String columnName, Object newValue) throws IOException {
-        updateRecord(id, columnName, newValue, null);
+        updateRecord(id, columnName, newValue, defaultDurability);
     }
 
     @Override
@@ -113,44 +299,80 @@ public class TableImpl implements Table {
         if (transaction != null) {
             transaction.addOperation(() -> {
                 try {
-                    updateRecord(id, columnName, newValue, null);
+                    updateRecord(id, columnName, newValue, defaultDurability);
                 } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
             });
             return;
         }
+        updateRecord(id, columnName, newValue, defaultDurability);
+    }
 
+    @Override
+    public void updateRecord(int id, String columnName, Object newValue, Durability durability) throws IOException {
+        CompletableFuture<Void> flushed = null;
         lock.writeLock().lock();
         try {
             Record record = records.get(id);
             if (record != null) {
-                record.setData(columnName, newValue);
+                Object value;
+                try {
+                    value = schema != null ? schema.coerce(columnName, newValue) : newValue;
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+                checkUnique(id, columnName, value);
+                removeIndexes(record); // 先按旧值移除索引条目
+                record.setData(columnName, value);
+                records.put(record); // 分页存储返回的是副本，需要写回
                 cache.put(id, record); // 更新缓存
                 updateIndexes(record);
-                saveToCSV();
+                flushed = wal.append(WriteAheadLog.OP_UPDATE, id, record, durability);
+                dirtyIds.add(id);
+                checkpointIfNeeded();
             }
         } finally {
             lock.writeLock().unlock();
         }
+        if (flushed != null) {
+            FlushScheduler.await(flushed);
+        }
     }
 
     @Override
     public void updateRecord(Record record) throws IOException {
+        updateRecord(record, defaultDurability);
+    }
+
+    @Override
+    public void updateRecord(Record record, Durability durability) throws IOException {
+        CompletableFuture<Void> flushed;
+        coerce(record);
         lock.writeLock().lock();
         try {
-            records.put(record.getId(), record);
-            cache.put(record.getId(), record); // 更新缓存
-            updateIndexes(record);
-            saveToCSV();
+            checkUnique(record);
+            Record stored = record.copy();
+            // 表只向外交出副本，存储中的对象一定还是修改前的旧值
+            Record old = records.get(stored.getId());
+            if (old != null) {
+                removeIndexes(old);
+            }
+            records.put(stored);
+            cache.put(stored.getId(), stored); // 更新缓存
+            updateIndexes(stored);
+            flushed = wal.append(WriteAheadLog.OP_UPDATE, stored.getId(), stored, durability);
+            dirtyIds.add(record.getId());
+            checkpointIfNeeded();
         } finally {
             lock.writeLock().unlock();
         }
+        FlushScheduler.await(flushed);
     }
 
     @Override
     public void deleteRecord(int id) throws IOException {
-        deleteRecord(id, null);
+        deleteRecord(id, defaultDurability);
     }
 
     @Override
@@ -158,51 +380,464 @@ public class TableImpl implements Table {
         if (transaction != null) {
             transaction.addOperation(() -> {
                 try {
-                    deleteRecord(id, null);
+                    deleteRecord(id, defaultDurability);
                 } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
             });
             return;
         }
+        deleteRecord(id, defaultDurability);
+    }
 
+    @Override
+    public void deleteRecord(int id, Durability durability) throws IOException {
+        CompletableFuture<Void> flushed = null;
         lock.writeLock().lock();
         try {
             Record record = records.remove(id);
             if (record != null) {
                 cache.remove(id); // 从缓存中移除
                 removeIndexes(record);
-                saveToCSV();
+                flushed = wal.append(WriteAheadLog.OP_DELETE, id, null, durability);
+                dirtyIds.add(id);
+                checkpointIfNeeded();
             }
         } finally {
             lock.writeLock().unlock();
         }
+        if (flushed != null) {
+            FlushScheduler.await(flushed);
+        }
     }
 
     @Override
     public void createIndex(String columnName) {
+        createIndex(columnName, IndexType.HASH);
+    }
+
+    @Override
+    public void createIndex(String columnName, IndexType type) {
+        createIndexAsync(columnName, type).await();
+    }
+
+    @Override
+    public void createIndex(String columnName, IndexType type, String... includeColumns) {
+        createIndexAsync(columnName, type, includeColumns).await();
+    }
+
+    @Override
+    public void createIndex(String... columnNames) {
+        createIndexAsync(columnNames).await();
+    }
+
+    @Override
+    public IndexBuild createIndexAsync(String columnName, IndexType type) {
+        return startIndexBuild(type.name().toLowerCase() + ":" + columnName);
+    }
+
+    /**
+     * 创建覆盖索引：除索引列外还保存 includeColumns 的值，只涉及这些列的投影查询不读行存储。
+     */
+    @Override
+    public IndexBuild createIndexAsync(String columnName, IndexType type, String... includeColumns) {
+        if ((type == IndexType.FULLTEXT || type == IndexType.BLOOM) && includeColumns.length > 0) {
+            throw new IllegalArgumentException(type + " indexes cannot include columns");
+        }
+        return startIndexBuild(IndexFiles.spec(columnName, type, Arrays.asList(includeColumns)));
+    }
+
+    @Override
+    public IndexBuild createIndexAsync(String... columnNames) {
+        if (columnNames.length == 1) {
+            return createIndexAsync(columnNames[0], IndexType.HASH);
+        }
+        return startIndexBuild("composite:" + String.join(",", columnNames));
+    }
+
+    /**
+     * 在后台构建 spec 描述的索引。已有同样的索引（如启动时从索引文件恢复的）时返回已完成的构建，
+     * 同样的索引正在构建时返回进行中的那个。
+     */
+    private IndexBuild startIndexBuild(String spec) {
+        return startIndexBuild(spec, false);
+    }
+
+    // replace 为 true 时即使已有该索引也重新构建，完成后替换旧的
+    private IndexBuild startIndexBuild(String spec, boolean replace) {
         lock.writeLock().lock();
         try {
-            Map<Object, Set<Integer>> index = new HashMap<>();
-            for (Record record : records.values()) {
-                Object key = record.getData(columnName);
-                index.computeIfAbsent(key, k -> new HashSet<>()).add(record.getId());
+            if (!replace && hasIndex(spec)) {
+                return IndexBuild.completed(spec);
+            }
+            for (IndexBuild build : runningBuilds) {
+                if (build.getSpec().equals(spec)) {
+                    return build;
+                }
+            }
+            IndexBuild build = new IndexBuild(spec, indexBuildTarget(spec));
+            // 先登记再取 id 快照，此后的每次写入都会同步到构建中的索引
+            runningBuilds.add(build);
+            try {
+                indexBuildExecutor.execute(() -> runIndexBuild(build));
+            } catch (RejectedExecutionException e) {
+                runningBuilds.remove(build);
+                throw new IllegalStateException("Table " + name + " is closed", e);
             }
-            singleColumnIndexes.put(columnName, index);
+            return build;
         } finally {
             lock.writeLock().unlock();
         }
     }
 
+    private IndexBuild.Target indexBuildTarget(String spec) {
+        List<String> columns = IndexFiles.columnsOf(spec);
+        if (IndexFiles.isBloom(spec)) {
+            BloomIndex index = new BloomIndex(columns.get(0), records.size());
+            return new IndexBuild.Target() {
+                public void add(Record record) {
+                    index.add(record);
+                }
+
+                public void remove(Record record) {
+                    index.remove(record);
+                }
+
+                public void optimize() {
+                }
+
+                public void publish() {
+                    bloomFilters.put(index.getColumn(), index);
+                }
+            };
+        }
+        if (IndexFiles.isFullText(spec)) {
+            FullTextIndex index = new FullTextIndex(columns.get(0));
+            return new IndexBuild.Target() {
+                public void add(Record record) {
+                    index.add(record.getId(), record.getData(index.getColumn()));
+                }
+
+                public void remove(Record record) {
+                    index.remove(record.getId(), record.getData(index.getColumn()));
+                }
+
+                public void optimize() {
+                    index.optimize();
+                }
+
+                public void publish() {
+                    fullTextIndexes.put(index.getColumn(), index);
+                }
+            };
+        }
+        if (IndexFiles.isComposite(spec)) {
+            CompositeIndex index = new CompositeIndex(columns);
+            return new IndexBuild.Target() {
+                public void add(Record record) {
+                    index.add(record);
+                }
+
+                public void remove(Record record) {
+                    index.remove(record);
+                }
+
+                public void optimize() {
+                    index.optimize();
+                }
+
+                public void publish() {
+                    multiColumnIndexes.put(index.getColumns(), index);
+                }
+            };
+        }
+        ColumnIndex index = new ColumnIndex(columns.get(0), IndexFiles.typeOf(spec), IndexFiles.includesOf(spec));
+        return new IndexBuild.Target() {
+            public void add(Record record) {
+                index.add(record);
+            }
+
+            public void remove(Record record) {
+                index.remove(record);
+            }
+
+            public void optimize() {
+                index.optimize();
+            }
+
+            public void publish() {
+                singleColumnIndexes.put(index.getColumn(), index);
+            }
+        };
+    }
+
+    /**
+     * 取 id 快照后分批在读锁下扫描，查询不受影响，写入只在批与批之间等待。
+     * 写入在写锁内同时维护构建中的索引（见 updateIndexes/removeIndexes），
+     * 写入与扫描批次互斥，所以无论一条记录先被扫描还是先被修改，索引中留下的都是它的最新值。
+     */
+    private void runIndexBuild(IndexBuild build) {
+        long start = System.nanoTime();
+        IndexBuild.Target target = build.target();
+        try {
+            int[] ids;
+            lock.readLock().lock();
+            try {
+                ids = runningBuilds.contains(build) ? records.ids() : new int[0];
+            } finally {
+                lock.readLock().unlock();
+            }
+            build.setTotal(ids.length);
+            for (int from = 0; from < ids.length && !build.isCancelRequested() && !closed; from += INDEX_BUILD_BATCH) {
+                int to = Math.min(from + INDEX_BUILD_BATCH, ids.length);
+                lock.readLock().lock();
+                try {
+                    if (!runningBuilds.contains(build)) {
+                        break; // 表已重新加载
+                    }
+                    for (int i = from; i < to; i++) {
+                        Record record = records.get(ids[i]);
+                        if (record != null) {
+                            target.add(record);
+                        }
+                    }
+                } finally {
+                    lock.readLock().unlock();
+                }
+                build.setScanned(to);
+            }
+            lock.readLock().lock();
+            try {
+                target.optimize();
+            } finally {
+                lock.readLock().unlock();
+            }
+            boolean published = false;
+            lock.writeLock().lock();
+            try {
+                if (runningBuilds.remove(build) && !closed && !build.isCancelRequested()) {
+                    target.publish();
+                    saveIndexDefinitions();
+                    published = true;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            if (published) {
+                build.markDone();
+                logger.info("Built index " + build.getSpec() + " of table " + name + " (" + ids.length + " rows) in "
+                        + (System.nanoTime() - start) / 1_000_000 + " ms");
+            } else {
+                build.markCancelled();
+                logger.info("Cancelled building index " + build.getSpec() + " of table " + name);
+            }
+        } catch (RuntimeException e) {
+            lock.writeLock().lock();
+            try {
+                runningBuilds.remove(build);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            logger.log(Level.WARNING, "Failed to build index " + build.getSpec() + " of table " + name, e);
+            build.markFailed(e);
+        }
+    }
+
+    private List<String> indexSpecs() {
+        List<String> specs = new ArrayList<>();
+        for (ColumnIndex index : singleColumnIndexes.values()) {
+            specs.add(IndexFiles.spec(index));
+        }
+        for (CompositeIndex index : multiColumnIndexes.values()) {
+            specs.add(IndexFiles.spec(index));
+        }
+        for (FullTextIndex index : fullTextIndexes.values()) {
+            specs.add(IndexFiles.spec(index));
+        }
+        for (BloomIndex index : bloomFilters.values()) {
+            specs.add(IndexFiles.spec(index));
+        }
+        return specs;
+    }
+
+    // 索引定义与已持久化的定义合并保存，尚未重建完成的索引也要保留
+    private void saveIndexDefinitions() {
+        try {
+            Set<String> specs = new LinkedHashSet<>(indexFiles.loadDefinitions());
+            for (String spec : indexSpecs()) {
+                // 同一列的 hash/ordered 索引互相替换，全文索引和布隆过滤器可以与它们并存
+                if (isColumnIndex(spec)) {
+                    specs.removeIf(old -> isColumnIndex(old) && IndexFiles.columnsOf(old).equals(IndexFiles.columnsOf(spec)));
+                }
+                specs.add(spec);
+            }
+            indexFiles.saveDefinitions(specs);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static boolean isColumnIndex(String spec) {
+        return !IndexFiles.isComposite(spec) && !IndexFiles.isFullText(spec) && !IndexFiles.isBloom(spec);
+    }
+
+    private boolean hasIndex(String spec) {
+        List<String> columns = IndexFiles.columnsOf(spec);
+        if (IndexFiles.isComposite(spec)) {
+            return multiColumnIndexes.containsKey(columns);
+        }
+        if (IndexFiles.isFullText(spec)) {
+            return fullTextIndexes.containsKey(columns.get(0));
+        }
+        if (IndexFiles.isBloom(spec)) {
+            return bloomFilters.containsKey(columns.get(0));
+        }
+        ColumnIndex index = singleColumnIndexes.get(columns.get(0));
+        return index != null && index.getType() == IndexFiles.typeOf(spec)
+                && index.getIncludes().containsAll(IndexFiles.includesOf(spec));
+    }
+
+    /**
+     * 加载之后恢复持久化的索引：索引文件与当前数据一致时直接读入，否则在后台在线重建。
+     * 加载前已在内存中创建的索引由 rebuildIndexes 同步重建。
+     */
+    private void restoreIndexes(long fingerprint, boolean filesUsable) throws IOException {
+        List<String> stale = new ArrayList<>();
+        for (String spec : indexFiles.loadDefinitions()) {
+            if (hasIndex(spec)) {
+                continue;
+            }
+            List<String> columns = IndexFiles.columnsOf(spec);
+            if (!isTyped(spec)) {
+                stale.add(spec);
+                continue;
+            }
+            if (IndexFiles.isBloom(spec)) {
+                BloomIndex index = filesUsable ? readIndexFile(spec, fingerprint, in -> BloomIndex.readFrom(in, columns.get(0))) : null;
+                if (index != null) {
+                    bloomFilters.put(index.getColumn(), index);
+                    savedIndexFingerprints.put(spec, fingerprint);
+                    continue;
+                }
+            } else if (IndexFiles.isFullText(spec)) {
+                FullTextIndex index = filesUsable ? readIndexFile(spec, fingerprint, in -> FullTextIndex.readFrom(in, columns.get(0))) : null;
+                if (index != null) {
+                    fullTextIndexes.put(index.getColumn(), index);
+                    savedIndexFingerprints.put(spec, fingerprint);
+                    continue;
+                }
+            } else if (IndexFiles.isComposite(spec)) {
+                CompositeIndex index = filesUsable ? readIndexFile(spec, fingerprint, in -> CompositeIndex.readFrom(in, columns)) : null;
+                if (index != null) {
+                    multiColumnIndexes.put(index.getColumns(), index);
+                    savedIndexFingerprints.put(spec, fingerprint);
+                    continue;
+                }
+            } else {
+                IndexType type = IndexFiles.typeOf(spec);
+                ColumnIndex index = filesUsable ? readIndexFile(spec, fingerprint, in -> ColumnIndex.readFrom(in, columns.get(0), type, IndexFiles.includesOf(spec))) : null;
+                if (index != null) {
+                    singleColumnIndexes.put(index.getColumn(), index);
+                    savedIndexFingerprints.put(spec, fingerprint);
+                    continue;
+                }
+            }
+            stale.add(spec);
+        }
+        if (!stale.isEmpty()) {
+            logger.info("Rebuilding stale indexes of table " + name + " in background: " + stale);
+            for (String spec : stale) {
+                startIndexBuild(spec);
+            }
+        }
+    }
+
+    private <T> T readIndexFile(String spec, long fingerprint, IndexFiles.Reader<T> reader) {
+        try {
+            return indexFiles.read(spec, fingerprint, reader);
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, "Unreadable index file for " + spec + " of table " + name, e);
+            return null;
+        }
+    }
+
+    // 只重写数据指纹已变化的索引文件，调用方需持有表锁
+    private void saveIndexes() {
+        long fingerprint = dataFingerprint();
+        for (ColumnIndex index : singleColumnIndexes.values()) {
+            saveIndex(IndexFiles.spec(index), fingerprint, index::writeTo);
+        }
+        for (CompositeIndex index : multiColumnIndexes.values()) {
+            saveIndex(IndexFiles.spec(index), fingerprint, index::writeTo);
+        }
+        for (FullTextIndex index : fullTextIndexes.values()) {
+            saveIndex(IndexFiles.spec(index), fingerprint, index::writeTo);
+        }
+        for (BloomIndex index : bloomFilters.values()) {
+            saveIndex(IndexFiles.spec(index), fingerprint, index::writeTo);
+        }
+    }
+
+    private void saveIndex(String spec, long fingerprint, IndexFiles.Writer writer) {
+        Long saved = savedIndexFingerprints.get(spec);
+        if (!isTyped(spec) || (saved != null && saved == fingerprint)) {
+            return;
+        }
+        try {
+            indexFiles.write(spec, fingerprint, writer);
+            savedIndexFingerprints.put(spec, fingerprint);
+        } catch (IOException e) {
+            // 索引文件只是缓存，写失败时下次启动重建即可
+            logger.log(Level.WARNING, "Failed to save index " + spec + " of table " + name, e);
+        }
+    }
+
+    // 只有带列类型的值在重新加载后与写入时类型一致，未定义类型的列的索引每次加载时重建
+    private boolean isTyped(String spec) {
+        if (IndexFiles.isBloom(spec)) {
+            return true; // 布隆过滤器按值的字符串形式散列，与类型无关
+        }
+        List<String> columns = new ArrayList<>(IndexFiles.columnsOf(spec));
+        columns.addAll(IndexFiles.includesOf(spec));
+        return isTyped(columns);
+    }
+
+    private boolean isTyped(List<String> columns) {
+        if (schema == null) {
+            return false;
+        }
+        for (String column : columns) {
+            if (schema.getType(column) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 列类型的变化同样使索引文件失效
+    private long dataFingerprint() {
+        List<File> files = new ArrayList<>();
+        if (records.isPersistent()) {
+            files.addAll(records.dataFiles());
+        } else {
+            files.add(new File(csvFilePath));
+            files.addAll(checkpointer.deltaFiles());
+        }
+        return IndexFiles.fingerprint(files, schema != null ? schema.toString() : "");
+    }
+
     @Override
     public Record getRecordByIndex(String columnName, Object value) {
         lock.readLock().lock();
         try {
-            Map<Object, Set<Integer>> index = singleColumnIndexes.get(columnName);
+            if (!mightMatch(Collections.singletonMap(columnName, typed(columnName, value)))) {
+                return null;
+            }
+            ColumnIndex index = singleColumnIndexes.get(columnName);
             if (index != null) {
-                Set<Integer> ids = index.get(value);
-                if (ids != null && !ids.isEmpty()) {
-                    return getRecord(ids.iterator().next()); // 返回第一个匹配的记录
+                RoaringBitmap ids = index.get(typed(columnName, value));
+                if (!ids.isEmpty()) {
+                    return getRecord(ids.first()); // 返回第一个匹配的记录
                 }
             }
             return null;
@@ -215,16 +850,27 @@ public class TableImpl implements Table {
     public Set<Record> getRecordsByMultiColumnIndex(String[] columnNames, Object[] values) {
         lock.readLock().lock();
         try {
-            String indexName = String.join("_", columnNames);
-            Map<List<Object>, Set<Integer>> index = multiColumnIndexes.get(indexName);
+            Object[] key = new Object[values.length];
+            for (int i = 0; i < values.length; i++) {
+                key[i] = typed(columnNames[i], values[i]);
+            }
+            // 列完全相同的索引，或以这些列为最左前缀的索引
+            List<String> columns = Arrays.asList(columnNames);
+            CompositeIndex index = multiColumnIndexes.get(columns);
+            if (index == null) {
+                for (CompositeIndex candidate : multiColumnIndexes.values()) {
+                    if (candidate.getColumns().size() > columns.size()
+                            && candidate.getColumns().subList(0, columns.size()).equals(columns)) {
+                        index = candidate;
+                        break;
+                    }
+                }
+            }
             if (index != null) {
-                List<Object> key = Arrays.asList(values);
-                Set<Integer> ids = index.get(key);
-                if (ids != null && !ids.isEmpty()) {
+                RoaringBitmap ids = index.lookup(key);
+                if (!ids.isEmpty()) {
                     Set<Record> recordsSet = new HashSet<>();
-                    for (Integer id : ids) {
-                        recordsSet.add(getRecord(id));
-                    }
+                    ids.forEachInt(id -> recordsSet.add(getRecord(id)));
                     return recordsSet;
                 }
             }
@@ -239,14 +885,37 @@ public class TableImpl implements Table {
         lock.readLock().lock();
         try {
             Map<Integer, Record> result = new HashMap<>();
+            // 未定义类型的列按字符串比较，与布隆过滤器的散列方式一致
+            if (!mightMatch(Collections.singletonMap(columnName, typed(columnName, value)))) {
+                return result;
+            }
+            boolean typedColumn = schema != null && schema.getType(columnName) != null;
+            ColumnIndex index = singleColumnIndexes.get(columnName);
+            if (index != null) {
+                RoaringBitmap ids = index.get(typed(columnName, value));
+                if (!typedColumn) {
+                    // 未定义类型的列中从 CSV 加载的值是字符串，运行时写入的可能是原值
+                    ids = RoaringBitmap.or(ids, index.get(String.valueOf(value)));
+                }
+                ids.forEachInt(id -> result.put(id, detached(records.get(id))));
+                return result;
+            }
+            if (typedColumn) {
+                // 有列类型时直接比较原生值
+                Object typedValue = typed(columnName, value);
+                return parallelScan.scan(records, HashMap::new, (matched, record) -> {
+                    if (Objects.equals(record.getData(columnName), typedValue)) {
+                        matched.put(record.getId(), detached(record));
+                    }
+                }, TableImpl::mergeInto);
+            }
             String valueAsString = String.valueOf(value); // 将查询值转换为字符串
-            for (Record record : records.values()) {
+            return parallelScan.scan(records, HashMap::new, (matched, record) -> {
                 String recordValueAsString = String.valueOf(record.getData(columnName)); // 将记录值转换为字符串
                 if (recordValueAsString.equals(valueAsString)) {
-                    result.put(record.getId(), record);
+                    matched.put(record.getId(), detached(record));
                 }
-            }
-            return result;
+            }, TableImpl::mergeInto);
         } finally {
             lock.readLock().unlock();
         }
@@ -256,78 +925,394 @@ public class TableImpl implements Table {
     public Set<Record> query(Map<String, Object> conditions) {
         lock.readLock().lock();
         try {
-            Set<Integer> resultIds = null;
-
-            // 使用单列索引进行查询
-            for (String column : conditions.keySet()) {
-                if (singleColumnIndexes.containsKey(column)) {
-                    Map<Object, Set<Integer>> index = singleColumnIndexes.get(column);
-                    Object value = conditions.get(column);
-                    if (index.containsKey(value)) {
-                        Set<Integer> ids = index.get(value);
-                        if (resultIds == null) {
-                            resultIds = new HashSet<>(ids);
-                        } else {
-                            resultIds.retainAll(ids);
-                        }
-                    } else {
-                        return Collections.emptySet(); // 没有匹配的记录
+            RoaringBitmap resultIds = null;
+            conditions = typedConditions(conditions);
+            if (!mightMatch(conditions)) {
+                return Collections.emptySet();
+            }
+
+            QueryPlan plan = planner().plan(conditions, singleColumnIndexes, multiColumnIndexes.values());
+            List<String> residual = new ArrayList<>(plan.getResidual());
+            for (QueryPlan.Step step : plan.getSteps()) {
+                if (resultIds != null && resultIds.getCardinality() <= QueryPlanner.ADAPTIVE_STOP_ROWS) {
+                    // 候选行已经很少，逐条检查比继续求交便宜
+                    residual.addAll(step.getColumns());
+                    continue;
+                }
+                RoaringBitmap ids = step.lookup();
+                resultIds = resultIds == null ? ids.copy() : RoaringBitmap.and(resultIds, ids);
+                if (resultIds.isEmpty()) {
+                    return Collections.emptySet(); // 没有匹配的记录
+                }
+            }
+
+            // 索引未覆盖的条件逐条检查，全表扫描时检查全部条件
+            if (resultIds != null && !residual.isEmpty()) {
+                RoaringBitmap filtered = new RoaringBitmap();
+                for (PrimitiveIterator.OfInt it = resultIds.iterator(); it.hasNext(); ) {
+                    int id = it.nextInt();
+                    Record record = records.get(id);
+                    if (record != null && matches(record, residual, conditions)) {
+                        filtered.add(id);
                     }
                 }
+                resultIds = filtered;
+            } else if (resultIds == null) {
+                Map<String, Object> scanConditions = conditions;
+                resultIds = parallelScan.scan(records, RoaringBitmap::new, (matched, record) -> {
+                    if (matches(record, residual, scanConditions)) {
+                        matched.add(record.getId());
+                    }
+                }, (left, right) -> {
+                    left.or(right);
+                    return left;
+                });
             }
 
-            // 使用多列索引进行查询
-            for (String indexName : multiColumnIndexes.keySet()) {
-                String[] columns = indexName.split("_");
-                List<Object> key = new ArrayList<>();
-                boolean allColumnsMatch = true;
-                for (String column : columns) {
-                    if (conditions.containsKey(column)) {
-                        key.add(conditions.get(column));
-                    } else {
-                        allColumnsMatch = false;
-                        break;
+            // 从记录中获取匹配的结果集
+            Set<Record> resultSet = new HashSet<>();
+            resultIds.forEachInt(id -> resultSet.add(getRecord(id)));
+            return resultSet;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Map<String, Object> typedConditions(Map<String, Object> conditions) {
+        if (schema == null) {
+            return conditions;
+        }
+        Map<String, Object> typedConditions = new HashMap<>();
+        for (Map.Entry<String, Object> condition : conditions.entrySet()) {
+            typedConditions.put(condition.getKey(), typed(condition.getKey(), condition.getValue()));
+        }
+        return typedConditions;
+    }
+
+    /**
+     * 聚合查询，每组一条结果记录。只有 COUNT(*) 且条件都由索引覆盖时不读行：
+     * 不分组时取候选 id 集合的大小，按一列分组且该列有索引时取各键的 id 集合与候选集合交集的大小。
+     * 其余情况在候选行上逐条累加，没有可用索引时并行扫描全表。
+     */
+    @Override
+    public List<Record> aggregate(Map<String, Object> conditions, List<String> groupBy, Aggregate... aggregates) {
+        if (aggregates.length == 0) {
+            throw new IllegalArgumentException("At least one aggregate is required");
+        }
+        List<Aggregate> aggregateList = Arrays.asList(aggregates);
+        Map<String, Object> typedConditions = typedConditions(conditions);
+        Aggregation aggregation = new Aggregation(groupBy, aggregateList);
+        lock.readLock().lock();
+        try {
+            if (!mightMatch(typedConditions)) {
+                return aggregation.results();
+            }
+            QueryPlan plan = planner().plan(typedConditions, singleColumnIndexes, multiColumnIndexes.values());
+            RoaringBitmap candidates = null;
+            for (QueryPlan.Step step : plan.getSteps()) {
+                candidates = candidates == null ? step.lookup().copy() : RoaringBitmap.and(candidates, step.lookup());
+            }
+            List<String> residual = plan.getResidual();
+
+            boolean rowCountOnly = aggregateList.stream().allMatch(Aggregate::isRowCount);
+            if (rowCountOnly && residual.isEmpty()) {
+                RoaringBitmap filter = candidates;
+                if (groupBy.isEmpty()) {
+                    aggregation.addRows(Collections.emptyList(), filter != null ? filter.getCardinality() : records.size());
+                    indexOnlyCounts.increment();
+                    return aggregation.results();
+                }
+                ColumnIndex groupIndex = groupBy.size() == 1 ? singleColumnIndexes.get(groupBy.get(0)) : null;
+                if (groupIndex != null) {
+                    groupIndex.forEachKey((key, ids) -> aggregation.addRows(key,
+                            filter == null ? ids.getCardinality() : RoaringBitmap.and(filter, ids).getCardinality()));
+                    indexOnlyCounts.increment();
+                    return aggregation.results();
+                }
+            }
+
+            if (candidates != null) {
+                for (PrimitiveIterator.OfInt it = candidates.iterator(); it.hasNext(); ) {
+                    Record record = records.get(it.nextInt());
+                    if (record != null && matches(record, residual, typedConditions)) {
+                        aggregation.add(record);
                     }
                 }
+                return aggregation.results();
+            }
+            return parallelScan.scan(records, () -> new Aggregation(groupBy, aggregateList), (partial, record) -> {
+                if (matches(record, residual, typedConditions)) {
+                    partial.add(record);
+                }
+            }, Aggregation::merge).results();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
 
-                if (allColumnsMatch) {
-                    Map<List<Object>, Set<Integer>> index = multiColumnIndexes.get(indexName);
-                    if (index.containsKey(key)) {
-                        Set<Integer> ids = index.get(key);
-                        if (resultIds == null) {
-                            resultIds = new HashSet<>(ids);
-                        } else {
-                            resultIds.retainAll(ids);
-                        }
-                    } else {
-                        return Collections.emptySet(); // 没有匹配的记录
+    /**
+     * 按 id 顺序逐批返回满足条件的记录，不在内存中构造完整结果。
+     * 有可用的索引时快照为索引求交得到的 id 集合，否则为全表 id 的快照，条件在读取每一批时检查。
+     */
+    @Override
+    public RecordCursor openCursor(Map<String, Object> conditions) {
+        Map<String, Object> typedConditions = typedConditions(conditions);
+        PrimitiveIterator.OfInt ids;
+        List<String> checked;
+        lock.readLock().lock();
+        try {
+            if (!mightMatch(typedConditions)) {
+                return RecordCursor.empty();
+            }
+            QueryPlan plan = planner().plan(typedConditions, singleColumnIndexes, multiColumnIndexes.values());
+            RoaringBitmap candidates = null;
+            for (QueryPlan.Step step : plan.getSteps()) {
+                candidates = candidates == null ? step.lookup().copy() : RoaringBitmap.and(candidates, step.lookup());
+            }
+            if (candidates != null) {
+                ids = candidates.iterator();
+            } else {
+                int[] all = records.ids();
+                Arrays.sort(all);
+                ids = Arrays.stream(all).iterator();
+            }
+            // 快照之后行可能被修改，读取时检查全部条件，索引未覆盖的条件先检查
+            checked = new ArrayList<>(plan.getResidual());
+            for (String column : typedConditions.keySet()) {
+                if (!checked.contains(column)) {
+                    checked.add(column);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return RecordCursor.batched(ids, (batch, count, out) -> {
+            lock.readLock().lock();
+            try {
+                for (int i = 0; i < count; i++) {
+                    Record record = records.get(batch[i]);
+                    if (record != null && matches(record, checked, typedConditions)) {
+                        out.add(detached(record));
                     }
                 }
+            } finally {
+                lock.readLock().unlock();
             }
+        });
+    }
 
-            // 如果没有使用索引，则遍历所有记录
-            if (resultIds == null) {
-                resultIds = new HashSet<>();
-                for (Record record : records.values()) {
-                    boolean match = true;
-                    for (String column : conditions.keySet()) {
-                        if (!record.getData(column).equals(conditions.get(column))) {
-                            match = false;
-                            break;
-                        }
+    @Override
+    public Stream<Record> stream(Map<String, Object> conditions) {
+        return openCursor(conditions).stream();
+    }
+
+    /**
+     * 投影查询：返回的记录只含 columns 各列。条件和所需的列都在同一个覆盖索引中时直接用索引条目构造结果，
+     * 不读行存储和缓存；否则按 query 查出完整记录后再投影。
+     */
+    @Override
+    public Set<Record> query(Map<String, Object> conditions, String... columns) {
+        if (columns.length == 0) {
+            return query(conditions);
+        }
+        List<String> wanted = Arrays.asList(columns);
+        lock.readLock().lock();
+        try {
+            Map<String, Object> typed = typedConditions(conditions);
+            Set<Record> resultSet = new HashSet<>();
+            if (!mightMatch(typed)) {
+                return resultSet;
+            }
+            ColumnIndex index = coveringIndex(typed, wanted);
+            if (index == null) {
+                for (Record record : query(conditions)) {
+                    Record projected = new Record(record.getId());
+                    for (String column : wanted) {
+                        projected.setData(column, record.getData(column));
                     }
-                    if (match) {
-                        resultIds.add(record.getId());
+                    resultSet.add(projected);
+                }
+                return resultSet;
+            }
+            coveredQueries.increment();
+            RoaringBitmap ids = typed.containsKey(index.getColumn()) ? index.get(typed.get(index.getColumn())) : index.coveredIds();
+            ids.forEachInt(id -> {
+                for (Map.Entry<String, Object> condition : typed.entrySet()) {
+                    if (!Objects.equals(index.coveredValue(id, condition.getKey()), condition.getValue())) {
+                        return;
                     }
                 }
+                resultSet.add(index.project(id, wanted));
+            });
+            return resultSet;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static boolean matches(Record record, List<String> columns, Map<String, Object> conditions) {
+        for (String column : columns) {
+            if (!Objects.equals(record.getData(column), conditions.get(column))) {
+                return false;
             }
+        }
+        return true;
+    }
 
-            // 从记录中获取匹配的结果集
+    // 交给表外部的记录：存储返回的是内部对象时复制一份，扫描中只复制匹配的行
+    private Record detached(Record record) {
+        return record != null && records.returnsStoredRecords() ? record.copy() : record;
+    }
+
+    private List<Record> detached(List<Record> rows) {
+        if (records.returnsStoredRecords()) {
+            rows.replaceAll(Record::copy);
+        }
+        return rows;
+    }
+
+    // 并行扫描的局部结果合并
+    private static <T> ArrayList<T> mergeInto(ArrayList<T> left, ArrayList<T> right) {
+        left.addAll(right);
+        return left;
+    }
+
+    private static <K, V> HashMap<K, V> mergeInto(HashMap<K, V> left, HashMap<K, V> right) {
+        left.putAll(right);
+        return left;
+    }
+
+    // 按 id 随机读一行相对顺序扫描一行的代价，堆外的存储需要查找和解码
+    private QueryPlanner planner() {
+        scheduleAnalyzeIfNeeded();
+        double fetchCost = records instanceof HeapRowStore ? 1.0 : 4.0;
+        return new QueryPlanner(records.size(), fetchCost, statistics);
+    }
+
+    @Override
+    public String explain(Map<String, Object> conditions) {
+        lock.readLock().lock();
+        try {
+            return planner().plan(typedConditions(conditions), singleColumnIndexes, multiColumnIndexes.values()).toString();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 随机抽样最多 ANALYZE_SAMPLE_ROWS 行，重新计算各列的统计信息。
+     */
+    @Override
+    public void analyze() {
+        lock.readLock().lock();
+        try {
+            if (closed) {
+                return; // 排队的后台分析可能在表关闭之后才拿到锁
+            }
+            long start = System.nanoTime();
+            int[] ids = records.ids();
+            int sampleSize = Math.min(ANALYZE_SAMPLE_ROWS, ids.length);
+            Random random = new Random();
+            Map<String, List<Object>> samples = new HashMap<>();
+            int sampled = 0;
+            for (int i = 0; i < sampleSize; i++) {
+                // 部分 Fisher-Yates 洗牌，前 sampleSize 个即为无放回样本
+                int j = i + random.nextInt(ids.length - i);
+                int id = ids[j];
+                ids[j] = ids[i];
+                Record record = records.get(id);
+                if (record == null) {
+                    continue;
+                }
+                sampled++;
+                for (Map.Entry<String, Object> entry : record.getData().entrySet()) {
+                    List<Object> values = samples.computeIfAbsent(entry.getKey(), k -> new ArrayList<>());
+                    if (entry.getValue() != null) {
+                        values.add(entry.getValue());
+                    }
+                }
+            }
+            Map<String, ColumnStatistics> computed = new HashMap<>();
+            for (Map.Entry<String, List<Object>> entry : samples.entrySet()) {
+                computed.put(entry.getKey(), ColumnStatistics.fromSample(entry.getKey(), entry.getValue(), sampled, ids.length));
+            }
+            statistics.keySet().retainAll(computed.keySet());
+            statistics.putAll(computed);
+            analyzedRows = ids.length;
+            modificationsSinceAnalyze.reset();
+            logger.fine("Analyzed table " + name + " (" + sampled + " of " + ids.length + " rows sampled) in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 没有统计信息或上次分析后改动超过一成时，在后台重新分析
+    private void scheduleAnalyzeIfNeeded() {
+        long rows = records.size();
+        boolean stale = analyzedRows < 0 ? rows > 0 : modificationsSinceAnalyze.sum() > Math.max(1000, analyzedRows / 10);
+        if (stale && !closed && analyzeScheduled.compareAndSet(false, true)) {
+            try {
+                indexBuildExecutor.execute(() -> {
+                    try {
+                        if (!closed) {
+                            analyze();
+                        }
+                    } catch (RuntimeException e) {
+                        logger.log(Level.WARNING, "Failed to analyze table " + name, e);
+                    } finally {
+                        analyzeScheduled.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                analyzeScheduled.set(false); // 表已关闭
+            }
+        }
+    }
+
+    // 任一条件的值被布隆过滤器排除时不可能有匹配的记录
+    private boolean mightMatch(Map<String, Object> conditions) {
+        for (Map.Entry<String, Object> condition : conditions.entrySet()) {
+            BloomIndex index = bloomFilters.get(condition.getKey());
+            if (index != null && !index.mightContain(condition.getValue())) {
+                bloomNegatives.increment();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 能同时回答条件和投影的覆盖索引，优先选索引列出现在条件中的
+    private ColumnIndex coveringIndex(Map<String, Object> conditions, List<String> columns) {
+        ColumnIndex best = null;
+        for (ColumnIndex index : singleColumnIndexes.values()) {
+            if (index.covers(columns) && index.covers(conditions.keySet())) {
+                if (conditions.containsKey(index.getColumn())) {
+                    return index;
+                }
+                best = index;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public Set<Record> search(String column, String text) {
+        List<FullTextIndex.Term> terms = FullTextIndex.parseQuery(text);
+        lock.readLock().lock();
+        try {
             Set<Record> resultSet = new HashSet<>();
-            for (Integer id : resultIds) {
-                resultSet.add(getRecord(id));
+            FullTextIndex index = fullTextIndexes.get(column);
+            if (index != null) {
+                index.search(terms).forEachInt(id -> resultSet.add(detached(records.get(id))));
+                return resultSet;
             }
-            return resultSet;
+            return new HashSet<>(parallelScan.scan(records, ArrayList::new, (matched, record) -> {
+                Object value = record.getData(column);
+                if (value != null && FullTextIndex.matches(value.toString(), terms)) {
+                    matched.add(detached(record));
+                }
+            }, TableImpl::mergeInto));
         } finally {
             lock.readLock().unlock();
         }
@@ -335,20 +1320,30 @@ public class TableImpl implements Table {
 
     @Override
     public Set<Record> rangeQuery(String column, Object start, Object end) {
+        start = typed(column, start);
+        end = typed(column, end);
         lock.readLock().lock();
         try {
             Set<Record> resultSet = new HashSet<>();
-            for (Record record : records.values()) {
-                Object value = record.getData(column);
-                if (value instanceof Comparable) {
-                    Comparable comparableValue = (Comparable) value;
-                    if ((start == null || comparableValue.compareTo(start) >= 0) &&
-                            (end == null || comparableValue.compareTo(end) <= 0)) {
-                        resultSet.add(record);
-                    }
+            ColumnIndex index = singleColumnIndexes.get(column);
+            if (index != null && index.isOrdered() && planner().preferRangeIndex(column, start, end)) {
+                // 只遍历有序索引中落在区间内的键
+                for (RoaringBitmap ids : index.range(start, end).values()) {
+                    ids.forEachInt(id -> resultSet.add(detached(records.get(id))));
                 }
+                return resultSet;
             }
-            return resultSet;
+            Object from = start;
+            Object to = end;
+            return new HashSet<>(parallelScan.scan(records, ArrayList::new, (matched, record) -> {
+                Object value = record.getData(column);
+                // 与有序索引使用同一套键比较，未定型的字符串列遇到数值边界时不会抛 ClassCastException
+                if (value != null &&
+                        (from == null || ColumnIndex.compareKeys(value, from) >= 0) &&
+                        (to == null || ColumnIndex.compareKeys(value, to) <= 0)) {
+                    matched.add(detached(record));
+                }
+            }, TableImpl::mergeInto));
         } finally {
             lock.readLock().unlock();
         }
@@ -356,125 +1351,507 @@ public class TableImpl implements Table {
 
     @Override
     public List<Record> sortedQuery(Map<String, Object> conditions, String sortBy, boolean ascending) {
-        Set<Record> resultSet = query(conditions);
-        List<Record> resultList = new ArrayList<>(resultSet);
-
-        resultList.sort((r1, r2) -> {
-            Comparable value1 = (Comparable) r1.getData(sortBy);
-            Comparable value2 = (Comparable) r2.getData(sortBy);
-            return ascending ? value1.compareTo(value2) : value2.compareTo(value1);
-        });
+        return sortedQuery(conditions, sortBy, ascending, Integer.MAX_VALUE);
+    }
 
-        return resultList;
+    /**
+     * 排序后取前 limit 行（ORDER BY ... LIMIT），sortBy 为 null 时按 id 排序。sortBy 上有有序索引时沿索引读到 limit 行为止，
+     * 否则在扫描中用大小为 limit 的堆保留前 limit 行，不对全部结果排序。
+     */
+    @Override
+    public List<Record> sortedQuery(Map<String, Object> conditions, String sortBy, boolean ascending, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative: " + limit);
+        }
+        return ordered(conditions, sortBy, ascending, null, limit);
     }
 
+    /**
+     * 按 id 顺序分页，页码从 1 开始。每页都要保留前 page × pageSize 行，深翻页应改用 seekQuery。
+     */
     @Override
     public List<Record> paginatedQuery(Map<String, Object> conditions, int page, int pageSize) {
-        List<Record> resultList = new ArrayList<>(query(conditions));
+        long end = (long) page * pageSize;
+        if (page < 1 || pageSize <= 0 || end > Integer.MAX_VALUE) {
+            return Collections.emptyList();
+        }
+        List<Record> resultList = ordered(conditions, null, true, null, (int) end);
         int fromIndex = (page - 1) * pageSize;
-        int toIndex = Math.min(fromIndex + pageSize, resultList.size());
-
-        if (fromIndex >= resultList.size() || fromIndex < 0) {
+        if (fromIndex >= resultList.size()) {
             return Collections.emptyList();
         }
+        return resultList.subList(fromIndex, resultList.size());
+    }
 
-        return resultList.subList(fromIndex, toIndex);
+    /**
+     * 键集分页：cursor 为 null 时取第一页，否则从上一页返回的游标之后继续。
+     * 顺序为 sortBy 的值（null 在最后）再按 id 递增，翻页期间的插入和删除不会让行重复或错位；
+     * 已返回的行被改到游标之后时会再次出现。
+     */
+    @Override
+    public QueryPage seekQuery(Map<String, Object> conditions, String sortBy, boolean ascending, int pageSize, String cursor) {
+        if (pageSize <= 0 || pageSize == Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid page size: " + pageSize);
+        }
+        QueryPage.Position after = null;
+        if (cursor != null) {
+            after = QueryPage.decodeCursor(cursor);
+            if (!after.column.equals(sortBy) || after.ascending != ascending) {
+                throw new IllegalArgumentException("Cursor was issued for a different ordering");
+            }
+        }
+        // 多取一行判断是否还有下一页
+        List<Record> rows = ordered(conditions, sortBy, ascending, after, pageSize + 1);
+        if (rows.size() <= pageSize) {
+            return new QueryPage(rows, null);
+        }
+        rows = new ArrayList<>(rows.subList(0, pageSize));
+        return new QueryPage(rows, QueryPage.encodeCursor(sortBy, ascending, rows.get(pageSize - 1)));
     }
 
-    private void updateIndexes(Record record) {
-        for (String columnName : singleColumnIndexes.keySet()) {
-            Map<Object, Set<Integer>> index = singleColumnIndexes.get(columnName);
-            Object key = record.getData(columnName);
-            index.computeIfAbsent(key, k -> new HashSet<>()).add(record.getId());
+    // 按 sortBy 的值排序（null 在最后），值相同或 sortBy 为 null 时按 id 递增，保证顺序确定
+    static Comparator<Record> recordOrder(String sortBy, boolean ascending) {
+        if (sortBy == null) {
+            return Comparator.comparingInt(Record::getId);
+        }
+        Comparator<Object> order = ascending ? ColumnIndex.KEY_ORDER : ColumnIndex.KEY_ORDER.reversed();
+        return Comparator.<Record, Object>comparing(record -> record.getData(sortBy), Comparator.nullsLast(order))
+                .thenComparingInt(Record::getId);
+    }
+
+    // 满足条件、排在 after 之后的前 limit 行
+    private List<Record> ordered(Map<String, Object> conditions, String sortBy, boolean ascending,
+                                 QueryPage.Position after, int limit) {
+        Map<String, Object> typedConditions = typedConditions(conditions);
+        Comparator<Record> order = recordOrder(sortBy, ascending);
+        Record afterRecord = null;
+        if (after != null) {
+            afterRecord = new Record(after.id);
+            afterRecord.setData(sortBy, after.value);
         }
-        for (String indexName : multiColumnIndexes.keySet()) {
-            Map<List<Object>, Set<Integer>> index = multiColumnIndexes.get(indexName);
-            List<Object> key = new ArrayList<>();
-            String[] columnNames = indexName.split("_");
-            for (String columnName : columnNames) {
-                key.add(record.getData(columnName));
+        lock.readLock().lock();
+        try {
+            if (limit == 0 || !mightMatch(typedConditions)) {
+                return new ArrayList<>();
+            }
+            QueryPlan plan = planner().plan(typedConditions, singleColumnIndexes, multiColumnIndexes.values());
+            RoaringBitmap candidates = null;
+            for (QueryPlan.Step step : plan.getSteps()) {
+                candidates = candidates == null ? step.lookup().copy() : RoaringBitmap.and(candidates, step.lookup());
             }
-            index.computeIfAbsent(key, k -> new HashSet<>()).add(record.getId());
+            List<String> residual = plan.getResidual();
+
+            ColumnIndex index = sortBy != null ? singleColumnIndexes.get(sortBy) : null;
+            if (index != null && index.isOrdered() && (candidates == null
+                    || (double) limit * records.size() / Math.max(1, candidates.getCardinality()) <= candidates.getCardinality())) {
+                // 沿有序索引读，凑满 limit 行即停；预计要跳过的行比候选行还多时改用堆
+                Iterable<Integer> ids = after == null ? index.idsInOrder(ascending) : index.idsAfter(after.value, after.id, ascending);
+                List<Record> result = new ArrayList<>(Math.min(limit, 1024));
+                for (Integer id : ids) {
+                    if (result.size() == limit) {
+                        break;
+                    }
+                    if (candidates != null && !candidates.contains(id)) {
+                        continue;
+                    }
+                    Record record = records.get(id);
+                    if (record != null && matches(record, residual, typedConditions)) {
+                        result.add(detached(record));
+                    }
+                }
+                return result;
+            }
+
+            Record from = afterRecord;
+            if (candidates != null) {
+                TopK<Record> top = new TopK<>(limit, order);
+                for (PrimitiveIterator.OfInt it = candidates.iterator(); it.hasNext(); ) {
+                    Record record = records.get(it.nextInt());
+                    if (record != null && matches(record, residual, typedConditions)
+                            && (from == null || order.compare(record, from) > 0)) {
+                        top.offer(record);
+                    }
+                }
+                return detached(top.toList());
+            }
+            // 堆中保留的是存储中的对象，只复制最终留下的 limit 行
+            return detached(parallelScan.scan(records, () -> new TopK<>(limit, order), (top, record) -> {
+                if (matches(record, residual, typedConditions) && (from == null || order.compare(record, from) > 0)) {
+                    top.offer(record);
+                }
+            }, TopK::merge).toList());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void updateIndexes(Record record) {
+        modificationsSinceAnalyze.increment();
+        for (IndexBuild build : runningBuilds) {
+            build.target().add(record);
+        }
+        for (ColumnIndex index : singleColumnIndexes.values()) {
+            index.add(record);
+        }
+        for (CompositeIndex index : multiColumnIndexes.values()) {
+            index.add(record);
+        }
+        for (FullTextIndex index : fullTextIndexes.values()) {
+            index.add(record.getId(), record.getData(index.getColumn()));
+        }
+        for (BloomIndex index : bloomFilters.values()) {
+            index.add(record);
+        }
+        for (UniqueIndex index : uniqueIndexes.values()) {
+            index.put(record.getData(index.getColumn()), record.getId());
         }
     }
 
     private void removeIndexes(Record record) {
-        for (String columnName : singleColumnIndexes.keySet()) {
-            Map<Object, Set<Integer>> index = singleColumnIndexes.get(columnName);
-            Object key = record.getData(columnName);
-            Set<Integer> ids = index.get(key);
-            if (ids != null) {
-                ids.remove(record.getId());
-                if (ids.isEmpty()) {
-                    index.remove(key);
-                }
+        for (IndexBuild build : runningBuilds) {
+            build.target().remove(record);
+        }
+        for (ColumnIndex index : singleColumnIndexes.values()) {
+            index.remove(record);
+        }
+        for (CompositeIndex index : multiColumnIndexes.values()) {
+            index.remove(record);
+        }
+        for (FullTextIndex index : fullTextIndexes.values()) {
+            index.remove(record.getId(), record.getData(index.getColumn()));
+        }
+        for (BloomIndex index : bloomFilters.values()) {
+            index.remove(record);
+            if (index.isStale()) {
+                // 删除和修改留下的过期条目太多，在线重建后替换
+                startIndexBuild(IndexFiles.spec(index), true);
             }
         }
-        for (String indexName : multiColumnIndexes.keySet()) {
-            Map<List<Object>, Set<Integer>> index = multiColumnIndexes.get(indexName);
-            List<Object> key = new ArrayList<>();
-            String[] columnNames = indexName.split("_");
-            for (String columnName : columnNames) {
-                key.add(record.getData(columnName));
+        for (UniqueIndex index : uniqueIndexes.values()) {
+            index.remove(record.getData(index.getColumn()), record.getId());
+        }
+    }
+
+    // 加载后按当前数据重建内存中已有的索引（加载前创建的）和唯一约束
+    private void rebuildIndexes() {
+        for (ColumnIndex index : singleColumnIndexes.values()) {
+            index.clear();
+        }
+        for (CompositeIndex index : multiColumnIndexes.values()) {
+            index.clear();
+        }
+        for (FullTextIndex index : fullTextIndexes.values()) {
+            index.clear();
+        }
+        for (UniqueIndex index : uniqueIndexes.values()) {
+            index.clear();
+        }
+        bloomFilters.replaceAll((column, old) -> new BloomIndex(column, records.size()));
+        if (singleColumnIndexes.isEmpty() && multiColumnIndexes.isEmpty() && fullTextIndexes.isEmpty()
+                && bloomFilters.isEmpty() && uniqueIndexes.isEmpty()) {
+            return;
+        }
+        long duplicates = 0;
+        for (Record record : records.values()) {
+            for (ColumnIndex index : singleColumnIndexes.values()) {
+                index.add(record);
+            }
+            for (CompositeIndex index : multiColumnIndexes.values()) {
+                index.add(record);
             }
-            Set<Integer> ids = index.get(key);
-            if (ids != null) {
-                ids.remove(record.getId());
-                if (ids.isEmpty()) {
-                    index.remove(key);
+            for (FullTextIndex index : fullTextIndexes.values()) {
+                index.add(record.getId(), record.getData(index.getColumn()));
+            }
+            for (BloomIndex index : bloomFilters.values()) {
+                index.add(record);
+            }
+            for (UniqueIndex index : uniqueIndexes.values()) {
+                if (!index.add(record.getData(index.getColumn()), record.getId())) {
+                    duplicates++;
                 }
             }
         }
+        for (ColumnIndex index : singleColumnIndexes.values()) {
+            index.optimize();
+        }
+        for (CompositeIndex index : multiColumnIndexes.values()) {
+            index.optimize();
+        }
+        for (FullTextIndex index : fullTextIndexes.values()) {
+            index.optimize();
+        }
+        if (duplicates > 0) {
+            // 已有数据中的重复值保留，但之后的写入仍会被检查
+            logger.warning("Table " + name + " has " + duplicates + " duplicate values in unique columns " + uniqueIndexes.keySet());
+        }
     }
 
-    @Override
-    public void saveToCSV() throws IOException {
+    private void checkpointIfNeeded() throws IOException {
+        if (wal.size() >= WAL_CHECKPOINT_BYTES) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * 只把上次检查点之后改动过的记录写成增量文件，然后清空 WAL。
+     * 增量文件过多时由后台线程合并回基础文件。
+     */
+    public void checkpoint() throws IOException {
         lock.writeLock().lock();
-        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(csvFilePath)))) {
-            writer.write("id");
-            if (!records.isEmpty()) {
-                for (String columnName : records.values().iterator().next().getData().keySet()) {
-                    writer.write("," + columnName);
-                }
+        try {
+            if (dirtyIds.isEmpty()) {
+                return;
             }
-            writer.write("\n");
-            for (Record record : records.values()) {
-                writer.write(record.getId() + "");
-                for (Object value : record.getData().values()) {
-                    writer.write("," + value);
-                }
-                writer.write("\n");
+            if (records.isPersistent()) {
+                // 行存储自身即持久化副本，刷出其内存数据后即可清空 WAL
+                records.flush();
+                wal.truncate();
+                dirtyIds.clear();
+                return;
+            }
+            Map<Integer, Record> dirty = new LinkedHashMap<>();
+            for (Integer id : dirtyIds) {
+                dirty.put(id, records.get(id)); // null 表示已删除
             }
+            checkpointer.writeDelta(dirty);
+            wal.truncate();
+            dirtyIds.clear();
+            logger.fine("Checkpoint of table " + name + " wrote " + dirty.size() + " rows");
+        } finally {
+            lock.writeLock().unlock();
+        }
+        checkpointer.scheduleMergeIfNeeded(storageFormat);
+    }
+
+    @Override
+    public void saveToCSV() throws IOException {
+        if (records.isPersistent()) {
+            checkpoint(); // 不再重写基础文件
+            return;
+        }
+        // 与后台合并互斥，加锁顺序固定为先 baseLock 后表锁
+        checkpointer.getBaseLock().lock();
+        lock.writeLock().lock();
+        try {
+            File file = new File(csvFilePath);
+            File tmpFile = new File(csvFilePath + ".tmp");
+            storageFormat.write(tmpFile, records.values());
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // 基础文件已包含全部记录，增量文件和日志可以清空
+            checkpointer.deleteDeltas();
+            wal.truncate();
+            dirtyIds.clear();
         } finally {
             lock.writeLock().unlock();
+            checkpointer.getBaseLock().unlock();
         }
     }
 
     @Override
     public void loadFromCSV() throws IOException {
+        // 读取基础文件和增量文件期间不能被后台合并替换，加锁顺序与 saveToCSV 相同
+        checkpointer.getBaseLock().lock();
         lock.writeLock().lock();
         try {
+            long start = System.nanoTime();
             File file = new File(csvFilePath);
-            if (!file.exists()) {
-                return;
+            cache.clear(); // 清空缓存
+            dirtyIds.clear();
+            schemaMismatches = 0;
+            if (schema == null) {
+                schema = Schema.load(schemaFile());
+            }
+            boolean inferSchema = schema == null;
+            // 数据将被替换，进行中的索引构建作废
+            for (IndexBuild build : runningBuilds) {
+                build.cancel();
+            }
+            runningBuilds.clear();
+            records.open();
+            if (indexBuildExecutor.isShutdown()) {
+                // 关闭前提交的任务仍可能在旧线程上收尾，它们的构建已在上面作废
+                indexBuildExecutor = newIndexBuildExecutor();
+            }
+            closed = false;
+            long fingerprint = dataFingerprint();
+            int baseRows;
+            int deltaRows = 0;
+            WriteAheadLog.Handler apply = (op, id, record) -> {
+                if (op == WriteAheadLog.OP_DELETE) {
+                    removeLoaded(id);
+                } else {
+                    putLoaded(record);
+                }
+            };
+            if (records.isPersistent()) {
+                baseRows = records.size(); // 直接使用存储中已有的数据
+            } else {
+                records.clear();
+                if (file.exists()) {
+                    storageFormat.read(file, this::putLoaded);
+                }
+                baseRows = records.size();
+                deltaRows = checkpointer.replayDeltas(apply);
             }
 
-            records.clear();
-            cache.clear(); // 清空缓存
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file)))) {
-                String line = reader.readLine(); // Read header
-                if (line == null) return;
-                String[] headers = line.split(",");
-                while ((line = reader.readLine()) != null) {
-                    String[] parts = line.split(",");
-                    int id = Integer.parseInt(parts[0]);
-                    Record record = new Record(id);
-                    for (int i = 1; i < headers.length; i++) {
-                        record.setData(headers[i], parts[i]);
-                    }
-                    records.put(id, record);
+            // 回放上次检查点之后追加的日志，这些记录尚未进入增量文件
+            int replayed = wal.replay((op, id, record) -> {
+                apply.apply(op, id, record);
+                dirtyIds.add(id);
+            });
+            if (deltaRows > 0 || replayed > 0) {
+                logger.info("Replayed " + deltaRows + " delta rows and " + replayed + " WAL entries for table " + name);
+            }
+
+            if (inferSchema) {
+                inferSchema();
+            } else if (schema != null) {
+                schema.save(schemaFile());
+            }
+            rebuildIndexes();
+            // 回放过日志的数据与索引文件不再一致
+            restoreIndexes(fingerprint, replayed == 0 && !inferSchema);
+
+            lastLoadMillis = (System.nanoTime() - start) / 1_000_000;
+            lastLoadRows = baseRows + deltaRows + replayed;
+            logger.info(String.format("Loaded table %s: %d rows in %d ms (%.0f rows/s)",
+                    name, lastLoadRows, lastLoadMillis, rowsPerSecond()));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            lock.writeLock().unlock();
+            checkpointer.getBaseLock().unlock();
+        }
+    }
+
+    // 首次加载没有类型定义的表：第一遍扫描推断列类型，第二遍按 id 逐条转换并写回，
+    // 不在内存中攒下被转换的记录，分页和 LSM 存储不必把整张表读进堆里
+    private void inferSchema() throws IOException {
+        if (records.isEmpty()) {
+            return; // 没有数据可推断，留到下次加载
+        }
+        schema = Schema.infer(records.values());
+        for (int id : records.ids()) {
+            Record record = records.get(id);
+            if (record != null && schema.coerce(record)) {
+                records.put(record);
+            }
+        }
+        schema.save(schemaFile());
+        logger.info("Inferred schema for table " + name + ": " + schema);
+    }
+
+    // 加载回调不能抛出受检异常
+    private void putLoaded(Record record) {
+        if (schema != null) {
+            try {
+                schema.coerce(record);
+            } catch (IllegalArgumentException e) {
+                // 与类型定义不符的旧数据保留原值
+                if (schemaMismatches++ == 0) {
+                    logger.warning("Table " + name + ": " + e.getMessage());
                 }
             }
+        }
+        try {
+            records.put(record);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void removeLoaded(int id) {
+        try {
+            records.remove(id);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private double rowsPerSecond() {
+        return lastLoadMillis == 0 ? lastLoadRows * 1000.0 : lastLoadRows * 1000.0 / lastLoadMillis;
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        lock.readLock().lock();
+        try {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("name", name);
+            stats.put("records", records.size());
+            stats.put("format", storageFormat.getName());
+            stats.put("rowStore", records.getName());
+            stats.put("schema", schema != null ? schema.toString() : null);
+            stats.put("schemaMismatches", schemaMismatches);
+            stats.putAll(records.getStats());
+            stats.putAll(storageFormat.getStats());
+            stats.put("walBytes", wal.size());
+            stats.put("loadMillis", lastLoadMillis);
+            stats.put("loadedRows", lastLoadRows);
+            stats.put("loadRowsPerSecond", rowsPerSecond());
+            stats.put("dirtyRows", dirtyIds.size());
+            stats.put("indexBytes", indexBytes());
+            stats.put("coveredQueries", coveredQueries.sum());
+            stats.put("indexOnlyCounts", indexOnlyCounts.sum());
+            stats.put("parallelScans", parallelScan.getParallelScans());
+            stats.put("sequentialScans", parallelScan.getSequentialScans());
+            Map<String, Double> bloomFpp = new LinkedHashMap<>();
+            for (BloomIndex index : bloomFilters.values()) {
+                bloomFpp.put(index.getColumn(), index.expectedFpp());
+            }
+            stats.put("bloomFpp", bloomFpp);
+            stats.put("bloomNegatives", bloomNegatives.sum());
+            stats.put("analyzedRows", analyzedRows);
+            Map<String, String> columnStatistics = new TreeMap<>();
+            for (ColumnStatistics column : statistics.values()) {
+                columnStatistics.put(column.getColumn(), column.toString());
+            }
+            stats.put("columnStatistics", columnStatistics);
+            Map<String, Double> builds = new LinkedHashMap<>();
+            for (IndexBuild build : runningBuilds) {
+                builds.put(build.getSpec(), build.getProgress());
+            }
+            stats.put("indexBuilds", builds);
+            stats.putAll(checkpointer.getStats());
+            return stats;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private long indexBytes() {
+        long bytes = 0;
+        for (ColumnIndex index : singleColumnIndexes.values()) {
+            bytes += index.postingBytes();
+        }
+        for (CompositeIndex index : multiColumnIndexes.values()) {
+            bytes += index.postingBytes();
+        }
+        for (FullTextIndex index : fullTextIndexes.values()) {
+            bytes += index.postingBytes();
+        }
+        for (BloomIndex index : bloomFilters.values()) {
+            bytes += index.sizeInBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * 做一次检查点后关闭日志和行存储，并保存索引文件。
+     */
+    public void close() throws IOException {
+        checkpoint();
+        checkpointer.awaitMerge(); // 关闭之后不再有后台任务改写表的文件
+        lock.writeLock().lock();
+        try {
+            closed = true;
+            indexBuildExecutor.shutdown(); // 已开始的构建会在拿到锁后看到表已关闭
+            wal.close();
+            records.close();
+            // 数据文件此时已定型，索引文件带上它们的指纹
+            saveIndexes();
         } finally {
             lock.writeLock().unlock();
         }
@@ -0,0 +1,58 @@
+package idb.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * 按 order 保留最靠前的 k 个元素。堆顶是当前保留的元素中排在最后的一个，
+ * 新元素只有排在它前面时才替换它，n 个元素的代价为 O(n log k)。非线程安全。
+ */
+public class TopK<T> {
+    private final int k;
+    private final Comparator<? super T> order;
+    private final PriorityQueue<T> heap;
+
+    public TopK(int k, Comparator<? super T> order) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k must not be negative: " + k);
+        }
+        this.k = k;
+        this.order = order;
+        this.heap = new PriorityQueue<>(Math.max(1, Math.min(k, 1024) + 1), Collections.reverseOrder(order));
+    }
+
+    public void offer(T element) {
+        if (heap.size() < k) {
+            heap.add(element);
+        } else if (k > 0 && order.compare(element, heap.peek()) < 0) {
+            heap.poll();
+            heap.add(element);
+        }
+    }
+
+    /**
+     * 并入另一个 TopK 保留的元素，用于合并并行扫描的局部结果。
+     */
+    public TopK<T> merge(TopK<T> other) {
+        for (T element : other.heap) {
+            offer(element);
+        }
+        return this;
+    }
+
+    public int size() {
+        return heap.size();
+    }
+
+    /**
+     * 保留的元素按 order 排好序返回。
+     */
+    public List<T> toList() {
+        List<T> result = new ArrayList<>(heap);
+        result.sort(order);
+        return result;
+    }
+}
@@ -0,0 +1,63 @@
+package idb.core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 唯一约束使用的哈希索引：列值 -> 唯一拥有该值的记录 id。
+ * null 值不受约束，也不进入索引。
+ */
+public class UniqueIndex {
+    private final String column;
+    private final Map<Object, Integer> owners = new HashMap<>();
+
+    public UniqueIndex(String column) {
+        this.column = column;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    /**
+     * 返回持有该值的记录 id，没有时返回 null。
+     */
+    public Integer owner(Object key) {
+        return key == null ? null : owners.get(key);
+    }
+
+    /**
+     * 登记 key 归 id 所有，已被其他记录占用时返回 false 且不做修改。
+     */
+    public boolean add(Object key, int id) {
+        if (key == null) {
+            return true;
+        }
+        Integer previous = owners.putIfAbsent(key, id);
+        return previous == null || previous == id;
+    }
+
+    /**
+     * 强制登记，用于覆盖已失效的条目。
+     */
+    public void put(Object key, int id) {
+        if (key != null) {
+            owners.put(key, id);
+        }
+    }
+
+    // 只移除确实属于 id 的条目，避免误删其他记录的值
+    public void remove(Object key, int id) {
+        if (key != null) {
+            owners.remove(key, id);
+        }
+    }
+
+    public int size() {
+        return owners.size();
+    }
+
+    public void clear() {
+        owners.clear();
+    }
+}
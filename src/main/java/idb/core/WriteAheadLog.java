@@ -0,0 +1,169 @@
+package idb.core;
+
+import idb.model.Record;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * 表的追加写日志。每条日志的格式：
+ * [int 长度][byte 操作][int id][记录编码][int CRC32]，CRC 覆盖操作、id 和记录编码。
+ * 回放时遇到不完整或校验失败的尾部即停止，并截断到最后一条完整日志。
+ * 配置了 FlushScheduler 时，日志交给调度线程批量写入和 fsync。
+ */
+public class WriteAheadLog implements Closeable {
+    private static final Logger logger = Logger.getLogger(WriteAheadLog.class.getName());
+
+    public static final byte OP_INSERT = 1;
+    public static final byte OP_UPDATE = 2;
+    public static final byte OP_DELETE = 3;
+
+    private static final int HEADER_SIZE = 4;
+    private static final int TRAILER_SIZE = 4;
+
+    public interface Handler {
+        void apply(byte op, int id, Record record);
+    }
+
+    private final File file;
+    private final FlushScheduler scheduler;
+    private FileChannel channel;
+
+    public WriteAheadLog(String filePath) {
+        this(filePath, null);
+    }
+
+    public WriteAheadLog(String filePath, FlushScheduler scheduler) {
+        this.file = new File(filePath);
+        this.scheduler = scheduler;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * 追加一条日志。返回的 future 在日志按 durability 要求落盘后完成，
+     * 调用方应在释放表锁之后再等待它。
+     */
+    public CompletableFuture<Void> append(byte op, int id, Record record, Durability durability) throws IOException {
+        ByteBuffer frame = encodeFrame(op, id, record);
+        if (scheduler != null) {
+            return scheduler.submit(this, frame, durability);
+        }
+        writeFrames(new ByteBuffer[]{frame}, durability != Durability.ASYNC);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    static ByteBuffer encodeFrame(byte op, int id, Record record) throws IOException {
+        byte[] payload = record != null ? RecordCodec.encode(record) : new byte[0];
+        int bodyLength = 1 + 4 + payload.length;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + bodyLength + TRAILER_SIZE);
+        buffer.putInt(bodyLength);
+        buffer.put(op);
+        buffer.putInt(id);
+        buffer.put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_SIZE, bodyLength);
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        return buffer;
+    }
+
+    synchronized void writeFrames(ByteBuffer[] frames, boolean force) throws IOException {
+        FileChannel out = channel();
+        long remaining = 0;
+        for (ByteBuffer frame : frames) {
+            remaining += frame.remaining();
+        }
+        while (remaining > 0) {
+            remaining -= out.write(frames);
+        }
+        if (force) {
+            out.force(false);
+        }
+    }
+
+    public synchronized long size() throws IOException {
+        if (channel != null) {
+            return channel.size();
+        }
+        return file.length();
+    }
+
+    public synchronized int replay(Handler handler) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        int applied = 0;
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int bodyLength;
+                try {
+                    bodyLength = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (bodyLength < 5) {
+                    break;
+                }
+                byte[] body = new byte[bodyLength];
+                int storedCrc;
+                try {
+                    in.readFully(body);
+                    storedCrc = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                if ((int) crc.getValue() != storedCrc) {
+                    break;
+                }
+                ByteBuffer entry = ByteBuffer.wrap(body);
+                byte op = entry.get();
+                int id = entry.getInt();
+                Record record = null;
+                if (op != OP_DELETE) {
+                    byte[] payload = new byte[bodyLength - 5];
+                    entry.get(payload);
+                    record = RecordCodec.decode(payload);
+                }
+                handler.apply(op, id, record);
+                applied++;
+                validLength += HEADER_SIZE + bodyLength + TRAILER_SIZE;
+            }
+        }
+        if (validLength < file.length()) {
+            logger.warning("Discarding torn tail of " + file + " at offset " + validLength);
+            channel().truncate(validLength);
+        }
+        return applied;
+    }
+
+    public synchronized void truncate() throws IOException {
+        channel().truncate(0);
+    }
+
+    private FileChannel channel() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+        }
+        return channel;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -32,6 +32,13 @@ public class Record {
         return data;
     }
 
+    // 复制一份记录，列值本身不复制
+    public Record copy() {
+        Record copy = new Record(id);
+        copy.data.putAll(data);
+        return copy;
+    }
+
     @Override
     public String toString() {
         return "Record{id=" + id + ", data=" + data + "}";
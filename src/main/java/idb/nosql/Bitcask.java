@@ -0,0 +1,571 @@
+package idb.nosql;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Bitcask 风格的键值存储：所有写入顺序追加到数据文件，内存中的 keyDir 记录每个键最新值的位置，
+ * 读取只需一次定位读。数据文件写满后换新文件；旧文件中过期的条目由后台合并清理，
+ * 合并结果附带 hint 文件（键和位置，不含值），启动时读取 hint 即可重建 keyDir。
+ * <p>
+ * 数据文件：[magic][byte 标志]，之后是条目 [int CRC32][int 键长][int 值长][键][值]，值长 -1 表示删除。
+ * hint 文件：[int 键长][int 值长][long 条目偏移][键]。
+ */
+public class Bitcask implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(Bitcask.class);
+
+    static final byte[] MAGIC = "IDBCASK1".getBytes(StandardCharsets.US_ASCII);
+    static final int FILE_HEADER_SIZE = MAGIC.length + 1;
+    static final int ENTRY_HEADER_SIZE = 12;
+    // 合并生成的文件包含了所有编号更小的文件的有效数据
+    private static final byte FLAG_MERGED = 1;
+    private static final String DATA_SUFFIX = ".data";
+    private static final String HINT_SUFFIX = ".hint";
+
+    public static final long DEFAULT_MAX_FILE_SIZE = 64L * 1024 * 1024;
+    public static final long DEFAULT_MERGE_MIN_STALE_BYTES = 16L * 1024 * 1024;
+
+    private static final ExecutorService mergeExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "idb-bitcask-merge");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 键最新条目的位置。
+     */
+    static final class Location {
+        final int fileId;
+        final long offset;
+        final int keyLength;
+        final int valueLength;
+
+        Location(int fileId, long offset, int keyLength, int valueLength) {
+            this.fileId = fileId;
+            this.offset = offset;
+            this.keyLength = keyLength;
+            this.valueLength = valueLength;
+        }
+
+        long size() {
+            return ENTRY_HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+        }
+    }
+
+    private final File dir;
+    private final long maxFileSize;
+    private final long mergeMinStaleBytes;
+    private final Map<String, Location> keyDir = new ConcurrentHashMap<>();
+    private final Map<Integer, FileChannel> readers = new ConcurrentHashMap<>();
+    // 合并替换文件时与读取互斥
+    private final ReentrantReadWriteLock filesLock = new ReentrantReadWriteLock();
+    private final AtomicBoolean mergeScheduled = new AtomicBoolean();
+    private final AtomicLong staleBytes = new AtomicLong();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private int nextFileId = 1;
+    private int activeFileId = -1;
+    private FileChannel active;
+    private long activeSize;
+
+    private volatile long merges;
+    private volatile long lastMergeMillis;
+    private volatile long lastOpenMillis;
+
+    public Bitcask(File dir) {
+        this(dir, DEFAULT_MAX_FILE_SIZE, DEFAULT_MERGE_MIN_STALE_BYTES);
+    }
+
+    public Bitcask(File dir, long maxFileSize, long mergeMinStaleBytes) {
+        this.dir = dir;
+        this.maxFileSize = maxFileSize;
+        this.mergeMinStaleBytes = mergeMinStaleBytes;
+    }
+
+    /**
+     * 按编号顺序读取数据文件（有 hint 时读 hint）重建 keyDir。之后的写入总是进入新文件，
+     * 因此已有文件都不再变化，缺少 hint 的顺便补写。
+     */
+    public synchronized void open() throws IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(dir.toPath());
+        List<Integer> fileIds = dataFileIds();
+        // 合并中途崩溃时，被合并文件可能还没删掉，以编号最大的合并文件为准
+        int mergedId = -1;
+        for (int fileId : fileIds) {
+            if (isMerged(fileId)) {
+                mergedId = fileId;
+            }
+        }
+        for (Iterator<Integer> it = fileIds.iterator(); it.hasNext(); ) {
+            int fileId = it.next();
+            if (fileId < mergedId) {
+                deleteFile(fileId);
+                it.remove();
+            }
+        }
+        deleteLeftovers();
+
+        for (int fileId : fileIds) {
+            File hint = hintFile(fileId);
+            if (hint.exists()) {
+                readHint(fileId, hint);
+            } else {
+                scan(fileId, true, (key, location) -> apply(key, location));
+                writeHint(fileId);
+            }
+            totalBytes.addAndGet(dataFile(fileId).length());
+            nextFileId = fileId + 1;
+        }
+        lastOpenMillis = (System.nanoTime() - start) / 1_000_000;
+        logger.info("Opened {} with {} keys from {} files in {} ms", dir, keyDir.size(), fileIds.size(), lastOpenMillis);
+    }
+
+    private void apply(String key, Location location) {
+        Location previous = location.valueLength < 0 ? keyDir.remove(key) : keyDir.put(key, location);
+        if (previous != null) {
+            staleBytes.addAndGet(previous.size());
+        }
+        if (location.valueLength < 0) {
+            staleBytes.addAndGet(location.size());
+        }
+    }
+
+    private List<Integer> dataFileIds() {
+        List<Integer> fileIds = new ArrayList<>();
+        String[] names = dir.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.endsWith(DATA_SUFFIX)) {
+                    try {
+                        fileIds.add(Integer.parseInt(name.substring(0, name.length() - DATA_SUFFIX.length())));
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+        }
+        Collections.sort(fileIds);
+        return fileIds;
+    }
+
+    private void deleteLeftovers() throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".tmp"));
+        if (files != null) {
+            for (File file : files) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    private File dataFile(int fileId) {
+        return new File(dir, String.format("%09d%s", fileId, DATA_SUFFIX));
+    }
+
+    private File hintFile(int fileId) {
+        return new File(dir, String.format("%09d%s", fileId, HINT_SUFFIX));
+    }
+
+    private boolean isMerged(int fileId) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(dataFile(fileId)))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            return Arrays.equals(magic, MAGIC) && (in.readByte() & FLAG_MERGED) != 0;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    private void deleteFile(int fileId) throws IOException {
+        FileChannel reader = readers.remove(fileId);
+        if (reader != null) {
+            reader.close();
+        }
+        Files.deleteIfExists(dataFile(fileId).toPath());
+        Files.deleteIfExists(hintFile(fileId).toPath());
+    }
+
+    /**
+     * 顺序扫描数据文件。truncateTornTail 为 true 时截掉校验失败的尾部（上次写到一半的条目）。
+     */
+    private void scan(int fileId, boolean truncateTornTail, BiConsumer<String, Location> visitor) throws IOException {
+        File file = dataFile(fileId);
+        long validLength = FILE_HEADER_SIZE;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            byte[] magic = new byte[MAGIC.length];
+            try {
+                in.readFully(magic);
+                in.readByte();
+            } catch (EOFException e) {
+                validLength = 0;
+            }
+            if (validLength > 0 && !Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a bitcask data file: " + file);
+            }
+            while (validLength > 0) {
+                int storedCrc;
+                int keyLength;
+                int valueLength;
+                byte[] body;
+                try {
+                    storedCrc = in.readInt();
+                    keyLength = in.readInt();
+                    valueLength = in.readInt();
+                    if (keyLength < 0 || valueLength < -1) {
+                        break;
+                    }
+                    body = new byte[keyLength + Math.max(valueLength, 0)];
+                    in.readFully(body);
+                } catch (EOFException e) {
+                    break;
+                }
+                if (storedCrc != crc(keyLength, valueLength, body, 0, body.length)) {
+                    break;
+                }
+                String key = new String(body, 0, keyLength, StandardCharsets.UTF_8);
+                Location location = new Location(fileId, validLength, keyLength, valueLength);
+                visitor.accept(key, location);
+                validLength += location.size();
+            }
+        }
+        if (validLength < file.length() && truncateTornTail) {
+            logger.warn("Discarding torn tail of {} at offset {}", file, validLength);
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                if (validLength == 0) {
+                    channel.truncate(0);
+                    channel.write(ByteBuffer.wrap(fileHeader((byte) 0)));
+                } else {
+                    channel.truncate(validLength);
+                }
+            }
+        }
+    }
+
+    private static int crc(int keyLength, int valueLength, byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(8).putInt(keyLength).putInt(valueLength).array());
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static byte[] fileHeader(byte flags) {
+        byte[] header = Arrays.copyOf(MAGIC, FILE_HEADER_SIZE);
+        header[MAGIC.length] = flags;
+        return header;
+    }
+
+    private void readHint(int fileId, File hint) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(hint), 64 * 1024))) {
+            while (true) {
+                int keyLength;
+                try {
+                    keyLength = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                int valueLength = in.readInt();
+                long offset = in.readLong();
+                byte[] key = new byte[keyLength];
+                in.readFully(key);
+                apply(new String(key, StandardCharsets.UTF_8), new Location(fileId, offset, keyLength, valueLength));
+            }
+        }
+    }
+
+    // 扫描一个已不再写入的数据文件，生成它的 hint 文件
+    private void writeHint(int fileId) throws IOException {
+        File hint = hintFile(fileId);
+        File tmpFile = new File(hint.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 64 * 1024))) {
+            scan(fileId, false, (key, location) -> {
+                try {
+                    writeHintEntry(out, key, location);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Files.move(tmpFile.toPath(), hint.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeHintEntry(DataOutputStream out, String key, Location location) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(keyBytes.length);
+        out.writeInt(location.valueLength);
+        out.writeLong(location.offset);
+        out.write(keyBytes);
+    }
+
+    public String get(String key) throws IOException {
+        filesLock.readLock().lock();
+        try {
+            Location location = keyDir.get(key);
+            if (location == null) {
+                return null;
+            }
+            return readValue(location);
+        } finally {
+            filesLock.readLock().unlock();
+        }
+    }
+
+    private String readValue(Location location) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(location.valueLength);
+        long position = location.offset + ENTRY_HEADER_SIZE + location.keyLength;
+        FileChannel reader = reader(location.fileId);
+        while (buffer.hasRemaining()) {
+            if (reader.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of " + dataFile(location.fileId));
+            }
+        }
+        return new String(buffer.array(), StandardCharsets.UTF_8);
+    }
+
+    private FileChannel reader(int fileId) throws IOException {
+        FileChannel reader = readers.get(fileId);
+        if (reader == null) {
+            synchronized (readers) {
+                reader = readers.get(fileId);
+                if (reader == null) {
+                    reader = FileChannel.open(dataFile(fileId).toPath(), StandardOpenOption.READ);
+                    readers.put(fileId, reader);
+                }
+            }
+        }
+        return reader;
+    }
+
+    public void put(String key, String value) throws IOException {
+        append(key, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void delete(String key) throws IOException {
+        if (keyDir.containsKey(key)) {
+            append(key, null);
+        }
+    }
+
+    private void append(String key, byte[] value) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int valueLength = value == null ? -1 : value.length;
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_HEADER_SIZE + keyBytes.length + Math.max(valueLength, 0));
+        entry.position(4);
+        entry.putInt(keyBytes.length);
+        entry.putInt(valueLength);
+        entry.put(keyBytes);
+        if (value != null) {
+            entry.put(value);
+        }
+        entry.putInt(0, crc(keyBytes.length, valueLength, entry.array(), ENTRY_HEADER_SIZE, entry.capacity() - ENTRY_HEADER_SIZE));
+        entry.flip();
+
+        synchronized (this) {
+            if (active == null || activeSize >= maxFileSize) {
+                rotate();
+            }
+            Location location = new Location(activeFileId, activeSize, keyBytes.length, valueLength);
+            while (entry.hasRemaining()) {
+                active.write(entry);
+            }
+            activeSize += location.size();
+            totalBytes.addAndGet(location.size());
+            apply(key, location);
+        }
+        scheduleMergeIfNeeded();
+    }
+
+    // 关闭当前文件（补写 hint），打开一个新的活动文件
+    private void rotate() throws IOException {
+        if (active != null) {
+            active.force(false);
+            active.close();
+            writeHint(activeFileId);
+        }
+        activeFileId = nextFileId++;
+        active = FileChannel.open(dataFile(activeFileId).toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        active.write(ByteBuffer.wrap(fileHeader((byte) 0)));
+        activeSize = FILE_HEADER_SIZE;
+        totalBytes.addAndGet(FILE_HEADER_SIZE);
+    }
+
+    public synchronized void sync() throws IOException {
+        if (active != null) {
+            active.force(false);
+        }
+    }
+
+    public int size() {
+        return keyDir.size();
+    }
+
+    public Set<String> keys() {
+        return keyDir.keySet();
+    }
+
+    private void scheduleMergeIfNeeded() {
+        long stale = staleBytes.get();
+        if (stale >= mergeMinStaleBytes && stale * 2 >= totalBytes.get() && mergeScheduled.compareAndSet(false, true)) {
+            mergeExecutor.submit(() -> {
+                try {
+                    merge();
+                } catch (IOException | RuntimeException e) {
+                    logger.error("Failed to merge {}", dir, e);
+                } finally {
+                    mergeScheduled.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * 把活动文件之外的所有数据文件中仍然有效的条目复制到一个新文件，
+     * 新文件沿用被合并文件中最大的编号，因此仍排在活动文件之前。
+     * 复制期间不阻塞读写，只在替换文件时短暂加写锁。
+     */
+    public void merge() throws IOException {
+        long start = System.nanoTime();
+        List<Integer> inputs;
+        synchronized (this) {
+            if (active != null) {
+                rotate(); // 当前活动文件也一起合并
+            }
+            inputs = new ArrayList<>();
+            for (int fileId : dataFileIds()) {
+                if (fileId != activeFileId) {
+                    inputs.add(fileId);
+                }
+            }
+        }
+        if (inputs.isEmpty()) {
+            return;
+        }
+        int outputId = inputs.get(inputs.size() - 1);
+        File output = new File(dataFile(outputId).getPath() + ".merge.tmp");
+        File outputHint = new File(hintFile(outputId).getPath() + ".merge.tmp");
+        Map<String, Location[]> moved = new HashMap<>();
+        long outputSize = FILE_HEADER_SIZE;
+        try (FileOutputStream dataOut = new FileOutputStream(output);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(dataOut, 64 * 1024));
+             DataOutputStream hintOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outputHint), 64 * 1024))) {
+            out.write(fileHeader(FLAG_MERGED));
+            for (int fileId : inputs) {
+                List<Map.Entry<String, Location>> live = new ArrayList<>();
+                scan(fileId, false, (key, location) -> {
+                    Location current = keyDir.get(key);
+                    if (current != null && current.fileId == location.fileId && current.offset == location.offset) {
+                        live.add(new AbstractMap.SimpleImmutableEntry<>(key, current));
+                    }
+                });
+                for (Map.Entry<String, Location> entry : live) {
+                    Location from = entry.getValue();
+                    byte[] bytes = readEntry(from);
+                    out.write(bytes);
+                    Location to = new Location(outputId, outputSize, from.keyLength, from.valueLength);
+                    writeHintEntry(hintOut, entry.getKey(), to);
+                    moved.put(entry.getKey(), new Location[]{from, to});
+                    outputSize += bytes.length;
+                }
+            }
+            out.flush();
+            dataOut.getFD().sync();
+        }
+
+        filesLock.writeLock().lock();
+        try {
+            // 合并期间被重新写入或删除的键保持不变
+            for (Map.Entry<String, Location[]> entry : moved.entrySet()) {
+                keyDir.replace(entry.getKey(), entry.getValue()[0], entry.getValue()[1]);
+            }
+            FileChannel reader = readers.remove(outputId);
+            if (reader != null) {
+                reader.close();
+            }
+            Files.move(output.toPath(), dataFile(outputId).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(outputHint.toPath(), hintFile(outputId).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            for (int fileId : inputs) {
+                if (fileId != outputId) {
+                    deleteFile(fileId);
+                }
+            }
+        } finally {
+            filesLock.writeLock().unlock();
+        }
+        synchronized (this) {
+            // 重新统计：合并期间新写入覆盖掉的旧值仍算作过期数据
+            long total = 0;
+            List<Integer> fileIds = dataFileIds();
+            for (int fileId : fileIds) {
+                total += dataFile(fileId).length();
+            }
+            long live = (long) fileIds.size() * FILE_HEADER_SIZE;
+            for (Location location : keyDir.values()) {
+                live += location.size();
+            }
+            totalBytes.set(total);
+            staleBytes.set(Math.max(0, total - live));
+        }
+        merges++;
+        lastMergeMillis = (System.nanoTime() - start) / 1_000_000;
+        logger.info("Merged {} data files in {} into {} ({} bytes) in {} ms", inputs.size(), dir, dataFile(outputId).getName(), outputSize, lastMergeMillis);
+    }
+
+    private byte[] readEntry(Location location) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) location.size());
+        FileChannel reader = reader(location.fileId);
+        while (buffer.hasRemaining()) {
+            if (reader.read(buffer, location.offset + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of " + dataFile(location.fileId));
+            }
+        }
+        return buffer.array();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("keys", keyDir.size());
+        stats.put("dataFiles", dataFileIds().size());
+        stats.put("totalBytes", totalBytes.get());
+        stats.put("staleBytes", staleBytes.get());
+        stats.put("merges", merges);
+        stats.put("lastMergeMillis", lastMergeMillis);
+        stats.put("openMillis", lastOpenMillis);
+        return stats;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (active != null) {
+            active.force(false);
+            active.close();
+            writeHint(activeFileId);
+            active = null;
+        }
+        filesLock.writeLock().lock();
+        try {
+            for (FileChannel reader : readers.values()) {
+                reader.close();
+            }
+            readers.clear();
+        } finally {
+            filesLock.writeLock().unlock();
+        }
+    }
+}
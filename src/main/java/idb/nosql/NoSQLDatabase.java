@@ -14,29 +14,46 @@ public class NoSQLDatabase {
 
     private static final Logger logger = LoggerFactory.getLogger(NoSQLDatabase.class);
 
-    private Map<String, String> storage = new ConcurrentHashMap<>();
     private final ObjectMapper objectMapper = new ObjectMapper();
+    // 旧版本整体保存的 JSON 文件，首次启动时导入日志存储
     private final File dataFile = new File("data.json");
+    private final Bitcask store;
 
     public NoSQLDatabase() {
+        this("data.bitcask");
+    }
+
+    public NoSQLDatabase(String dataDir) {
+        this.store = new Bitcask(new File(dataDir));
         loadFromDisk();
     }
 
     // 原有的 put 方法
     public void put(String key, String value) {
-        storage.put(key, value);
-        saveToDisk();
+        try {
+            store.put(key, value);
+        } catch (IOException e) {
+            logger.error("put exception", e);
+        }
     }
 
     // 原有的 get 方法
     public String get(String key) {
-        return storage.get(key);
+        try {
+            return store.get(key);
+        } catch (IOException e) {
+            logger.error("get exception", e);
+            return null;
+        }
     }
 
     // 原有的 delete 方法
     public void delete(String key) {
-        storage.remove(key);
-        saveToDisk();
+        try {
+            store.delete(key);
+        } catch (IOException e) {
+            logger.error("delete exception", e);
+        }
     }
 
     // 新增的 putJson 方法
@@ -75,41 +92,65 @@ public class NoSQLDatabase {
         return null;
     }
 
-    // 保存数据到磁盘
-    private void saveToDisk() {
+    // 从磁盘加载数据：打开日志存储，如有旧的 data.json 则导入后改名保留
+    private void loadFromDisk() {
         try {
-            // 检查文件父目录是否存在，如果不存在则创建
-            if (!dataFile.exists()) {
-                File parentDir = dataFile.getParentFile();
-                if (parentDir != null && !parentDir.exists()) {
-                    if(parentDir.mkdirs()) { // 创建父目录
-                        logger.info("create dir:" + parentDir);
-                    }
+            store.open();
+            if (dataFile.exists() && store.size() == 0) {
+                Map<String, String> legacy = objectMapper.readValue(dataFile, new TypeReference<Map<String, String>>(){});
+                for (Map.Entry<String, String> entry : legacy.entrySet()) {
+                    store.put(entry.getKey(), entry.getValue());
                 }
-                if (dataFile.createNewFile()) { // 创建文件
-                    logger.info("create file:" + dataFile);
+                store.sync();
+                File migrated = new File(dataFile.getPath() + ".migrated");
+                if (dataFile.renameTo(migrated)) {
+                    logger.info("migrated " + legacy.size() + " keys from " + dataFile + " to " + migrated);
                 }
             }
-
-            objectMapper.writeValue(dataFile, storage);
         } catch (IOException e) {
-            logger.error("saveToDisk exception", e);
+            logger.error("loadFromDisk exception", e);
         }
     }
 
-    // 从磁盘加载数据
-    private void loadFromDisk() {
-        if (dataFile.exists()) {
-            try {
-                storage = objectMapper.readValue(dataFile, new TypeReference<ConcurrentHashMap<String, String>>(){});
-            } catch (IOException e) {
-                logger.error("loadFromDisk exception", e);
+    // 查询所有数据
+    public Map<String, String> queryAll() {
+        Map<String, String> result = new ConcurrentHashMap<>();
+        for (String key : store.keys()) {
+            String value = get(key);
+            if (value != null) {
+                result.put(key, value);
             }
         }
+        return result;
     }
 
-    // 查询所有数据
-    public Map<String, String> queryAll() {
-        return new ConcurrentHashMap<>(storage);
+    // 刷盘
+    public void sync() {
+        try {
+            store.sync();
+        } catch (IOException e) {
+            logger.error("sync exception", e);
+        }
+    }
+
+    // 手动触发合并
+    public void merge() {
+        try {
+            store.merge();
+        } catch (IOException e) {
+            logger.error("merge exception", e);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        return store.getStats();
+    }
+
+    public void close() {
+        try {
+            store.close();
+        } catch (IOException e) {
+            logger.error("close exception", e);
+        }
     }
 }
@@ -1,21 +1,27 @@
 package idb.resource;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import idb.core.RecordCursor;
 import idb.core.SQLQueryHandler;
 import idb.model.Message;
-import idb.model.Record;
 import idb.utils.JsonDatabaseHandler;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
 import net.sf.jsqlparser.JSQLParserException;
 
 import java.io.IOException;
 import java.util.Map;
-import java.util.Set;
 
 
 @Path("/json")
 public class JsonResource {
+    // 逐行写出查询结果，每行写完不单独 flush
+    private static final ObjectMapper objectMapper = new ObjectMapper().disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
     private JsonDatabaseHandler jsonDatabaseHandler;
     private SQLQueryHandler sqlQueryHandler;
 
@@ -91,8 +97,20 @@ public class JsonResource {
     @Produces(MediaType.APPLICATION_JSON)
     public Response queryJson(String sql) {
         try {
-            Set<Record> records = sqlQueryHandler.executeQuery(sql);
-            return Response.ok(records).build();
+            RecordCursor cursor = sqlQueryHandler.openQuery(sql);
+            // 边读边写 JSON 数组，客户端断开时写出失败，游标随之关闭
+            StreamingOutput body = output -> {
+                try (RecordCursor records = cursor;
+                     JsonGenerator generator = objectMapper.getFactory().createGenerator(output)
+                             .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+                    generator.writeStartArray();
+                    while (records.hasNext()) {
+                        objectMapper.writeValue(generator, records.next());
+                    }
+                    generator.writeEndArray();
+                }
+            };
+            return Response.ok(body).build();
         } catch (JSQLParserException | ReflectiveOperationException | IOException e) {
             e.printStackTrace();
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
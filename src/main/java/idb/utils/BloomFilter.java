@@ -0,0 +1,132 @@
+package idb.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * 固定大小的布隆过滤器。mightContain 返回 false 时元素一定不存在，返回 true 时可能误判。
+ * 由一个 64 位哈希的高低两半做双重散列得到 k 个位置。
+ */
+public class BloomFilter {
+    private final long[] words;
+    private final long bitCount;
+    private final int numHashes;
+    private long insertions;
+
+    /**
+     * 按预计元素数和目标误判率确定位数和哈希函数个数。
+     */
+    public BloomFilter(long expectedInsertions, double fpp) {
+        long n = Math.max(1, expectedInsertions);
+        long bits = (long) (-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        bits = Math.max(64, bits);
+        this.words = new long[(int) Math.min(Integer.MAX_VALUE - 8, (bits + 63) / 64)];
+        this.bitCount = words.length * 64L;
+        this.numHashes = Math.max(1, (int) Math.round((double) bitCount / n * Math.log(2)));
+    }
+
+    private BloomFilter(long[] words, int numHashes, long insertions) {
+        this.words = words;
+        this.bitCount = words.length * 64L;
+        this.numHashes = numHashes;
+        this.insertions = insertions;
+    }
+
+    public void add(int value) {
+        addHash(mix(value));
+    }
+
+    public boolean mightContain(int value) {
+        return mightContainHash(mix(value));
+    }
+
+    public void add(String value) {
+        addHash(hash(value));
+    }
+
+    public boolean mightContain(String value) {
+        return mightContainHash(hash(value));
+    }
+
+    private void addHash(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= numHashes; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bitCount;
+            words[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        insertions++;
+    }
+
+    private boolean mightContainHash(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= numHashes; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bitCount;
+            if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // splitmix64 的混合步骤
+    private static long mix(long value) {
+        long z = value + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // FNV-1a 后再混合一次，使高低两半都分布均匀
+    private static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    public long getInsertions() {
+        return insertions;
+    }
+
+    /**
+     * 按当前置位比例估算的误判率。
+     */
+    public double expectedFpp() {
+        long set = 0;
+        for (long word : words) {
+            set += Long.bitCount(word);
+        }
+        return Math.pow((double) set / bitCount, numHashes);
+    }
+
+    public long sizeInBytes() {
+        return words.length * 8L + 32;
+    }
+
+    /**
+     * 格式：哈希函数个数，已插入数，字数，位数组。
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(numHashes);
+        out.writeLong(insertions);
+        out.writeInt(words.length);
+        for (long word : words) {
+            out.writeLong(word);
+        }
+    }
+
+    public static BloomFilter readFrom(DataInput in) throws IOException {
+        int numHashes = in.readInt();
+        long insertions = in.readLong();
+        long[] words = new long[in.readInt()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = in.readLong();
+        }
+        return new BloomFilter(words, numHashes, insertions);
+    }
+}
@@ -0,0 +1,132 @@
+package idb.utils;
+
+import java.util.Arrays;
+
+/**
+ * int 到 int 的开放寻址哈希表，避免 HashMap&lt;Integer, Integer&gt; 的装箱和节点开销。
+ */
+public class IntIntHashMap {
+    private static final byte FREE = 0;
+    private static final byte USED = 1;
+    private static final byte REMOVED = 2;
+
+    private int[] keys;
+    private int[] values;
+    private byte[] states;
+    private int size;
+    private int occupied;
+
+    public IntIntHashMap() {
+        this(16);
+    }
+
+    public IntIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        states = new byte[capacity];
+        size = 0;
+        occupied = 0;
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int find(int key) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (states[slot] != FREE) {
+            if (states[slot] == USED && keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public boolean containsKey(int key) {
+        return find(key) >= 0;
+    }
+
+    public int get(int key, int defaultValue) {
+        int slot = find(key);
+        return slot >= 0 ? values[slot] : defaultValue;
+    }
+
+    public void put(int key, int value) {
+        int slot = find(key);
+        if (slot >= 0) {
+            values[slot] = value;
+            return;
+        }
+        if ((occupied + 1) * 4 >= keys.length * 3) {
+            rehash(size * 2 >= keys.length / 2 ? keys.length * 2 : keys.length);
+        }
+        int mask = keys.length - 1;
+        slot = mix(key) & mask;
+        while (states[slot] == USED) {
+            slot = (slot + 1) & mask;
+        }
+        if (states[slot] == FREE) {
+            occupied++;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        states[slot] = USED;
+        size++;
+    }
+
+    public boolean remove(int key) {
+        int slot = find(key);
+        if (slot < 0) {
+            return false;
+        }
+        states[slot] = REMOVED;
+        size--;
+        return true;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        byte[] oldStates = states;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldStates[i] == USED) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(states, FREE);
+        size = 0;
+        occupied = 0;
+    }
+
+    public interface Visitor {
+        void visit(int key, int value);
+    }
+
+    public void forEach(Visitor visitor) {
+        for (int i = 0; i < keys.length; i++) {
+            if (states[i] == USED) {
+                visitor.visit(keys[i], values[i]);
+            }
+        }
+    }
+}
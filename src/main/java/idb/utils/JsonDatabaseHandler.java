@@ -10,12 +10,17 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 public class JsonDatabaseHandler {
+    private static final String PARENT_ID = "parentId";
+
     private Database database;
     private ObjectMapper objectMapper;
     private Map<String, TableMetadata> metadataMap;
+    // 已确认建有 parentId 索引的子表
+    private Set<Table> indexedChildTables = ConcurrentHashMap.newKeySet();
 
     public Database getDatabase() {
         return database;
@@ -29,6 +34,35 @@ public class JsonDatabaseHandler {
         this.database = database;
         this.objectMapper = new ObjectMapper();
         this.metadataMap = loadConfig(configFilePath);
+        for (String className : childClassNames()) {
+            childTable(className);
+        }
+    }
+
+    // 作为其他类型字段（单个对象或 List）出现的类型，对应的表按 parentId 存放子记录
+    private Set<String> childClassNames() {
+        Set<String> names = new HashSet<>();
+        for (TableMetadata tableMetadata : metadataMap.values()) {
+            for (String fieldType : tableMetadata.getFields().values()) {
+                String className = fieldType.startsWith("List<") ? fieldType.substring(5, fieldType.length() - 1) : fieldType;
+                if (metadataMap.containsKey(className)) {
+                    names.add(className);
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * 取子表并确保其 parentId 列建有索引，之后按父记录查子记录只需一次索引查找。
+     * 表可能在处理器创建之后才建立，因此在每次使用时检查。
+     */
+    private Table childTable(String className) {
+        Table table = database.getTable(metadataMap.get(className).getTableName());
+        if (table != null && indexedChildTables.add(table)) {
+            table.createIndex(PARENT_ID);
+        }
+        return table;
     }
 
     private Map<String, TableMetadata> loadConfig(String configFilePath) throws IOException {
@@ -114,8 +148,8 @@ public class JsonDatabaseHandler {
             if (fieldType.startsWith("List<")) {
                 List<Map<String, Object>> list = (List<Map<String, Object>>) fieldValue;
                 for (Map<String, Object> item : list) {
-                    Table nestedTable = database.getTable(metadataMap.get(fieldType.substring(5, fieldType.length() - 1)).getTableName());
-                    Map<Integer, Record> nestedRecords = nestedTable.queryRecords("parentId", id);
+                    Table nestedTable = childTable(fieldType.substring(5, fieldType.length() - 1));
+                    Map<Integer, Record> nestedRecords = nestedTable.queryRecords(PARENT_ID, id);
                     if (!nestedRecords.isEmpty()) {
                         Record nestedRecord = nestedRecords.values().iterator().next();
                         updateRecord(item, metadataMap.get(fieldType.substring(5, fieldType.length() - 1)), nestedRecord.getId());
@@ -124,8 +158,8 @@ public class JsonDatabaseHandler {
                     }
                 }
             } else if (metadataMap.containsKey(fieldType)) {
-                Table nestedTable = database.getTable(metadataMap.get(fieldType).getTableName());
-                Map<Integer, Record> nestedRecords = nestedTable.queryRecords("parentId", id);
+                Table nestedTable = childTable(fieldType);
+                Map<Integer, Record> nestedRecords = nestedTable.queryRecords(PARENT_ID, id);
                 if (!nestedRecords.isEmpty()) {
                     Record nestedRecord = nestedRecords.values().iterator().next();
                     updateRecord((Map<String, Object>) fieldValue, metadataMap.get(fieldType), nestedRecord.getId());
@@ -155,8 +189,8 @@ public class JsonDatabaseHandler {
                 List<Map<String, Object>> nestedList = loadNestedList(id, nestedClassName);
                 instance.put(fieldName, nestedList);
             } else if (metadataMap.containsKey(fieldType)) {
-                Table nestedTable = database.getTable(metadataMap.get(fieldType).getTableName());
-                Map<Integer, Record> nestedRecords = nestedTable.queryRecords("parentId", id);
+                Table nestedTable = childTable(fieldType);
+                Map<Integer, Record> nestedRecords = nestedTable.queryRecords(PARENT_ID, id);
                 if (!nestedRecords.isEmpty()) {
                     Record nestedRecord = nestedRecords.values().iterator().next();
                     Map<String, Object> nestedInstance = loadRecord(nestedRecord.getId(), metadataMap.get(fieldType));
@@ -170,8 +204,8 @@ public class JsonDatabaseHandler {
     }
 
     private List<Map<String, Object>> loadNestedList(int parentId, String nestedClassName) throws ReflectiveOperationException, IOException {
-        Table table = database.getTable(metadataMap.get(nestedClassName).getTableName());
-        Map<Integer, Record> records = table.queryRecords("parentId", parentId);
+        Table table = childTable(nestedClassName);
+        Map<Integer, Record> records = table.queryRecords(PARENT_ID, parentId);
         List<Map<String, Object>> resultList = new ArrayList<>();
         for (Record record : records.values()) {
             Map<String, Object> nestedInstance = loadRecord(record.getId(), metadataMap.get(nestedClassName));
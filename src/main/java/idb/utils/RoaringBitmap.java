@@ -0,0 +1,973 @@
+package idb.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.IntConsumer;
+
+/**
+ * 压缩的 int 集合（Roaring 结构），用作索引中的记录 id 列表。
+ * 按高 16 位分桶，每个桶根据数据密度选择容器：
+ * 稀疏时用有序 char 数组，稠密时用 65536 位的位图，连续区间多时用游程编码（由 runOptimize 生成）。
+ * 交集、并集在位图之间按 64 位字进行。遍历顺序为无符号 int 顺序。
+ * 非线程安全。
+ */
+public class RoaringBitmap implements Iterable<Integer> {
+    private char[] keys;
+    private Container[] containers;
+    private int size;
+
+    public RoaringBitmap() {
+        keys = new char[1];
+        containers = new Container[1];
+    }
+
+    private RoaringBitmap(int capacity) {
+        keys = new char[Math.max(1, capacity)];
+        containers = new Container[Math.max(1, capacity)];
+    }
+
+    public static RoaringBitmap of(int... values) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        for (int value : values) {
+            bitmap.add(value);
+        }
+        return bitmap;
+    }
+
+    private static char high(int x) {
+        return (char) (x >>> 16);
+    }
+
+    private static char low(int x) {
+        return (char) x;
+    }
+
+    private int findKey(char key) {
+        // 绝大多数集合只有少量桶，先检查最后一个（id 通常递增写入）
+        if (size > 0 && keys[size - 1] == key) {
+            return size - 1;
+        }
+        int lo = 0;
+        int hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            char k = keys[mid];
+            if (k < key) {
+                lo = mid + 1;
+            } else if (k > key) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    public boolean add(int x) {
+        char key = high(x);
+        int i = findKey(key);
+        if (i >= 0) {
+            Container c = containers[i];
+            int before = c.cardinality();
+            containers[i] = c.add(low(x));
+            return containers[i].cardinality() > before;
+        }
+        insertAt(-i - 1, key, new ArrayContainer().add(low(x)));
+        return true;
+    }
+
+    public boolean remove(int x) {
+        int i = findKey(high(x));
+        if (i < 0) {
+            return false;
+        }
+        Container c = containers[i];
+        int before = c.cardinality();
+        Container updated = c.remove(low(x));
+        if (updated.cardinality() == 0) {
+            removeAt(i);
+        } else {
+            containers[i] = updated;
+        }
+        return updated.cardinality() < before;
+    }
+
+    public boolean contains(int x) {
+        int i = findKey(high(x));
+        return i >= 0 && containers[i].contains(low(x));
+    }
+
+    public int getCardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += containers[i].cardinality();
+        }
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 最小的元素，集合为空时抛出 NoSuchElementException。
+     */
+    public int first() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return (keys[0] << 16) | containers[0].first();
+    }
+
+    public void clear() {
+        keys = new char[1];
+        containers = new Container[1];
+        size = 0;
+    }
+
+    /**
+     * 把连续区间较多的容器转换为游程编码，适合在集合基本不再变化后调用。
+     */
+    public void runOptimize() {
+        for (int i = 0; i < size; i++) {
+            containers[i] = containers[i].runOptimize();
+        }
+    }
+
+    /**
+     * 估算占用的字节数。
+     */
+    public long sizeInBytes() {
+        long bytes = 16L + keys.length * 2L + containers.length * 4L;
+        for (int i = 0; i < size; i++) {
+            bytes += containers[i].sizeInBytes();
+        }
+        return bytes;
+    }
+
+    public RoaringBitmap copy() {
+        RoaringBitmap copy = new RoaringBitmap(size);
+        for (int i = 0; i < size; i++) {
+            copy.keys[i] = keys[i];
+            copy.containers[i] = containers[i].copy();
+        }
+        copy.size = size;
+        return copy;
+    }
+
+    public static RoaringBitmap and(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap result = new RoaringBitmap(Math.min(a.size, b.size));
+        int i = 0;
+        int j = 0;
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                Container c = a.containers[i].and(b.containers[j]);
+                if (c.cardinality() > 0) {
+                    result.append(a.keys[i], c);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    public static RoaringBitmap or(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap result = new RoaringBitmap(a.size + b.size);
+        int i = 0;
+        int j = 0;
+        while (i < a.size || j < b.size) {
+            if (j == b.size || (i < a.size && a.keys[i] < b.keys[j])) {
+                result.append(a.keys[i], a.containers[i].copy());
+                i++;
+            } else if (i == a.size || a.keys[i] > b.keys[j]) {
+                result.append(b.keys[j], b.containers[j].copy());
+                j++;
+            } else {
+                result.append(a.keys[i], a.containers[i].or(b.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 原地与 other 求交。
+     */
+    public void and(RoaringBitmap other) {
+        RoaringBitmap result = and(this, other);
+        keys = result.keys;
+        containers = result.containers;
+        size = result.size;
+    }
+
+    /**
+     * 原地与 other 求并。
+     */
+    public void or(RoaringBitmap other) {
+        int i = 0;
+        for (int j = 0; j < other.size; j++) {
+            char key = other.keys[j];
+            while (i < size && keys[i] < key) {
+                i++;
+            }
+            if (i < size && keys[i] == key) {
+                containers[i] = containers[i].or(other.containers[j]);
+            } else {
+                insertAt(i, key, other.containers[j].copy());
+            }
+            i++;
+        }
+    }
+
+    /**
+     * 序列化格式：桶数，随后每个桶为 (高位, 容器类型, 基数, 容器数据)。
+     */
+    public void serialize(DataOutput out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeChar(keys[i]);
+            containers[i].serialize(out);
+        }
+    }
+
+    public static RoaringBitmap deserialize(DataInput in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > 65536) {
+            throw new IOException("Invalid bitmap container count: " + count);
+        }
+        RoaringBitmap bitmap = new RoaringBitmap(count);
+        for (int i = 0; i < count; i++) {
+            bitmap.keys[i] = in.readChar();
+            bitmap.containers[i] = Container.deserialize(in);
+        }
+        bitmap.size = count;
+        return bitmap;
+    }
+
+    public void forEachInt(IntConsumer action) {
+        for (int i = 0; i < size; i++) {
+            int base = keys[i] << 16;
+            PrimitiveIterator.OfInt it = containers[i].iterator();
+            while (it.hasNext()) {
+                action.accept(base | it.nextInt());
+            }
+        }
+    }
+
+    public int[] toArray() {
+        int[] result = new int[getCardinality()];
+        int[] n = {0};
+        forEachInt(x -> result[n[0]++] = x);
+        return result;
+    }
+
+    @Override
+    public PrimitiveIterator.OfInt iterator() {
+        return new PrimitiveIterator.OfInt() {
+            private int index = -1;
+            private int base;
+            private PrimitiveIterator.OfInt current = Arrays.stream(new int[0]).iterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext()) {
+                    if (++index >= size) {
+                        return false;
+                    }
+                    base = keys[index] << 16;
+                    current = containers[index].iterator();
+                }
+                return true;
+            }
+
+            @Override
+            public int nextInt() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return base | current.nextInt();
+            }
+        };
+    }
+
+    /**
+     * 从第一个不小于 from 的值开始遍历（无符号顺序），跳过前面的桶。
+     */
+    public PrimitiveIterator.OfInt iterator(int from) {
+        int found = findKey(high(from));
+        int start = found >= 0 ? found : -found - 1;
+        char lowFrom = low(from);
+        return new PrimitiveIterator.OfInt() {
+            private int index = start - 1;
+            private int base;
+            private PrimitiveIterator.OfInt current = Arrays.stream(new int[0]).iterator();
+            private int next;
+            private boolean ready;
+
+            @Override
+            public boolean hasNext() {
+                while (!ready) {
+                    while (!current.hasNext()) {
+                        if (++index >= size) {
+                            return false;
+                        }
+                        base = keys[index] << 16;
+                        current = containers[index].iterator();
+                    }
+                    int low = current.nextInt();
+                    // 只有 from 所在的桶需要跳过较小的值
+                    if (index != found || low >= lowFrom) {
+                        next = base | low;
+                        ready = true;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public int nextInt() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ready = false;
+                return next;
+            }
+        };
+    }
+
+    private void append(char key, Container c) {
+        ensureCapacity(size + 1);
+        keys[size] = key;
+        containers[size] = c;
+        size++;
+    }
+
+    private void insertAt(int i, char key, Container c) {
+        ensureCapacity(size + 1);
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(containers, i, containers, i + 1, size - i);
+        keys[i] = key;
+        containers[i] = c;
+        size++;
+    }
+
+    private void removeAt(int i) {
+        System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+        System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+        containers[--size] = null;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > keys.length) {
+            int newCapacity = Math.max(capacity, keys.length * 2);
+            keys = Arrays.copyOf(keys, newCapacity);
+            containers = Arrays.copyOf(containers, newCapacity);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof RoaringBitmap)) {
+            return false;
+        }
+        RoaringBitmap other = (RoaringBitmap) o;
+        if (size != other.size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (keys[i] != other.keys[i] || !Arrays.equals(containers[i].toBitmap().words, other.containers[i].toBitmap().words)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 1;
+        for (Iterator<Integer> it = iterator(); it.hasNext(); ) {
+            h = 31 * h + it.next();
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        forEachInt(x -> sb.append(sb.length() > 1 ? "," : "").append(x));
+        return sb.append('}').toString();
+    }
+
+    /**
+     * 一个桶内的低 16 位集合。修改操作可能返回另一种容器，调用方需使用返回值。
+     */
+    private abstract static class Container {
+        abstract Container add(char x);
+
+        abstract Container remove(char x);
+
+        abstract boolean contains(char x);
+
+        abstract int cardinality();
+
+        abstract int first();
+
+        abstract PrimitiveIterator.OfInt iterator();
+
+        abstract BitmapContainer toBitmap();
+
+        abstract Container copy();
+
+        abstract long sizeInBytes();
+
+        abstract void serialize(DataOutput out) throws IOException;
+
+        static Container deserialize(DataInput in) throws IOException {
+            byte type = in.readByte();
+            int cardinality = in.readInt();
+            if (cardinality <= 0 || cardinality > 65536) {
+                throw new IOException("Invalid bitmap container cardinality: " + cardinality);
+            }
+            switch (type) {
+                case ArrayContainer.TYPE: {
+                    char[] content = new char[cardinality];
+                    for (int i = 0; i < cardinality; i++) {
+                        content[i] = in.readChar();
+                    }
+                    return new ArrayContainer(content, cardinality);
+                }
+                case BitmapContainer.TYPE: {
+                    long[] words = new long[1024];
+                    for (int i = 0; i < words.length; i++) {
+                        words[i] = in.readLong();
+                    }
+                    return new BitmapContainer(words, cardinality);
+                }
+                case RunContainer.TYPE: {
+                    int runCount = in.readInt();
+                    if (runCount <= 0 || runCount > 32768) {
+                        throw new IOException("Invalid bitmap run count: " + runCount);
+                    }
+                    char[] runs = new char[runCount * 2];
+                    for (int i = 0; i < runs.length; i++) {
+                        runs[i] = in.readChar();
+                    }
+                    return new RunContainer(runs, runCount, cardinality);
+                }
+                default:
+                    throw new IOException("Unknown bitmap container type: " + type);
+            }
+        }
+
+        Container and(Container other) {
+            if (this instanceof ArrayContainer) {
+                return ((ArrayContainer) this).filter(other);
+            }
+            if (other instanceof ArrayContainer) {
+                return ((ArrayContainer) other).filter(this);
+            }
+            return toBitmap().andBitmap(other.toBitmap());
+        }
+
+        Container or(Container other) {
+            if (this instanceof ArrayContainer && other instanceof ArrayContainer) {
+                return ((ArrayContainer) this).union((ArrayContainer) other);
+            }
+            BitmapContainer result = this instanceof BitmapContainer ? (BitmapContainer) copy() : toBitmap();
+            return result.orBitmap(other.toBitmap());
+        }
+
+        /**
+         * 游程编码更省空间时转换为 RunContainer。
+         */
+        Container runOptimize() {
+            int runs = countRuns();
+            long runBytes = 4L * runs;
+            if (runBytes < sizeInBytes()) {
+                return RunContainer.from(this, runs);
+            }
+            return this;
+        }
+
+        int countRuns() {
+            int runs = 0;
+            int previous = -2;
+            PrimitiveIterator.OfInt it = iterator();
+            while (it.hasNext()) {
+                int x = it.nextInt();
+                if (x != previous + 1) {
+                    runs++;
+                }
+                previous = x;
+            }
+            return runs;
+        }
+    }
+
+    /**
+     * 稀疏桶：有序数组，元素不超过 MAX_SIZE 个。
+     */
+    private static final class ArrayContainer extends Container {
+        static final int MAX_SIZE = 4096;
+        static final byte TYPE = 0;
+
+        char[] content;
+        int cardinality;
+
+        ArrayContainer() {
+            content = new char[1];
+        }
+
+        ArrayContainer(char[] content, int cardinality) {
+            this.content = content;
+            this.cardinality = cardinality;
+        }
+
+        private int search(char x) {
+            // 追加写入是最常见的情况
+            if (cardinality > 0 && content[cardinality - 1] < x) {
+                return -(cardinality + 1);
+            }
+            return Arrays.binarySearch(content, 0, cardinality, x);
+        }
+
+        @Override
+        Container add(char x) {
+            int i = search(x);
+            if (i >= 0) {
+                return this;
+            }
+            if (cardinality >= MAX_SIZE) {
+                return toBitmap().add(x);
+            }
+            i = -i - 1;
+            if (cardinality == content.length) {
+                content = Arrays.copyOf(content, Math.min(MAX_SIZE, Math.max(4, cardinality * 2)));
+            }
+            System.arraycopy(content, i, content, i + 1, cardinality - i);
+            content[i] = x;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Container remove(char x) {
+            int i = search(x);
+            if (i >= 0) {
+                System.arraycopy(content, i + 1, content, i, cardinality - i - 1);
+                cardinality--;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char x) {
+            return search(x) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        int first() {
+            return content[0];
+        }
+
+        @Override
+        PrimitiveIterator.OfInt iterator() {
+            return new PrimitiveIterator.OfInt() {
+                private int i;
+
+                @Override
+                public boolean hasNext() {
+                    return i < cardinality;
+                }
+
+                @Override
+                public int nextInt() {
+                    if (i >= cardinality) {
+                        throw new NoSuchElementException();
+                    }
+                    return content[i++];
+                }
+            };
+        }
+
+        @Override
+        BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < cardinality; i++) {
+                char x = content[i];
+                bitmap.words[x >>> 6] |= 1L << x;
+            }
+            bitmap.cardinality = cardinality;
+            return bitmap;
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(content, Math.max(1, cardinality)), cardinality);
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 16L + content.length * 2L;
+        }
+
+        @Override
+        void serialize(DataOutput out) throws IOException {
+            out.writeByte(TYPE);
+            out.writeInt(cardinality);
+            for (int i = 0; i < cardinality; i++) {
+                out.writeChar(content[i]);
+            }
+        }
+
+        // 保留同时存在于 other 中的元素
+        Container filter(Container other) {
+            char[] result = new char[cardinality];
+            int n = 0;
+            for (int i = 0; i < cardinality; i++) {
+                if (other.contains(content[i])) {
+                    result[n++] = content[i];
+                }
+            }
+            return new ArrayContainer(result, n);
+        }
+
+        Container union(ArrayContainer other) {
+            if (cardinality + other.cardinality > MAX_SIZE) {
+                return toBitmap().orBitmap(other.toBitmap());
+            }
+            char[] result = new char[cardinality + other.cardinality];
+            int i = 0;
+            int j = 0;
+            int n = 0;
+            while (i < cardinality && j < other.cardinality) {
+                char a = content[i];
+                char b = other.content[j];
+                if (a < b) {
+                    result[n++] = a;
+                    i++;
+                } else if (a > b) {
+                    result[n++] = b;
+                    j++;
+                } else {
+                    result[n++] = a;
+                    i++;
+                    j++;
+                }
+            }
+            while (i < cardinality) {
+                result[n++] = content[i++];
+            }
+            while (j < other.cardinality) {
+                result[n++] = other.content[j++];
+            }
+            return new ArrayContainer(result, n);
+        }
+    }
+
+    /**
+     * 稠密桶：1024 个 long 组成的位图。
+     */
+    private static final class BitmapContainer extends Container {
+        static final byte TYPE = 1;
+
+        final long[] words;
+        int cardinality;
+
+        BitmapContainer() {
+            words = new long[1024];
+        }
+
+        private BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char x) {
+            long before = words[x >>> 6];
+            long after = before | (1L << x);
+            if (before != after) {
+                words[x >>> 6] = after;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(char x) {
+            long before = words[x >>> 6];
+            long after = before & ~(1L << x);
+            if (before != after) {
+                words[x >>> 6] = after;
+                cardinality--;
+            }
+            return cardinality <= ArrayContainer.MAX_SIZE ? toArray() : this;
+        }
+
+        @Override
+        boolean contains(char x) {
+            return (words[x >>> 6] & (1L << x)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        int first() {
+            for (int i = 0; i < words.length; i++) {
+                if (words[i] != 0) {
+                    return (i << 6) + Long.numberOfTrailingZeros(words[i]);
+                }
+            }
+            throw new NoSuchElementException();
+        }
+
+        @Override
+        PrimitiveIterator.OfInt iterator() {
+            return new PrimitiveIterator.OfInt() {
+                private int wordIndex = -1;
+                private long word;
+
+                @Override
+                public boolean hasNext() {
+                    while (word == 0) {
+                        if (++wordIndex >= words.length) {
+                            return false;
+                        }
+                        word = words[wordIndex];
+                    }
+                    return true;
+                }
+
+                @Override
+                public int nextInt() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    int x = (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                    return x;
+                }
+            };
+        }
+
+        @Override
+        BitmapContainer toBitmap() {
+            return this;
+        }
+
+        ArrayContainer toArray() {
+            char[] content = new char[Math.max(1, cardinality)];
+            int n = 0;
+            for (int i = 0; i < words.length; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    content[n++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(content, n);
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 16L + words.length * 8L;
+        }
+
+        @Override
+        void serialize(DataOutput out) throws IOException {
+            out.writeByte(TYPE);
+            out.writeInt(cardinality);
+            for (long word : words) {
+                out.writeLong(word);
+            }
+        }
+
+        Container andBitmap(BitmapContainer other) {
+            long[] result = new long[words.length];
+            int n = 0;
+            for (int i = 0; i < words.length; i++) {
+                result[i] = words[i] & other.words[i];
+                n += Long.bitCount(result[i]);
+            }
+            BitmapContainer bitmap = new BitmapContainer(result, n);
+            return n <= ArrayContainer.MAX_SIZE ? bitmap.toArray() : bitmap;
+        }
+
+        // 原地合并
+        Container orBitmap(BitmapContainer other) {
+            int n = 0;
+            for (int i = 0; i < words.length; i++) {
+                words[i] |= other.words[i];
+                n += Long.bitCount(words[i]);
+            }
+            cardinality = n;
+            return this;
+        }
+    }
+
+    /**
+     * 游程编码桶：runs 中依次存放 (起点, 长度-1)。只读，修改时先转换为其他容器。
+     */
+    private static final class RunContainer extends Container {
+        static final byte TYPE = 2;
+
+        final char[] runs;
+        final int runCount;
+        final int cardinality;
+
+        private RunContainer(char[] runs, int runCount, int cardinality) {
+            this.runs = runs;
+            this.runCount = runCount;
+            this.cardinality = cardinality;
+        }
+
+        static RunContainer from(Container source, int runCount) {
+            char[] runs = new char[runCount * 2];
+            int n = -1;
+            int previous = -2;
+            PrimitiveIterator.OfInt it = source.iterator();
+            while (it.hasNext()) {
+                int x = it.nextInt();
+                if (x != previous + 1) {
+                    n++;
+                    runs[2 * n] = (char) x;
+                    runs[2 * n + 1] = 0;
+                } else {
+                    runs[2 * n + 1]++;
+                }
+                previous = x;
+            }
+            return new RunContainer(runs, runCount, source.cardinality());
+        }
+
+        private Container toEfficient() {
+            return cardinality <= ArrayContainer.MAX_SIZE ? toBitmap().toArray() : toBitmap();
+        }
+
+        @Override
+        Container add(char x) {
+            return contains(x) ? this : toEfficient().add(x);
+        }
+
+        @Override
+        Container remove(char x) {
+            return contains(x) ? toEfficient().remove(x) : this;
+        }
+
+        @Override
+        boolean contains(char x) {
+            // 找到起点不大于 x 的最后一个游程
+            int lo = 0;
+            int hi = runCount - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (runs[2 * mid] <= x) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return hi >= 0 && x - runs[2 * hi] <= runs[2 * hi + 1];
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        int first() {
+            return runs[0];
+        }
+
+        @Override
+        PrimitiveIterator.OfInt iterator() {
+            return new PrimitiveIterator.OfInt() {
+                private int run;
+                private int offset;
+
+                @Override
+                public boolean hasNext() {
+                    return run < runCount;
+                }
+
+                @Override
+                public int nextInt() {
+                    if (run >= runCount) {
+                        throw new NoSuchElementException();
+                    }
+                    int x = runs[2 * run] + offset;
+                    if (offset++ == runs[2 * run + 1]) {
+                        run++;
+                        offset = 0;
+                    }
+                    return x;
+                }
+            };
+        }
+
+        @Override
+        BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int r = 0; r < runCount; r++) {
+                int start = runs[2 * r];
+                int end = start + runs[2 * r + 1]; // 含
+                for (int x = start; x <= end; x++) {
+                    bitmap.words[x >>> 6] |= 1L << x;
+                }
+            }
+            bitmap.cardinality = cardinality;
+            return bitmap;
+        }
+
+        @Override
+        Container copy() {
+            return this; // 不可变
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 24L + runs.length * 2L;
+        }
+
+        @Override
+        void serialize(DataOutput out) throws IOException {
+            out.writeByte(TYPE);
+            out.writeInt(cardinality);
+            out.writeInt(runCount);
+            for (int i = 0; i < runCount * 2; i++) {
+                out.writeChar(runs[i]);
+            }
+        }
+
+        @Override
+        Container runOptimize() {
+            return this;
+        }
+    }
+}
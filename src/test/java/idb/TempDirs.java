@@ -0,0 +1,34 @@
+package idb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * 测试用的临时目录：setUp 中创建，tearDown 中连同子目录一起删除。
+ */
+public final class TempDirs {
+    private TempDirs() {
+    }
+
+    public static File create(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    public static void delete(File dir) {
+        if (dir == null) {
+            return;
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    delete(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        dir.delete();
+    }
+}
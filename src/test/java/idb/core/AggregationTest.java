@@ -0,0 +1,328 @@
+package idb.core;
+
+import idb.TempDirs;
+import idb.model.Record;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 聚合结果与逐行计算一致：分组、null 值、空结果、整数求和溢出，以及并行扫描的局部结果合并；
+ * 只有 COUNT(*) 且条件都由索引覆盖时不读行；SQL 的聚合查询交给同一套实现。
+ */
+public class AggregationTest extends TestCase {
+    private static final int ROWS = 3000;
+    private static final Aggregate[] AGGREGATES = {
+            Aggregate.count(), Aggregate.count("age"), Aggregate.countDistinct("age"),
+            Aggregate.sum("age"), Aggregate.min("age"), Aggregate.max("age"), Aggregate.avg("age")
+    };
+
+    private File dir;
+    private ForkJoinPool pool;
+    private TableImpl table;
+    private final Map<Integer, Record> model = new HashMap<>();
+    private final Random random = new Random(25);
+
+    public AggregationTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(AggregationTest.class);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = TempDirs.create("idb-aggregate");
+        pool = new ForkJoinPool(4);
+        table = new TableImpl("users", new File(dir, "users.csv").getPath());
+        // 阈值调低，全表扫描按分区并行后合并
+        table.setParallelScan(new ParallelScan(pool, 500, 128));
+        table.loadFromCSV();
+        for (int id = 1; id <= ROWS; id++) {
+            Record record = new Record(id);
+            if (random.nextInt(15) != 0) {
+                record.setData("state", "s" + random.nextInt(8));
+            }
+            record.setData("kind", random.nextBoolean() ? "a" : "b");
+            if (random.nextInt(10) != 0) {
+                record.setData("age", 18 + random.nextInt(60));
+            }
+            table.addRecord(record);
+            model.put(id, record);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        if (table != null) {
+            table.close();
+        }
+        pool.shutdown();
+        TempDirs.delete(dir);
+    }
+
+    private static long stat(TableImpl table, String name) {
+        return ((Number) table.getStats().get(name)).longValue();
+    }
+
+    private static boolean matches(Record record, Map<String, Object> conditions) {
+        for (Map.Entry<String, Object> condition : conditions.entrySet()) {
+            if (!Objects.equals(condition.getValue(), record.getData(condition.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 逐行计算 AGGREGATES，按分组键排序（null 在最后）
+    private List<Map<String, Object>> expected(Map<String, Object> conditions, List<String> groupBy) {
+        Map<List<Object>, List<Record>> groups = new TreeMap<>((a, b) -> {
+            for (int i = 0; i < a.size(); i++) {
+                int c = a.get(i) == null ? (b.get(i) == null ? 0 : 1)
+                        : b.get(i) == null ? -1 : ColumnIndex.compareKeys(a.get(i), b.get(i));
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return 0;
+        });
+        if (groupBy.isEmpty()) {
+            groups.put(Collections.emptyList(), new ArrayList<>());
+        }
+        for (Record record : model.values()) {
+            if (matches(record, conditions)) {
+                List<Object> key = new ArrayList<>();
+                for (String column : groupBy) {
+                    key.add(record.getData(column));
+                }
+                groups.computeIfAbsent(key, k -> new ArrayList<>()).add(record);
+            }
+        }
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (Map.Entry<List<Object>, List<Record>> group : groups.entrySet()) {
+            Map<String, Object> row = new HashMap<>();
+            for (int i = 0; i < groupBy.size(); i++) {
+                row.put(groupBy.get(i), group.getKey().get(i));
+            }
+            long count = 0;
+            long sum = 0;
+            Integer min = null;
+            Integer max = null;
+            Set<Object> distinct = new HashSet<>();
+            for (Record record : group.getValue()) {
+                Integer age = (Integer) record.getData("age");
+                if (age != null) {
+                    count++;
+                    sum += age;
+                    min = min == null ? age : Math.min(min, age);
+                    max = max == null ? age : Math.max(max, age);
+                    distinct.add(age);
+                }
+            }
+            row.put("count(*)", (long) group.getValue().size());
+            row.put("count(age)", count);
+            row.put("count(distinct age)", (long) distinct.size());
+            row.put("sum(age)", count == 0 ? null : sum);
+            row.put("min(age)", min);
+            row.put("max(age)", max);
+            row.put("avg(age)", count == 0 ? null : (double) sum / count);
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static List<Map<String, Object>> actual(List<Record> results) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (Record record : results) {
+            rows.add(new HashMap<>(record.getData()));
+        }
+        return rows;
+    }
+
+    private void assertAggregates(Map<String, Object> conditions, String... groupBy) {
+        List<String> columns = Arrays.asList(groupBy);
+        assertEquals(conditions + " " + columns, expected(conditions, columns),
+                actual(table.aggregate(conditions, columns, AGGREGATES)));
+    }
+
+    private void assertAllAggregates() {
+        Map<String, Object> none = Collections.emptyMap();
+        assertAggregates(none);
+        assertAggregates(none, "state");
+        assertAggregates(none, "state", "kind");
+        assertAggregates(Collections.singletonMap("kind", "a"), "state");
+        assertAggregates(Map.of("kind", "b", "state", "s3"));
+        assertAggregates(Collections.singletonMap("state", "missing"));
+        assertAggregates(Collections.singletonMap("state", "missing"), "kind");
+    }
+
+    public void testMatchesRowByRowComputation() throws IOException {
+        assertAllAggregates();
+        // 条件列有索引时在候选行上计算
+        table.createIndex("kind");
+        table.createIndex("state");
+        assertAllAggregates();
+
+        for (int i = 0; i < 300; i++) {
+            int id = 1 + random.nextInt(ROWS);
+            if (!model.containsKey(id)) {
+                continue;
+            }
+            if (i % 3 == 0) {
+                table.deleteRecord(id);
+                model.remove(id);
+            } else {
+                int age = 18 + random.nextInt(60);
+                table.updateRecord(id, "age", age);
+                model.get(id).setData("age", age);
+            }
+        }
+        assertAllAggregates();
+    }
+
+    public void testEmptyResults() {
+        List<Record> rows = table.aggregate(Collections.singletonMap("kind", "none"), Collections.emptyList(), AGGREGATES);
+        assertEquals(1, rows.size());
+        assertEquals(0L, rows.get(0).getData("count(*)"));
+        assertEquals(0L, rows.get(0).getData("count(distinct age)"));
+        assertNull(rows.get(0).getData("sum(age)"));
+        assertNull(rows.get(0).getData("avg(age)"));
+        assertNull(rows.get(0).getData("min(age)"));
+        assertTrue(table.aggregate(Collections.singletonMap("kind", "none"), List.of("state"), AGGREGATES).isEmpty());
+        try {
+            table.aggregate(Collections.emptyMap(), Collections.emptyList());
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testIndexOnlyCounts() {
+        table.createIndex("kind");
+        table.createIndex("state");
+        long counts = stat(table, "indexOnlyCounts");
+        Aggregate count = Aggregate.count().as("n");
+        Map<String, Object> s3 = Collections.singletonMap("state", "s3");
+        assertEquals(expected(s3, Collections.emptyList()).get(0).get("count(*)"),
+                table.aggregate(s3, Collections.emptyList(), count).get(0).getData("n"));
+        assertEquals((long) model.size(),
+                table.aggregate(Collections.emptyMap(), Collections.emptyList(), count).get(0).getData("n"));
+        assertEquals(counts + 2, stat(table, "indexOnlyCounts"));
+
+        // 按有索引的列分组：各键的 id 集合与候选集合求交后计数
+        assertGroupCounts(s3, "kind");
+        assertGroupCounts(Collections.emptyMap(), "state");
+        assertEquals(counts + 4, stat(table, "indexOnlyCounts"));
+
+        // 需要读行的聚合和不在索引中的条件不算
+        table.aggregate(s3, Collections.emptyList(), Aggregate.sum("age"));
+        table.aggregate(Collections.singletonMap("age", 30), Collections.emptyList(), count);
+        assertEquals(counts + 4, stat(table, "indexOnlyCounts"));
+    }
+
+    private void assertGroupCounts(Map<String, Object> conditions, String column) {
+        List<Record> rows = table.aggregate(conditions, List.of(column), Aggregate.count());
+        List<Map<String, Object>> expected = expected(conditions, List.of(column));
+        assertEquals(expected.size(), rows.size());
+        // 索引中也有 null 键，结果与逐行计算一样含 null 分组
+        for (int i = 0; i < rows.size(); i++) {
+            assertEquals(expected.get(i).get(column), rows.get(i).getData(column));
+            assertEquals(expected.get(i).get("count(*)"), rows.get(i).getData("count(*)"));
+        }
+    }
+
+    public void testSumAndNumericStrings() {
+        Aggregation aggregation = new Aggregation(Collections.emptyList(),
+                List.of(Aggregate.sum("v"), Aggregate.avg("v")));
+        Aggregation other = new Aggregation(Collections.emptyList(),
+                List.of(Aggregate.sum("v"), Aggregate.avg("v")));
+        Record big = new Record(1);
+        big.setData("v", Long.MAX_VALUE);
+        aggregation.add(big);
+        Record one = new Record(2);
+        one.setData("v", "1");
+        other.add(one);
+        Record text = new Record(3);
+        text.setData("v", "not a number");
+        other.add(text);
+        Record result = aggregation.merge(other).results().get(0);
+        // 整数求和溢出后改为浮点
+        assertEquals((double) Long.MAX_VALUE + 1, (Double) result.getData("sum(v)"), 1e3);
+        assertEquals(((double) Long.MAX_VALUE + 1) / 2, (Double) result.getData("avg(v)"), 1e3);
+
+        Aggregation mixed = new Aggregation(List.of("g"), List.of(Aggregate.sum("v")));
+        for (Object value : new Object[]{1, 2L, "3", 0.5}) {
+            Record record = new Record(1);
+            record.setData("g", "x");
+            record.setData("v", value);
+            mixed.add(record);
+        }
+        assertEquals(6.5, (Double) mixed.results().get(0).getData("sum(v)"), 1e-9);
+    }
+
+    public void testSqlAggregates() throws Exception {
+        table.createIndex("state");
+        Database db = new Database();
+        db.setTables(Map.of("users", table));
+        try {
+            SQLQueryHandler handler = new SQLQueryHandler(db);
+            List<Map<String, Object>> expected = expected(Collections.singletonMap("kind", "a"), List.of("state"));
+            Map<Object, Map<String, Object>> byState = new LinkedHashMap<>();
+            for (Map<String, Object> row : expected) {
+                byState.put(row.get("state"), row);
+            }
+            int seen = 0;
+            for (Record row : handler.executeQuery(
+                    "SELECT state, COUNT(*) AS n, AVG(age) AS average FROM users WHERE kind = 'a' GROUP BY state")) {
+                Map<String, Object> want = byState.get(row.getData("state"));
+                assertEquals(want.get("count(*)"), row.getData("n"));
+                assertEquals(want.get("avg(age)"), row.getData("average"));
+                seen++;
+            }
+            assertEquals(byState.size(), seen);
+
+            // ORDER BY 可以按聚合列排序
+            Long previous = null;
+            int rows = 0;
+            for (Record row : handler.executeQuery("SELECT state, COUNT(*) AS n FROM users GROUP BY state ORDER BY n DESC LIMIT 3")) {
+                Long n = (Long) row.getData("n");
+                assertTrue(previous == null || previous >= n);
+                previous = n;
+                rows++;
+            }
+            assertEquals(3, rows);
+
+            Set<Record> total = handler.executeQuery("SELECT COUNT(*) FROM users");
+            assertEquals((long) model.size(), total.iterator().next().getData("COUNT(*)"));
+            try {
+                handler.executeQuery("SELECT state, COUNT(*) FROM users GROUP BY state HAVING COUNT(*) > 1");
+                fail("expected UnsupportedOperationException");
+            } catch (UnsupportedOperationException expectedException) {
+            }
+            try {
+                handler.executeQuery("SELECT kind, COUNT(*) FROM users GROUP BY state");
+                fail("expected UnsupportedOperationException");
+            } catch (UnsupportedOperationException expectedException) {
+            }
+        } finally {
+            db.close();
+            table = null;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package idb.core;
+
+import idb.TempDirs;
+import idb.model.Record;
+import idb.utils.BloomFilter;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * 布隆过滤器没有漏报，实测误判率接近目标值；分层扩容后误判率仍有界；
+ * 表上被排除的等值查询不扫描，删除过多后在线重建；运行文件的过滤器跳过不存在的 id。
+ */
+public class BloomIndexTest extends TestCase {
+    private static final long TIMEOUT_MILLIS = 10_000;
+    private static final int ROWS = 1500;
+
+    private File dir;
+    private TableImpl table;
+
+    public BloomIndexTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(BloomIndexTest.class);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = TempDirs.create("idb-bloom");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        if (table != null) {
+            table.close();
+        }
+        TempDirs.delete(dir);
+    }
+
+    private TableImpl open() throws IOException {
+        table = new TableImpl("users", new File(dir, "users.csv").getPath());
+        table.setSchema(Schema.parse("email:string,age:int"));
+        table.loadFromCSV();
+        for (int id = 1; id <= ROWS; id++) {
+            Record record = new Record(id);
+            record.setData("email", email(id));
+            record.setData("age", id % 90);
+            table.addRecord(record);
+        }
+        return table;
+    }
+
+    private static String email(int id) {
+        return "user" + id + "@example.com";
+    }
+
+    private static long stat(TableImpl table, String name) {
+        return ((Number) table.getStats().get(name)).longValue();
+    }
+
+    private static double fpp(TableImpl table, String column) {
+        return (Double) ((Map<?, ?>) table.getStats().get("bloomFpp")).get(column);
+    }
+
+    private static Record row(int id, String column, Object value) {
+        Record record = new Record(id);
+        record.setData(column, value);
+        return record;
+    }
+
+    public void testFilterFalsePositiveRate() throws IOException {
+        BloomFilter filter = new BloomFilter(20_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.add("key" + i);
+            filter.add(i * 7);
+        }
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(filter.mightContain("key" + i));
+            assertTrue(filter.mightContain(i * 7));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (filter.mightContain("other" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("false positives " + falsePositives, falsePositives < 100_000 * 0.01 * 1.5);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        filter.writeTo(new DataOutputStream(bytes));
+        BloomFilter copy = BloomFilter.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(filter.getInsertions(), copy.getInsertions());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(filter.mightContain("other" + i), copy.mightContain("other" + i));
+            assertTrue(copy.mightContain("key" + i));
+        }
+    }
+
+    public void testLayersKeepFppBounded() throws IOException {
+        BloomIndex index = new BloomIndex("k", 1000);
+        int count = 40_000;
+        for (int i = 0; i < count; i++) {
+            index.add(row(i, "k", i));
+        }
+        assertEquals(count, index.insertions());
+        assertTrue(index.expectedFpp() <= BloomIndex.DEFAULT_FPP);
+        for (int i = 0; i < count; i++) {
+            assertTrue(index.mightContain(i));
+            // 按字符串形式散列，类型不同但字符串相同的值也能命中
+            assertTrue(index.mightContain(String.valueOf(i)));
+        }
+        int falsePositives = 0;
+        for (int i = count; i < count + 50_000; i++) {
+            if (index.mightContain(i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("false positives " + falsePositives, falsePositives < 50_000 * BloomIndex.DEFAULT_FPP * 2);
+        assertTrue(index.mightContain(null));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.writeTo(new DataOutputStream(bytes));
+        BloomIndex copy = BloomIndex.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), "k");
+        assertEquals(index.insertions(), copy.insertions());
+        assertEquals(index.expectedFpp(), copy.expectedFpp(), 1e-12);
+        assertTrue(copy.mightContain(count - 1));
+
+        assertFalse(index.isStale());
+        for (int i = 0; i < count / 2 + 1; i++) {
+            index.remove(row(i, "k", i));
+        }
+        assertTrue(index.isStale());
+    }
+
+    public void testNegativeLookupsSkipScan() throws IOException {
+        open();
+        table.createIndex("email", IndexType.BLOOM);
+        assertTrue(fpp(table, "email") > 0);
+        assertTrue(fpp(table, "email") <= BloomIndex.DEFAULT_FPP);
+
+        long scans = stat(table, "sequentialScans") + stat(table, "parallelScans");
+        long negatives = stat(table, "bloomNegatives");
+        int missing = 500;
+        for (int i = 0; i < missing; i++) {
+            String absent = "nobody" + i + "@example.com";
+            assertTrue(table.query(Map.of("email", absent)).isEmpty());
+            assertNull(table.getRecordByIndex("email", absent));
+            assertTrue(table.queryRecords("email", absent).isEmpty());
+            assertTrue(table.query(Map.of("email", absent), "age").isEmpty());
+        }
+        long ruledOut = stat(table, "bloomNegatives") - negatives;
+        assertTrue("ruled out " + ruledOut, ruledOut >= (long) (missing * 4 * 0.95));
+        long scanned = stat(table, "sequentialScans") + stat(table, "parallelScans") - scans;
+        assertTrue("scans " + scanned, scanned <= missing * 4 - ruledOut);
+
+        // 存在的值没有漏报，与其他条件组合时结果照常
+        for (int id = 1; id <= ROWS; id += 37) {
+            assertEquals(Collections.singleton(id), ids(table.query(Map.of("email", email(id)))));
+            assertEquals(1, table.query(Map.of("email", email(id), "age", id % 90)).size());
+            assertTrue(table.query(Map.of("email", email(id), "age", id % 90 + 1)).isEmpty());
+        }
+        // 带类型的列上，条件值先按列类型转换再查过滤器
+        table.createIndex("age", IndexType.BLOOM);
+        assertEquals(ROWS / 90 + 1, table.query(Map.of("age", "7")).size());
+        assertTrue(table.query(Map.of("age", 1000)).isEmpty());
+    }
+
+    public void testNewValuesAndRebuildAfterDeletes() throws IOException {
+        open();
+        table.createIndex("email", IndexType.BLOOM);
+        table.addRecord(row(ROWS + 1, "email", "late@example.com"));
+        assertEquals(1, table.query(Map.of("email", "late@example.com")).size());
+        table.updateRecord(1, "email", "changed@example.com");
+        assertEquals(1, table.query(Map.of("email", "changed@example.com")).size());
+        assertTrue(table.query(Map.of("email", email(1))).isEmpty());
+
+        double before = fpp(table, "email");
+        // 删除过半后过滤器在后台按剩余的行重建，被删的值重新可以排除
+        int deleted = 1100;
+        for (int id = 2; id < 2 + deleted; id++) {
+            table.deleteRecord(id);
+        }
+        awaitBuilds();
+        assertTrue(fpp(table, "email") < before);
+        long negatives = stat(table, "bloomNegatives");
+        for (int id = 2; id < 2 + deleted; id++) {
+            assertTrue(table.query(Map.of("email", email(id))).isEmpty());
+        }
+        // 重建开始（删除约一千条）之后再删的值仍留在新过滤器中
+        assertTrue(stat(table, "bloomNegatives") - negatives >= 1000);
+        for (int id = 2 + deleted; id <= ROWS; id++) {
+            assertEquals(1, table.query(Map.of("email", email(id))).size());
+        }
+
+        // 关闭后重新打开，从索引文件恢复的过滤器同样可用
+        table.close();
+        table = new TableImpl("users", new File(dir, "users.csv").getPath());
+        table.loadFromCSV();
+        awaitBuilds();
+        assertEquals(1, table.query(Map.of("email", "late@example.com")).size());
+        assertTrue(table.query(Map.of("email", "nobody@example.com")).isEmpty());
+        assertEquals(1, stat(table, "bloomNegatives"));
+    }
+
+    private void awaitBuilds() {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!((Map<?, ?>) table.getStats().get("indexBuilds")).isEmpty()) {
+            assertTrue("index build did not finish", System.currentTimeMillis() < deadline);
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail("interrupted");
+            }
+        }
+    }
+
+    public void testRunFileFilterSkipsAbsentIds() throws IOException {
+        TreeMap<Integer, byte[]> entries = new TreeMap<>();
+        for (int id = 0; id < 20_000; id += 2) {
+            entries.put(id, new byte[]{(byte) id});
+        }
+        entries.put(10_001, SortedRunFile.TOMBSTONE);
+        File file = new File(dir, "run-1.sst");
+        SortedRunFile.write(file, entries.entrySet().iterator());
+        try (SortedRunFile run = SortedRunFile.open(file)) {
+            assertTrue(run.bloomBytes() > 0);
+            assertTrue(run.bloomFpp() > 0 && run.bloomFpp() <= 0.02);
+            for (Map.Entry<Integer, byte[]> entry : entries.entrySet()) {
+                byte[] found = run.find(entry.getKey());
+                if (entry.getValue() == SortedRunFile.TOMBSTONE) {
+                    assertSame(SortedRunFile.TOMBSTONE, found);
+                } else {
+                    assertEquals(entry.getValue()[0], found[0]);
+                }
+            }
+            for (int id = 1; id < 20_000; id += 2) {
+                if (id != 10_001) {
+                    assertNull(run.find(id));
+                }
+            }
+        }
+    }
+
+    private static Set<Integer> ids(Iterable<Record> records) {
+        Set<Integer> ids = new TreeSet<>();
+        for (Record record : records) {
+            ids.add(record.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,147 @@
+package idb.core;
+
+import idb.TempDirs;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * clock 淘汰：被引用过的页得到第二次机会，被 pin 住的页不淘汰，脏页淘汰时写回，干净页不写。
+ */
+public class BufferPoolTest extends TestCase {
+    private static final int PAGE_SIZE = 256;
+
+    private File dir;
+    private BufferPool pool;
+
+    public BufferPoolTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(BufferPoolTest.class);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = TempDirs.create("idb-pool");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        if (pool != null) {
+            pool.close();
+        }
+        TempDirs.delete(dir);
+    }
+
+    private BufferPool open(int capacity) {
+        pool = new BufferPool(new File(dir, "t.pages").getPath(), PAGE_SIZE, capacity);
+        return pool;
+    }
+
+    private long stat(String name) {
+        return ((Number) pool.getStats().get(name)).longValue();
+    }
+
+    // 分配一页，写入一行后解除 pin
+    private void allocate(int id) throws IOException {
+        BufferPool.Page page = pool.allocate();
+        page.putRow(id, new byte[]{(byte) id});
+        pool.unpin(page, true);
+    }
+
+    private boolean resident(int pageNo) throws IOException {
+        long misses = stat("poolMisses");
+        pool.unpin(pool.pin(pageNo), false);
+        return stat("poolMisses") == misses;
+    }
+
+    public void testReferencedPageGetsSecondChance() throws IOException {
+        open(3);
+        allocate(0);
+        allocate(1);
+        allocate(2);
+        // 三页都有引用位：指针转一圈清掉引用位，再淘汰第一页
+        allocate(3);
+        assertEquals(1, stat("poolEvictions"));
+
+        // 再次访问第 1 页，下一次淘汰跳过它，换掉没被访问的第 2 页
+        pool.unpin(pool.pin(1), false);
+        allocate(4);
+        assertEquals(2, stat("poolEvictions"));
+        assertTrue(resident(1));
+        assertTrue(resident(4));
+        assertFalse(resident(2));
+    }
+
+    public void testPinnedPagesAreNotEvicted() throws IOException {
+        open(2);
+        BufferPool.Page pinned = pool.allocate();
+        allocate(1);
+        allocate(2);
+        allocate(3);
+        assertEquals(2, stat("poolEvictions"));
+        assertSame(pinned, pool.pin(0));
+        pool.unpin(pinned, false);
+
+        BufferPool.Page other = pool.pin(3);
+        try {
+            pool.allocate();
+            fail("expected IOException");
+        } catch (IOException expected) {
+        }
+        pool.unpin(other, false);
+        pool.unpin(pinned, false);
+        pool.unpin(pool.allocate(), false);
+    }
+
+    public void testDirtyPagesWrittenBackOnEviction() throws IOException {
+        open(2);
+        for (int id = 0; id < 6; id++) {
+            allocate(id);
+        }
+        assertEquals(4, stat("pageWrites"));
+        for (int pageNo = 0; pageNo < 6; pageNo++) {
+            BufferPool.Page page = pool.pin(pageNo);
+            assertEquals(1, page.getRows().size());
+            assertEquals(pageNo, page.getRow(pageNo)[0]);
+            pool.unpin(page, false);
+        }
+        // 最后两页淘汰时写回，其余读入的干净页淘汰时不写
+        assertEquals(6, stat("pageWrites"));
+        pool.flush();
+        assertEquals(6, stat("pageWrites"));
+
+        BufferPool.Page page = pool.pin(4);
+        page.putRow(100, new byte[]{7, 7});
+        assertEquals(BufferPool.PAGE_HEADER_SIZE + 2 * BufferPool.ROW_HEADER_SIZE + 3, page.getUsedBytes());
+        pool.unpin(page, true);
+        pool.flush();
+        assertEquals(7, stat("pageWrites"));
+    }
+
+    public void testPinChecks() throws IOException {
+        open(2);
+        try {
+            pool.pin(0);
+            fail("expected IOException");
+        } catch (IOException expected) {
+        }
+        BufferPool.Page page = pool.allocate();
+        pool.unpin(page, false);
+        try {
+            pool.unpin(page, false);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            new BufferPool(new File(dir, "small.pages").getPath(), PAGE_SIZE, 1);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package idb.core;
+
+import idb.TempDirs;
+import idb.model.Record;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 检查点只写改动过的记录；恢复按 基础文件 -> 增量文件 -> WAL 的顺序；
+ * 增量文件够多时合并回基础文件，重新加载不会与合并交错。
+ */
+public class CheckpointerTest extends TestCase {
+    private File dir;
+    private File base;
+    private final List<TableImpl> tables = new ArrayList<>();
+
+    public CheckpointerTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(CheckpointerTest.class);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = TempDirs.create("idb-checkpoint");
+        base = new File(dir, "t.csv");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        for (TableImpl table : tables) {
+            table.close();
+        }
+        TempDirs.delete(dir);
+    }
+
+    private TableImpl open() throws IOException {
+        TableImpl table = new TableImpl("t", base.getPath());
+        table.loadFromCSV();
+        tables.add(table);
+        return table;
+    }
+
+    private static Record row(int id, String value) {
+        Record record = new Record(id);
+        record.setData("value", value);
+        return record;
+    }
+
+    private static long stat(TableImpl table, String name) {
+        return ((Number) table.getStats().get(name)).longValue();
+    }
+
+    private static Map<Integer, Object> contents(TableImpl table) {
+        Map<Integer, Object> values = new HashMap<>();
+        for (Record record : table.getRowStore().values()) {
+            values.put(record.getId(), record.getData("value"));
+        }
+        return values;
+    }
+
+    public void testCheckpointWritesOnlyChangedRows() throws IOException {
+        TableImpl table = open();
+        Map<Integer, Object> expected = new HashMap<>();
+        for (int id = 1; id <= 100; id++) {
+            table.addRecord(row(id, "v" + id));
+            expected.put(id, "v" + id);
+        }
+        table.saveToCSV();
+        long baseLength = base.length();
+
+        table.updateRecord(5, "value", "changed");
+        table.updateRecord(6, "value", "changed");
+        table.deleteRecord(7);
+        table.addRecord(row(101, "new"));
+        expected.put(5, "changed");
+        expected.put(6, "changed");
+        expected.remove(7);
+        expected.put(101, "new");
+        table.checkpoint();
+
+        assertEquals(4, stat(table, "lastCheckpointRows"));
+        assertEquals(1, stat(table, "deltaFiles"));
+        assertEquals(0, new File(base.getPath() + ".wal").length());
+        assertEquals(baseLength, base.length());
+
+        // 增量之后再改一条，只留在 WAL 中
+        table.updateRecord(5, "value", "again");
+        expected.put(5, "again");
+        assertEquals(expected, contents(open()));
+    }
+
+    public void testMergeAppliesDeltasInOrder() throws IOException {
+        CsvStorageFormat format = new CsvStorageFormat();
+        List<Record> rows = new ArrayList<>();
+        for (int id = 1; id <= 5; id++) {
+            rows.add(row(id, "v" + id));
+        }
+        format.write(base, rows);
+
+        Checkpointer checkpointer = new Checkpointer(base.getPath());
+        Map<Integer, Record> first = new LinkedHashMap<>();
+        first.put(1, row(1, "first"));
+        first.put(2, null);
+        first.put(6, row(6, "added"));
+        checkpointer.writeDelta(first);
+        Map<Integer, Record> second = new LinkedHashMap<>();
+        second.put(1, row(1, "second"));
+        second.put(2, row(2, "back"));
+        second.put(6, null);
+        checkpointer.writeDelta(second);
+        assertEquals(2, checkpointer.deltaFiles().size());
+
+        checkpointer.merge(format);
+        assertTrue(checkpointer.deltaFiles().isEmpty());
+        assertEquals(1L, checkpointer.getStats().get("merges"));
+        Map<Integer, Object> merged = new HashMap<>();
+        format.read(base, record -> merged.put(record.getId(), record.getData("value")));
+        assertEquals(Map.of(1, "second", 2, "back", 3, "v3", 4, "v4", 5, "v5"), merged);
+
+        // 新的 Checkpointer 从已有文件之后继续编号
+        Checkpointer reopened = new Checkpointer(base.getPath());
+        reopened.replayDeltas((op, id, record) -> fail("no deltas expected"));
+        reopened.writeDelta(Map.of(3, row(3, "later")));
+        assertEquals(1, reopened.deltaFiles().size());
+    }
+
+    public void testMergeScheduledAfterEnoughDeltas() throws IOException {
+        TableImpl table = open();
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            padding.append('x');
+        }
+        for (int id = 1; id <= 100; id++) {
+            table.addRecord(row(id, padding + "-" + id));
+        }
+        table.saveToCSV();
+
+        // 增量文件远小于基础文件，攒到 MAX_DELTA_FILES 个才合并
+        for (int i = 1; i < Checkpointer.MAX_DELTA_FILES; i++) {
+            table.updateRecord(i, "value", "u" + i);
+            table.checkpoint();
+        }
+        assertEquals(Checkpointer.MAX_DELTA_FILES - 1, stat(table, "deltaFiles"));
+        assertEquals(0, stat(table, "merges"));
+
+        table.updateRecord(Checkpointer.MAX_DELTA_FILES, "value", "last");
+        table.close();
+        tables.remove(table);
+        assertEquals(0, new Checkpointer(base.getPath()).deltaFiles().size());
+
+        Map<Integer, Object> values = contents(open());
+        assertEquals(100, values.size());
+        assertEquals("u1", values.get(1));
+        assertEquals("last", values.get(Checkpointer.MAX_DELTA_FILES));
+        assertEquals(padding + "-100", values.get(100));
+    }
+
+    public void testReloadAfterCloseSeesMergedRows() throws IOException {
+        TableImpl table = open();
+        for (int round = 0; round < 20; round++) {
+            for (int id = 1; id <= 50; id++) {
+                table.addRecord(row(id, "r" + round));
+            }
+            // 没有基础文件时关闭即触发后台合并，紧接着重新加载
+            table.close();
+            table.loadFromCSV();
+            Map<Integer, Object> values = contents(table);
+            assertEquals(50, values.size());
+            assertEquals("r" + round, values.get(50));
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package idb.core;
+
+import idb.TempDirs;
+import idb.model.Record;
+import idb.utils.RoaringBitmap;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 组合索引的最左前缀查找：任意长度的前缀、包含 null 的列，与逐行比较的结果一致；
+ * 表上的等值查询在条件覆盖最左前缀时使用组合索引，更新之后结果仍然正确。
+ */
+public class CompositeIndexTest extends TestCase {
+    private static final int ROWS = 1500;
+    private static final String[] COLUMNS = {"city", "year", "kind"};
+
+    private File dir;
+    private TableImpl table;
+    private final Map<Integer, Record> model = new HashMap<>();
+    private final Random random = new Random(7);
+
+    public CompositeIndexTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(CompositeIndexTest.class);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = TempDirs.create("idb-composite");
+        table = new TableImpl("t", new File(dir, "t.csv").getPath());
+        table.loadFromCSV();
+        for (int id = 1; id <= ROWS; id++) {
+            put(row(id));
+        }
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        table.close();
+        TempDirs.delete(dir);
+    }
+
+    private Record row(int id) {
+        Record record = new Record(id);
+        record.setData("city", "c" + random.nextInt(6));
+        record.setData("year", 2000 + random.nextInt(5));
+        if (random.nextInt(10) != 0) {
+            record.setData("kind", random.nextBoolean() ? "a" : "b");
+        }
+        return record;
+    }
+
+    private void put(Record record) throws IOException {
+        table.addRecord(record);
+        model.put(record.getId(), record);
+    }
+
+    private Set<Integer> expected(Map<String, Object> conditions) {
+        Set<Integer> ids = new TreeSet<>();
+        for (Record record : model.values()) {
+            boolean matches = true;
+            for (Map.Entry<String, Object> condition : conditions.entrySet()) {
+                matches &= Objects.equals(condition.getValue(), record.getData(condition.getKey()));
+            }
+            if (matches) {
+                ids.add(record.getId());
+            }
+        }
+        return ids;
+    }
+
+    private static Set<Integer> ids(Iterable<Record> records) {
+        Set<Integer> ids = new TreeSet<>();
+        for (Record record : records) {
+            ids.add(record.getId());
+        }
+        return ids;
+    }
+
+    private static Set<Integer> ids(RoaringBitmap bitmap) {
+        Set<Integer> ids = new TreeSet<>();
+        bitmap.forEachInt(ids::add);
+        return ids;
+    }
+
+    // 取一条已有记录的前 length 列作为条件，偶尔换成不存在的值
+    private Map<String, Object> prefixOf(int length) {
+        List<Record> rows = new ArrayList<>(model.values());
+        Record sample = rows.get(random.nextInt(rows.size()));
+        Map<String, Object> conditions = new LinkedHashMap<>();
+        for (int i = 0; i < length; i++) {
+            conditions.put(COLUMNS[i], sample.getData(COLUMNS[i]));
+        }
+        if (length > 0 && random.nextInt(8) == 0) {
+            conditions.put(COLUMNS[length - 1], "missing");
+        }
+        return conditions;
+    }
+
+    public void testPrefixLookupMatchesScan() {
+        CompositeIndex index = new CompositeIndex(List.of(COLUMNS));
+        for (Record record : model.values()) {
+            index.add(record);
+        }
+        assertEquals(model.keySet(), ids(index.lookup()));
+        for (int i = 0; i < 200; i++) {
+            Map<String, Object> conditions = prefixOf(1 + i % COLUMNS.length);
+            assertEquals(conditions.toString(), expected(conditions), ids(index.lookup(conditions.values().toArray())));
+        }
+        // 末列为 null 的记录也能按完整键查到
+        Record withoutKind = null;
+        for (Record record : model.values()) {
+            if (record.getData("kind") == null) {
+                withoutKind = record;
+                break;
+            }
+        }
+        assertNotNull(withoutKind);
+        Map<String, Object> conditions = new LinkedHashMap<>();
+        conditions.put("city", withoutKind.getData("city"));
+        conditions.put("year", withoutKind.getData("year"));
+        conditions.put("kind", null);
+        assertEquals(expected(conditions), ids(index.lookup(conditions.values().toArray())));
+
+        for (Record record : new ArrayList<>(model.values())) {
+            if (record.getId() % 2 == 0) {
+                index.remove(record);
+                model.remove(record.getId());
+            }
+        }
+        for (int i = 0; i < 50; i++) {
+            Map<String, Object> prefix = prefixOf(1 + i % COLUMNS.length);
+            assertEquals(expected(prefix), ids(index.lookup(prefix.values().toArray())));
+        }
+    }
+
+    public void testPrefixLength() {
+        CompositeIndex index = new CompositeIndex(List.of(COLUMNS));
+        assertEquals(0, index.prefixLength(Map.of("year", 2001)));
+        assertEquals(1, index.prefixLength(Map.of("city", "c1", "kind", "a")));
+        assertEquals(2, index.prefixLength(Map.of("city", "c1", "year", 2001)));
+        assertEquals(3, index.prefixLength(Map.of("city", "c1", "year", 2001, "kind", "a")));
+        try {
+            index.lookup("c1", 2001, "a", "extra");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testTableQueriesUseLeftmostPrefix() throws IOException {
+        table.createIndex(COLUMNS);
+        assertTrue(table.explain(Map.of("city", "c1")).contains("composite:city,year,kind"));
+        assertTrue(table.explain(Map.of("city", "c1", "year", 2001)).contains("composite:city,year,kind"));
+        assertFalse(table.explain(Map.of("year", 2001)).contains("composite"));
+
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 60; i++) {
+                Map<String, Object> conditions = prefixOf(1 + i % COLUMNS.length);
+                assertEquals(conditions.toString(), expected(conditions), ids(table.query(conditions)));
+            }
+            Map<String, Object> notLeftmost = Map.of("year", 2002, "kind", "a");
+            assertEquals(expected(notLeftmost), ids(table.query(notLeftmost)));
+            Map<String, Object> pair = prefixOf(2);
+            assertEquals(expected(pair), ids(table.getRecordsByMultiColumnIndex(
+                    new String[]{"city", "year"}, pair.values().toArray())));
+
+            // 改动一部分记录后再比较一遍
+            for (int i = 0; i < 200; i++) {
+                int id = 1 + random.nextInt(ROWS);
+                if (!model.containsKey(id)) {
+                    continue;
+                }
+                if (i % 4 == 0) {
+                    table.deleteRecord(id);
+                    model.remove(id);
+                } else if (i % 4 == 1) {
+                    String city = "c" + random.nextInt(6);
+                    table.updateRecord(id, "city", city);
+                    model.get(id).setData("city", city);
+                } else {
+                    put(row(id));
+                }
+            }
+        }
+    }
+}
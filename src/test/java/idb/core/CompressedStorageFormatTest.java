@@ -0,0 +1,107 @@
+package idb.core;
+
+import idb.TempDirs;
+import idb.model.Record;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 分块压缩文件写出再读回：跨多个块按 id 顺序还原全部记录和值的类型，损坏的块报错。
+ */
+public class CompressedStorageFormatTest extends TestCase {
+    private File dir;
+    private File file;
+
+    public CompressedStorageFormatTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(CompressedStorageFormatTest.class);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = TempDirs.create("idb-compressed");
+        file = new File(dir, "users.cseg");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        TempDirs.delete(dir);
+    }
+
+    private static List<Record> users(int count) {
+        List<Record> records = new ArrayList<>();
+        // 倒序给出，写入时按 id 排序
+        for (int id = count; id >= 1; id--) {
+            Record record = new Record(id);
+            record.setData("name", "user-" + id);
+            record.setData("age", id % 90);
+            record.setData("score", id / 4.0);
+            record.setData("active", id % 2 == 0);
+            record.setData("joined", new Timestamp(1_700_000_000_000L + id));
+            if (id % 7 != 0) {
+                record.setData("note", "likes tea");
+            }
+            records.add(record);
+        }
+        return records;
+    }
+
+    private static List<Record> read(CompressedStorageFormat format, File file) throws IOException {
+        List<Record> records = new ArrayList<>();
+        format.read(file, records::add);
+        return records;
+    }
+
+    public void testRoundTripAcrossBlocks() throws IOException {
+        CompressedStorageFormat format = new CompressedStorageFormat(1024);
+        format.write(file, users(2000));
+
+        List<Record> records = read(new CompressedStorageFormat(1024), file);
+        assertEquals(2000, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            Record record = records.get(i);
+            int id = i + 1;
+            assertEquals(id, record.getId());
+            assertEquals("user-" + id, record.getData("name"));
+            assertEquals(id % 90, record.getData("age"));
+            assertEquals(id / 4.0, record.getData("score"));
+            assertEquals(id % 2 == 0, record.getData("active"));
+            assertEquals(new Timestamp(1_700_000_000_000L + id), record.getData("joined"));
+            assertEquals(id % 7 != 0 ? "likes tea" : null, record.getData("note"));
+        }
+        assertTrue(((Number) format.getStats().get("compressedBytes")).longValue()
+                < ((Number) format.getStats().get("rawBytes")).longValue());
+    }
+
+    public void testEmptyFile() throws IOException {
+        CompressedStorageFormat format = new CompressedStorageFormat();
+        format.write(file, new ArrayList<>());
+        assertTrue(read(format, file).isEmpty());
+    }
+
+    public void testCorruptBlockFails() throws IOException {
+        CompressedStorageFormat format = new CompressedStorageFormat(1024);
+        format.write(file, users(500));
+        // 改坏第一个块中间的几个字节
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(200);
+            raf.write(new byte[]{0, 0, 0, 0, 0, 0, 0, 0});
+        }
+        try {
+            read(format, file);
+            fail("expected IOException");
+        } catch (IOException expected) {
+        }
+    }
+}
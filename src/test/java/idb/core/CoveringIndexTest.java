@@ -0,0 +1,216 @@
+package idb.core;
+
+import idb.TempDirs;
+import idb.model.Record;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * 覆盖索引：条件和投影列都在索引中时结果直接由索引条目构造，不读行存储；
+ * 否则退回到完整记录再投影。写入之后索引中的值与行存储一致。
+ */
+public class CoveringIndexTest extends TestCase {
+    private static final int ROWS = 1000;
+
+    private File dir;
+    private TableImpl table;
+    private CountingRowStore rowStore;
+    private final Map<Integer, Record> model = new HashMap<>();
+    private final Random random = new Random(19);
+
+    // 记下按 id 读取的次数
+    private static class CountingRowStore extends HeapRowStore {
+        int gets;
+
+        @Override
+        public Record get(int id) {
+            gets++;
+            return super.get(id);
+        }
+    }
+
+    public CoveringIndexTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(CoveringIndexTest.class);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = TempDirs.create("idb-covering");
+        open();
+        for (int id = 1; id <= ROWS; id++) {
+            put(row(id));
+        }
+        table.createIndex("age", IndexType.ORDERED, "name", "city");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        if (table != null) {
+            table.close();
+        }
+        TempDirs.delete(dir);
+    }
+
+    private void open() throws IOException {
+        table = new TableImpl("users", new File(dir, "users.csv").getPath());
+        rowStore = new CountingRowStore();
+        table.setRowStore(rowStore);
+        table.setSchema(Schema.parse("age:int,name:string,city:string,email:string"));
+        table.loadFromCSV();
+    }
+
+    private Record row(int id) {
+        Record record = new Record(id);
+        record.setData("age", 18 + random.nextInt(40));
+        record.setData("name", "n" + random.nextInt(300));
+        if (random.nextInt(10) != 0) {
+            record.setData("city", "c" + random.nextInt(5));
+        }
+        record.setData("email", "u" + id + "@example.com");
+        return record;
+    }
+
+    private void put(Record record) throws IOException {
+        table.addRecord(record);
+        model.put(record.getId(), record.copy());
+    }
+
+    private static long stat(TableImpl table, String name) {
+        return ((Number) table.getStats().get(name)).longValue();
+    }
+
+    // id -> 投影列的值，缺少的列为 null
+    private Map<Integer, Map<String, Object>> expected(Map<String, Object> conditions, String... columns) {
+        Map<Integer, Map<String, Object>> rows = new TreeMap<>();
+        for (Record record : model.values()) {
+            boolean matches = true;
+            for (Map.Entry<String, Object> condition : conditions.entrySet()) {
+                matches &= Objects.equals(condition.getValue(), record.getData(condition.getKey()));
+            }
+            if (matches) {
+                rows.put(record.getId(), project(record, columns));
+            }
+        }
+        return rows;
+    }
+
+    private static Map<String, Object> project(Record record, String... columns) {
+        Map<String, Object> values = new HashMap<>();
+        for (String column : columns) {
+            values.put(column, record.getData(column));
+        }
+        return values;
+    }
+
+    private static Map<Integer, Map<String, Object>> actual(Set<Record> records, String... columns) {
+        Map<Integer, Map<String, Object>> rows = new TreeMap<>();
+        for (Record record : records) {
+            for (String column : record.getData().keySet()) {
+                assertTrue(column, Arrays.asList(columns).contains(column));
+            }
+            rows.put(record.getId(), project(record, columns));
+        }
+        return rows;
+    }
+
+    private void assertCovered(Map<String, Object> conditions, String... columns) {
+        long covered = stat(table, "coveredQueries");
+        int gets = rowStore.gets;
+        assertEquals(conditions.toString(), expected(conditions, columns), actual(table.query(conditions, columns), columns));
+        assertEquals(0, rowStore.gets - gets);
+        assertEquals(covered + 1, stat(table, "coveredQueries"));
+    }
+
+    private void assertCoveredQueries() {
+        for (int age = 17; age <= 58; age += 3) {
+            assertCovered(Map.of("age", age), "name");
+            assertCovered(Map.of("age", age), "name", "city", "age");
+            assertCovered(Map.of("age", age, "city", "c" + age % 5), "name");
+        }
+        // 条件只在包含列上时扫描覆盖索引的全部条目
+        assertCovered(Map.of("city", "c2"), "name", "age");
+        assertCovered(Map.of("name", "n7"), "age");
+    }
+
+    public void testCoveredProjectionSkipsRowStore() {
+        assertCoveredQueries();
+    }
+
+    public void testUncoveredProjectionReadsRows() {
+        long covered = stat(table, "coveredQueries");
+        int gets = rowStore.gets;
+        Map<String, Object> conditions = Map.of("age", 30);
+        assertEquals(expected(conditions, "email"), actual(table.query(conditions, "email"), "email"));
+        assertEquals(expected(conditions, "name", "email"), actual(table.query(conditions, "name", "email"), "name", "email"));
+        Map<String, Object> onEmail = Map.of("email", "u5@example.com");
+        assertEquals(expected(onEmail, "name"), actual(table.query(onEmail, "name"), "name"));
+        assertTrue(rowStore.gets > gets);
+        assertEquals(covered, stat(table, "coveredQueries"));
+    }
+
+    public void testCoveredValuesFollowWrites() throws IOException {
+        for (int i = 0; i < 400; i++) {
+            int id = 1 + random.nextInt(ROWS + 100);
+            switch (i % 4) {
+                case 0:
+                    if (model.containsKey(id)) {
+                        String name = "renamed" + i;
+                        table.updateRecord(id, "name", name);
+                        model.get(id).setData("name", name);
+                    }
+                    break;
+                case 1:
+                    if (model.containsKey(id)) {
+                        int age = 18 + random.nextInt(40);
+                        table.updateRecord(id, "age", age);
+                        model.get(id).setData("age", age);
+                    }
+                    break;
+                case 2:
+                    if (model.remove(id) != null) {
+                        table.deleteRecord(id);
+                    }
+                    break;
+                default:
+                    put(row(id));
+            }
+        }
+        assertCoveredQueries();
+
+        // 重新加载后从索引文件或重建恢复的覆盖条目同样可用
+        table.close();
+        open();
+        table.createIndex("age", IndexType.ORDERED, "name", "city");
+        assertCoveredQueries();
+    }
+
+    public void testSqlSelectUsesCoveringIndex() throws Exception {
+        Database db = new Database();
+        db.setTables(Map.of("users", table));
+        try {
+            SQLQueryHandler handler = new SQLQueryHandler(db);
+            int gets = rowStore.gets;
+            Set<Record> rows = handler.executeQuery("SELECT name FROM users WHERE age = 30");
+            assertEquals(expected(Map.of("age", 30), "name"), actual(rows, "name"));
+            assertEquals(0, rowStore.gets - gets);
+        } finally {
+            db.close();
+            table = null;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package idb.core;
+
+import idb.TempDirs;
+import idb.model.Record;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 分块并行读取 CSV：无论切分点落在引号内的换行、逗号还是转义引号上，
+ * 按引号奇偶找到的块边界都只落在真正的行尾，结果与整文件单块解析一致。
+ */
+public class CsvChunkLoaderTest extends TestCase {
+    private File dir;
+    private File file;
+    private ForkJoinPool pool;
+
+    public CsvChunkLoaderTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(CsvChunkLoaderTest.class);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = TempDirs.create("idb-csv");
+        file = new File(dir, "t.csv");
+        pool = new ForkJoinPool(4);
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        pool.shutdown();
+        TempDirs.delete(dir);
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    // 第 i 行的 note 列：引号内换行、逗号、转义引号、CRLF 轮流出现
+    private static String note(int i) {
+        switch (i % 5) {
+            case 0:
+                return "line one\nline two \"" + i + "\"";
+            case 1:
+                return "a, b, c";
+            case 2:
+                return "\"\"\n\n\"";
+            case 3:
+                return "crlf\r\ninside";
+            default:
+                return "plain" + i;
+        }
+    }
+
+    private void writeRows(int count, String lineEnd) throws IOException {
+        StringBuilder text = new StringBuilder("id,name,note,empty").append(lineEnd);
+        for (int i = 1; i <= count; i++) {
+            text.append(i).append(',').append(i % 3 == 0 ? quote("name " + i) : "name " + i)
+                    .append(',').append(quote(note(i))).append(',');
+            if (i != count) {
+                text.append(lineEnd);
+            }
+        }
+        Files.write(file.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private List<Record> load(int chunkSize) throws IOException {
+        List<Record> records = new ArrayList<>();
+        new CsvChunkLoader(pool, chunkSize).load(file, records::add);
+        return records;
+    }
+
+    private static void assertRows(int count, List<Record> records) {
+        assertEquals(count, records.size());
+        for (int i = 1; i <= count; i++) {
+            Record record = records.get(i - 1);
+            assertEquals(i, record.getId());
+            assertEquals(Map.of("name", "name " + i, "note", note(i)), record.getData());
+        }
+    }
+
+    public void testBoundariesAtEveryChunkSize() throws IOException {
+        writeRows(200, "\n");
+        assertRows(200, load(Integer.MAX_VALUE));
+        for (int chunkSize = 1; chunkSize <= 97; chunkSize++) {
+            assertRows(200, load(chunkSize));
+        }
+    }
+
+    public void testCrlfLineEnds() throws IOException {
+        writeRows(100, "\r\n");
+        for (int chunkSize : new int[]{1, 7, 31, 64, 1000}) {
+            assertRows(100, load(chunkSize));
+        }
+    }
+
+    public void testQuotedFieldLongerThanChunks() throws IOException {
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            big.append("\"quoted\",\n");
+        }
+        String text = "id,value\n1,before\n2," + quote(big.toString()) + "\n3,after\n";
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        List<Record> records = load(16);
+        assertEquals(3, records.size());
+        assertEquals("before", records.get(0).getData("value"));
+        assertEquals(big.toString(), records.get(1).getData("value"));
+        assertEquals("after", records.get(2).getData("value"));
+    }
+
+    public void testEmptyAndHeaderOnlyFiles() throws IOException {
+        Files.write(file.toPath(), new byte[0]);
+        assertTrue(load(16).isEmpty());
+        Files.write(file.toPath(), "id,name\n".getBytes(StandardCharsets.UTF_8));
+        assertTrue(load(16).isEmpty());
+        Files.write(file.toPath(), "id,name".getBytes(StandardCharsets.UTF_8));
+        assertTrue(load(16).isEmpty());
+    }
+
+    public void testInvalidIdFails() throws IOException {
+        Files.write(file.toPath(), "id,name\n1,a\nx2,b\n".getBytes(StandardCharsets.UTF_8));
+        try {
+            load(4);
+            fail("expected IOException");
+        } catch (IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package idb.core;
+
+import idb.TempDirs;
+import idb.model.Record;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 三种持久化级别的等待方式、攒批合并、队列过长时的反压，以及检查点清空 WAL 时还在队列中的日志。
+ */
+public class FlushSchedulerTest extends TestCase {
+    // 足够长的等待，让日志停留在队列中，由测试决定何时刷出
+    private static final long HOLD_MILLIS = 60_000;
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    private File dir;
+    private FlushScheduler scheduler;
+    private WriteAheadLog wal;
+    private final List<TableImpl> tables = new ArrayList<>();
+
+    public FlushSchedulerTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(FlushSchedulerTest.class);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = TempDirs.create("idb-flush");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        // 与 Database.close 相同，先刷出队列再关闭各表
+        if (scheduler != null) {
+            scheduler.flush();
+        }
+        for (TableImpl table : tables) {
+            table.close();
+        }
+        if (scheduler != null) {
+            scheduler.close();
+        }
+        if (wal != null) {
+            wal.close();
+        }
+        TempDirs.delete(dir);
+    }
+
+    private void start(long maxDelayMillis, int maxBatchSize) {
+        scheduler = new FlushScheduler(maxDelayMillis, maxBatchSize);
+        wal = new WriteAheadLog(new File(dir, "t.csv.wal").getPath(), scheduler);
+    }
+
+    private CompletableFuture<Void> append(int id, Durability durability) throws IOException {
+        Record record = new Record(id);
+        record.setData("n", id);
+        return wal.append(WriteAheadLog.OP_INSERT, id, record, durability);
+    }
+
+    private static long stat(FlushScheduler scheduler, String name) {
+        return ((Number) scheduler.getStats().get(name)).longValue();
+    }
+
+    // 批次计数在唤醒写线程之后才更新
+    private static void awaitStat(FlushScheduler scheduler, String name, long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (stat(scheduler, name) != expected) {
+            assertTrue(name + " did not reach " + expected, System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private List<Integer> replayedIds() throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        try (WriteAheadLog reader = new WriteAheadLog(wal.getFile().getPath())) {
+            reader.replay((op, id, record) -> ids.add(op == WriteAheadLog.OP_DELETE ? -id : id));
+        }
+        return ids;
+    }
+
+    private static void await(CompletableFuture<Void> future) throws Exception {
+        future.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public void testAsyncDoesNotWait() throws Exception {
+        start(HOLD_MILLIS, 1000);
+        assertTrue(append(1, Durability.ASYNC).isDone());
+        assertEquals(1, stat(scheduler, "pending"));
+        assertEquals(0, wal.getFile().length());
+
+        scheduler.flush();
+        assertEquals(0, stat(scheduler, "pending"));
+        assertEquals(List.of(1), replayedIds());
+    }
+
+    public void testGroupWaitsForFullBatch() throws Exception {
+        start(HOLD_MILLIS, 4);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int id = 1; id <= 3; id++) {
+            futures.add(append(id, Durability.GROUP));
+        }
+        Thread.sleep(50);
+        for (CompletableFuture<Void> future : futures) {
+            assertFalse(future.isDone());
+        }
+        // 第四条凑满一批，四条一起写入并 fsync
+        futures.add(append(4, Durability.GROUP));
+        for (CompletableFuture<Void> future : futures) {
+            await(future);
+        }
+        awaitStat(scheduler, "writes", 4);
+        assertEquals(1, stat(scheduler, "batches"));
+        assertEquals(List.of(1, 2, 3, 4), replayedIds());
+    }
+
+    public void testGroupFlushesAfterDelay() throws Exception {
+        start(20, 1000);
+        CompletableFuture<Void> first = append(1, Durability.GROUP);
+        CompletableFuture<Void> second = append(2, Durability.GROUP);
+        await(first);
+        await(second);
+        assertEquals(List.of(1, 2), replayedIds());
+    }
+
+    public void testSyncFlushesPendingWrites() throws Exception {
+        start(HOLD_MILLIS, 1000);
+        CompletableFuture<Void> group = append(1, Durability.GROUP);
+        append(2, Durability.ASYNC);
+        assertFalse(group.isDone());
+        // 同步写不等攒批，连同之前排队的日志一起刷出
+        await(append(3, Durability.SYNC));
+        assertTrue(group.isDone());
+        awaitStat(scheduler, "writes", 3);
+        assertEquals(1, stat(scheduler, "batches"));
+        assertEquals(List.of(1, 2, 3), replayedIds());
+    }
+
+    public void testBackpressureBlocksProducer() throws Exception {
+        int batchSize = 2;
+        int limit = batchSize * 64;
+        start(HOLD_MILLIS, batchSize);
+        AtomicInteger submitted = new AtomicInteger();
+        Thread producer = new Thread(() -> {
+            try {
+                for (int id = 1; id <= limit * 3; id++) {
+                    append(id, Durability.ASYNC);
+                    submitted.incrementAndGet();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        // 占住 WAL 的监视器，刷盘线程取走第一批（至多 limit 条）后停在写入上，
+        // 生产者再写满 limit 条就必然阻塞
+        synchronized (wal) {
+            producer.start();
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (stat(scheduler, "pending") < limit || producer.getState() != Thread.State.WAITING) {
+                assertTrue("producer was not blocked", System.currentTimeMillis() < deadline);
+                Thread.sleep(5);
+            }
+            assertEquals(limit, stat(scheduler, "pending"));
+            assertTrue(submitted.get() < limit * 3);
+        }
+        producer.join(TIMEOUT_MILLIS);
+        assertEquals(limit * 3, submitted.get());
+        scheduler.flush();
+        List<Integer> expected = new ArrayList<>();
+        for (int id = 1; id <= limit * 3; id++) {
+            expected.add(id);
+        }
+        assertEquals(expected, replayedIds());
+    }
+
+    private TableImpl open(FlushScheduler flushScheduler) throws IOException {
+        TableImpl table = new TableImpl("t", new File(dir, "t.csv").getPath(), flushScheduler);
+        table.loadFromCSV();
+        tables.add(table);
+        return table;
+    }
+
+    // 没有基础文件时检查点总会触发后台合并，等它完成再模拟崩溃后的加载
+    private static void awaitMerged(TableImpl table) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (((Number) table.getStats().get("merges")).longValue() == 0) {
+            assertTrue("merge did not finish", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static Record row(int id, String value) {
+        Record record = new Record(id);
+        record.setData("value", value);
+        return record;
+    }
+
+    public void testCheckpointCoversQueuedWrites() throws Exception {
+        scheduler = new FlushScheduler(HOLD_MILLIS, 1000);
+        TableImpl table = open(scheduler);
+        for (int id = 1; id <= 10; id++) {
+            table.addRecord(row(id, "v" + id), Durability.ASYNC);
+        }
+        // 检查点清空 WAL 时日志还在队列中，增量文件已包含这些记录
+        table.checkpoint();
+        assertEquals(10, stat(scheduler, "pending"));
+        awaitMerged(table);
+
+        // 队列中的日志尚未落盘就崩溃
+        TableImpl recovered = open(null);
+        assertEquals(10, recovered.getRowStore().size());
+        assertEquals("v7", recovered.getRecord(7).getData("value"));
+    }
+
+    public void testQueuedWritesLandAfterTruncationInOrder() throws Exception {
+        scheduler = new FlushScheduler(HOLD_MILLIS, 1000);
+        TableImpl table = open(scheduler);
+        for (int id = 1; id <= 10; id++) {
+            table.addRecord(row(id, "v" + id), Durability.ASYNC);
+        }
+        table.checkpoint();
+        table.updateRecord(2, "value", "changed", Durability.ASYNC);
+        // 同步删除把检查点之前排队的插入和之后的修改一起写进清空后的 WAL，顺序不变
+        table.deleteRecord(1, Durability.SYNC);
+        assertEquals(0, stat(scheduler, "pending"));
+        awaitMerged(table);
+
+        TableImpl recovered = open(null);
+        assertEquals(9, recovered.getRowStore().size());
+        assertNull(recovered.getRecord(1));
+        assertEquals("changed", recovered.getRecord(2).getData("value"));
+        assertEquals("v10", recovered.getRecord(10).getData("value"));
+    }
+}
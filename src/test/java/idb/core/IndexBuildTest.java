@@ -0,0 +1,92 @@
+package idb.core;
+
+import idb.TempDirs;
+import idb.model.Record;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+/**
+ * 后台索引构建和统计信息计算在表关闭、重新加载之后仍然可用。
+ */
+public class IndexBuildTest extends TestCase {
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    private File dir;
+    private TableImpl table;
+
+    public IndexBuildTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(IndexBuildTest.class);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = TempDirs.create("idb-index-build");
+        table = new TableImpl("users", new File(dir, "users.csv").getPath());
+        table.loadFromCSV();
+        for (int id = 1; id <= 100; id++) {
+            table.addRecord(user(id));
+        }
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        table.close();
+        TempDirs.delete(dir);
+    }
+
+    private static Record user(int id) {
+        Record record = new Record(id);
+        record.setData("city", "c" + id % 5);
+        record.setData("age", 20 + id % 30);
+        return record;
+    }
+
+    public void testCreateIndexAfterCloseAndReload() throws IOException {
+        table.createIndex("city");
+        table.close();
+        table.loadFromCSV();
+
+        table.createIndex("age");
+        IndexBuild build = table.createIndexAsync("city", IndexType.ORDERED);
+        build.await();
+        assertEquals(IndexBuild.State.DONE, build.getState());
+        assertEquals(20, table.query(Collections.singletonMap("city", "c1")).size());
+        assertTrue(table.explain(Collections.singletonMap("age", 25)).contains("age"));
+        assertEquals(20, table.rangeQuery("city", "c1", "c1").size());
+    }
+
+    public void testClosedTableRejectsBuilds() throws IOException {
+        table.close();
+        try {
+            table.createIndexAsync("city", IndexType.HASH);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+        }
+        table.loadFromCSV();
+        table.createIndexAsync("city", IndexType.HASH).await();
+    }
+
+    public void testStatisticsRefreshedAfterReload() throws Exception {
+        table.close();
+        table.loadFromCSV();
+        for (int id = 101; id <= 2000; id++) {
+            table.addRecord(user(id), Durability.ASYNC);
+        }
+        // 查询时发现统计信息过期，在后台重新分析
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (((Number) table.getStats().get("analyzedRows")).longValue() != 2000) {
+            assertTrue("statistics were not refreshed", System.currentTimeMillis() < deadline);
+            table.query(Collections.singletonMap("city", "c1"));
+            Thread.sleep(10);
+        }
+    }
+}
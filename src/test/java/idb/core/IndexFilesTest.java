@@ -0,0 +1,314 @@
+package idb.core;
+
+import idb.TempDirs;
+import idb.model.Record;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 索引文件的校验：指纹、定义或 CRC 不符时不读入；数据文件未变时重新加载直接使用索引文件，
+ * 数据文件在外部被改动或索引文件损坏时在后台重建，查询结果与逐行比较一致。
+ */
+public class IndexFilesTest extends TestCase {
+    private static final int ROWS = 500;
+    private static final String SCHEMA = "city:string,age:int,name:string";
+    private static final String[] SPECS = {"ordered:age", "hash:city", "composite:city,age", "bloom:name"};
+    // 远早于测试运行的时间，用来判断关闭时是否重写了索引文件
+    private static final long OLD_MTIME = 1_000_000_000_000L;
+
+    private File dir;
+    private File base;
+    private IndexFiles indexFiles;
+    private TableImpl table;
+    private final Map<Integer, Record> model = new HashMap<>();
+    private final Random random = new Random(15);
+
+    public IndexFilesTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(IndexFilesTest.class);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = TempDirs.create("idb-index-files");
+        base = new File(dir, "t.csv");
+        indexFiles = new IndexFiles(base.getPath());
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        if (table != null) {
+            table.close();
+        }
+        TempDirs.delete(dir);
+    }
+
+    private TableImpl open() throws IOException {
+        table = new TableImpl("t", base.getPath());
+        if (!new File(base.getPath() + ".schema").exists()) {
+            table.setSchema(Schema.parse(SCHEMA));
+        }
+        table.loadFromCSV();
+        return table;
+    }
+
+    private void closeTable() throws IOException {
+        table.close();
+        table = null;
+    }
+
+    private void reopen() throws IOException {
+        table.close();
+        open();
+    }
+
+    private Record row(int id) {
+        Record record = new Record(id);
+        record.setData("city", "c" + random.nextInt(8));
+        record.setData("age", 18 + random.nextInt(50));
+        record.setData("name", "n" + id);
+        return record;
+    }
+
+    // 建表并创建 SPECS 中的索引，关闭后索引文件都已写出
+    private void createIndexedTable() throws IOException {
+        open();
+        for (int id = 1; id <= ROWS; id++) {
+            Record record = row(id);
+            table.addRecord(record);
+            model.put(id, record);
+        }
+        table.createIndex("age", IndexType.ORDERED);
+        table.createIndex("city");
+        table.createIndex("city", "age");
+        table.createIndex("name", IndexType.BLOOM);
+        closeTable();
+        for (String spec : SPECS) {
+            File file = indexFiles.fileFor(spec);
+            assertTrue(spec, file.exists());
+            assertTrue(file.setLastModified(OLD_MTIME));
+        }
+    }
+
+    private static Set<Integer> ids(Iterable<Record> records) {
+        Set<Integer> ids = new TreeSet<>();
+        for (Record record : records) {
+            ids.add(record.getId());
+        }
+        return ids;
+    }
+
+    private Set<Integer> expected(String column, Object value) {
+        Set<Integer> ids = new TreeSet<>();
+        for (Record record : model.values()) {
+            if (Objects.equals(value, record.getData(column))) {
+                ids.add(record.getId());
+            }
+        }
+        return ids;
+    }
+
+    private Set<Integer> expectedAges(int from, int to) {
+        Set<Integer> ids = new TreeSet<>();
+        for (Record record : model.values()) {
+            int age = (Integer) record.getData("age");
+            if (age >= from && age <= to) {
+                ids.add(record.getId());
+            }
+        }
+        return ids;
+    }
+
+    private void assertQueries() {
+        for (int i = 0; i < 8; i++) {
+            String city = "c" + i;
+            assertEquals(expected("city", city), ids(table.query(Map.of("city", city))));
+            Map<String, Object> pair = Map.of("city", city, "age", 20 + i);
+            Set<Integer> both = expected("city", city);
+            both.retainAll(expected("age", 20 + i));
+            assertEquals(both, ids(table.query(pair)));
+        }
+        assertEquals(expectedAges(30, 40), ids(table.rangeQuery("age", 30, 40)));
+        assertEquals(expectedAges(60, 70), ids(table.rangeQuery("age", 60, 70)));
+        for (int id : new int[]{1, ROWS, ROWS + 1}) {
+            assertEquals(expected("name", "n" + id), ids(table.query(Map.of("name", "n" + id))));
+        }
+    }
+
+    private void assertIndexFilesRewritten(boolean rewritten) {
+        for (String spec : SPECS) {
+            assertEquals(spec, rewritten, indexFiles.fileFor(spec).lastModified() != OLD_MTIME);
+        }
+    }
+
+    // 已有的索引直接返回已完成的构建，否则返回正在进行的重建
+    private void awaitIndexes() {
+        table.createIndexAsync("age", IndexType.ORDERED).await();
+        table.createIndexAsync("city").await();
+        table.createIndexAsync("city", "age").await();
+        table.createIndexAsync("name", IndexType.BLOOM).await();
+    }
+
+    public void testRoundTripAndValidation() throws IOException {
+        String spec = "hash:age+name,email";
+        indexFiles.write(spec, 42L, out -> {
+            out.writeInt(7);
+            out.writeUTF("body");
+        });
+        IndexFiles.Reader<String> reader = in -> in.readInt() + in.readUTF();
+        assertEquals("7body", indexFiles.read(spec, 42L, reader));
+        assertNull(indexFiles.read(spec, 43L, reader));
+        assertNull(indexFiles.read("hash:age", 42L, reader));
+
+        // 文件名由定义决定，换了定义的文件也不会被当作别的索引读入
+        File other = indexFiles.fileFor("ordered:age");
+        Files.copy(indexFiles.fileFor(spec).toPath(), other.toPath());
+        assertNull(indexFiles.read("ordered:age", 42L, reader));
+
+        File file = indexFiles.fileFor(spec);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        for (int position : new int[]{0, 10, bytes.length - 6, bytes.length - 1}) {
+            byte[] corrupt = bytes.clone();
+            corrupt[position] ^= 0x40;
+            Files.write(file.toPath(), corrupt);
+            assertNull("byte " + position, indexFiles.read(spec, 42L, reader));
+        }
+        Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 3));
+        assertNull(indexFiles.read(spec, 42L, reader));
+        indexFiles.delete(spec);
+        assertNull(indexFiles.read(spec, 42L, reader));
+    }
+
+    public void testFingerprintFollowsFilesAndSchema() throws IOException {
+        File data = new File(dir, "a.csv");
+        File delta = new File(dir, "a.csv.delta.1");
+        Files.write(data.toPath(), "id,x\n1,a\n".getBytes(StandardCharsets.UTF_8));
+        List<File> files = Arrays.asList(data, delta);
+        long fingerprint = IndexFiles.fingerprint(files, SCHEMA);
+        assertEquals(fingerprint, IndexFiles.fingerprint(files, SCHEMA));
+        assertTrue(fingerprint != IndexFiles.fingerprint(files, "city:string,age:long,name:string"));
+
+        Files.write(delta.toPath(), new byte[0]);
+        long withDelta = IndexFiles.fingerprint(files, SCHEMA);
+        assertTrue(fingerprint != withDelta);
+
+        long modified = data.lastModified();
+        Files.write(data.toPath(), "2,b\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        assertTrue(data.setLastModified(modified));
+        long longer = IndexFiles.fingerprint(files, SCHEMA);
+        assertTrue(withDelta != longer);
+        assertTrue(data.setLastModified(modified - 10_000));
+        assertTrue(longer != IndexFiles.fingerprint(files, SCHEMA));
+    }
+
+    public void testDefinitionsAndSpecs() throws IOException {
+        assertTrue(indexFiles.loadDefinitions().isEmpty());
+        List<String> specs = Arrays.asList("ordered:age", "hash:age+name,email", "composite:city,state", "bloom:x");
+        indexFiles.saveDefinitions(specs);
+        assertEquals(specs, indexFiles.loadDefinitions());
+
+        assertEquals(IndexType.HASH, IndexFiles.typeOf("hash:age+name,email"));
+        assertEquals(Collections.singletonList("age"), IndexFiles.columnsOf("hash:age+name,email"));
+        assertEquals(Arrays.asList("name", "email"), IndexFiles.includesOf("hash:age+name,email"));
+        assertEquals(Arrays.asList("city", "state"), IndexFiles.columnsOf("composite:city,state"));
+        assertTrue(IndexFiles.includesOf("composite:city,state").isEmpty());
+        assertEquals("hash:age+name,email", IndexFiles.spec("age", IndexType.HASH, Arrays.asList("name", "email")));
+        assertTrue(indexFiles.fileFor("ordered:age").equals(indexFiles.fileFor("ordered:age")));
+        assertFalse(indexFiles.fileFor("ordered:age").equals(indexFiles.fileFor("hash:age")));
+    }
+
+    public void testReloadUsesUnchangedIndexFiles() throws IOException {
+        createIndexedTable();
+        open();
+        // 从文件恢复的索引不需要构建
+        assertTrue(table.createIndexAsync("age", IndexType.ORDERED).isDone());
+        assertTrue(table.createIndexAsync("city", "age").isDone());
+        assertTrue(((Map<?, ?>) table.getStats().get("indexBuilds")).isEmpty());
+        assertQueries();
+        reopen();
+        assertIndexFilesRewritten(false);
+        assertQueries();
+
+        // 改动数据后关闭，索引文件随新的数据指纹一起重写
+        Record record = row(ROWS + 1);
+        table.addRecord(record);
+        model.put(record.getId(), record);
+        table.updateRecord(1, "age", 99);
+        model.get(1).setData("age", 99);
+        reopen();
+        assertIndexFilesRewritten(true);
+        assertQueries();
+    }
+
+    public void testExternallyChangedDataRebuildsIndexes() throws IOException {
+        createIndexedTable();
+        // 绕过表直接在基础文件末尾追加一行，按表头的列顺序填值
+        String header = Files.readAllLines(base.toPath(), StandardCharsets.UTF_8).get(0);
+        Record added = new Record(ROWS + 1);
+        added.setData("city", "c3");
+        added.setData("age", 33);
+        added.setData("name", "n" + (ROWS + 1));
+        StringBuilder line = new StringBuilder();
+        for (String column : header.split(",")) {
+            line.append(line.length() == 0 ? "" : ",");
+            line.append(column.equals("id") ? String.valueOf(added.getId()) : String.valueOf(added.getData(column)));
+        }
+        byte[] content = Files.readAllBytes(base.toPath());
+        String prefix = content.length > 0 && content[content.length - 1] != '\n' ? "\n" : "";
+        Files.write(base.toPath(), (prefix + line + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        model.put(added.getId(), added);
+
+        open();
+        awaitIndexes();
+        assertQueries();
+        closeTable();
+        assertIndexFilesRewritten(true);
+    }
+
+    public void testCorruptIndexFileIsRebuilt() throws IOException {
+        createIndexedTable();
+        List<File> corrupted = new ArrayList<>();
+        for (String spec : new String[]{"ordered:age", "composite:city,age"}) {
+            File file = indexFiles.fileFor(spec);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                long position = file.length() / 2;
+                raf.seek(position);
+                int value = raf.read();
+                raf.seek(position);
+                raf.write(value ^ 0xff);
+            }
+            assertTrue(file.setLastModified(OLD_MTIME));
+            corrupted.add(file);
+        }
+        open();
+        awaitIndexes();
+        assertQueries();
+        closeTable();
+        // 只有损坏的索引文件被重写
+        for (String spec : SPECS) {
+            File file = indexFiles.fileFor(spec);
+            assertEquals(spec, corrupted.contains(file), file.lastModified() != OLD_MTIME);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package idb.core;
+
+import idb.TempDirs;
+import idb.model.Record;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 带墓碑的运行文件合并：合并到最老的文件时丢弃墓碑，否则保留墓碑继续遮盖更老文件中的记录。
+ */
+public class LsmRowStoreTest extends TestCase {
+    private static final long COMPACTION_TIMEOUT_MILLIS = 10_000;
+
+    private File dir;
+    private LsmRowStore store;
+
+    public LsmRowStoreTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(LsmRowStoreTest.class);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = TempDirs.create("idb-lsm");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        if (store != null) {
+            store.close();
+        }
+        TempDirs.delete(dir);
+    }
+
+    private LsmRowStore open(long memtableLimit) throws IOException {
+        LsmRowStore opened = new LsmRowStore(dir.getPath(), memtableLimit);
+        opened.open();
+        return opened;
+    }
+
+    private static Record record(int id, String value) {
+        Record record = new Record(id);
+        record.setData("value", value);
+        return record;
+    }
+
+    private static long stat(LsmRowStore store, String name) {
+        return ((Number) store.getStats().get(name)).longValue();
+    }
+
+    // 合并在后台线程进行，等到完成指定次数
+    private static void awaitCompactions(LsmRowStore store, long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + COMPACTION_TIMEOUT_MILLIS;
+        while (stat(store, "compactions") < expected) {
+            assertTrue("compaction did not finish", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static void assertContents(Map<Integer, String> expected, LsmRowStore store) {
+        assertEquals(expected.size(), store.size());
+        int seen = 0;
+        for (Record record : store.values()) {
+            assertEquals(expected.get(record.getId()), record.getData("value"));
+            seen++;
+        }
+        assertEquals(expected.size(), seen);
+        for (int id = 0; id <= 250; id++) {
+            Record record = store.get(id);
+            assertEquals(expected.get(id), record != null ? record.getData("value") : null);
+            assertEquals(expected.containsKey(id), store.contains(id));
+        }
+    }
+
+    public void testCompactionIncludingOldestRunDropsTombstones() throws Exception {
+        store = open(LsmRowStore.DEFAULT_MEMTABLE_BYTES);
+        Map<Integer, String> expected = new HashMap<>();
+        for (int id = 1; id <= 200; id++) {
+            store.put(record(id, "v" + id));
+            expected.put(id, "v" + id);
+            if (id % 100 == 0) {
+                store.flush();
+            }
+        }
+        for (int id = 2; id <= 200; id += 2) {
+            store.remove(id);
+            expected.remove(id);
+        }
+        store.flush();
+        assertEquals(100, stat(store, "tombstones"));
+        for (int id = 1; id <= 50; id += 2) {
+            store.put(record(id, "u" + id));
+            expected.put(id, "u" + id);
+        }
+        // 第四个同层运行文件触发合并，合并的一组从最老的文件开始
+        store.flush();
+        awaitCompactions(store, 1);
+
+        assertEquals(1, stat(store, "runs"));
+        assertEquals(0, stat(store, "tombstones"));
+        assertContents(expected, store);
+
+        store.close();
+        store = open(LsmRowStore.DEFAULT_MEMTABLE_BYTES);
+        assertContents(expected, store);
+    }
+
+    public void testCompactionAboveOlderRunKeepsTombstones() throws Exception {
+        long memtableLimit = 64 * 1024;
+        store = open(memtableLimit);
+        Map<Integer, String> expected = new HashMap<>();
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            padding.append('x');
+        }
+        // 写满内存表自动刷出一个较大的运行文件，落在更高的一层
+        int id = 1;
+        while (stat(store, "memtableFlushes") == 0) {
+            store.put(record(id, padding + "-" + id));
+            expected.put(id, padding + "-" + id);
+            id++;
+        }
+        store.put(record(id, "small"));
+        expected.put(id, "small");
+        store.flush();
+        assertEquals(2, stat(store, "runs"));
+
+        for (int deleted = 1; deleted <= 10; deleted++) {
+            store.remove(deleted);
+            expected.remove(deleted);
+        }
+        store.flush();
+        for (int round = 0; round < 2; round++) {
+            for (int updated = 11; updated <= 15; updated++) {
+                store.put(record(updated, "r" + round + "-" + updated));
+                expected.put(updated, "r" + round + "-" + updated);
+            }
+            store.flush();
+        }
+        // 大文件之后的四个小文件合并为一个，最老的大文件不参与
+        awaitCompactions(store, 1);
+
+        assertEquals(2, stat(store, "runs"));
+        assertEquals(10, stat(store, "tombstones"));
+        assertContents(expected, store);
+
+        store.close();
+        store = open(memtableLimit);
+        assertContents(expected, store);
+    }
+}
@@ -0,0 +1,183 @@
+package idb.core;
+
+import idb.TempDirs;
+import idb.model.Record;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 有序索引上的区间查询和排序查询与逐行比较的结果一致，包括开区间、反向区间、
+ * 缺少该列的记录（排在最后），以及更新和删除之后的索引。
+ */
+public class OrderedIndexTest extends TestCase {
+    private static final int ROWS = 2000;
+
+    private File dir;
+    private TableImpl table;
+    private final Map<Integer, Record> model = new HashMap<>();
+    private final Random random = new Random(42);
+
+    public OrderedIndexTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(OrderedIndexTest.class);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = TempDirs.create("idb-ordered");
+        table = new TableImpl("t", new File(dir, "t.csv").getPath());
+        table.loadFromCSV();
+        for (int id = 1; id <= ROWS; id++) {
+            put(row(id));
+        }
+        table.createIndex("score", IndexType.ORDERED);
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        table.close();
+        TempDirs.delete(dir);
+    }
+
+    private Record row(int id) {
+        Record record = new Record(id);
+        if (random.nextInt(20) != 0) {
+            record.setData("score", random.nextInt(500));
+        }
+        record.setData("group", "g" + random.nextInt(4));
+        return record;
+    }
+
+    private void put(Record record) throws IOException {
+        table.addRecord(record);
+        model.put(record.getId(), record);
+    }
+
+    private Set<Integer> expectedRange(Integer from, Integer to) {
+        Set<Integer> ids = new TreeSet<>();
+        for (Record record : model.values()) {
+            Integer score = (Integer) record.getData("score");
+            if (score != null && (from == null || score >= from) && (to == null || score <= to)) {
+                ids.add(record.getId());
+            }
+        }
+        return ids;
+    }
+
+    private static Set<Integer> ids(Iterable<Record> records) {
+        Set<Integer> ids = new TreeSet<>();
+        for (Record record : records) {
+            ids.add(record.getId());
+        }
+        return ids;
+    }
+
+    private static List<Integer> idList(List<Record> records) {
+        List<Integer> ids = new ArrayList<>();
+        for (Record record : records) {
+            ids.add(record.getId());
+        }
+        return ids;
+    }
+
+    // 按 score 排序，相同值按 id 递增，没有 score 的排在最后
+    private List<Integer> expectedOrder(String group, boolean ascending, int limit) {
+        Comparator<Integer> byScore = ascending ? Comparator.naturalOrder() : Comparator.reverseOrder();
+        List<Record> rows = new ArrayList<>();
+        for (Record record : model.values()) {
+            if (group == null || group.equals(record.getData("group"))) {
+                rows.add(record);
+            }
+        }
+        rows.sort(Comparator.comparing((Record record) -> (Integer) record.getData("score"), Comparator.nullsLast(byScore))
+                .thenComparingInt(Record::getId));
+        return idList(rows.subList(0, Math.min(limit, rows.size())));
+    }
+
+    private void assertRanges() {
+        assertEquals(expectedRange(null, null), ids(table.rangeQuery("score", null, null)));
+        assertEquals(expectedRange(100, null), ids(table.rangeQuery("score", 100, null)));
+        assertEquals(expectedRange(null, 7), ids(table.rangeQuery("score", null, 7)));
+        assertTrue(table.rangeQuery("score", 300, 200).isEmpty());
+        for (int i = 0; i < 100; i++) {
+            int from = random.nextInt(520) - 10;
+            int to = from + random.nextInt(30);
+            assertEquals(from + ".." + to, expectedRange(from, to), ids(table.rangeQuery("score", from, to)));
+        }
+    }
+
+    private void assertSorted() {
+        for (boolean ascending : new boolean[]{true, false}) {
+            for (int limit : new int[]{0, 1, 10, 500, Integer.MAX_VALUE}) {
+                assertEquals(expectedOrder(null, ascending, limit),
+                        idList(table.sortedQuery(Collections.emptyMap(), "score", ascending, limit)));
+                assertEquals(expectedOrder("g2", ascending, limit),
+                        idList(table.sortedQuery(Collections.singletonMap("group", "g2"), "score", ascending, limit)));
+            }
+        }
+    }
+
+    public void testRangeQueryMatchesScan() {
+        assertRanges();
+    }
+
+    public void testSortedQueryFollowsIndexOrder() {
+        assertSorted();
+        // 条件列也有索引时，候选行与有序索引一起使用
+        table.createIndex("group");
+        assertSorted();
+    }
+
+    public void testIndexFollowsUpdatesAndDeletes() throws IOException {
+        for (int i = 0; i < 300; i++) {
+            int id = 1 + random.nextInt(ROWS);
+            if (!model.containsKey(id)) {
+                continue;
+            }
+            switch (i % 3) {
+                case 0:
+                    int score = random.nextInt(500);
+                    table.updateRecord(id, "score", score);
+                    model.get(id).setData("score", score);
+                    break;
+                case 1:
+                    table.deleteRecord(id);
+                    model.remove(id);
+                    break;
+                default:
+                    put(row(id));
+            }
+        }
+        assertRanges();
+        assertSorted();
+    }
+
+    public void testStringKeys() throws IOException {
+        table.createIndex("group", IndexType.ORDERED);
+        Set<Integer> expected = new TreeSet<>();
+        for (Record record : model.values()) {
+            String group = (String) record.getData("group");
+            if (group.compareTo("g1") >= 0 && group.compareTo("g2") <= 0) {
+                expected.add(record.getId());
+            }
+        }
+        assertEquals(expected, ids(table.rangeQuery("group", "g1", "g2")));
+        assertEquals(expected, ids(table.rangeQuery("group", "g0a", "g2")));
+    }
+}
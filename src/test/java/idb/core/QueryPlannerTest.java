@@ -0,0 +1,223 @@
+package idb.core;
+
+import idb.TempDirs;
+import idb.model.Record;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 列统计信息的选择率估计接近真实比例；规划器选最便宜的索引、按估计行数从小到大求交、
+ * 不值得时改为全表扫描，未被索引覆盖的条件作为剩余条件检查，查询结果与逐行比较一致。
+ */
+public class QueryPlannerTest extends TestCase {
+    private static final int ROWS = 5000;
+
+    private File dir;
+    private TableImpl table;
+    private final Map<Integer, Record> model = new HashMap<>();
+    private final Random random = new Random(21);
+
+    public QueryPlannerTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(QueryPlannerTest.class);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = TempDirs.create("idb-planner");
+        table = new TableImpl("users", new File(dir, "users.csv").getPath());
+        table.loadFromCSV();
+        for (int id = 1; id <= ROWS; id++) {
+            put(row(id));
+        }
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        table.close();
+        TempDirs.delete(dir);
+    }
+
+    // state 有 50 个值，kind 4 个，country 几乎都是 US，city 不建索引
+    private Record row(int id) {
+        Record record = new Record(id);
+        record.setData("email", "u" + id + "@example.com");
+        record.setData("state", "s" + random.nextInt(50));
+        record.setData("kind", "k" + random.nextInt(4));
+        record.setData("country", random.nextInt(100) == 0 ? "CA" : "US");
+        record.setData("city", "c" + random.nextInt(20));
+        return record;
+    }
+
+    private void put(Record record) throws IOException {
+        table.addRecord(record);
+        model.put(record.getId(), record);
+    }
+
+    private Set<Integer> expected(Map<String, Object> conditions) {
+        Set<Integer> ids = new TreeSet<>();
+        for (Record record : model.values()) {
+            boolean matches = true;
+            for (Map.Entry<String, Object> condition : conditions.entrySet()) {
+                matches &= Objects.equals(condition.getValue(), record.getData(condition.getKey()));
+            }
+            if (matches) {
+                ids.add(record.getId());
+            }
+        }
+        return ids;
+    }
+
+    private static Set<Integer> ids(Iterable<Record> records) {
+        Set<Integer> ids = new TreeSet<>();
+        for (Record record : records) {
+            ids.add(record.getId());
+        }
+        return ids;
+    }
+
+    private void createIndexes() {
+        table.createIndex("email");
+        table.createIndex("state");
+        table.createIndex("kind");
+        table.createIndex("country");
+        table.analyze();
+    }
+
+    public void testEqualitySelectivity() {
+        List<Object> values = new ArrayList<>();
+        int sampleSize = 10_000;
+        for (int i = 0; i < sampleSize; i++) {
+            int bucket = random.nextInt(10);
+            if (bucket == 0) {
+                continue; // null
+            }
+            values.add(bucket <= 3 ? "hot" : "v" + random.nextInt(1000));
+        }
+        ColumnStatistics stats = ColumnStatistics.fromSample("c", values, sampleSize, sampleSize);
+        assertEquals(0.1, stats.getNullFraction(), 0.01);
+        assertEquals(0.1, stats.equalitySelectivity(null), 0.01);
+        assertEquals("hot", stats.getMostCommonValues().get(0));
+        assertEquals(0.3, stats.equalitySelectivity("hot"), 0.015);
+        assertEquals(0.6 / 1000, stats.equalitySelectivity("v17"), 0.6 / 1000);
+        // 整表都在样本中时不同值个数是精确的
+        assertEquals((double) new TreeSet<>(values).size(), stats.getDistinctCount(), 1e-9);
+    }
+
+    public void testDistinctEstimateFromSample() {
+        // 百万行中抽一万行，值都不相同：估计应接近非 null 行数
+        List<Object> values = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            values.add(random.nextInt(Integer.MAX_VALUE));
+        }
+        ColumnStatistics unique = ColumnStatistics.fromSample("id", values, 10_000, 1_000_000);
+        assertTrue(String.valueOf(unique.getDistinctCount()), unique.getDistinctCount() > 900_000);
+
+        // 只有 20 个值：估计不会因为行数多而放大
+        values.clear();
+        for (int i = 0; i < 10_000; i++) {
+            values.add(random.nextInt(20));
+        }
+        ColumnStatistics small = ColumnStatistics.fromSample("k", values, 10_000, 1_000_000);
+        assertEquals(20.0, small.getDistinctCount(), 1e-9);
+        assertEquals(0.05, small.equalitySelectivity(7), 0.01);
+    }
+
+    public void testRangeSelectivityFromHistogram() {
+        List<Object> values = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            values.add(random.nextInt(10_000));
+        }
+        ColumnStatistics stats = ColumnStatistics.fromSample("age", values, values.size(), values.size());
+        assertEquals(0.2, stats.rangeSelectivity(1000, 2999), 0.04);
+        assertEquals(0.5, stats.rangeSelectivity(null, 4999), 0.04);
+        assertEquals(1.0, stats.rangeSelectivity(null, null), 1e-9);
+        assertEquals(0.0, stats.rangeSelectivity(20_000, null), 1e-9);
+        assertEquals(0.0, stats.rangeSelectivity(3000, 1000), 1e-9);
+
+        // 按 id 读一行的代价是顺序扫描的 4 倍（堆外存储）时，只有窄区间值得用索引
+        QueryPlanner planner = new QueryPlanner(values.size(), 4.0, Map.of("age", stats));
+        assertTrue(planner.preferRangeIndex("age", 100, 300));
+        assertFalse(planner.preferRangeIndex("age", null, null));
+        assertFalse(planner.preferRangeIndex("age", 2000, 9000));
+    }
+
+    public void testPlanPicksCheapestPath() {
+        createIndexes();
+        String plan = table.explain(Map.of("email", "u7@example.com", "state", "s1", "kind", "k1"));
+        // 唯一值上的索引最先用，之后候选行已很少，其余条件逐条检查
+        assertTrue(plan, plan.startsWith("index hash:email (~1 rows)"));
+        assertFalse(plan, plan.contains("and "));
+        assertTrue(plan, plan.contains("filter ["));
+
+        plan = table.explain(Map.of("kind", "k2", "state", "s3"));
+        assertTrue(plan, plan.startsWith("index hash:state"));
+        assertTrue(plan, plan.contains("-> and hash:kind"));
+
+        // 几乎每行都匹配的索引不如全表扫描
+        plan = table.explain(Map.of("country", "US"));
+        assertTrue(plan, plan.startsWith("scan"));
+        plan = table.explain(Map.of("country", "US", "state", "s4"));
+        assertTrue(plan, plan.startsWith("index hash:state"));
+        assertTrue(plan, plan.contains("filter [country]"));
+
+        // 没有索引的列成为剩余条件
+        plan = table.explain(Map.of("state", "s5", "city", "c3"));
+        assertTrue(plan, plan.contains("filter [city]"));
+        assertTrue(table.explain(Map.of("city", "c3")).startsWith("scan -> filter [city]"));
+
+        Map<?, ?> columnStatistics = (Map<?, ?>) table.getStats().get("columnStatistics");
+        assertTrue(columnStatistics.keySet().containsAll(List.of("email", "state", "kind", "country", "city")));
+        assertEquals((long) ROWS, ((Number) table.getStats().get("analyzedRows")).longValue());
+    }
+
+    private Map<String, Object> randomConditions() {
+        List<Record> rows = new ArrayList<>(model.values());
+        Record sample = rows.get(random.nextInt(rows.size()));
+        Map<String, Object> conditions = new LinkedHashMap<>();
+        for (String column : new String[]{"email", "state", "kind", "country", "city"}) {
+            if (random.nextInt(3) == 0) {
+                conditions.put(column, random.nextInt(6) == 0 ? "missing" : sample.getData(column));
+            }
+        }
+        return conditions;
+    }
+
+    public void testResultsMatchScan() throws IOException {
+        createIndexes();
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 300; i++) {
+                Map<String, Object> conditions = randomConditions();
+                assertEquals(conditions + " " + table.explain(conditions), expected(conditions), ids(table.query(conditions)));
+            }
+            // 改动一部分记录，统计信息过期后结果仍然正确
+            for (int i = 0; i < 1500; i++) {
+                int id = 1 + random.nextInt(ROWS);
+                if (model.containsKey(id) && i % 5 == 0) {
+                    table.deleteRecord(id);
+                    model.remove(id);
+                } else if (model.containsKey(id)) {
+                    String state = "s" + random.nextInt(5);
+                    table.updateRecord(id, "state", state);
+                    model.get(id).setData("state", state);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package idb.core;
+
+import idb.TempDirs;
+import idb.model.Record;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 游标按 id 顺序分批读取，结果与 query 一致；只读到需要的批次，批次之间不持有读锁，
+ * 遍历期间删除或改得不再满足条件的行被跳过；提前关闭后不再返回记录。
+ */
+public class RecordCursorTest extends TestCase {
+    private static final int ROWS = 2000;
+
+    private File dir;
+    private TableImpl table;
+    private CountingRowStore rowStore;
+    private final Map<Integer, Record> model = new HashMap<>();
+
+    // 记下按 id 读取的次数
+    private static class CountingRowStore extends HeapRowStore {
+        volatile int gets;
+
+        @Override
+        public Record get(int id) {
+            gets++;
+            return super.get(id);
+        }
+    }
+
+    public RecordCursorTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(RecordCursorTest.class);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = TempDirs.create("idb-cursor");
+        table = new TableImpl("users", new File(dir, "users.csv").getPath());
+        rowStore = new CountingRowStore();
+        table.setRowStore(rowStore);
+        table.loadFromCSV();
+        for (int id = 1; id <= ROWS; id++) {
+            Record record = new Record(id);
+            record.setData("city", "c" + id % 4);
+            record.setData("name", "n" + id);
+            table.addRecord(record);
+            model.put(id, record);
+        }
+        table.analyze(); // 统计信息已是最新，后台不会再抽样读行，读取次数只来自游标
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        if (table != null) {
+            table.close();
+        }
+        TempDirs.delete(dir);
+    }
+
+    private List<Integer> expected(String city) {
+        List<Integer> ids = new ArrayList<>();
+        for (int id = 1; id <= ROWS; id++) {
+            Record record = model.get(id);
+            if (record != null && (city == null || city.equals(record.getData("city")))) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    private static List<Integer> drain(RecordCursor cursor) {
+        List<Integer> ids = new ArrayList<>();
+        try (RecordCursor c = cursor) {
+            while (c.hasNext()) {
+                ids.add(c.next().getId());
+            }
+        }
+        return ids;
+    }
+
+    private static Map<String, Object> city(String city) {
+        return Collections.singletonMap("city", city);
+    }
+
+    public void testCursorMatchesQueryInIdOrder() {
+        for (int round = 0; round < 2; round++) {
+            assertEquals(expected(null), drain(table.openCursor(Collections.emptyMap())));
+            assertEquals(expected("c1"), drain(table.openCursor(city("c1"))));
+            assertTrue(drain(table.openCursor(city("missing"))).isEmpty());
+            assertEquals(expected("c2"), table.stream(city("c2")).map(Record::getId).collect(Collectors.toList()));
+            // 第二轮走索引
+            table.createIndex("city");
+        }
+        // 交出去的记录是副本，改动它不影响表
+        try (RecordCursor cursor = table.openCursor(city("c3"))) {
+            cursor.next().setData("city", "changed");
+        }
+        assertEquals(expected("c3"), drain(table.openCursor(city("c3"))));
+    }
+
+    public void testReadsOnlyTheBatchesItNeeds() {
+        int gets = rowStore.gets;
+        RecordCursor cursor = table.openCursor(Collections.emptyMap());
+        assertEquals(gets, rowStore.gets);
+        assertEquals(1, cursor.next().getId());
+        assertEquals(RecordCursor.BATCH_SIZE, rowStore.gets - gets);
+        for (int i = 1; i < RecordCursor.BATCH_SIZE + 1; i++) {
+            cursor.next();
+        }
+        assertEquals(2 * RecordCursor.BATCH_SIZE, rowStore.gets - gets);
+        cursor.close();
+
+        gets = rowStore.gets;
+        AtomicBoolean closed = new AtomicBoolean();
+        try (Stream<Record> stream = table.stream(Collections.emptyMap()).onClose(() -> closed.set(true))) {
+            assertEquals(List.of(1, 2, 3, 4, 5), stream.limit(5).map(Record::getId).collect(Collectors.toList()));
+        }
+        assertTrue(closed.get());
+        assertEquals(RecordCursor.BATCH_SIZE, rowStore.gets - gets);
+    }
+
+    public void testWritersNotBlockedBetweenBatches() throws Exception {
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        try (RecordCursor cursor = table.openCursor(city("c0"))) {
+            List<Integer> seen = new ArrayList<>();
+            seen.add(cursor.next().getId());
+            // 游标停在两批之间，另一个线程的写入应当立即完成
+            Future<?> write = writer.submit(() -> {
+                for (int id = 1; id <= ROWS; id++) {
+                    if (id % 4 == 0 && id > 2 * RecordCursor.BATCH_SIZE) {
+                        if (id % 3 == 0) {
+                            table.deleteRecord(id);
+                            model.remove(id);
+                        } else if (id % 3 == 1) {
+                            table.updateRecord(id, "city", "c1");
+                            model.get(id).setData("city", "c1");
+                        } else {
+                            table.updateRecord(id, "name", "renamed");
+                            model.get(id).setData("name", "renamed");
+                        }
+                    }
+                }
+                return null;
+            });
+            write.get(10, TimeUnit.SECONDS);
+            Map<Integer, Object> names = new HashMap<>();
+            while (cursor.hasNext()) {
+                Record record = cursor.next();
+                seen.add(record.getId());
+                names.put(record.getId(), record.getData("name"));
+            }
+            // 快照之后删除和改到别的城市的行不再返回，改了名字的行返回新值
+            assertEquals(expected("c0"), seen);
+            for (Map.Entry<Integer, Object> entry : names.entrySet()) {
+                assertTrue(Objects.equals(model.get(entry.getKey()).getData("name"), entry.getValue()));
+            }
+        } finally {
+            writer.shutdown();
+        }
+    }
+
+    public void testClosedCursorReturnsNothing() {
+        RecordCursor cursor = table.openCursor(Collections.emptyMap());
+        RecordCursor names = cursor.map(record -> {
+            Record projected = new Record(record.getId());
+            projected.setData("name", record.getData("name"));
+            return projected;
+        });
+        Record first = names.next();
+        assertEquals(Collections.singletonMap("name", "n1"), first.getData());
+        names.close();
+        assertFalse(cursor.hasNext());
+        assertFalse(names.hasNext());
+        try {
+            cursor.next();
+            fail("expected NoSuchElementException");
+        } catch (NoSuchElementException expected) {
+        }
+        cursor.close();
+
+        RecordCursor empty = RecordCursor.empty();
+        assertFalse(empty.hasNext());
+        try {
+            empty.next();
+            fail("expected NoSuchElementException");
+        } catch (NoSuchElementException expected) {
+        }
+    }
+
+    public void testSqlCursorStreamsEqualitySelect() throws Exception {
+        Database db = new Database();
+        db.setTables(Map.of("users", table));
+        try {
+            SQLQueryHandler handler = new SQLQueryHandler(db);
+            int gets = rowStore.gets;
+            try (RecordCursor cursor = handler.openQuery("SELECT name FROM users WHERE city = 'c1'")) {
+                Record first = cursor.next();
+                assertEquals(1, first.getId());
+                assertEquals(Collections.singletonMap("name", "n1"), first.getData());
+                assertEquals(RecordCursor.BATCH_SIZE, rowStore.gets - gets);
+            }
+            assertEquals(expected("c1"), drain(handler.openQuery("SELECT * FROM users WHERE city = 'c1'")));
+            // ORDER BY 退回到先算出完整结果
+            List<Integer> sorted = drain(handler.openQuery("SELECT * FROM users WHERE city = 'c2' ORDER BY name LIMIT 3"));
+            assertEquals(3, sorted.size());
+        } finally {
+            db.close();
+            table = null;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package idb.core;
+
+import idb.TempDirs;
+import idb.model.Record;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 单个值的类型推断、列类型的扩展，以及首次加载 CSV 时按推断结果转换并写回记录。
+ */
+public class SchemaInferenceTest extends TestCase {
+    private File dir;
+    private TableImpl table;
+
+    public SchemaInferenceTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(SchemaInferenceTest.class);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = TempDirs.create("idb-schema");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        if (table != null) {
+            table.close();
+        }
+        TempDirs.delete(dir);
+    }
+
+    public void testInferNumbersAndBooleans() {
+        assertEquals(ColumnType.INT, ColumnType.infer("42"));
+        assertEquals(ColumnType.INT, ColumnType.infer("-7"));
+        assertEquals(ColumnType.INT, ColumnType.infer("0"));
+        assertEquals(ColumnType.LONG, ColumnType.infer("4294967296"));
+        assertEquals(ColumnType.DOUBLE, ColumnType.infer("3.14"));
+        assertEquals(ColumnType.DOUBLE, ColumnType.infer("0.5"));
+        assertEquals(ColumnType.DOUBLE, ColumnType.infer("1e3"));
+        assertEquals(ColumnType.BOOLEAN, ColumnType.infer("TRUE"));
+        assertEquals(ColumnType.INT, ColumnType.infer(5));
+        assertEquals(ColumnType.LONG, ColumnType.infer(5L));
+        assertEquals(ColumnType.DOUBLE, ColumnType.infer(2.5));
+        // 超出 long 的整数、NaN 和十六进制都按字符串处理
+        assertEquals(ColumnType.STRING, ColumnType.infer("99999999999999999999"));
+        assertEquals(ColumnType.STRING, ColumnType.infer("NaN"));
+        assertEquals(ColumnType.STRING, ColumnType.infer("0x1F"));
+        assertEquals(ColumnType.STRING, ColumnType.infer(" 42"));
+        assertEquals(ColumnType.STRING, ColumnType.infer(""));
+    }
+
+    public void testLeadingZerosStayStrings() {
+        assertEquals(ColumnType.STRING, ColumnType.infer("007"));
+        assertEquals(ColumnType.STRING, ColumnType.infer("-01"));
+        assertEquals(ColumnType.STRING, ColumnType.infer("0123456789"));
+        assertEquals(ColumnType.STRING, ColumnType.infer("00.5"));
+    }
+
+    public void testInferTimestamps() {
+        assertEquals(ColumnType.TIMESTAMP, ColumnType.infer("2024-03-01"));
+        assertEquals(ColumnType.TIMESTAMP, ColumnType.infer("2024-03-01 12:30:00"));
+        assertEquals(ColumnType.TIMESTAMP, ColumnType.infer("2024-03-01T12:30:00"));
+        assertEquals(ColumnType.TIMESTAMP, ColumnType.infer("2024-03-01T12:30:00+08:00"));
+        assertEquals(ColumnType.TIMESTAMP, ColumnType.infer(new Date()));
+        // 太短或不能解析的不当作时间
+        assertEquals(ColumnType.STRING, ColumnType.infer("2024-03"));
+        assertEquals(ColumnType.STRING, ColumnType.infer("2024-13-45"));
+        assertEquals(ColumnType.STRING, ColumnType.infer("12 Monkeys and more"));
+        assertEquals(Timestamp.valueOf("2024-03-01 00:00:00"), ColumnType.TIMESTAMP.coerce("2024-03-01"));
+    }
+
+    public void testWiden() {
+        assertEquals(ColumnType.LONG, ColumnType.INT.widen(ColumnType.LONG));
+        assertEquals(ColumnType.DOUBLE, ColumnType.LONG.widen(ColumnType.DOUBLE));
+        assertEquals(ColumnType.DOUBLE, ColumnType.DOUBLE.widen(ColumnType.INT));
+        assertEquals(ColumnType.INT, ColumnType.INT.widen(null));
+        assertEquals(ColumnType.STRING, ColumnType.INT.widen(ColumnType.BOOLEAN));
+        assertEquals(ColumnType.STRING, ColumnType.TIMESTAMP.widen(ColumnType.INT));
+    }
+
+    public void testSchemaInferWidensAcrossRecords() {
+        Schema schema = Schema.infer(List.of(row(1, "1", "01", "true"), row(2, "2.5", "12", "false"),
+                row(3, null, "13", "yes")));
+        assertEquals(ColumnType.DOUBLE, schema.getType("a"));
+        assertEquals(ColumnType.STRING, schema.getType("b"));
+        assertEquals(ColumnType.STRING, schema.getType("c"));
+        assertEquals(Schema.parse(schema.toString()).getColumns(), schema.getColumns());
+    }
+
+    private static Record row(int id, Object a, Object b, Object c) {
+        Record record = new Record(id);
+        record.setData("a", a);
+        record.setData("b", b);
+        record.setData("c", c);
+        return record;
+    }
+
+    public void testFirstLoadCoercesPagedRows() throws IOException {
+        File csv = new File(dir, "users.csv");
+        StringBuilder text = new StringBuilder("id,age,zip,joined,score\n");
+        for (int id = 1; id <= 500; id++) {
+            text.append(id).append(',').append(20 + id % 40).append(",0").append(1000 + id)
+                    .append(",2024-01-").append(String.format("%02d", 1 + id % 28))
+                    .append(',').append(id % 2 == 0 ? "1" : "1.5").append('\n');
+        }
+        Files.write(csv.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+
+        table = open(csv);
+        Schema schema = table.getSchema();
+        assertEquals(ColumnType.INT, schema.getType("age"));
+        assertEquals(ColumnType.STRING, schema.getType("zip"));
+        assertEquals(ColumnType.TIMESTAMP, schema.getType("joined"));
+        assertEquals(ColumnType.DOUBLE, schema.getType("score"));
+        assertTrue(new File(csv.getPath() + ".schema").exists());
+        assertTypedRows();
+        assertEquals(13, table.query(Collections.singletonMap("age", 30)).size());
+
+        // 重新打开沿用保存的类型定义
+        table.close();
+        table = open(csv);
+        assertEquals(schema.getColumns(), table.getSchema().getColumns());
+        assertTypedRows();
+    }
+
+    private TableImpl open(File csv) throws IOException {
+        TableImpl opened = new TableImpl("users", csv.getPath());
+        opened.setRowStore(new PagedRowStore(new File(dir, "users.pages").getPath(), 4096, 4));
+        opened.loadFromCSV();
+        return opened;
+    }
+
+    private void assertTypedRows() {
+        assertEquals(500, table.getRowStore().size());
+        for (Record record : table.getRowStore().values()) {
+            assertTrue(record.getData("age") instanceof Integer);
+            assertEquals("0" + (1000 + record.getId()), record.getData("zip"));
+            assertTrue(record.getData("joined") instanceof Timestamp);
+            assertTrue(record.getData("score") instanceof Double);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package idb.core;
+
+import idb.TempDirs;
+import idb.model.Record;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 二进制段文件写出再读回：保持写入顺序和值的类型，缺失的列读回为空，不是段文件时报错。
+ */
+public class SegmentStorageFormatTest extends TestCase {
+    private File dir;
+    private File file;
+    private final SegmentStorageFormat format = new SegmentStorageFormat();
+
+    public SegmentStorageFormatTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(SegmentStorageFormatTest.class);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = TempDirs.create("idb-segment");
+        file = new File(dir, "users.seg");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        TempDirs.delete(dir);
+    }
+
+    private List<Record> read() throws IOException {
+        List<Record> records = new ArrayList<>();
+        format.read(file, records::add);
+        return records;
+    }
+
+    public void testRoundTrip() throws IOException {
+        List<Record> written = new ArrayList<>();
+        for (int id = 1; id <= 1000; id++) {
+            Record record = new Record(id * 3);
+            record.setData("name", "user-" + id);
+            record.setData("age", id % 90);
+            record.setData("balance", (long) id << 33);
+            record.setData("active", id % 2 == 0);
+            if (id % 5 == 0) {
+                record.setData("joined", new Timestamp(1_700_000_000_000L + id));
+            }
+            written.add(record);
+        }
+        Record nested = new Record(5000);
+        nested.setData("tags", Arrays.asList("a", "b"));
+        nested.setData("address", Map.of("city", "Paris"));
+        written.add(nested);
+        format.write(file, written);
+
+        List<Record> records = read();
+        assertEquals(written.size(), records.size());
+        for (int i = 0; i < written.size(); i++) {
+            assertEquals(written.get(i).getId(), records.get(i).getId());
+            assertEquals(written.get(i).getData(), records.get(i).getData());
+        }
+    }
+
+    public void testEmptyFile() throws IOException {
+        format.write(file, new ArrayList<>());
+        assertTrue(read().isEmpty());
+    }
+
+    public void testRejectsOtherFiles() throws IOException {
+        Files.write(file.toPath(), "id,name\n1,a\n2,b\n3,c\n4,d\n5,e\n".getBytes());
+        try {
+            read();
+            fail("expected IOException");
+        } catch (IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package idb.core;
+
+import idb.TempDirs;
+import idb.model.Record;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 更新和覆盖记录之后，各类索引不能留下按旧值登记的条目。
+ */
+public class TableIndexMaintenanceTest extends TestCase {
+    private File dir;
+    private Database db;
+    private Table table;
+
+    public TableIndexMaintenanceTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(TableIndexMaintenanceTest.class);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = TempDirs.create("idb-index");
+        db = new Database();
+        db.createTable("users", new File(dir, "users.csv").getPath());
+        table = db.getTable("users");
+        table.addRecord(user(1, "A", "likes tea"));
+        table.addRecord(user(2, "A", "likes coffee"));
+        table.addRecord(user(3, "A", "likes tea"));
+        table.createIndex("city");
+        table.createIndex("city", "note");
+        table.createIndex("note", IndexType.FULLTEXT);
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        db.close();
+        TempDirs.delete(dir);
+    }
+
+    private static Record user(int id, String city, String note) {
+        Record record = new Record(id);
+        record.setData("city", city);
+        record.setData("note", note);
+        return record;
+    }
+
+    private long count(String city) {
+        List<Record> rows = table.aggregate(Collections.singletonMap("city", city), Collections.emptyList(), Aggregate.count());
+        return (Long) rows.get(0).getData("count(*)");
+    }
+
+    private void assertIndexedAsB(int id) {
+        Set<Record> inA = table.query(Collections.singletonMap("city", "A"));
+        for (Record record : inA) {
+            assertEquals("A", record.getData("city"));
+        }
+        assertEquals(2, inA.size());
+        assertEquals(2, count("A"));
+        assertEquals(1, count("B"));
+        assertEquals(id, table.query(Collections.singletonMap("city", "B")).iterator().next().getId());
+        assertEquals(1, table.query(Map.of("city", "B", "note", "likes juice")).size());
+        assertTrue(table.query(Map.of("city", "A", "note", "likes juice")).isEmpty());
+        assertEquals(1, table.search("note", "juice").size());
+    }
+
+    public void testInPlaceUpdateReplacesIndexEntries() throws IOException {
+        Record record = table.getRecord(2);
+        record.setData("city", "B");
+        record.setData("note", "likes juice");
+        table.updateRecord(record);
+        assertIndexedAsB(2);
+        assertTrue(table.search("note", "coffee").isEmpty());
+    }
+
+    public void testModifiedQueryResultUpdateReplacesIndexEntries() throws IOException {
+        Record record = table.query(Collections.singletonMap("city", "A")).iterator().next();
+        int id = record.getId();
+        record.setData("city", "B");
+        record.setData("note", "likes juice");
+        table.updateRecord(record);
+        assertIndexedAsB(id);
+    }
+
+    public void testAddExistingIdReplacesIndexEntries() throws IOException {
+        table.addRecord(user(2, "B", "likes juice"));
+        assertEquals(3, table.query(Collections.<String, Object>emptyMap()).size());
+        assertIndexedAsB(2);
+        assertTrue(table.search("note", "coffee").isEmpty());
+    }
+
+    public void testCallerKeepsOwnRecord() throws IOException {
+        Record record = user(4, "C", "likes milk");
+        table.addRecord(record);
+        record.setData("city", "D");
+        assertEquals("C", table.getRecord(4).getData("city"));
+        assertEquals(1, count("C"));
+        table.getRecord(4).setData("city", "E");
+        assertEquals("C", table.getRecord(4).getData("city"));
+    }
+
+    public void testQueryResultsAreCopies() {
+        table.createIndex("note", IndexType.ORDERED);
+        List<Collection<Record>> results = new ArrayList<>();
+        results.add(table.query(Collections.singletonMap("city", "A")));
+        results.add(table.query(Collections.singletonMap("note", "likes tea")));
+        results.add(table.queryRecords("city", "A").values());
+        results.add(table.search("note", "tea"));
+        results.add(table.rangeQuery("city", "A", "A"));
+        results.add(table.rangeQuery("note", "likes a", "likes z"));
+        results.add(table.sortedQuery(Collections.emptyMap(), "note", true, 2));
+        results.add(table.sortedQuery(Collections.emptyMap(), "city", true, 2));
+        try (RecordCursor cursor = table.openCursor(Collections.singletonMap("city", "A"))) {
+            List<Record> streamed = new ArrayList<>();
+            while (cursor.hasNext()) {
+                streamed.add(cursor.next());
+            }
+            results.add(streamed);
+        }
+        for (Collection<Record> result : results) {
+            assertFalse(result.isEmpty());
+            for (Record record : result) {
+                record.setData("city", "Z");
+            }
+        }
+        assertEquals(3, count("A"));
+        assertTrue(table.query(Collections.singletonMap("city", "Z")).isEmpty());
+        for (int id = 1; id <= 3; id++) {
+            assertEquals("A", table.getRecord(id).getData("city"));
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package idb.core;
+
+import idb.TempDirs;
+import idb.model.Record;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 排序取前 k 行与完整排序的前 k 行一致；键集分页逐页取完时不重不漏，
+ * 翻页期间插入、删除行或修改还没返回的行，不会让行重复或被跳过。
+ * 分别覆盖并行扫描加堆、候选行加堆、沿有序索引读三种路径。
+ */
+public class TopKQueryTest extends TestCase {
+    private static final int ROWS = 3000;
+
+    private File dir;
+    private ForkJoinPool pool;
+    private TableImpl table;
+    private final Map<Integer, Record> model = new HashMap<>();
+    private final Random random = new Random(23);
+    private int nextId = ROWS + 1;
+
+    public TopKQueryTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(TopKQueryTest.class);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = TempDirs.create("idb-topk");
+        pool = new ForkJoinPool(4);
+        table = new TableImpl("t", new File(dir, "t.csv").getPath());
+        // 阈值调低，扫描走分区并行和局部堆合并
+        table.setParallelScan(new ParallelScan(pool, 500, 128));
+        table.loadFromCSV();
+        for (int id = 1; id <= ROWS; id++) {
+            put(row(id));
+        }
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        table.close();
+        pool.shutdown();
+        TempDirs.delete(dir);
+    }
+
+    private Record row(int id) {
+        Record record = new Record(id);
+        if (random.nextInt(20) != 0) {
+            record.setData("score", random.nextInt(200));
+        }
+        record.setData("group", "g" + random.nextInt(4));
+        return record;
+    }
+
+    private void put(Record record) throws IOException {
+        table.addRecord(record);
+        model.put(record.getId(), record);
+    }
+
+    // 三种执行路径：全表扫描、条件列索引给出候选行、排序列上的有序索引
+    private void usePath(int path) {
+        if (path >= 1) {
+            table.createIndex("group");
+        }
+        if (path >= 2) {
+            table.createIndex("score", IndexType.ORDERED);
+        }
+    }
+
+    // score 排序，null 在最后，相同值按 id 递增
+    private static Comparator<Record> order(boolean ascending) {
+        Comparator<Integer> byScore = ascending ? Comparator.naturalOrder() : Comparator.reverseOrder();
+        return Comparator.comparing((Record record) -> (Integer) record.getData("score"), Comparator.nullsLast(byScore))
+                .thenComparingInt(Record::getId);
+    }
+
+    private List<Integer> expected(String group, boolean ascending) {
+        List<Record> rows = new ArrayList<>();
+        for (Record record : model.values()) {
+            if (group == null || group.equals(record.getData("group"))) {
+                rows.add(record);
+            }
+        }
+        rows.sort(order(ascending));
+        return idList(rows);
+    }
+
+    private static List<Integer> idList(List<Record> records) {
+        List<Integer> ids = new ArrayList<>();
+        for (Record record : records) {
+            ids.add(record.getId());
+        }
+        return ids;
+    }
+
+    private static Map<String, Object> conditions(String group) {
+        return group == null ? Collections.emptyMap() : Collections.singletonMap("group", group);
+    }
+
+    private static <T> List<T> prefix(List<T> list, int limit) {
+        return list.subList(0, Math.min(limit, list.size()));
+    }
+
+    public void testTopKMatchesFullSort() {
+        List<Integer> values = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            values.add(random.nextInt(1000));
+        }
+        List<Integer> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        for (int k : new int[]{0, 1, 5, 100, 5000, 6000}) {
+            TopK<Integer> top = new TopK<>(k, Comparator.naturalOrder());
+            TopK<Integer> left = new TopK<>(k, Comparator.naturalOrder());
+            TopK<Integer> right = new TopK<>(k, Comparator.naturalOrder());
+            for (int i = 0; i < values.size(); i++) {
+                top.offer(values.get(i));
+                (i % 3 == 0 ? left : right).offer(values.get(i));
+            }
+            assertEquals(prefix(sorted, k), top.toList());
+            assertEquals(prefix(sorted, k), left.merge(right).toList());
+        }
+        try {
+            new TopK<Integer>(-1, Comparator.naturalOrder());
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testSortedQueryOnEveryPath() {
+        for (int path = 0; path < 3; path++) {
+            usePath(path);
+            for (String group : new String[]{null, "g1"}) {
+                for (boolean ascending : new boolean[]{true, false}) {
+                    List<Integer> expected = expected(group, ascending);
+                    for (int limit : new int[]{0, 1, 10, 333, Integer.MAX_VALUE}) {
+                        assertEquals("path " + path + " limit " + limit, prefix(expected, limit),
+                                idList(table.sortedQuery(conditions(group), "score", ascending, limit)));
+                    }
+                    assertEquals(expected, idList(table.sortedQuery(conditions(group), "score", ascending)));
+                }
+                // 不指定排序列时按 id
+                List<Integer> byId = new ArrayList<>(expected(group, true));
+                Collections.sort(byId);
+                assertEquals(prefix(byId, 50), idList(table.sortedQuery(conditions(group), null, true, 50)));
+            }
+        }
+        try {
+            table.sortedQuery(Collections.emptyMap(), "score", true, -1);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testPaginatedQueryFollowsIdOrder() {
+        for (int path = 0; path < 2; path++) {
+            usePath(path);
+            List<Integer> byId = new ArrayList<>(expected("g2", true));
+            Collections.sort(byId);
+            List<Integer> seen = new ArrayList<>();
+            for (int page = 1; ; page++) {
+                List<Record> rows = table.paginatedQuery(conditions("g2"), page, 64);
+                if (rows.isEmpty()) {
+                    break;
+                }
+                assertTrue(rows.size() <= 64);
+                seen.addAll(idList(rows));
+            }
+            assertEquals(byId, seen);
+            assertTrue(table.paginatedQuery(conditions("g2"), 0, 64).isEmpty());
+            assertTrue(table.paginatedQuery(conditions("g2"), 1, 0).isEmpty());
+        }
+    }
+
+    private List<Integer> seekAll(String group, boolean ascending, int pageSize) {
+        List<Integer> seen = new ArrayList<>();
+        String cursor = null;
+        do {
+            QueryPage page = table.seekQuery(conditions(group), "score", ascending, pageSize, cursor);
+            assertTrue(page.getRecords().size() <= pageSize);
+            assertTrue(page.hasMore() ? page.getRecords().size() == pageSize : page.getNextCursor() == null);
+            seen.addAll(idList(page.getRecords()));
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        return seen;
+    }
+
+    public void testSeekPagesHaveNoGapsOrDuplicates() {
+        for (int path = 0; path < 3; path++) {
+            usePath(path);
+            for (String group : new String[]{null, "g3"}) {
+                for (boolean ascending : new boolean[]{true, false}) {
+                    for (int pageSize : new int[]{7, 100, ROWS}) {
+                        assertEquals("path " + path + " page " + pageSize,
+                                expected(group, ascending), seekAll(group, ascending, pageSize));
+                    }
+                }
+            }
+        }
+    }
+
+    public void testSeekAcrossConcurrentWrites() throws IOException {
+        for (int path = 0; path < 3; path++) {
+            usePath(path);
+            for (boolean ascending : new boolean[]{true, false}) {
+                Comparator<Record> order = order(ascending);
+                Set<Integer> returned = new HashSet<>();
+                Set<Integer> touched = new HashSet<>();
+                Record last = null;
+                String cursor = null;
+                do {
+                    QueryPage page = table.seekQuery(Collections.emptyMap(), "score", ascending, 50, cursor);
+                    for (Record record : page.getRecords()) {
+                        assertTrue("duplicate " + record.getId(), returned.add(record.getId()));
+                        // 每一行都排在前一页最后一行之后
+                        assertTrue(last == null || order.compare(last, record) < 0);
+                        last = record;
+                    }
+                    cursor = page.getNextCursor();
+
+                    // 翻页之间插入、删除和修改一些行
+                    for (int i = 0; i < 3; i++) {
+                        Record added = row(nextId++);
+                        put(added);
+                        touched.add(added.getId());
+                        List<Integer> ids = new ArrayList<>(model.keySet());
+                        int id = ids.get(random.nextInt(ids.size()));
+                        table.deleteRecord(id);
+                        model.remove(id);
+                        touched.add(id);
+                        // 已返回的行被改到游标之后会再次出现，这里只改还没返回的行
+                        id = ids.get(random.nextInt(ids.size()));
+                        if (model.containsKey(id) && !returned.contains(id)) {
+                            int score = random.nextInt(200);
+                            table.updateRecord(id, "score", score);
+                            model.get(id).setData("score", score);
+                            touched.add(id);
+                        }
+                    }
+                } while (cursor != null);
+
+                // 从头到尾没被改动过的行恰好返回一次
+                for (Integer id : model.keySet()) {
+                    if (!touched.contains(id)) {
+                        assertTrue("missing " + id, returned.contains(id));
+                    }
+                }
+                for (Integer id : returned) {
+                    assertTrue(touched.contains(id) || model.containsKey(id));
+                }
+            }
+        }
+    }
+
+    public void testInvalidCursor() {
+        QueryPage page = table.seekQuery(Collections.emptyMap(), "score", true, 10, null);
+        assertTrue(page.hasMore());
+        String cursor = page.getNextCursor();
+        assertEquals(10, table.seekQuery(Collections.emptyMap(), "score", true, 10, cursor).getRecords().size());
+        assertInvalid(() -> table.seekQuery(Collections.emptyMap(), "score", false, 10, cursor));
+        assertInvalid(() -> table.seekQuery(Collections.emptyMap(), "group", true, 10, cursor));
+        assertInvalid(() -> table.seekQuery(Collections.emptyMap(), "score", true, 10, "not a cursor"));
+        assertInvalid(() -> table.seekQuery(Collections.emptyMap(), "score", true, 0, null));
+    }
+
+    private static void assertInvalid(Runnable query) {
+        try {
+            query.run();
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
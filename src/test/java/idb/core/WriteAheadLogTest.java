@@ -0,0 +1,130 @@
+package idb.core;
+
+import idb.TempDirs;
+import idb.model.Record;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 崩溃时写了一半的日志尾部：重放到最后一条完整的日志为止，截掉残缺部分后可以继续追加。
+ */
+public class WriteAheadLogTest extends TestCase {
+    private File dir;
+    private File file;
+
+    public WriteAheadLogTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(WriteAheadLogTest.class);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = TempDirs.create("idb-wal");
+        file = new File(dir, "table.csv.wal");
+    }
+
+    @Override
+    protected void tearDown() {
+        TempDirs.delete(dir);
+    }
+
+    private static Record record(int id, String name) {
+        Record record = new Record(id);
+        record.setData("name", name);
+        return record;
+    }
+
+    // 写入 insert 1、update 1、delete 2 三条日志，返回每条结束时的文件长度
+    private long[] writeThreeEntries() throws IOException {
+        long[] ends = new long[3];
+        try (WriteAheadLog wal = new WriteAheadLog(file.getPath())) {
+            wal.append(WriteAheadLog.OP_INSERT, 1, record(1, "a"), Durability.SYNC);
+            ends[0] = wal.size();
+            wal.append(WriteAheadLog.OP_UPDATE, 1, record(1, "b"), Durability.SYNC);
+            ends[1] = wal.size();
+            wal.append(WriteAheadLog.OP_DELETE, 2, null, Durability.SYNC);
+            ends[2] = wal.size();
+        }
+        return ends;
+    }
+
+    private static List<String> replay(WriteAheadLog wal) throws IOException {
+        List<String> applied = new ArrayList<>();
+        wal.replay((op, id, record) -> applied.add(op + ":" + id + ":" + (record != null ? record.getData("name") : null)));
+        return applied;
+    }
+
+    private void truncateFile(long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+    }
+
+    public void testReplayCompleteLog() throws IOException {
+        long[] ends = writeThreeEntries();
+        try (WriteAheadLog wal = new WriteAheadLog(file.getPath())) {
+            assertEquals(List.of("1:1:a", "2:1:b", "3:2:null"), replay(wal));
+            assertEquals(ends[2], file.length());
+        }
+    }
+
+    public void testMissingFileReplaysNothing() throws IOException {
+        try (WriteAheadLog wal = new WriteAheadLog(file.getPath())) {
+            assertTrue(replay(wal).isEmpty());
+        }
+        assertFalse(file.exists());
+    }
+
+    public void testTornTailAtEveryOffset() throws IOException {
+        long[] ends = writeThreeEntries();
+        byte[] complete = Files.readAllBytes(file.toPath());
+        // 从最后一条日志的长度字段中间一直截到它的校验和中间
+        for (long cut = ends[1] + 1; cut < ends[2]; cut++) {
+            Files.write(file.toPath(), complete);
+            truncateFile(cut);
+            try (WriteAheadLog wal = new WriteAheadLog(file.getPath())) {
+                assertEquals("cut at " + cut, List.of("1:1:a", "2:1:b"), replay(wal));
+            }
+            assertEquals("cut at " + cut, ends[1], file.length());
+        }
+    }
+
+    public void testCorruptEntryStopsReplay() throws IOException {
+        long[] ends = writeThreeEntries();
+        // 改动第二条日志中的一个字节，校验和不再匹配，它和之后的日志都不应用
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long offset = ends[1] - 6;
+            raf.seek(offset);
+            int b = raf.read();
+            raf.seek(offset);
+            raf.write(b ^ 0xff);
+        }
+        try (WriteAheadLog wal = new WriteAheadLog(file.getPath())) {
+            assertEquals(List.of("1:1:a"), replay(wal));
+        }
+        assertEquals(ends[0], file.length());
+    }
+
+    public void testAppendAfterTornTail() throws IOException {
+        long[] ends = writeThreeEntries();
+        truncateFile(ends[2] - 3);
+        try (WriteAheadLog wal = new WriteAheadLog(file.getPath())) {
+            assertEquals(2, replay(wal).size());
+            wal.append(WriteAheadLog.OP_INSERT, 3, record(3, "c"), Durability.SYNC);
+        }
+        try (WriteAheadLog wal = new WriteAheadLog(file.getPath())) {
+            assertEquals(List.of("1:1:a", "2:1:b", "1:3:c"), replay(wal));
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package idb.nosql;
+
+import idb.TempDirs;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 合并只保留每个键最新的值；崩溃后重新打开时截掉写了一半的条目，
+ * 合并替换到一半时以合并文件为准。
+ */
+public class BitcaskTest extends TestCase {
+    // 小文件让写入分散到多个数据文件
+    private static final long MAX_FILE_SIZE = 256;
+    // 关闭自动合并，由测试显式调用 merge
+    private static final long NO_AUTO_MERGE = Long.MAX_VALUE;
+
+    private File dir;
+    private final List<Bitcask> opened = new ArrayList<>();
+
+    public BitcaskTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(BitcaskTest.class);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = TempDirs.create("idb-bitcask");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        for (Bitcask bitcask : opened) {
+            bitcask.close();
+        }
+        TempDirs.delete(dir);
+    }
+
+    private Bitcask open() throws IOException {
+        Bitcask bitcask = new Bitcask(dir, MAX_FILE_SIZE, NO_AUTO_MERGE);
+        bitcask.open();
+        opened.add(bitcask);
+        return bitcask;
+    }
+
+    private File[] dataFiles() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".data"));
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static long stat(Bitcask bitcask, String name) {
+        return ((Number) bitcask.getStats().get(name)).longValue();
+    }
+
+    // 每个键写三遍，再删掉一部分，返回期望的内容
+    private static Map<String, String> writeWithOverwrites(Bitcask bitcask) throws IOException {
+        Map<String, String> expected = new HashMap<>();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 20; i++) {
+                bitcask.put("key" + i, "value" + i + "-" + round);
+                expected.put("key" + i, "value" + i + "-" + round);
+            }
+        }
+        for (int i = 0; i < 20; i += 3) {
+            bitcask.delete("key" + i);
+            expected.remove("key" + i);
+        }
+        return expected;
+    }
+
+    private static void assertContents(Map<String, String> expected, Bitcask bitcask) throws IOException {
+        assertEquals(expected.size(), bitcask.size());
+        assertEquals(expected.keySet(), bitcask.keys());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(expected.get("key" + i), bitcask.get("key" + i));
+        }
+    }
+
+    public void testMergeKeepsLatestValues() throws IOException {
+        Bitcask bitcask = open();
+        Map<String, String> expected = writeWithOverwrites(bitcask);
+        assertTrue(dataFiles().length > 3);
+        long staleBefore = stat(bitcask, "staleBytes");
+        assertTrue(staleBefore > 0);
+
+        bitcask.merge();
+        assertEquals(1, stat(bitcask, "merges"));
+        // 一个合并文件加上合并前换出的空活动文件
+        assertEquals(2, dataFiles().length);
+        assertEquals(0, stat(bitcask, "staleBytes"));
+        assertContents(expected, bitcask);
+
+        bitcask.put("key1", "after-merge");
+        expected.put("key1", "after-merge");
+        bitcask.close();
+        assertContents(expected, open());
+    }
+
+    public void testReopenDiscardsTornTail() throws IOException {
+        Bitcask bitcask = open();
+        Map<String, String> expected = writeWithOverwrites(bitcask);
+        bitcask.put("last", "complete");
+        expected.put("last", "complete");
+        bitcask.sync();
+        // 模拟崩溃：不关闭，活动文件没有 hint，末尾只写了一条条目的前几个字节
+        File[] files = dataFiles();
+        File active = files[files.length - 1];
+        long completeLength = active.length();
+        try (FileOutputStream out = new FileOutputStream(active, true)) {
+            out.write(new byte[]{1, 2, 3, 4, 0, 0, 0, 4, 0});
+        }
+
+        Bitcask recovered = open();
+        assertEquals(completeLength, active.length());
+        assertEquals("complete", recovered.get("last"));
+        expected.remove("last");
+        for (int i = 0; i < 20; i++) {
+            assertEquals(expected.get("key" + i), recovered.get("key" + i));
+        }
+        recovered.put("next", "written after recovery");
+        recovered.close();
+
+        Bitcask reopened = open();
+        assertEquals("complete", reopened.get("last"));
+        assertEquals("written after recovery", reopened.get("next"));
+        assertEquals(expected.size() + 2, reopened.size());
+    }
+
+    public void testReopenAfterInterruptedMerge() throws IOException {
+        Bitcask bitcask = open();
+        Map<String, String> expected = writeWithOverwrites(bitcask);
+        bitcask.sync();
+        // 合并前的文件留一份，合并之后放回去，相当于合并替换文件后、删除旧文件前崩溃
+        File backup = TempDirs.create("idb-bitcask-backup");
+        try {
+            for (File file : dir.listFiles()) {
+                Files.copy(file.toPath(), new File(backup, file.getName()).toPath());
+            }
+            bitcask.merge();
+            bitcask.close();
+            File merged = dataFiles()[0];
+            for (File file : backup.listFiles()) {
+                if (file.getName().compareTo(merged.getName()) < 0) {
+                    Files.copy(file.toPath(), new File(dir, file.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            assertTrue(dataFiles().length > 2);
+            // 合并写到一半留下的临时文件
+            Files.write(new File(dir, merged.getName() + ".merge.tmp").toPath(), new byte[]{1, 2, 3});
+        } finally {
+            TempDirs.delete(backup);
+        }
+
+        Bitcask recovered = open();
+        assertEquals(2, dataFiles().length);
+        assertEquals(0, dir.listFiles((d, name) -> name.endsWith(".tmp")).length);
+        // 旧文件中被删除和被覆盖的值不能复活
+        assertContents(expected, recovered);
+    }
+}
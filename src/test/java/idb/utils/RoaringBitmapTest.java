@@ -0,0 +1,187 @@
+package idb.utils;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * 各种容器（稀疏数组、稠密位图、游程编码）下的集合运算和序列化，结果与 TreeSet 对照。
+ */
+public class RoaringBitmapTest extends TestCase {
+    public RoaringBitmapTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(RoaringBitmapTest.class);
+    }
+
+    // 按无符号顺序排列，与位图的遍历顺序一致
+    private static TreeSet<Integer> unsignedSet() {
+        return new TreeSet<>(Integer::compareUnsigned);
+    }
+
+    // 在若干个桶里生成数据：稀疏、稠密和连续区间各占一部分
+    private static TreeSet<Integer> randomValues(Random random) {
+        TreeSet<Integer> values = unsignedSet();
+        for (int i = 0; i < 1000; i++) {
+            values.add(random.nextInt(1 << 20));
+        }
+        int denseBase = 5 << 16;
+        for (int i = 0; i < 20000; i++) {
+            values.add(denseBase + random.nextInt(1 << 16));
+        }
+        int runStart = (7 << 16) + random.nextInt(1000);
+        for (int i = 0; i < 30000; i++) {
+            values.add(runStart + i);
+        }
+        values.add(-1);
+        values.add(Integer.MIN_VALUE);
+        return values;
+    }
+
+    private static RoaringBitmap bitmapOf(TreeSet<Integer> values) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        for (int value : values) {
+            bitmap.add(value);
+        }
+        return bitmap;
+    }
+
+    private static void assertSameContents(TreeSet<Integer> expected, RoaringBitmap actual) {
+        assertEquals(expected.size(), actual.getCardinality());
+        int[] array = actual.toArray();
+        int i = 0;
+        for (int value : expected) {
+            assertEquals(value, array[i++]);
+        }
+        for (int value : expected) {
+            assertTrue(actual.contains(value));
+        }
+    }
+
+    public void testAddRemoveContains() {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        assertTrue(bitmap.isEmpty());
+        assertTrue(bitmap.add(3));
+        assertFalse(bitmap.add(3));
+        assertTrue(bitmap.add(70000));
+        assertTrue(bitmap.contains(3));
+        assertFalse(bitmap.contains(4));
+        assertEquals(3, bitmap.first());
+        assertTrue(bitmap.remove(3));
+        assertFalse(bitmap.remove(3));
+        assertEquals(70000, bitmap.first());
+        assertTrue(bitmap.remove(70000));
+        assertTrue(bitmap.isEmpty());
+    }
+
+    public void testDenseContainerShrinksAfterRemoves() {
+        Random random = new Random(1);
+        TreeSet<Integer> expected = randomValues(random);
+        RoaringBitmap bitmap = bitmapOf(expected);
+        for (int i = 0; i < 19000; i++) {
+            int value = (5 << 16) + random.nextInt(1 << 16);
+            assertEquals(expected.remove(value), bitmap.remove(value));
+        }
+        assertSameContents(expected, bitmap);
+    }
+
+    public void testAndOr() {
+        Random random = new Random(2);
+        for (boolean optimize : new boolean[]{false, true}) {
+            TreeSet<Integer> left = randomValues(random);
+            TreeSet<Integer> right = randomValues(random);
+            RoaringBitmap a = bitmapOf(left);
+            RoaringBitmap b = bitmapOf(right);
+            if (optimize) {
+                a.runOptimize();
+                b.runOptimize();
+            }
+            TreeSet<Integer> intersection = unsignedSet();
+            intersection.addAll(left);
+            intersection.retainAll(right);
+            TreeSet<Integer> union = unsignedSet();
+            union.addAll(left);
+            union.addAll(right);
+
+            assertSameContents(intersection, RoaringBitmap.and(a, b));
+            assertSameContents(union, RoaringBitmap.or(a, b));
+
+            RoaringBitmap inPlace = a.copy();
+            inPlace.and(b);
+            assertSameContents(intersection, inPlace);
+            inPlace = a.copy();
+            inPlace.or(b);
+            assertSameContents(union, inPlace);
+            // 原位运算只改动调用它的集合
+            assertSameContents(left, a);
+            assertSameContents(right, b);
+        }
+    }
+
+    public void testRunOptimizeKeepsContents() {
+        TreeSet<Integer> expected = randomValues(new Random(3));
+        RoaringBitmap bitmap = bitmapOf(expected);
+        long before = bitmap.sizeInBytes();
+        bitmap.runOptimize();
+        assertSameContents(expected, bitmap);
+        assertTrue(bitmap.sizeInBytes() < before);
+        assertEquals(bitmapOf(expected), bitmap);
+    }
+
+    public void testIteratorFrom() {
+        TreeSet<Integer> expected = randomValues(new Random(4));
+        RoaringBitmap bitmap = bitmapOf(expected);
+        bitmap.runOptimize();
+        for (int from : new int[]{0, 12345, 5 << 16, (7 << 16) + 500, 1 << 30, -1}) {
+            PrimitiveIterator.OfInt iterator = bitmap.iterator(from);
+            for (int value : expected.tailSet(from, true)) {
+                assertTrue(iterator.hasNext());
+                assertEquals(value, iterator.nextInt());
+            }
+            assertFalse(iterator.hasNext());
+        }
+    }
+
+    public void testSerializeRoundTrip() throws IOException {
+        Random random = new Random(5);
+        for (boolean optimize : new boolean[]{false, true}) {
+            TreeSet<Integer> expected = randomValues(random);
+            RoaringBitmap bitmap = bitmapOf(expected);
+            if (optimize) {
+                bitmap.runOptimize();
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            bitmap.serialize(out);
+            RoaringBitmap.of(1, 2, 3).serialize(out);
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+            RoaringBitmap restored = RoaringBitmap.deserialize(in);
+            assertSameContents(expected, restored);
+            assertEquals(bitmap, restored);
+            assertEquals(bitmap.hashCode(), restored.hashCode());
+            // 紧跟在后面的数据从正确的位置开始读
+            assertEquals(RoaringBitmap.of(1, 2, 3), RoaringBitmap.deserialize(in));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    public void testSerializeEmpty() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new RoaringBitmap().serialize(new DataOutputStream(bytes));
+        RoaringBitmap restored = RoaringBitmap.deserialize(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertTrue(restored.isEmpty());
+    }
+}